@@ -18,7 +18,7 @@ public class Start {
     public static void main(String args[]) throws IOException, URISyntaxException {
         CLIInterface.call(args);
 
-        if (!CONFIG.blocksLoader().equals("")) {
+        if (!CONFIG.blocksLoader().equals("") || !CONFIG.blocksExportDir().equals("")) {
             CONFIG.setSyncEnabled(false);
             CONFIG.setDiscoveryEnabled(false);
         }
@@ -27,6 +27,12 @@ public class Start {
 
         if (!CONFIG.blocksLoader().equals(""))
             ethereum.getBlockLoader().loadBlocks();
+
+        if (!CONFIG.blocksExportDir().equals("")) {
+            ethereum.getBlockExporter().exportBlocks();
+            ethereum.close();
+            System.exit(0);
+        }
     }
 
 }
@@ -3,6 +3,10 @@ package org.ethereum.config;
 import org.ethereum.core.PendingTransaction;
 import org.ethereum.core.Repository;
 import org.ethereum.core.Transaction;
+import org.ethereum.datasource.AsyncWriteDataSource;
+import org.ethereum.datasource.BloomedDataSource;
+import org.ethereum.datasource.GroupCommitWriter;
+import org.ethereum.datasource.InstrumentedDataSource;
 import org.ethereum.datasource.KeyValueDataSource;
 import org.ethereum.datasource.LevelDbDataSource;
 import org.ethereum.datasource.mapdb.MapDBFactory;
@@ -19,6 +23,7 @@ import org.springframework.orm.hibernate4.HibernateTransactionManager;
 import org.springframework.orm.hibernate4.LocalSessionFactoryBuilder;
 import org.springframework.transaction.annotation.EnableTransactionManagement;
 
+import java.io.File;
 import java.util.*;
 
 import static java.util.Arrays.asList;
@@ -42,12 +47,48 @@ public class CommonConfig {
 
     @Bean
     Repository repository() {
-        return new RepositoryImpl(keyValueDataSource(), keyValueDataSource());
+        KeyValueDataSource detailsDS = bloomedDataSource(keyValueDataSource(), RepositoryImpl.DETAILS_DB);
+        KeyValueDataSource stateDS = bloomedDataSource(keyValueDataSource(), RepositoryImpl.STATE_DB);
+
+        // the contract nodes are indexed for the eth/63 peers only
+        return config.isEth63Enabled() ?
+                new RepositoryImpl(detailsDS, stateDS, keyValueDataSource()) :
+                new RepositoryImpl(detailsDS, stateDS);
     }
 
     @Bean
     @Scope("prototype")
     public KeyValueDataSource keyValueDataSource() {
+        KeyValueDataSource ds = createKeyValueDataSource();
+        if (config.databaseMetricsEnabled()) {
+            ds = new InstrumentedDataSource(ds);
+        }
+        if (config.databaseGroupCommitEnabled()) {
+            ds = new AsyncWriteDataSource(ds, groupCommitWriter());
+        }
+        return ds;
+    }
+
+    /**
+     * The marker database is opened on the first commit only
+     * thus the bean is harmless when the group commit is off
+     */
+    @Bean
+    public GroupCommitWriter groupCommitWriter() {
+        KeyValueDataSource markerDs = createKeyValueDataSource();
+        markerDs.setName("commit");
+        return new GroupCommitWriter(markerDs, config.databaseGroupCommitMaxPendingSize());
+    }
+
+    /**
+     * Puts a bloom filter in front of the data source when 'bloomFilterBits'
+     * is set in the database profile
+     */
+    public KeyValueDataSource bloomedDataSource(KeyValueDataSource ds, String dbName) {
+        return BloomedDataSource.forProfile(ds, config.levelDbProfile(dbName), config);
+    }
+
+    private KeyValueDataSource createKeyValueDataSource() {
         String dataSource = config.getKeyValueDataSource();
         try {
             if ("redis".equals(dataSource) && redisConnection.isAvailable()) {
@@ -145,7 +186,12 @@ public class CommonConfig {
 
     }
 
+    /**
+     * The rules keep the errors of the last run, so every consumer
+     * (or validating thread) gets its own instance
+     */
     @Bean
+    @Scope("prototype")
     public BlockHeaderValidator headerValidator() {
 
         List<BlockHeaderRule> rules = new ArrayList<>(asList(
@@ -4,9 +4,15 @@ import org.ethereum.datasource.CachingDataSource;
 import org.ethereum.datasource.HashMapDB;
 import org.ethereum.datasource.KeyValueDataSource;
 import org.ethereum.datasource.LevelDbDataSource;
+import org.ethereum.db.AddressIndex;
+import org.ethereum.db.ArchiveBlockStore;
+import org.ethereum.db.BlockArchive;
 import org.ethereum.db.BlockStore;
+import org.ethereum.db.BloomBitsIndex;
+import org.ethereum.db.CanonicalChainIndex;
 import org.ethereum.db.IndexedBlockStore;
 import org.ethereum.db.TransactionStore;
+import org.ethereum.sync.FastSyncManager;
 import org.mapdb.DB;
 import org.mapdb.DBMaker;
 import org.mapdb.Serializer;
@@ -61,11 +67,26 @@ public class DefaultConfig {
         KeyValueDataSource index = commonConfig.keyValueDataSource();
         index.setName("index");
         index.init();
-        KeyValueDataSource blocks = commonConfig.keyValueDataSource();
+        CanonicalChainIndex canonicalIndex = config.databaseCanonicalIndexEnabled() ?
+                new CanonicalChainIndex(new File(config.databaseDir(), "canonical.idx")) : null;
+
+        if (config.databaseBlockArchiveEnabled()) {
+            KeyValueDataSource locations = commonConfig.keyValueDataSource();
+            locations.setName("blockarchive");
+            locations.init();
+            ArchiveBlockStore archiveBlockStore = new ArchiveBlockStore(new BlockArchive(
+                    new File(config.databaseDir(), "segments"), config.databaseBlockArchiveSegmentSize()));
+            archiveBlockStore.withBlockCacheSize(config.databaseBlockCacheSize());
+            archiveBlockStore.init(new CachingDataSource(index), new CachingDataSource(locations), canonicalIndex);
+            return archiveBlockStore;
+        }
+
+        KeyValueDataSource blocks = commonConfig.bloomedDataSource(commonConfig.keyValueDataSource(), "block");
         blocks.setName("block");
         blocks.init();
-        IndexedBlockStore indexedBlockStore = new IndexedBlockStore();
-        indexedBlockStore.init(new CachingDataSource(index), new CachingDataSource(blocks));
+        IndexedBlockStore indexedBlockStore = new IndexedBlockStore()
+                .withBlockCacheSize(config.databaseBlockCacheSize());
+        indexedBlockStore.init(new CachingDataSource(index), new CachingDataSource(blocks), canonicalIndex);
 
         return indexedBlockStore;
     }
@@ -79,6 +100,27 @@ public class DefaultConfig {
         return new TransactionStore(cachingDataSource);
     }
 
+    @Bean
+    public BloomBitsIndex bloomBitsIndex() {
+        KeyValueDataSource ds = commonConfig.keyValueDataSource();
+        ds.setName("bloombits");
+        return new BloomBitsIndex(ds);
+    }
+
+    @Bean
+    public AddressIndex addressIndex() {
+        KeyValueDataSource ds = commonConfig.keyValueDataSource();
+        ds.setName("addressindex");
+        return new AddressIndex(ds);
+    }
+
+    @Bean
+    public FastSyncManager fastSyncManager() {
+        KeyValueDataSource ds = commonConfig.keyValueDataSource();
+        ds.setName("fastsync");
+        return new FastSyncManager(ds);
+    }
+
     @Bean @Scope("prototype")
     LevelDbDataSource levelDbDataSource(String name) {
         return new LevelDbDataSource(name);
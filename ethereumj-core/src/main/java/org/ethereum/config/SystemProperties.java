@@ -4,6 +4,7 @@ import com.typesafe.config.Config;
 import com.typesafe.config.ConfigFactory;
 import com.typesafe.config.ConfigObject;
 import com.typesafe.config.ConfigRenderOptions;
+import com.typesafe.config.ConfigUtil;
 import org.ethereum.config.blockchain.OlympicConfig;
 import org.ethereum.config.net.MainNetConfig;
 import org.ethereum.config.net.MordenNetConfig;
@@ -11,6 +12,7 @@ import org.ethereum.config.net.TestNetConfig;
 import org.ethereum.core.Genesis;
 import org.ethereum.core.genesis.GenesisLoader;
 import org.ethereum.crypto.ECKey;
+import org.ethereum.datasource.LevelDbProfile;
 import org.ethereum.net.p2p.P2pHandler;
 import org.ethereum.net.rlpx.MessageCodec;
 import org.ethereum.net.rlpx.Node;
@@ -397,6 +399,26 @@ public class SystemProperties {
         return config.getInt("peer.channel.read.timeout");
     }
 
+    @ValidateMe
+    public int peerServeThreads() {
+        return config.getInt("peer.serve.threads");
+    }
+
+    @ValidateMe
+    public int peerServeMaxBytesPerSecond() {
+        return config.getInt("peer.serve.maxBytesPerSecond");
+    }
+
+    @ValidateMe
+    public int peerServeMaxPendingRequests() {
+        return config.getInt("peer.serve.maxPendingRequests");
+    }
+
+    @ValidateMe
+    public int peerTransactionsBatchWindow() {
+        return config.getInt("peer.transactions.batchWindow");
+    }
+
     @ValidateMe
     public Integer traceStartBlock() {
         return config.getInt("trace.startblock");
@@ -436,6 +458,76 @@ public class SystemProperties {
         this.databaseDir = dataBaseDir;
     }
 
+    @ValidateMe
+    public boolean databaseMetricsEnabled() {
+        return config.getBoolean("database.metrics.enabled");
+    }
+
+    @ValidateMe
+    public boolean databaseCanonicalIndexEnabled() {
+        return config.getBoolean("database.canonicalIndex.enabled");
+    }
+
+    @ValidateMe
+    public boolean databaseBlockArchiveEnabled() {
+        return config.getBoolean("database.blockArchive.enabled");
+    }
+
+    @ValidateMe
+    public int databaseBlockArchiveSegmentSize() {
+        return config.getBytes("database.blockArchive.segmentSize").intValue();
+    }
+
+    @ValidateMe
+    public int databaseBlockCacheSize() {
+        return config.getInt("database.blockCacheSize");
+    }
+
+    @ValidateMe
+    public boolean databaseBloomBitsEnabled() {
+        return config.getBoolean("database.bloomBits.enabled");
+    }
+
+    @ValidateMe
+    public boolean databaseAddressIndexEnabled() {
+        return config.getBoolean("database.addressIndex.enabled");
+    }
+
+    @ValidateMe
+    public boolean databaseGroupCommitEnabled() {
+        return config.getBoolean("database.groupCommit.enabled");
+    }
+
+    @ValidateMe
+    public long databaseGroupCommitMaxPendingSize() {
+        return config.getBytes("database.groupCommit.maxPendingSize");
+    }
+
+    /**
+     * LevelDB options for the database: the 'database.leveldb.default' profile
+     * overridden by the 'database.leveldb.[name]' section if any.
+     * For nested databases like 'details-storage/[address]' the first path element is used
+     */
+    public LevelDbProfile levelDbProfile(String dbName) {
+        Config profile = config.getConfig("database.leveldb.default");
+        String key = dbName.contains("/") ? dbName.substring(0, dbName.indexOf('/')) : dbName;
+        String path = "database.leveldb." + ConfigUtil.joinPath(key);
+        if (config.hasPath(path)) {
+            profile = config.getConfig(path).withFallback(profile);
+        }
+        return LevelDbProfile.fromConfig(profile);
+    }
+
+    @ValidateMe
+    public LevelDbProfile levelDbDefaultProfile() {
+        return levelDbProfile("default");
+    }
+
+    @ValidateMe
+    public long levelDbSharedCacheSize() {
+        return config.getBytes("database.leveldb.sharedCache.size");
+    }
+
     @ValidateMe
     public boolean dumpCleanOnRestart() {
         return config.getBoolean("dump.clean.on.restart");
@@ -478,6 +570,25 @@ public class SystemProperties {
         return config.getBoolean("sync.exitOnBlockConflict");
     }
 
+    @ValidateMe
+    public boolean isFastSyncEnabled() {
+        return config.getBoolean("sync.fast.enabled");
+    }
+
+    /**
+     * eth/63 is advertised only when its state download part is used
+     * since serving the node data needs the contract nodes index
+     */
+    @ValidateMe
+    public boolean isEth63Enabled() {
+        return isFastSyncEnabled() || config.getBoolean("sync.fast.serve");
+    }
+
+    @ValidateMe
+    public int fastSyncPivotBlockDistance() {
+        return config.getInt("sync.fast.pivotBlockDistance");
+    }
+
     @ValidateMe
     public String projectVersion() {
         return projectVersion;
@@ -670,6 +781,31 @@ public class SystemProperties {
         return config.getBoolean("redis.enabled");
     }
 
+    @ValidateMe
+    public int redisBatchSize() {
+        return config.getInt("redis.batchSize");
+    }
+
+    @ValidateMe
+    public int redisPoolMaxTotal() {
+        return config.getInt("redis.pool.maxTotal");
+    }
+
+    @ValidateMe
+    public int redisPoolMaxIdle() {
+        return config.getInt("redis.pool.maxIdle");
+    }
+
+    @ValidateMe
+    public int redisPoolMinIdle() {
+        return config.getInt("redis.pool.minIdle");
+    }
+
+    @ValidateMe
+    public int redisTimeout() {
+        return config.getInt("redis.timeout");
+    }
+
     @ValidateMe
     public boolean isSyncEnabled() {
         return this.syncEnabled == null ? config.getBoolean("sync.enabled") : syncEnabled;
@@ -770,4 +906,29 @@ public class SystemProperties {
         return config.hasPath("blocks.loader") ?
                 config.getString("blocks.loader") : DEFAULT_BLOCKS_LOADER;
     }
+
+    @ValidateMe
+    public String blocksExportDir() {
+        return config.getString("blocks.export.dir");
+    }
+
+    @ValidateMe
+    public long blocksExportFrom() {
+        return config.getLong("blocks.export.from");
+    }
+
+    @ValidateMe
+    public long blocksExportTo() {
+        return config.getLong("blocks.export.to");
+    }
+
+    @ValidateMe
+    public int blocksExportBlocksPerFile() {
+        return config.getInt("blocks.export.blocksPerFile");
+    }
+
+    @ValidateMe
+    public boolean blocksExportCompress() {
+        return config.getBoolean("blocks.export.compress");
+    }
 }
@@ -43,7 +43,10 @@ public class Block {
     /* Private */
 
     private byte[] rlpEncoded;
-    private boolean parsed = false;
+    // the block may be shared between threads (e.g. by the block store cache), so it's parsed once
+    private volatile boolean parsed = false;
+    // set by the import pipeline once the body is matched against the header, see BlockchainImpl.isValidBody(Block)
+    private volatile boolean bodyVerified = false;
 
     private Trie txsState;
 
@@ -54,7 +57,7 @@ public class Block {
     }
 
     public Block(byte[] rawData) {
-        logger.debug("new from [" + Hex.toHexString(rawData) + "]");
+        if (logger.isDebugEnabled()) logger.debug("new from [" + Hex.toHexString(rawData) + "]");
         this.rlpEncoded = rawData;
     }
 
@@ -121,7 +124,8 @@ public class Block {
         this.parsed = true;
     }
 
-    private void parseRLP() {
+    private synchronized void parseRLP() {
+        if (parsed) return;
 
         RLPList params = RLP.decode2(rlpEncoded);
         RLPList block = (RLPList) params.get(0);
@@ -403,6 +407,15 @@ public class Block {
         uncleList.add(uncle);
         this.getHeader().setUnclesHash(SHA3Helper.sha3(getUnclesEncoded()));
         rlpEncoded = null;
+        bodyVerified = false;
+    }
+
+    public boolean isBodyVerified() {
+        return bodyVerified;
+    }
+
+    public void setBodyVerified(boolean bodyVerified) {
+        this.bodyVerified = bodyVerified;
     }
 
     public byte[] getEncoded() {
@@ -360,4 +360,9 @@ public class BlockHeader {
         return toStringWithSuffix("");
     }
 
+    public String getShortDescr() {
+        return "#" + getNumber() + " (" + toHexString(getHash()).substring(0, 6) + " <~ "
+                + toHexString(getParentHash()).substring(0, 6) + ")";
+    }
+
 }
@@ -55,6 +55,12 @@ public interface Blockchain {
 
     List<BlockHeader> getListOfHeadersStartFrom(BlockIdentifier identifier, int skip, int limit, boolean reverse);
 
+    /**
+     * Same as {@link #getListOfHeadersStartFrom(BlockIdentifier, int, int, boolean)}
+     * but the headers are returned the way they are stored, without decoding
+     */
+    List<byte[]> getListOfEncodedHeadersStartFrom(BlockIdentifier identifier, int skip, int limit, boolean reverse);
+
     List<byte[]> getListOfBodiesByHashes(List<byte[]> hashes);
 
     Block createNewBlock(Block parent, List<Transaction> transactions, List<BlockHeader> uncles);
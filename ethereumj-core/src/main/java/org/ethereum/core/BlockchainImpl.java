@@ -3,8 +3,12 @@ package org.ethereum.core;
 import org.ethereum.config.SystemProperties;
 import org.ethereum.crypto.HashUtil;
 import org.ethereum.crypto.SHA3Helper;
+import org.ethereum.datasource.DataSourceMetrics;
+import org.ethereum.datasource.GroupCommitWriter;
 import org.ethereum.datasource.HashMapDB;
+import org.ethereum.db.AddressIndex;
 import org.ethereum.db.BlockStore;
+import org.ethereum.db.BloomBitsIndex;
 import org.ethereum.db.ByteArrayWrapper;
 import org.ethereum.db.RepositoryImpl;
 import org.ethereum.db.TransactionStore;
@@ -105,7 +109,17 @@ public class BlockchainImpl implements Blockchain, org.ethereum.facade.Blockchai
     @Autowired
     private TransactionStore transactionStore;
 
-    private Block bestBlock;
+    @Autowired(required = false)
+    private GroupCommitWriter groupCommitWriter;
+
+    @Autowired(required = false)
+    private BloomBitsIndex bloomBitsIndex;
+
+    @Autowired(required = false)
+    private AddressIndex addressIndex;
+
+    // read without the lock by the peer requests serving
+    private volatile Block bestBlock;
 
     private BigInteger totalDifficulty = ZERO;
 
@@ -549,6 +563,22 @@ public class BlockchainImpl implements Blockchain, org.ethereum.facade.Blockchai
         repository.flush();
         blockStore.flush();
         transactionStore.flush();
+        if (bloomBitsIndex != null && config.databaseBloomBitsEnabled()) {
+            bloomBitsIndex.updateAsync(blockStore);
+        }
+        if (addressIndex != null && config.databaseAddressIndexEnabled()) {
+            addressIndex.flush();
+        }
+
+        if (groupCommitWriter != null && config.databaseGroupCommitEnabled()) {
+            groupCommitWriter.commitBlock(bestBlock.getNumber(), bestBlock.getHash());
+        }
+
+        if (config.databaseMetricsEnabled()) {
+            for (DataSourceMetrics metrics : DataSourceMetrics.getAll()) {
+                logger.info("DB stats: {}", metrics);
+            }
+        }
 
         System.gc();
     }
@@ -630,17 +660,8 @@ public class BlockchainImpl implements Blockchain, org.ethereum.facade.Blockchai
         if (!block.isGenesis()) {
             isValid = isValid(block.getHeader());
 
-            // Sanity checks
-            String trieHash = Hex.toHexString(block.getTxTrieRoot());
-            String trieListHash = Hex.toHexString(calcTxTrie(block.getTransactionsList()));
-
-
-            if (!trieHash.equals(trieListHash)) {
-                logger.warn("Block's given Trie Hash doesn't match: {} != {}", trieHash, trieListHash);
-
-                //   FIXME: temporary comment out tx.trie validation
-//              return false;
-            }
+            // Sanity checks, skipped when they were already made by the import pipeline
+            if (!block.isBodyVerified() && !isValidBody(block)) return false;
 
             if (!validateUncles(block)) return false;
 
@@ -674,7 +695,22 @@ public class BlockchainImpl implements Blockchain, org.ethereum.facade.Blockchai
         return isValid;
     }
 
-    public boolean validateUncles(Block block) {
+    /**
+     * Checks the block body matches the header. The check doesn't depend on the chain state,
+     * so it may be made ahead of the import on any thread, the block is then marked with
+     * {@link Block#setBodyVerified(boolean)} and the check isn't repeated by {@link #tryToConnect(Block)}
+     */
+    public static boolean isValidBody(Block block) {
+        String trieHash = Hex.toHexString(block.getTxTrieRoot());
+        String trieListHash = Hex.toHexString(calcTxTrie(block.getTransactionsList()));
+
+        if (!trieHash.equals(trieListHash)) {
+            logger.warn("Block's given Trie Hash doesn't match: {} != {}", trieHash, trieListHash);
+
+            //   FIXME: temporary comment out tx.trie validation
+//          return false;
+        }
+
         String unclesHash = Hex.toHexString(block.getHeader().getUnclesHash());
         String unclesListHash = Hex.toHexString(HashUtil.sha3(block.getHeader().getUnclesEncoded(block.getUncleList())));
 
@@ -683,7 +719,10 @@ public class BlockchainImpl implements Blockchain, org.ethereum.facade.Blockchai
             return false;
         }
 
+        return true;
+    }
 
+    public boolean validateUncles(Block block) {
         if (block.getUncleList().size() > UNCLE_LIST_LIMIT) {
             logger.warn("Uncle list to big: block.getUncleList().size() > UNCLE_LIST_LIMIT");
             return false;
@@ -716,7 +755,7 @@ public class BlockchainImpl implements Blockchain, org.ethereum.facade.Blockchai
                 return false;
             }
 
-            Block uncleParent = blockStore.getBlockByHash(uncle.getParentHash());
+            BlockHeader uncleParent = blockStore.getHeaderByHash(uncle.getParentHash());
             if (!ancestors.contains(new ByteArrayWrapper(uncleParent.getHash()))) {
                 logger.warn("Uncle has no common parent: " + Hex.toHexString(uncle.getHash()));
                 return false;
@@ -730,13 +769,13 @@ public class BlockchainImpl implements Blockchain, org.ethereum.facade.Blockchai
     public static Set<ByteArrayWrapper> getAncestors(BlockStore blockStore, Block testedBlock, int limitNum, boolean isParentBlock) {
         Set<ByteArrayWrapper> ret = new HashSet<>();
         limitNum = (int) max(0, testedBlock.getNumber() - limitNum);
-        Block it = testedBlock;
+        BlockHeader it = testedBlock.getHeader();
         if (!isParentBlock) {
-            it = blockStore.getBlockByHash(it.getParentHash());
+            it = blockStore.getHeaderByHash(it.getParentHash());
         }
         while(it != null && it.getNumber() >= limitNum) {
             ret.add(new ByteArrayWrapper(it.getHash()));
-            it = blockStore.getBlockByHash(it.getParentHash());
+            it = blockStore.getHeaderByHash(it.getParentHash());
         }
         return ret;
     }
@@ -808,11 +847,11 @@ public class BlockchainImpl implements Blockchain, org.ethereum.facade.Blockchai
             if (block.getNumber() >= config.traceStartBlock())
                 repository.dumpState(block, totalGasUsed, i++, tx.getHash());
 
-            transactionStore.put(tx.getHash(), new TransactionInfo(receipt, block.getHash(), receipts.size()));
-
             receipts.add(receipt);
         }
 
+        transactionStore.putBlockReceipts(block.getHash(), block.getTransactionsList(), receipts);
+
         addReward(block);
         updateTotalDifficulty(block);
 
@@ -869,6 +908,10 @@ public class BlockchainImpl implements Blockchain, org.ethereum.facade.Blockchai
 
         setBestBlock(block);
 
+        if (!fork && addressIndex != null && config.databaseAddressIndexEnabled()) {
+            addressIndex.update(blockStore, transactionStore);
+        }
+
         if (logger.isDebugEnabled())
             logger.debug("block added to the blockChain: index: [{}]", block.getNumber());
         if (block.getNumber() % 100 == 0)
@@ -909,6 +952,9 @@ public class BlockchainImpl implements Blockchain, org.ethereum.facade.Blockchai
 
     @Override
     public void close() {
+        if (bloomBitsIndex != null) {
+            bloomBitsIndex.close();
+        }
     }
 
     @Override
@@ -1016,17 +1062,32 @@ public class BlockchainImpl implements Blockchain, org.ethereum.facade.Blockchai
     }
 
     @Override
-    public synchronized List<BlockHeader> getListOfHeadersStartFrom(BlockIdentifier identifier, int skip, int limit, boolean reverse) {
+    public List<BlockHeader> getListOfHeadersStartFrom(BlockIdentifier identifier, int skip, int limit, boolean reverse) {
+        List<byte[]> encoded = getListOfEncodedHeadersStartFrom(identifier, skip, limit, reverse);
+        List<BlockHeader> headers = new ArrayList<>(encoded.size());
+        for (byte[] header : encoded) {
+            headers.add(new BlockHeader(header));
+        }
+        return headers;
+    }
+
+    /**
+     * Doesn't take the blockchain lock, so the peer requests are served concurrently with the import,
+     * the best block is read once and the rest comes from the block store which is safe for the
+     * concurrent reads (its caching data sources are flushed under their own lock)
+     */
+    @Override
+    public List<byte[]> getListOfEncodedHeadersStartFrom(BlockIdentifier identifier, int skip, int limit, boolean reverse) {
         long blockNumber = identifier.getNumber();
 
         if (identifier.getHash() != null) {
-            Block block = getBlockByHash(identifier.getHash());
+            BlockHeader header = blockStore.getHeaderByHash(identifier.getHash());
 
-            if (block == null) {
+            if (header == null) {
                 return emptyList();
             }
 
-            blockNumber = block.getNumber();
+            blockNumber = header.getNumber();
         }
 
         long bestNumber = bestBlock.getNumber();
@@ -1043,7 +1104,14 @@ public class BlockchainImpl implements Blockchain, org.ethereum.facade.Blockchai
             return emptyList();
         }
 
-        List<BlockHeader> headers = blockStore.getListHeadersEndWith(startHash, qty);
+        List<byte[]> headers = new ArrayList<>(qty);
+        byte[] hash = startHash;
+        for (int i = 0; i < qty; i++) {
+            byte[] header = blockStore.getEncodedHeaderByHash(hash);
+            if (header == null) break;
+            headers.add(header);
+            hash = getParentHash(header);
+        }
 
         // blocks come with falling numbers
         if (!reverse) {
@@ -1053,6 +1121,10 @@ public class BlockchainImpl implements Blockchain, org.ethereum.facade.Blockchai
         return headers;
     }
 
+    private static byte[] getParentHash(byte[] encodedHeader) {
+        return RLP.decode2OneItem(encodedHeader, RLP.getFirstListElement(encodedHeader, 0)).getRLPData();
+    }
+
     private int getQty(long blockNumber, long bestNumber, int limit, boolean reverse) {
         if (reverse) {
             return blockNumber - limit + 1 < 0 ? (int) (blockNumber + 1) : limit;
@@ -1075,23 +1147,18 @@ public class BlockchainImpl implements Blockchain, org.ethereum.facade.Blockchai
             startNumber = blockNumber + skip + qty - 1;
         }
 
-        Block block = getBlockByNumber(startNumber);
-
-        if (block == null) {
-            return null;
-        }
-
-        return block.getHash();
+        // the hash only, the block isn't decoded
+        return startNumber < 0 ? null : blockStore.getBlockHashByNumber(startNumber);
     }
 
     @Override
-    public synchronized List<byte[]> getListOfBodiesByHashes(List<byte[]> hashes) {
+    public List<byte[]> getListOfBodiesByHashes(List<byte[]> hashes) {
         List<byte[]> bodies = new ArrayList<>(hashes.size());
 
         for (byte[] hash : hashes) {
-            Block block = blockStore.getBlockByHash(hash);
-            if (block == null) break;
-            bodies.add(block.getEncodedBody());
+            byte[] body = blockStore.getEncodedBodyByHash(hash);
+            if (body == null) break;
+            bodies.add(body);
         }
 
         return bodies;
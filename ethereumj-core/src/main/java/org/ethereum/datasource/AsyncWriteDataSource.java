@@ -0,0 +1,166 @@
+package org.ethereum.datasource;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import org.ethereum.db.ByteArrayWrapper;
+import org.ethereum.util.Functional;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+import static org.ethereum.util.ByteUtil.wrap;
+
+/**
+ * Hands all the writes over to the shared {@link GroupCommitWriter} and returns immediately.
+ *
+ * The written values are kept in the pending map until the writer puts them to the source,
+ * so the reads through this data source always see own writes.
+ */
+public class AsyncWriteDataSource implements KeyValueDataSource, IterableDataSource {
+
+    // identity marker of the pending deletion
+    private static final byte[] DELETED = new byte[0];
+
+    KeyValueDataSource source;
+    private final GroupCommitWriter writer;
+    private final Map<ByteArrayWrapper, byte[]> pending = new ConcurrentHashMap<>();
+    private volatile ListenableFuture<Void> lastWrite;
+
+    public AsyncWriteDataSource(KeyValueDataSource source, GroupCommitWriter writer) {
+        this.source = source;
+        this.writer = writer;
+    }
+
+    @Override
+    public byte[] get(byte[] key) {
+        byte[] ret = pending.get(wrap(key));
+        if (ret == DELETED) return null;
+        return ret != null ? ret : source.get(key);
+    }
+
+    @Override
+    public byte[] put(byte[] key, byte[] value) {
+        updateBatchAsync(Collections.singletonMap(key, value));
+        return value;
+    }
+
+    @Override
+    public void updateBatch(Map<byte[], byte[]> rows) {
+        updateBatchAsync(rows);
+    }
+
+    /**
+     * @return the future which is done when the rows are written to the source
+     */
+    public synchronized ListenableFuture<Void> updateBatchAsync(Map<byte[], byte[]> rows) {
+        Map<ByteArrayWrapper, byte[]> wrapped = new HashMap<>(rows.size());
+        for (Map.Entry<byte[], byte[]> entry : rows.entrySet()) {
+            ByteArrayWrapper key = wrap(entry.getKey());
+            wrapped.put(key, entry.getValue());
+            pending.put(key, entry.getValue());
+        }
+        return lastWrite = writer.submitBatch(this, source, wrapped);
+    }
+
+    @Override
+    public synchronized void delete(byte[] key) {
+        ByteArrayWrapper wrapped = wrap(key);
+        pending.put(wrapped, DELETED);
+        lastWrite = writer.submitDelete(this, source, key);
+    }
+
+    void onWritten(GroupCommitWriter.WriteTask task) {
+        if (task.isBatch()) {
+            for (Map.Entry<ByteArrayWrapper, byte[]> entry : task.rows.entrySet()) {
+                // don't remove if overwritten by a subsequent pending write
+                pending.remove(entry.getKey(), entry.getValue());
+            }
+        } else {
+            pending.remove(wrap(task.deleteKey), DELETED);
+        }
+    }
+
+    /**
+     * Blocks until all the writes submitted so far are written to the source
+     */
+    public void waitWritten() {
+        ListenableFuture<Void> f = lastWrite;
+        if (f == null) return;
+        try {
+            f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Write to '" + getName() + "' failed", e.getCause());
+        }
+    }
+
+    /**
+     * Waits for the writes submitted so far if the data source (possibly wrapped
+     * by the cache or the bloom filter) is written asynchronously, returns at once otherwise
+     */
+    public static void waitWritten(KeyValueDataSource ds) {
+        while (true) {
+            if (ds instanceof AsyncWriteDataSource) {
+                ((AsyncWriteDataSource) ds).waitWritten();
+                return;
+            } else if (ds instanceof CachingDataSource) {
+                ds = ((CachingDataSource) ds).source;
+            } else if (ds instanceof BloomedDataSource) {
+                ds = ((BloomedDataSource) ds).source;
+            } else {
+                return;
+            }
+        }
+    }
+
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    @Override
+    public Set<byte[]> keys() {
+        waitWritten();
+        return source.keys();
+    }
+
+    @Override
+    public void forEachKey(Functional.Consumer<byte[]> consumer) {
+        waitWritten();
+        if (source instanceof IterableDataSource) {
+            ((IterableDataSource) source).forEachKey(consumer);
+        } else {
+            for (byte[] key : source.keys()) consumer.accept(key);
+        }
+    }
+
+    @Override
+    public void setName(String name) {
+        source.setName(name);
+    }
+
+    @Override
+    public String getName() {
+        return source.getName();
+    }
+
+    @Override
+    public void init() {
+        source.init();
+    }
+
+    @Override
+    public boolean isAlive() {
+        return source.isAlive();
+    }
+
+    @Override
+    public void close() {
+        waitWritten();
+        source.close();
+    }
+}
@@ -0,0 +1,135 @@
+package org.ethereum.datasource;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Thread-safe bloom filter over byte[] keys.
+ *
+ * The filter is sized for the expected number of insertions and the desired false positive
+ * rate. Bits are only ever set, so concurrent {@link #add(byte[])} and {@link #mightContain(byte[])}
+ * never produce false negatives.
+ *
+ * Not to be confused with {@link org.ethereum.core.Bloom} which is the fixed-size logs bloom
+ */
+public class BloomFilter {
+
+    private final AtomicLongArray bits;
+    private final long numBits;
+    private final int numHashes;
+    private final long capacity;
+    private final AtomicLong inserted = new AtomicLong();
+
+    public BloomFilter(long capacity, double falsePositiveRate) {
+        this(capacity, optimalNumBits(capacity, falsePositiveRate), 0);
+    }
+
+    private BloomFilter(long capacity, long numBits, int numHashes) {
+        this.capacity = capacity;
+        this.bits = new AtomicLongArray((int) ((numBits + 63) / 64));
+        this.numBits = (long) bits.length() * 64;
+        this.numHashes = numHashes > 0 ? numHashes :
+                Math.max(1, (int) Math.round((double) this.numBits / capacity * Math.log(2)));
+    }
+
+    static long optimalNumBits(long capacity, double falsePositiveRate) {
+        long bits = (long) (-capacity * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        if (bits / 64 > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Bloom filter is too large: " + capacity + " keys");
+        }
+        return Math.max(64, bits);
+    }
+
+    public void add(byte[] key) {
+        long h1 = hash(key);
+        long h2 = mix(h1) | 1;
+        for (int i = 0; i < numHashes; i++) {
+            setBit(index(h1 + i * h2));
+        }
+        inserted.incrementAndGet();
+    }
+
+    public boolean mightContain(byte[] key) {
+        long h1 = hash(key);
+        long h2 = mix(h1) | 1;
+        for (int i = 0; i < numHashes; i++) {
+            long idx = index(h1 + i * h2);
+            if ((bits.get((int) (idx >>> 6)) & (1L << idx)) == 0) return false;
+        }
+        return true;
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return number of {@link #add(byte[])} calls (repeated keys are counted each time)
+     */
+    public long getInserted() {
+        return inserted.get();
+    }
+
+    public boolean isOverfilled() {
+        return inserted.get() > capacity;
+    }
+
+    public long getSizeInBytes() {
+        return numBits / 8;
+    }
+
+    private long index(long hash) {
+        return (hash & Long.MAX_VALUE) % numBits;
+    }
+
+    private void setBit(long idx) {
+        int word = (int) (idx >>> 6);
+        long mask = 1L << idx;
+        while (true) {
+            long old = bits.get(word);
+            if ((old & mask) != 0 || bits.compareAndSet(word, old, old | mask)) return;
+        }
+    }
+
+    // FNV-1a 64 followed by a finalizer, the keys are mostly hashes already
+    // so this is more than enough to spread them
+    private static long hash(byte[] key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key) {
+            h ^= b & 0xFF;
+            h *= 0x100000001b3L;
+        }
+        return mix(h);
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    public void writeTo(DataOutputStream out) throws IOException {
+        out.writeLong(capacity);
+        out.writeLong(numBits);
+        out.writeInt(numHashes);
+        out.writeLong(inserted.get());
+        for (int i = 0; i < bits.length(); i++) {
+            out.writeLong(bits.get(i));
+        }
+    }
+
+    public static BloomFilter readFrom(DataInputStream in) throws IOException {
+        long capacity = in.readLong();
+        long numBits = in.readLong();
+        int numHashes = in.readInt();
+        BloomFilter ret = new BloomFilter(capacity, numBits, numHashes);
+        ret.inserted.set(in.readLong());
+        for (int i = 0; i < ret.bits.length(); i++) {
+            ret.bits.set(i, in.readLong());
+        }
+        return ret;
+    }
+}
@@ -0,0 +1,343 @@
+package org.ethereum.datasource;
+
+import org.ethereum.config.SystemProperties;
+import org.ethereum.util.ByteUtil;
+import org.ethereum.util.Functional;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Keeps an in-memory {@link BloomFilter} of all the keys of the underlying source
+ * so that lookups of the absent keys are answered without touching the disk.
+ *
+ * The filter is persisted to a snapshot file on {@link #flush()} and {@link #close()}
+ * and loaded back on {@link #init()}. To never trust a stale snapshot after a crash
+ * a marker record holding the snapshot id is stored in the source itself: it is written
+ * right after the snapshot and removed before the first subsequent write.
+ * When the snapshot is absent or doesn't match the marker the filter is rebuilt
+ * by scanning the source keys twice: the first pass counts them to size the filter.
+ *
+ * Deleted keys remain in the filter, that only affects the false positive rate.
+ *
+ * When the filter gets more keys than it was sized for, the new twice larger filter
+ * takes the subsequent keys while the full ones are still checked by the lookups.
+ * The chain is replaced by the single filter rebuilt from the source on the next
+ * {@link #init()} if it becomes too long.
+ */
+public class BloomedDataSource implements KeyValueDataSource, IterableDataSource, Flushable {
+
+    private static final Logger logger = LoggerFactory.getLogger("db");
+
+    static final byte[] SNAPSHOT_MARKER_KEY = "bloomFilterSnapshotMarker".getBytes();
+
+    private static final long MIN_CAPACITY = 1 << 16;
+    private static final int MAX_CHAINED_FILTERS = 4;
+
+    KeyValueDataSource source;
+    private File snapshotDir;
+    private double falsePositiveRate = 0.01;
+
+    // takes the new keys, the full filters are kept in the chain
+    private volatile BloomFilter filter;
+    private volatile BloomFilter[] fullFilters = new BloomFilter[0];
+    private volatile boolean snapshotValid;
+    private final AtomicLong negatives = new AtomicLong();
+
+    // puts take the read lock so they can run concurrently,
+    // the snapshot takes the write lock to capture a consistent filter state
+    private ReadWriteLock snapshotLock = new ReentrantReadWriteLock();
+
+    /**
+     * @param snapshotDir directory where the filter snapshot is persisted,
+     *                    if null the filter is rebuilt from the source keys on each init
+     */
+    public BloomedDataSource(KeyValueDataSource source, File snapshotDir) {
+        this.source = source;
+        this.snapshotDir = snapshotDir;
+    }
+
+    /**
+     * Wraps the source if the profile requests the bloom filter
+     */
+    public static KeyValueDataSource forProfile(KeyValueDataSource source, LevelDbProfile profile, SystemProperties config) {
+        if (profile.getBloomFilterBits() <= 0) return source;
+        return new BloomedDataSource(source, new File(config.databaseDir(), "bloom"))
+                .withFalsePositiveRate(profile.getBloomFalsePositiveRate());
+    }
+
+    public BloomedDataSource withFalsePositiveRate(double falsePositiveRate) {
+        this.falsePositiveRate = falsePositiveRate;
+        return this;
+    }
+
+    @Override
+    public void init() {
+        source.init();
+
+        snapshotLock.writeLock().lock();
+        try {
+            if (!loadSnapshot() || fullFilters.length >= MAX_CHAINED_FILTERS) {
+                rebuild();
+            }
+        } finally {
+            snapshotLock.writeLock().unlock();
+        }
+    }
+
+    private void rebuild() {
+        long s = System.currentTimeMillis();
+        final long[] count = new long[1];
+        forEachKey(new Functional.Consumer<byte[]>() {
+            @Override
+            public void accept(byte[] key) {
+                count[0]++;
+            }
+        });
+
+        final BloomFilter newFilter = new BloomFilter(Math.max(MIN_CAPACITY, count[0] * 2L), falsePositiveRate);
+        forEachKey(new Functional.Consumer<byte[]>() {
+            @Override
+            public void accept(byte[] key) {
+                newFilter.add(key);
+            }
+        });
+        filter = newFilter;
+        fullFilters = new BloomFilter[0];
+        invalidateSnapshot();
+        logger.info("Bloom filter for '{}' rebuilt from {} keys in {} ms ({} KB)", getName(), count[0],
+                System.currentTimeMillis() - s, filter.getSizeInBytes() / 1024);
+    }
+
+    private File getSnapshotFile() {
+        return snapshotDir == null ? null : new File(snapshotDir, getName() + ".bloom");
+    }
+
+    /**
+     * Snapshot layout: {@code [id] [filters count] [full filters...] [current filter]}
+     *
+     * @return false if there is no valid snapshot
+     */
+    private boolean loadSnapshot() {
+        File file = getSnapshotFile();
+        if (file == null || !file.exists()) return false;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            byte[] id = new byte[8];
+            in.readFully(id);
+            if (!Arrays.equals(id, source.get(SNAPSHOT_MARKER_KEY))) {
+                logger.info("Bloom filter snapshot for '{}' is outdated", getName());
+                return false;
+            }
+            int count = in.readInt();
+            if (count < 1) throw new IOException("Invalid filters count: " + count);
+            BloomFilter[] full = new BloomFilter[count - 1];
+            long inserted = 0;
+            for (int i = 0; i < full.length; i++) {
+                full[i] = BloomFilter.readFrom(in);
+                inserted += full[i].getInserted();
+            }
+            filter = BloomFilter.readFrom(in);
+            fullFilters = full;
+            snapshotValid = true;
+            logger.info("Bloom filter for '{}' loaded from snapshot ({} keys, {} filters)", getName(),
+                    inserted + filter.getInserted(), count);
+            return true;
+        } catch (IOException e) {
+            logger.warn("Can't read bloom filter snapshot " + file, e);
+            return false;
+        }
+    }
+
+    /**
+     * Persists the filter unless nothing was changed since the last snapshot
+     */
+    @Override
+    public void flush() {
+        File file = getSnapshotFile();
+        if (file == null || filter == null) return;
+
+        snapshotLock.writeLock().lock();
+        try {
+            if (snapshotValid) return;
+
+            byte[] id = ByteUtil.longToBytes(new Random().nextLong());
+            File tmp = new File(file.getPath() + ".tmp");
+            tmp.getParentFile().mkdirs();
+            try (FileOutputStream fos = new FileOutputStream(tmp)) {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+                out.write(id);
+                out.writeInt(fullFilters.length + 1);
+                for (BloomFilter full : fullFilters) {
+                    full.writeTo(out);
+                }
+                filter.writeTo(out);
+                out.flush();
+                fos.getFD().sync();
+            }
+            if (!tmp.renameTo(file)) {
+                file.delete();
+                if (!tmp.renameTo(file)) throw new IOException("Can't rename " + tmp + " to " + file);
+            }
+            source.put(SNAPSHOT_MARKER_KEY, id);
+            snapshotValid = true;
+        } catch (IOException e) {
+            logger.warn("Can't save bloom filter snapshot " + file, e);
+        } finally {
+            snapshotLock.writeLock().unlock();
+        }
+    }
+
+    // must be called before any write reaches the source while the snapshot is valid
+    private void invalidateSnapshot() {
+        source.delete(SNAPSHOT_MARKER_KEY);
+        snapshotValid = false;
+    }
+
+    private void beforeWrite() {
+        if (snapshotValid) {
+            synchronized (this) {
+                if (snapshotValid) invalidateSnapshot();
+            }
+        }
+    }
+
+    /**
+     * Starts the larger filter when the current one is full,
+     * the full filter is added to the chain before it's replaced so the lookups never miss its keys
+     */
+    private void checkOverfilled() {
+        if (!filter.isOverfilled()) return;
+        synchronized (this) {
+            BloomFilter full = filter;
+            if (!full.isOverfilled()) return;
+            BloomFilter[] chain = Arrays.copyOf(fullFilters, fullFilters.length + 1);
+            chain[chain.length - 1] = full;
+            fullFilters = chain;
+            filter = new BloomFilter(full.getCapacity() * 2, falsePositiveRate);
+            logger.info("Bloom filter for '{}' is full ({} keys), {} filters chained", getName(),
+                    full.getInserted(), chain.length + 1);
+        }
+    }
+
+    private boolean mightContain(byte[] key) {
+        // the current filter goes first: the full one is in the chain already when it's replaced
+        if (filter.mightContain(key)) return true;
+        for (BloomFilter full : fullFilters) {
+            if (full.mightContain(key)) return true;
+        }
+        return false;
+    }
+
+    @Override
+    public byte[] get(byte[] key) {
+        if (!mightContain(key)) {
+            negatives.incrementAndGet();
+            return null;
+        }
+        return source.get(key);
+    }
+
+    @Override
+    public byte[] put(byte[] key, byte[] value) {
+        snapshotLock.readLock().lock();
+        try {
+            beforeWrite();
+            filter.add(key);
+            checkOverfilled();
+            return source.put(key, value);
+        } finally {
+            snapshotLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void updateBatch(Map<byte[], byte[]> rows) {
+        snapshotLock.readLock().lock();
+        try {
+            beforeWrite();
+            for (byte[] key : rows.keySet()) {
+                filter.add(key);
+                checkOverfilled();
+            }
+            source.updateBatch(rows);
+        } finally {
+            snapshotLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void delete(byte[] key) {
+        source.delete(key);
+    }
+
+    @Override
+    public Set<byte[]> keys() {
+        Set<byte[]> keys = source.keys();
+        Iterator<byte[]> it = keys.iterator();
+        while (it.hasNext()) {
+            if (Arrays.equals(SNAPSHOT_MARKER_KEY, it.next())) it.remove();
+        }
+        return keys;
+    }
+
+    @Override
+    public void forEachKey(final Functional.Consumer<byte[]> consumer) {
+        Functional.Consumer<byte[]> skipMarker = new Functional.Consumer<byte[]>() {
+            @Override
+            public void accept(byte[] key) {
+                if (!Arrays.equals(SNAPSHOT_MARKER_KEY, key)) consumer.accept(key);
+            }
+        };
+        if (source instanceof IterableDataSource) {
+            ((IterableDataSource) source).forEachKey(skipMarker);
+        } else {
+            for (byte[] key : source.keys()) skipMarker.accept(key);
+        }
+    }
+
+    /**
+     * @return number of lookups answered by the filter without accessing the source
+     */
+    public long getNegativeCount() {
+        return negatives.get();
+    }
+
+    public BloomFilter getFilter() {
+        return filter;
+    }
+
+    int getFilterCount() {
+        return fullFilters.length + 1;
+    }
+
+    @Override
+    public void setName(String name) {
+        source.setName(name);
+    }
+
+    @Override
+    public String getName() {
+        return source.getName();
+    }
+
+    @Override
+    public boolean isAlive() {
+        return source.isAlive();
+    }
+
+    @Override
+    public void close() {
+        if (source.isAlive()) flush();
+        source.close();
+    }
+}
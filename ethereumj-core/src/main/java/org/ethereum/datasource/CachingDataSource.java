@@ -13,26 +13,51 @@ public class CachingDataSource implements KeyValueDataSource, Flushable {
     KeyValueDataSource source;
 
     Map<ByteArrayWrapper, byte[]> cache = new HashMap<>();
+    // the records being written by the flush, read only and still served until written
+    private Map<ByteArrayWrapper, byte[]> flushing = null;
+    // serializes the flushes and the deletes which mustn't be overwritten by the flush
+    private final Object flushLock = new Object();
 
     public CachingDataSource(KeyValueDataSource source) {
         this.source = source;
     }
 
+    // the block store is read by the peer requests serving while the import flushes it,
+    // so the cache is swapped under the lock and written to the source outside of it
     public void flush() {
-        Map<byte[], byte[]> records = new HashMap<>();
-        for (Map.Entry<ByteArrayWrapper, byte[]> entry : cache.entrySet()) {
-            records.put(entry.getKey().getData(), entry.getValue());
+        synchronized (flushLock) {
+            Map<ByteArrayWrapper, byte[]> toWrite;
+            synchronized (this) {
+                toWrite = cache;
+                flushing = toWrite;
+                cache = new HashMap<>();
+            }
+            Map<byte[], byte[]> records = new HashMap<>();
+            for (Map.Entry<ByteArrayWrapper, byte[]> entry : toWrite.entrySet()) {
+                records.put(entry.getKey().getData(), entry.getValue());
+            }
+            source.updateBatch(records);
+            if (source instanceof Flushable) {
+                ((Flushable) source).flush();
+            }
+            synchronized (this) {
+                flushing = null;
+            }
         }
-        source.updateBatch(records);
-        cache.clear();
     }
 
     @Override
-    public synchronized byte[] get(byte[] key) {
-        byte[] bb = cache.get(new ByteArrayWrapper(key));
+    public byte[] get(byte[] key) {
+        ByteArrayWrapper wKey = new ByteArrayWrapper(key);
+        byte[] bb;
+        synchronized (this) {
+            bb = cache.get(wKey);
+            if (bb == null && flushing != null) bb = flushing.get(wKey);
+        }
         if (bb == null) {
             return source.get(key);
         } else {
+            InstrumentedDataSource.onCacheHit(source);
             return bb;
         }
     }
@@ -43,9 +68,13 @@ public class CachingDataSource implements KeyValueDataSource, Flushable {
     }
 
     @Override
-    public synchronized void delete(byte[] key) {
-        cache.remove(new ByteArrayWrapper(key));
-        source.delete(key);
+    public void delete(byte[] key) {
+        synchronized (flushLock) {
+            synchronized (this) {
+                cache.remove(new ByteArrayWrapper(key));
+                source.delete(key);
+            }
+        }
     }
 
     @Override
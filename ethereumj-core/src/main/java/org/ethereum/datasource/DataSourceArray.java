@@ -11,7 +11,8 @@ import java.util.AbstractList;
 public class DataSourceArray<V> extends AbstractList<V> implements Flushable {
     private ObjectDataSource<V> src;
     private static final byte[] sizeKey = Hex.decode("FFFFFFFFFFFFFFFF");
-    private int size = -1;
+    // read without the lock by the peer requests serving
+    private volatile int size = -1;
 
     public DataSourceArray(ObjectDataSource<V> src) {
         this.src = src;
@@ -0,0 +1,280 @@
+package org.ethereum.datasource;
+
+import org.slf4j.Logger;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static java.lang.String.format;
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * I/O statistics of a single named key-value database.
+ *
+ * Instances are shared by name through the static registry ({@link #forName(String)})
+ * so that several data sources opened with the same name (e.g. after a reset)
+ * accumulate into the same counters. Each instance is exposed over JMX.
+ *
+ * The cache hit counter is fed by the caches sitting on top of the instrumented
+ * source (see {@link CachingDataSource} and {@link org.ethereum.trie.Cache}),
+ * any cache miss ends up as a {@code get} on the source itself.
+ */
+public class DataSourceMetrics implements DataSourceMetricsMBean {
+
+    private static final Logger logger = getLogger("db");
+
+    private static final ConcurrentMap<String, DataSourceMetrics> registry = new ConcurrentHashMap<>();
+
+    public static DataSourceMetrics forName(String name) {
+        DataSourceMetrics metrics = registry.get(name);
+        if (metrics == null) {
+            metrics = new DataSourceMetrics(name);
+            DataSourceMetrics existing = registry.putIfAbsent(name, metrics);
+            if (existing != null) return existing;
+            registerMBean(metrics);
+        }
+        return metrics;
+    }
+
+    public static List<DataSourceMetrics> getAll() {
+        return new ArrayList<>(registry.values());
+    }
+
+    private static void registerMBean(DataSourceMetrics metrics) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName("org.ethereum:type=DataSource,name=" + ObjectName.quote(metrics.name));
+            if (!server.isRegistered(objectName)) {
+                server.registerMBean(metrics, objectName);
+            }
+        } catch (Exception e) {
+            logger.warn("Can't register JMX bean for data source '{}': {}", metrics.name, e.toString());
+        }
+    }
+
+    private final String name;
+
+    private final AtomicLong getMisses = new AtomicLong();
+    private final AtomicLong getBytes = new AtomicLong();
+    private final AtomicLong putBytes = new AtomicLong();
+    private final AtomicLong batchRows = new AtomicLong();
+    private final AtomicLong batchBytes = new AtomicLong();
+    private final AtomicLong cacheHits = new AtomicLong();
+
+    private final LatencyHistogram getLatency = new LatencyHistogram();
+    private final LatencyHistogram putLatency = new LatencyHistogram();
+    private final LatencyHistogram deleteLatency = new LatencyHistogram();
+    private final LatencyHistogram batchLatency = new LatencyHistogram();
+
+    DataSourceMetrics(String name) {
+        this.name = name;
+    }
+
+    public void onGet(byte[] value, long nanos) {
+        getLatency.record(nanos);
+        if (value == null) {
+            getMisses.incrementAndGet();
+        } else {
+            getBytes.addAndGet(value.length);
+        }
+    }
+
+    public void onPut(byte[] key, byte[] value, long nanos) {
+        putLatency.record(nanos);
+        putBytes.addAndGet(key.length + (value == null ? 0 : value.length));
+    }
+
+    public void onDelete(long nanos) {
+        deleteLatency.record(nanos);
+    }
+
+    public void onBatch(int rows, long bytes, long nanos) {
+        batchLatency.record(nanos);
+        batchRows.addAndGet(rows);
+        batchBytes.addAndGet(bytes);
+    }
+
+    public void onCacheHit() {
+        cacheHits.incrementAndGet();
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public long getGetCount() {
+        return getLatency.getCount();
+    }
+
+    @Override
+    public long getGetMissCount() {
+        return getMisses.get();
+    }
+
+    @Override
+    public long getGetBytes() {
+        return getBytes.get();
+    }
+
+    @Override
+    public double getGetLatencyMeanMicros() {
+        return getLatency.getMeanMicros();
+    }
+
+    @Override
+    public long getGetLatency99Micros() {
+        return getLatency.getPercentileMicros(0.99);
+    }
+
+    @Override
+    public long getPutCount() {
+        return putLatency.getCount();
+    }
+
+    @Override
+    public long getPutBytes() {
+        return putBytes.get();
+    }
+
+    @Override
+    public double getPutLatencyMeanMicros() {
+        return putLatency.getMeanMicros();
+    }
+
+    @Override
+    public long getPutLatency99Micros() {
+        return putLatency.getPercentileMicros(0.99);
+    }
+
+    @Override
+    public long getDeleteCount() {
+        return deleteLatency.getCount();
+    }
+
+    @Override
+    public double getDeleteLatencyMeanMicros() {
+        return deleteLatency.getMeanMicros();
+    }
+
+    @Override
+    public long getBatchCount() {
+        return batchLatency.getCount();
+    }
+
+    @Override
+    public long getBatchRows() {
+        return batchRows.get();
+    }
+
+    @Override
+    public long getBatchBytes() {
+        return batchBytes.get();
+    }
+
+    @Override
+    public double getBatchLatencyMeanMicros() {
+        return batchLatency.getMeanMicros();
+    }
+
+    @Override
+    public long getBatchLatency99Micros() {
+        return batchLatency.getPercentileMicros(0.99);
+    }
+
+    @Override
+    public long getCacheHitCount() {
+        return cacheHits.get();
+    }
+
+    @Override
+    public double getCacheHitRatio() {
+        long hits = cacheHits.get();
+        long total = hits + getLatency.getCount();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    @Override
+    public void reset() {
+        getMisses.set(0);
+        getBytes.set(0);
+        putBytes.set(0);
+        batchRows.set(0);
+        batchBytes.set(0);
+        cacheHits.set(0);
+        getLatency.reset();
+        putLatency.reset();
+        deleteLatency.reset();
+        batchLatency.reset();
+    }
+
+    @Override
+    public String toString() {
+        return format("%s: get %d (miss %d, %.1f us avg, %d us p99), put %d (%.1f us avg), delete %d, " +
+                        "batch %d / %d rows / %.2f MB (%.1f us avg), cache hit %.1f%%",
+                name, getGetCount(), getGetMissCount(), getGetLatencyMeanMicros(), getGetLatency99Micros(),
+                getPutCount(), getPutLatencyMeanMicros(), getDeleteCount(),
+                getBatchCount(), getBatchRows(), (double) getBatchBytes() / 1_048_576, getBatchLatencyMeanMicros(),
+                getCacheHitRatio() * 100);
+    }
+
+    /**
+     * Lock-free latency histogram with power-of-two microsecond buckets:
+     * bucket N holds samples in [2^(N-1), 2^N) us, bucket 0 holds sub-microsecond samples
+     */
+    public static class LatencyHistogram {
+        private static final int BUCKETS = 32;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+
+        public void record(long nanos) {
+            long micros = nanos / 1000;
+            int bucket = micros == 0 ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+            buckets.incrementAndGet(bucket);
+            count.incrementAndGet();
+            totalNanos.addAndGet(nanos);
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+
+        public double getMeanMicros() {
+            long cnt = count.get();
+            return cnt == 0 ? 0 : (double) totalNanos.get() / cnt / 1000;
+        }
+
+        /**
+         * @return upper bound (in microseconds) of the bucket containing the requested percentile
+         */
+        public long getPercentileMicros(double percentile) {
+            long cnt = count.get();
+            if (cnt == 0) return 0;
+            long threshold = (long) Math.ceil(cnt * percentile);
+            long acc = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                acc += buckets.get(i);
+                if (acc >= threshold) return 1L << i;
+            }
+            return 1L << (BUCKETS - 1);
+        }
+
+        public void reset() {
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets.set(i, 0);
+            }
+            count.set(0);
+            totalNanos.set(0);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package org.ethereum.datasource;
+
+/**
+ * JMX view of {@link DataSourceMetrics}.
+ * Registered as <code>org.ethereum:type=DataSource,name=[db name]</code>
+ */
+public interface DataSourceMetricsMBean {
+
+    String getName();
+
+    long getGetCount();
+
+    long getGetMissCount();
+
+    long getGetBytes();
+
+    double getGetLatencyMeanMicros();
+
+    long getGetLatency99Micros();
+
+    long getPutCount();
+
+    long getPutBytes();
+
+    double getPutLatencyMeanMicros();
+
+    long getPutLatency99Micros();
+
+    long getDeleteCount();
+
+    double getDeleteLatencyMeanMicros();
+
+    long getBatchCount();
+
+    long getBatchRows();
+
+    long getBatchBytes();
+
+    double getBatchLatencyMeanMicros();
+
+    long getBatchLatency99Micros();
+
+    long getCacheHitCount();
+
+    double getCacheHitRatio();
+
+    void reset();
+}
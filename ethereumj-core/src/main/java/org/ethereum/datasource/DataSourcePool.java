@@ -1,5 +1,6 @@
 package org.ethereum.datasource;
 
+import org.ethereum.config.SystemProperties;
 import org.slf4j.Logger;
 
 import javax.annotation.Nonnull;
@@ -19,7 +20,13 @@ public class DataSourcePool {
     }
 
     public static KeyValueDataSource levelDbByName(String name) {
-        return (KeyValueDataSource) getDataSourceFromPool(name, new LevelDbDataSource());
+        SystemProperties config = SystemProperties.CONFIG;
+        KeyValueDataSource dataSource = new LevelDbDataSource();
+        if (config.databaseMetricsEnabled()) {
+            dataSource = new InstrumentedDataSource(dataSource);
+        }
+        dataSource = BloomedDataSource.forProfile(dataSource, config.levelDbProfile(name), config);
+        return (KeyValueDataSource) getDataSourceFromPool(name, dataSource);
     }
 
     private static DataSource getDataSourceFromPool(String name, @Nonnull DataSource dataSource) {
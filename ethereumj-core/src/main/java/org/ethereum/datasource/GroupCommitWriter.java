@@ -0,0 +1,286 @@
+package org.ethereum.datasource;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import org.ethereum.db.ByteArrayWrapper;
+import org.ethereum.util.ByteUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.spongycastle.util.encoders.Hex;
+
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Single writer thread performing the writes of several data sources in the submission order.
+ *
+ * The consecutive batches addressed to the same data source are merged into a single
+ * {@link KeyValueDataSource#updateBatch(Map)} call (later values win), so the number of
+ * underlying writes depends on how fast the disk is rather than on how many stores flush.
+ *
+ * Since the writes are ordered a commit marker submitted via {@link #commitBlock(long, byte[])}
+ * becomes durable only after all the data submitted before it. The markers are written once
+ * per group after its data: every LevelDB written since the previous marker is synced first,
+ * then the marker is written with the sync write. Thus the marker survives the OS crash only
+ * together with the preceding data (the data sources other than LevelDB aren't synced).
+ * On startup the marker tells the last block whose data is completely on disk.
+ *
+ * Once a write fails the writer rejects all subsequent writes so the marker never
+ * gets ahead of the data.
+ */
+public class GroupCommitWriter {
+
+    private static final Logger logger = LoggerFactory.getLogger("db");
+
+    static final byte[] COMMIT_MARKER_KEY = "lastCommittedBlock".getBytes();
+
+    private static final int MAX_GROUP_TASKS = 1024;
+
+    private final BlockingQueue<WriteTask> queue = new LinkedBlockingQueue<>();
+    private final long maxPendingBytes;
+    private long pendingBytes;
+    private volatile Throwable failure;
+
+    private final KeyValueDataSource markerSource;
+    private Thread writerThread;
+    private volatile boolean closed;
+
+    // written without the sync since the last marker, accessed by the writer thread only
+    private final Set<KeyValueDataSource> unsynced = new HashSet<>();
+
+    /**
+     * @param markerSource where the commit marker is stored, initialized on first use if not alive
+     * @param maxPendingBytes submitters are blocked while the queued data exceeds this size
+     */
+    public GroupCommitWriter(KeyValueDataSource markerSource, long maxPendingBytes) {
+        this.markerSource = markerSource;
+        this.maxPendingBytes = maxPendingBytes;
+    }
+
+    static class WriteTask {
+        final KeyValueDataSource target;
+        final AsyncWriteDataSource owner;
+        final Map<ByteArrayWrapper, byte[]> rows;
+        final byte[] deleteKey;
+        final long bytes;
+        final SettableFuture<Void> future = SettableFuture.create();
+
+        WriteTask(KeyValueDataSource target, AsyncWriteDataSource owner, Map<ByteArrayWrapper, byte[]> rows, byte[] deleteKey) {
+            this.target = target;
+            this.owner = owner;
+            this.rows = rows;
+            this.deleteKey = deleteKey;
+            long size = deleteKey == null ? 0 : deleteKey.length;
+            if (rows != null) {
+                for (Map.Entry<ByteArrayWrapper, byte[]> entry : rows.entrySet()) {
+                    size += entry.getKey().getData().length + entry.getValue().length;
+                }
+            }
+            this.bytes = size;
+        }
+
+        boolean isBatch() {
+            return rows != null;
+        }
+    }
+
+    ListenableFuture<Void> submitBatch(AsyncWriteDataSource owner, KeyValueDataSource target, Map<ByteArrayWrapper, byte[]> rows) {
+        return submit(new WriteTask(target, owner, rows, null));
+    }
+
+    ListenableFuture<Void> submitDelete(AsyncWriteDataSource owner, KeyValueDataSource target, byte[] key) {
+        return submit(new WriteTask(target, owner, null, key));
+    }
+
+    /**
+     * Submits the commit marker which is written after all the data submitted so far
+     */
+    public ListenableFuture<Void> commitBlock(long number, byte[] hash) {
+        synchronized (markerSource) {
+            if (!markerSource.isAlive()) markerSource.init();
+        }
+        Map<ByteArrayWrapper, byte[]> rows = new HashMap<>();
+        rows.put(new ByteArrayWrapper(COMMIT_MARKER_KEY), ByteUtil.merge(ByteUtil.longToBytes(number), hash));
+        return submit(new WriteTask(markerSource, null, rows, null));
+    }
+
+    /**
+     * @return number of the last block which data was completely written or -1 if unknown
+     */
+    public long getLastCommittedBlock() {
+        synchronized (markerSource) {
+            if (!markerSource.isAlive()) markerSource.init();
+        }
+        byte[] marker = markerSource.get(COMMIT_MARKER_KEY);
+        return marker == null ? -1 : ByteUtil.byteArrayToLong(Arrays.copyOfRange(marker, 0, 8));
+    }
+
+    private ListenableFuture<Void> submit(WriteTask task) {
+        checkFailure();
+        synchronized (this) {
+            startIfNeeded();
+            try {
+                while (pendingBytes > 0 && pendingBytes + task.bytes > maxPendingBytes) {
+                    wait();
+                    checkFailure();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+            pendingBytes += task.bytes;
+            queue.add(task);
+        }
+        return task.future;
+    }
+
+    private void checkFailure() {
+        if (closed) throw new IllegalStateException("Group commit writer is closed");
+        if (failure != null) throw new RuntimeException("Write pipeline failed earlier", failure);
+    }
+
+    private void startIfNeeded() {
+        if (writerThread != null) return;
+        writerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, "GroupCommitWriter");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    private void writeLoop() {
+        List<WriteTask> group = new ArrayList<>();
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                group.add(queue.take());
+            } catch (InterruptedException e) {
+                break;
+            }
+            queue.drainTo(group, MAX_GROUP_TASKS);
+
+            // the markers are postponed till the end of the group, the latest one wins
+            List<WriteTask> markers = new ArrayList<>();
+            int i = 0;
+            while (i < group.size()) {
+                if (group.get(i).target == markerSource) {
+                    markers.add(group.get(i++));
+                    continue;
+                }
+                int j = i + 1;
+                if (group.get(i).isBatch()) {
+                    while (j < group.size() && group.get(j).isBatch() && group.get(j).target == group.get(i).target) j++;
+                }
+                write(group.subList(i, j), false);
+                i = j;
+            }
+            if (!markers.isEmpty()) write(markers, true);
+            group.clear();
+        }
+    }
+
+    private void write(List<WriteTask> tasks, boolean sync) {
+        WriteTask first = tasks.get(0);
+        long bytes = 0;
+        try {
+            if (failure != null) throw new RuntimeException("Write pipeline failed earlier", failure);
+
+            if (first.isBatch()) {
+                Map<ByteArrayWrapper, byte[]> merged = tasks.size() == 1 ? first.rows :
+                        new HashMap<ByteArrayWrapper, byte[]>();
+                if (tasks.size() > 1) {
+                    for (WriteTask task : tasks) merged.putAll(task.rows);
+                }
+                Map<byte[], byte[]> batch = new HashMap<>(merged.size());
+                for (Map.Entry<ByteArrayWrapper, byte[]> entry : merged.entrySet()) {
+                    batch.put(entry.getKey().getData(), entry.getValue());
+                }
+                if (sync) {
+                    for (KeyValueDataSource target : unsynced) {
+                        syncWrite(target, Collections.<byte[], byte[]>emptyMap());
+                    }
+                    unsynced.clear();
+                    syncWrite(first.target, batch);
+                } else {
+                    first.target.updateBatch(batch);
+                    unsynced.add(first.target);
+                }
+                if (logger.isTraceEnabled()) logger.trace("Group write to '{}': {} batches, {} rows",
+                        first.target.getName(), tasks.size(), batch.size());
+            } else {
+                first.target.delete(first.deleteKey);
+                unsynced.add(first.target);
+            }
+
+            for (WriteTask task : tasks) {
+                bytes += task.bytes;
+                if (task.owner != null) task.owner.onWritten(task);
+                task.future.set(null);
+            }
+        } catch (Throwable t) {
+            if (failure == null) {
+                logger.error("Error writing to '" + first.target.getName() + "', write pipeline stopped", t);
+                failure = t;
+            }
+            for (WriteTask task : tasks) {
+                bytes += task.bytes;
+                task.future.setException(failure);
+            }
+        }
+
+        synchronized (this) {
+            pendingBytes -= bytes;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Writes the batch syncing the LevelDB log, i.e. all the writes made to the LevelDB
+     * before become durable as well. Other data sources are written as usual
+     */
+    private static void syncWrite(KeyValueDataSource target, Map<byte[], byte[]> batch) {
+        KeyValueDataSource ds = target;
+        while (ds instanceof InstrumentedDataSource) ds = ((InstrumentedDataSource) ds).source;
+        if (ds instanceof LevelDbDataSource) {
+            ((LevelDbDataSource) ds).updateBatchSync(batch);
+        } else if (!batch.isEmpty()) {
+            target.updateBatch(batch);
+        }
+    }
+
+    /**
+     * Waits for all the submitted writes and stops the writer thread,
+     * should be called before the data sources are closed
+     */
+    public void close() {
+        synchronized (this) {
+            if (writerThread == null) return;
+            try {
+                while (pendingBytes > 0 && failure == null) wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            closed = true;
+        }
+        writerThread.interrupt();
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public synchronized long getPendingBytes() {
+        return pendingBytes;
+    }
+
+    @Override
+    public String toString() {
+        byte[] marker = markerSource.isAlive() ? markerSource.get(COMMIT_MARKER_KEY) : null;
+        return "GroupCommitWriter[pending: " + getPendingBytes() + " bytes, marker: " +
+                (marker == null ? "none" : Hex.toHexString(marker)) + "]";
+    }
+}
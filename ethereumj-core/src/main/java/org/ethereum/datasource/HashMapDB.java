@@ -1,13 +1,14 @@
 package org.ethereum.datasource;
 
 import org.ethereum.db.ByteArrayWrapper;
+import org.ethereum.util.Functional;
 import org.iq80.leveldb.DBException;
 
 import java.util.*;
 
 import static org.ethereum.util.ByteUtil.wrap;
 
-public class HashMapDB implements KeyValueDataSource {
+public class HashMapDB implements KeyValueDataSource, IterableDataSource {
 
     Map<ByteArrayWrapper, byte[]> storage = new HashMap<>();
     private boolean clearOnClose = true;
@@ -67,6 +68,18 @@ public class HashMapDB implements KeyValueDataSource {
         return keys;
     }
 
+    @Override
+    public void forEachKey(Functional.Consumer<byte[]> consumer) {
+        // the copy lets the consumer update the storage
+        List<ByteArrayWrapper> keys;
+        synchronized (this) {
+            keys = new ArrayList<>(storage.keySet());
+        }
+        for (ByteArrayWrapper key : keys) {
+            consumer.accept(key.getData());
+        }
+    }
+
     @Override
     public synchronized void updateBatch(Map<byte[], byte[]> rows) {
         for (byte[] key :  rows.keySet()){
@@ -0,0 +1,139 @@
+package org.ethereum.datasource;
+
+import org.ethereum.util.Functional;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Decorator collecting per-database I/O statistics ({@link DataSourceMetrics})
+ * around any {@link KeyValueDataSource}.
+ *
+ * The metrics are bound by the database name, so the name may be assigned
+ * after the decorator is created (as it is done by the Spring config)
+ */
+public class InstrumentedDataSource implements KeyValueDataSource, IterableDataSource {
+    KeyValueDataSource source;
+    private volatile DataSourceMetrics metrics;
+
+    public InstrumentedDataSource(KeyValueDataSource source) {
+        this.source = source;
+        if (source.getName() != null) {
+            metrics = DataSourceMetrics.forName(source.getName());
+        }
+    }
+
+    /**
+     * Reports the cache hit to the metrics of the underlying source if it is instrumented.
+     * The decorators stacked on top of the instrumented source (see CommonConfig) are unwrapped
+     */
+    public static void onCacheHit(KeyValueDataSource source) {
+        InstrumentedDataSource instrumented = find(source);
+        if (instrumented != null) {
+            DataSourceMetrics metrics = instrumented.metrics;
+            if (metrics != null) metrics.onCacheHit();
+        }
+    }
+
+    private static InstrumentedDataSource find(KeyValueDataSource source) {
+        while (true) {
+            if (source instanceof InstrumentedDataSource) {
+                return (InstrumentedDataSource) source;
+            } else if (source instanceof AsyncWriteDataSource) {
+                source = ((AsyncWriteDataSource) source).source;
+            } else if (source instanceof BloomedDataSource) {
+                source = ((BloomedDataSource) source).source;
+            } else if (source instanceof CachingDataSource) {
+                source = ((CachingDataSource) source).source;
+            } else if (source instanceof XorDataSource) {
+                source = ((XorDataSource) source).source;
+            } else {
+                return null;
+            }
+        }
+    }
+
+    public DataSourceMetrics getMetrics() {
+        return metrics;
+    }
+
+    public KeyValueDataSource getSource() {
+        return source;
+    }
+
+    @Override
+    public byte[] get(byte[] key) {
+        long s = System.nanoTime();
+        byte[] ret = source.get(key);
+        if (metrics != null) metrics.onGet(ret, System.nanoTime() - s);
+        return ret;
+    }
+
+    @Override
+    public byte[] put(byte[] key, byte[] value) {
+        long s = System.nanoTime();
+        byte[] ret = source.put(key, value);
+        if (metrics != null) metrics.onPut(key, value, System.nanoTime() - s);
+        return ret;
+    }
+
+    @Override
+    public void delete(byte[] key) {
+        long s = System.nanoTime();
+        source.delete(key);
+        if (metrics != null) metrics.onDelete(System.nanoTime() - s);
+    }
+
+    @Override
+    public Set<byte[]> keys() {
+        return source.keys();
+    }
+
+    @Override
+    public void forEachKey(Functional.Consumer<byte[]> consumer) {
+        if (source instanceof IterableDataSource) {
+            ((IterableDataSource) source).forEachKey(consumer);
+        } else {
+            for (byte[] key : source.keys()) consumer.accept(key);
+        }
+    }
+
+    @Override
+    public void updateBatch(Map<byte[], byte[]> rows) {
+        long s = System.nanoTime();
+        source.updateBatch(rows);
+        if (metrics != null) {
+            long bytes = 0;
+            for (Map.Entry<byte[], byte[]> entry : rows.entrySet()) {
+                bytes += entry.getKey().length + (entry.getValue() == null ? 0 : entry.getValue().length);
+            }
+            metrics.onBatch(rows.size(), bytes, System.nanoTime() - s);
+        }
+    }
+
+    @Override
+    public void setName(String name) {
+        source.setName(name);
+        metrics = DataSourceMetrics.forName(name);
+    }
+
+    @Override
+    public String getName() {
+        return source.getName();
+    }
+
+    @Override
+    public void init() {
+        source.init();
+    }
+
+    @Override
+    public boolean isAlive() {
+        return source.isAlive();
+    }
+
+    @Override
+    public void close() {
+        source.close();
+    }
+}
@@ -0,0 +1,16 @@
+package org.ethereum.datasource;
+
+import org.ethereum.util.Functional;
+
+/**
+ * The data source which walks over its keys one by one
+ * instead of loading them all in memory like {@link KeyValueDataSource#keys()} does
+ */
+public interface IterableDataSource {
+
+    /**
+     * Passes every key to the consumer, the data source may be updated by the consumer meanwhile
+     * but it's not defined whether the keys added after the call started are passed
+     */
+    void forEachKey(Functional.Consumer<byte[]> consumer);
+}
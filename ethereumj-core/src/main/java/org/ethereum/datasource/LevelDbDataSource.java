@@ -1,6 +1,7 @@
 package org.ethereum.datasource;
 
 import org.ethereum.config.SystemProperties;
+import org.ethereum.util.Functional;
 import org.iq80.leveldb.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -30,7 +31,7 @@ import static org.fusesource.leveldbjni.JniDBFactory.factory;
  */
 @Component
 @Scope("prototype")
-public class LevelDbDataSource implements KeyValueDataSource {
+public class LevelDbDataSource implements KeyValueDataSource, IterableDataSource {
 
     private static final Logger logger = LoggerFactory.getLogger("db");
 
@@ -40,6 +41,7 @@ public class LevelDbDataSource implements KeyValueDataSource {
     String name;
     DB db;
     boolean alive;
+    LevelDbProfile profile;
 
     // The native LevelDB insert/update/delete are normally thread-safe
     // However close operation is not thread-safe and may lead to a native crash when
@@ -67,15 +69,10 @@ public class LevelDbDataSource implements KeyValueDataSource {
 
             if (name == null) throw new NullPointerException("no name set to the db");
 
-            Options options = new Options();
-            options.createIfMissing(true);
-            options.compressionType(CompressionType.NONE);
-            options.blockSize(10 * 1024 * 1024);
-            options.writeBufferSize(10 * 1024 * 1024);
-            options.cacheSize(0);
-            options.paranoidChecks(true);
-            options.verifyChecksums(true);
-            options.maxOpenFiles(32);
+            profile = config.levelDbProfile(name);
+            long sharedCacheSize = config.levelDbSharedCacheSize();
+            Options options = profile.toOptions(sharedCacheSize);
+            logger.info("LevelDB '{}' options: {}", name, profile.toString(sharedCacheSize));
 
             try {
                 logger.debug("Opening database");
@@ -116,6 +113,13 @@ public class LevelDbDataSource implements KeyValueDataSource {
         }
     }
 
+    /**
+     * @return the options the database was opened with
+     */
+    public LevelDbProfile getProfile() {
+        return profile;
+    }
+
     @Override
     public void setName(String name) {
         this.name = name;
@@ -192,6 +196,24 @@ public class LevelDbDataSource implements KeyValueDataSource {
         }
     }
 
+    @Override
+    public void forEachKey(Functional.Consumer<byte[]> consumer) {
+        resetDbLock.readLock().lock();
+        try {
+            // the iterator works on the snapshot, so the consumer may update the database
+            try (DBIterator iterator = db.iterator()) {
+                for (iterator.seekToFirst(); iterator.hasNext(); iterator.next()) {
+                    consumer.accept(iterator.peekNext().getKey());
+                }
+            } catch (IOException e) {
+                logger.error("Unexpected", e);
+                throw new RuntimeException(e);
+            }
+        } finally {
+            resetDbLock.readLock().unlock();
+        }
+    }
+
     private void updateBatchInternal(Map<byte[], byte[]> rows) throws IOException {
         try (WriteBatch batch = db.createWriteBatch()) {
             for (Map.Entry<byte[], byte[]> entry : rows.entrySet()) {
@@ -201,6 +223,29 @@ public class LevelDbDataSource implements KeyValueDataSource {
         }
     }
 
+    /**
+     * Writes the batch and syncs the log to disk before returning, so the rows
+     * survive the OS crash as well. Much slower than {@link #updateBatch(Map)}
+     */
+    public void updateBatchSync(Map<byte[], byte[]> rows) {
+        resetDbLock.readLock().lock();
+        try {
+            if (logger.isTraceEnabled()) logger.trace("~> LevelDbDataSource.updateBatchSync(): " + name + ", " + rows.size());
+            try (WriteBatch batch = db.createWriteBatch()) {
+                for (Map.Entry<byte[], byte[]> entry : rows.entrySet()) {
+                    batch.put(entry.getKey(), entry.getValue());
+                }
+                db.write(batch, new WriteOptions().sync(true));
+            } catch (IOException e) {
+                logger.error("Error", e);
+                throw new RuntimeException(e);
+            }
+            if (logger.isTraceEnabled()) logger.trace("<~ LevelDbDataSource.updateBatchSync(): " + name + ", " + rows.size());
+        } finally {
+            resetDbLock.readLock().unlock();
+        }
+    }
+
     @Override
     public void updateBatch(Map<byte[], byte[]> rows) {
         resetDbLock.readLock().lock();
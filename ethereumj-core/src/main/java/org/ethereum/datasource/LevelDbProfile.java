@@ -0,0 +1,121 @@
+package org.ethereum.datasource;
+
+import com.typesafe.config.Config;
+import org.iq80.leveldb.CompressionType;
+import org.iq80.leveldb.Options;
+
+/**
+ * LevelDB tuning options of a single database.
+ *
+ * Profiles are defined in the 'database.leveldb' config section: the 'default' profile
+ * is applied to every database and can be overridden per database name
+ * (see {@link org.ethereum.config.SystemProperties#levelDbProfile(String)})
+ */
+public class LevelDbProfile {
+
+    private final long cacheSize;
+    private final double cacheShare;
+    private final int writeBufferSize;
+    private final int blockSize;
+    private final int bloomFilterBits;
+    private final CompressionType compression;
+    private final int maxOpenFiles;
+
+    public LevelDbProfile(long cacheSize, double cacheShare, int writeBufferSize, int blockSize,
+                          int bloomFilterBits, CompressionType compression, int maxOpenFiles) {
+        this.cacheSize = cacheSize;
+        this.cacheShare = cacheShare;
+        this.writeBufferSize = writeBufferSize;
+        this.blockSize = blockSize;
+        this.bloomFilterBits = bloomFilterBits;
+        this.compression = compression;
+        this.maxOpenFiles = maxOpenFiles;
+    }
+
+    public static LevelDbProfile fromConfig(Config config) {
+        String compression = config.getString("compression").trim().toUpperCase();
+        return new LevelDbProfile(
+                config.getBytes("cacheSize"),
+                config.getDouble("cacheShare"),
+                config.getBytes("writeBufferSize").intValue(),
+                config.getBytes("blockSize").intValue(),
+                config.getInt("bloomFilterBits"),
+                CompressionType.valueOf(compression),
+                config.getInt("maxOpenFiles"));
+    }
+
+    /**
+     * @param sharedCacheSize total block cache budget shared by all databases,
+     *                        when positive the database gets {@code cacheShare} of it
+     *                        instead of its own {@code cacheSize}
+     */
+    public Options toOptions(long sharedCacheSize) {
+        Options options = new Options();
+        options.createIfMissing(true);
+        options.compressionType(compression);
+        options.blockSize(blockSize);
+        options.writeBufferSize(writeBufferSize);
+        options.cacheSize(getEffectiveCacheSize(sharedCacheSize));
+        options.paranoidChecks(true);
+        options.verifyChecksums(true);
+        options.maxOpenFiles(maxOpenFiles);
+        return options;
+    }
+
+    public long getEffectiveCacheSize(long sharedCacheSize) {
+        return sharedCacheSize > 0 ? (long) (sharedCacheSize * cacheShare) : cacheSize;
+    }
+
+    public long getCacheSize() {
+        return cacheSize;
+    }
+
+    public double getCacheShare() {
+        return cacheShare;
+    }
+
+    public int getWriteBufferSize() {
+        return writeBufferSize;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * The LevelDB bindings in use don't expose the native filter policy,
+     * so the bits per key are served by the {@link BloomedDataSource} in front of the database
+     */
+    public int getBloomFilterBits() {
+        return bloomFilterBits;
+    }
+
+    /**
+     * @return false positive rate of the optimal bloom filter with {@link #getBloomFilterBits()} bits per key
+     */
+    public double getBloomFalsePositiveRate() {
+        return Math.pow(0.5, bloomFilterBits * Math.log(2));
+    }
+
+    public CompressionType getCompression() {
+        return compression;
+    }
+
+    public int getMaxOpenFiles() {
+        return maxOpenFiles;
+    }
+
+    public String toString(long sharedCacheSize) {
+        return "cacheSize=" + getEffectiveCacheSize(sharedCacheSize) + (sharedCacheSize > 0 ? " (shared)" : "") +
+                ", writeBufferSize=" + writeBufferSize +
+                ", blockSize=" + blockSize +
+                ", bloomFilterBits=" + bloomFilterBits +
+                ", compression=" + compression +
+                ", maxOpenFiles=" + maxOpenFiles;
+    }
+
+    @Override
+    public String toString() {
+        return toString(0);
+    }
+}
@@ -11,7 +11,6 @@ import org.springframework.util.StringUtils;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
 import redis.clients.jedis.JedisPoolConfig;
-import redis.clients.jedis.Protocol;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
@@ -49,19 +48,28 @@ public class RedisConnectionImpl implements RedisConnection {
     }
 
     private static JedisPool createJedisPool(URI redisUri) {
+        SystemProperties config = SystemProperties.CONFIG;
+        JedisPoolConfig poolConfig = new JedisPoolConfig();
+        poolConfig.setMaxTotal(config.redisPoolMaxTotal());
+        poolConfig.setMaxIdle(config.redisPoolMaxIdle());
+        poolConfig.setMinIdle(config.redisPoolMinIdle());
+        // broken connections are returned via returnBrokenResource, no need to ping on every borrow
+        poolConfig.setTestOnBorrow(false);
+        poolConfig.setTestWhileIdle(true);
+
         String userInfo = redisUri.getUserInfo();
         if (StringUtils.hasText(userInfo)) {
-            return new JedisPool(new JedisPoolConfig(),
+            return new JedisPool(poolConfig,
                     redisUri.getHost(),
                     redisUri.getPort(),
-                    Protocol.DEFAULT_TIMEOUT,
+                    config.redisTimeout(),
                     userInfo.split(":", 2)[1]);
         }
 
-        return new JedisPool(new JedisPoolConfig(),
+        return new JedisPool(poolConfig,
                 redisUri.getHost(),
                 redisUri.getPort(),
-                Protocol.DEFAULT_TIMEOUT);
+                config.redisTimeout());
     }
 
     @PreDestroy
@@ -68,9 +68,28 @@ public class RedisDataSource extends RedisMap<byte[], byte[]> implements KeyValu
         return super.get(key);
     }
 
+    /**
+     * Unlike {@link Map#put(Object, Object)} doesn't read the previous value
+     */
+    @Override
+    public byte[] put(final byte[] key, final byte[] value) {
+        pooled(new Consumer<Jedis>() {
+            @Override
+            public void accept(Jedis jedis) {
+                jedis.hset(getNameBytes(), key, value);
+            }
+        });
+        return value;
+    }
+
     @Override
     public void delete(final byte[] key) {
-        remove(key);
+        pooled(new Consumer<Jedis>() {
+            @Override
+            public void accept(Jedis jedis) {
+                jedis.hdel(getNameBytes(), key);
+            }
+        });
     }
 
     @Override
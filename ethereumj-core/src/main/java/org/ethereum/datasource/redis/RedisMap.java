@@ -4,6 +4,8 @@ import org.apache.commons.collections4.Transformer;
 import org.apache.commons.collections4.keyvalue.AbstractMapEntry;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
 
 import java.util.*;
 
@@ -69,42 +71,102 @@ public class RedisMap<K, V> extends RedisStorage<V> implements Map<K, V> {
         });
     }
 
+    /**
+     * Reads the values of all the keys with a single round trip (HMGET per 'redis.batchSize' keys)
+     *
+     * @return values of the existing keys
+     */
+    public Map<K, V> getAll(Collection<? extends K> keys) {
+        final List<K> keyList = new ArrayList<K>(keys);
+        final List<Response<List<byte[]>>> responses = new ArrayList<Response<List<byte[]>>>();
+        pipelined(new Consumer<Pipeline>() {
+            @Override
+            public void accept(Pipeline pipeline) {
+                for (List<K> batch : batches(keyList)) {
+                    byte[][] fields = new byte[batch.size()][];
+                    for (int i = 0; i < fields.length; i++) {
+                        fields[i] = serializeKey(batch.get(i));
+                    }
+                    responses.add(pipeline.hmget(getNameBytes(), fields));
+                }
+            }
+        });
+
+        Map<K, V> result = new HashMap<K, V>();
+        int i = 0;
+        for (Response<List<byte[]>> response : responses) {
+            for (byte[] value : response.get()) {
+                K key = keyList.get(i++);
+                if (value != null) result.put(key, deserialize(value));
+            }
+        }
+        return result;
+    }
+
     @Override
     public V put(final K key, final V value) {
-        return pooledWithResult(new Function<Jedis, V>() {
+        final Response<byte[]>[] oldValue = new Response[1];
+        pipelined(new Consumer<Pipeline>() {
             @Override
-            public V apply(Jedis jedis) {
+            public void accept(Pipeline pipeline) {
                 byte[] serializedKey = serializeKey(key);
-                byte[] oldValue = jedis.hget(getNameBytes(), serializedKey);
-                jedis.hset(getNameBytes(), serializedKey, serialize(value));
-                return deserialize(oldValue);
+                oldValue[0] = pipeline.hget(getNameBytes(), serializedKey);
+                pipeline.hset(getNameBytes(), serializedKey, serialize(value));
             }
         });
+        return deserialize(oldValue[0].get());
     }
 
     @Override
     public V remove(final Object key) {
-        return pooledWithResult(new Function<Jedis, V>() {
+        final Response<byte[]>[] oldValue = new Response[1];
+        pipelined(new Consumer<Pipeline>() {
             @Override
-            public V apply(Jedis jedis) {
+            public void accept(Pipeline pipeline) {
                 byte[] serializedKey = serializeKey((K) key);
-                byte[] oldValue = jedis.hget(getNameBytes(), serializedKey);
-                jedis.hdel(getNameBytes(), serializedKey);
-                return deserialize(oldValue);
+                oldValue[0] = pipeline.hget(getNameBytes(), serializedKey);
+                pipeline.hdel(getNameBytes(), serializedKey);
             }
         });
+        return deserialize(oldValue[0].get());
     }
 
     @Override
     public void putAll(final Map<? extends K, ? extends V> m) {
-        pooled(new Consumer<Jedis>() {
+        if (m.isEmpty()) return;
+
+        final List<Entry<? extends K, ? extends V>> entries = new ArrayList<Entry<? extends K, ? extends V>>(m.entrySet());
+        pipelined(new Consumer<Pipeline>() {
             @Override
-            public void accept(Jedis jedis) {
-                Map<byte[], byte[]> map = new HashMap<byte[], byte[]>();
-                for (Entry<? extends K, ? extends V> entry : m.entrySet()) {
-                    map.put(serializeKey(entry.getKey()), serialize(entry.getValue()));
+            public void accept(Pipeline pipeline) {
+                for (List<Entry<? extends K, ? extends V>> batch : batches(entries)) {
+                    Map<byte[], byte[]> map = new HashMap<byte[], byte[]>();
+                    for (Entry<? extends K, ? extends V> entry : batch) {
+                        map.put(serializeKey(entry.getKey()), serialize(entry.getValue()));
+                    }
+                    pipeline.hmset(getNameBytes(), map);
+                }
+            }
+        });
+    }
+
+    /**
+     * Removes all the keys with a single round trip (HDEL per 'redis.batchSize' keys)
+     */
+    public void removeAll(final Collection<? extends K> keys) {
+        if (keys.isEmpty()) return;
+
+        final List<K> keyList = new ArrayList<K>(keys);
+        pipelined(new Consumer<Pipeline>() {
+            @Override
+            public void accept(Pipeline pipeline) {
+                for (List<K> batch : batches(keyList)) {
+                    byte[][] fields = new byte[batch.size()][];
+                    for (int i = 0; i < fields.length; i++) {
+                        fields[i] = serializeKey(batch.get(i));
+                    }
+                    pipeline.hdel(getNameBytes(), fields);
                 }
-                jedis.hmset(getNameBytes(), map);
             }
         });
     }
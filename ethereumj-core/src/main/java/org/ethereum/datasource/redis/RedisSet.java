@@ -3,11 +3,10 @@ package org.ethereum.datasource.redis;
 import org.apache.commons.collections4.CollectionUtils;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
 
-import java.util.Collection;
-import java.util.Collections;
-import java.util.Iterator;
-import java.util.Set;
+import java.util.*;
 
 import static org.ethereum.util.Functional.Consumer;
 import static org.ethereum.util.Functional.Function;
@@ -80,18 +79,36 @@ public class RedisSet<T> extends RedisStorage<T> implements Set<T> {
     }
 
     @Override
-    public boolean containsAll(Collection<?> c) {
-        return false;
+    public boolean containsAll(final Collection<?> c) {
+        final List<Response<Boolean>> responses = new ArrayList<Response<Boolean>>();
+        pipelined(new Consumer<Pipeline>() {
+            @Override
+            public void accept(Pipeline pipeline) {
+                for (Object o : c) {
+                    responses.add(pipeline.sismember(getNameBytes(), serialize((T) o)));
+                }
+            }
+        });
+        for (Response<Boolean> response : responses) {
+            if (!response.get()) return false;
+        }
+        return true;
     }
 
     @Override
     public boolean addAll(final Collection<? extends T> c) {
-        return pooledWithResult(new Function<Jedis, Boolean>() {
+        if (CollectionUtils.isEmpty(c)) return false;
+
+        final List<Response<Long>> responses = new ArrayList<Response<Long>>();
+        pipelined(new Consumer<Pipeline>() {
             @Override
-            public Boolean apply(Jedis jedis) {
-                return jedis.sadd(getNameBytes(), serialize(c)) == c.size();
+            public void accept(Pipeline pipeline) {
+                for (List<? extends T> batch : batches(new ArrayList<T>(c))) {
+                    responses.add(pipeline.sadd(getNameBytes(), serialize(batch)));
+                }
             }
         });
+        return sum(responses) == c.size();
     }
 
     @Override
@@ -112,12 +129,26 @@ public class RedisSet<T> extends RedisStorage<T> implements Set<T> {
 
     @Override
     public boolean removeAll(final Collection<?> c) {
-        return CollectionUtils.isEmpty(c) || pooledWithResult(new Function<Jedis, Boolean>() {
+        if (CollectionUtils.isEmpty(c)) return true;
+
+        final List<Response<Long>> responses = new ArrayList<Response<Long>>();
+        pipelined(new Consumer<Pipeline>() {
             @Override
-            public Boolean apply(Jedis jedis) {
-                return jedis.srem(getNameBytes(), serialize(c)) == c.size();
+            public void accept(Pipeline pipeline) {
+                for (List<?> batch : batches(new ArrayList<Object>(c))) {
+                    responses.add(pipeline.srem(getNameBytes(), serialize(batch)));
+                }
             }
         });
+        return sum(responses) == c.size();
+    }
+
+    private static long sum(List<Response<Long>> responses) {
+        long ret = 0;
+        for (Response<Long> response : responses) {
+            ret += response.get();
+        }
+        return ret;
     }
 
     @Override
@@ -9,8 +9,12 @@ import redis.clients.jedis.JedisPool;
 import redis.clients.jedis.Pipeline;
 
 import java.util.Collection;
+import java.util.List;
+
+import static com.google.common.collect.Iterables.partition;
 
 import static org.apache.commons.collections4.CollectionUtils.collect;
+import static org.ethereum.config.SystemProperties.CONFIG;
 import static org.ethereum.util.Functional.*;
 
 public abstract class RedisStorage<T> {
@@ -20,11 +24,13 @@ public abstract class RedisStorage<T> {
     private byte[] name;
     private final JedisPool pool;
     private final RedisSerializer<T> serializer;
+    private final int batchSize;
 
     RedisStorage(String name, JedisPool pool, RedisSerializer<T> serializer) {
         this.name = name.getBytes();
         this.pool = pool;
         this.serializer = serializer;
+        this.batchSize = CONFIG.redisBatchSize();
     }
 
     protected byte[] getNameBytes() {
@@ -86,6 +92,32 @@ public abstract class RedisStorage<T> {
         });
     }
 
+    /**
+     * Sends all the commands issued by the consumer in a single round trip.
+     * The {@link redis.clients.jedis.Response}s obtained inside are available after this method returns
+     */
+    protected void pipelined(final Consumer<Pipeline> consumer) {
+        pooled(new Consumer<Jedis>() {
+            @Override
+            public void accept(Jedis jedis) {
+                Pipeline pipeline = jedis.pipelined();
+                try {
+                    consumer.accept(pipeline);
+                } finally {
+                    pipeline.sync();
+                }
+            }
+        });
+    }
+
+    /**
+     * Splits the collection into the chunks of at most 'redis.batchSize' elements
+     * so the multi key commands don't block the server for too long
+     */
+    protected <E> Iterable<List<E>> batches(Collection<E> collection) {
+        return partition(collection, batchSize);
+    }
+
     protected void pooled(final Consumer<Jedis> consumer) {
         pooledWithResult(new Function<Jedis, Object>() {
             @Override
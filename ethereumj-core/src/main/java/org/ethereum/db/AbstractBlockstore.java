@@ -1,6 +1,7 @@
 package org.ethereum.db;
 
 import org.ethereum.core.Block;
+import org.ethereum.core.BlockHeader;
 
 /**
  * Created by Anton Nashatyrev on 29.10.2015.
@@ -9,13 +10,35 @@ public abstract class AbstractBlockstore implements BlockStore {
 
     @Override
     public byte[] getBlockHashByNumber(long blockNumber, byte[] branchBlockHash) {
-        Block branchBlock = getBlockByHash(branchBlockHash);
+        BlockHeader branchBlock = getHeaderByHash(branchBlockHash);
         if (branchBlock.getNumber() < blockNumber) {
             throw new IllegalArgumentException("Requested block number > branch hash number: " + blockNumber + " < " + branchBlock.getNumber());
         }
         while(branchBlock.getNumber() > blockNumber) {
-            branchBlock = getBlockByHash(branchBlock.getParentHash());
+            branchBlock = getHeaderByHash(branchBlock.getParentHash());
         }
         return branchBlock.getHash();
     }
+
+    @Override
+    public BlockHeader getHeaderByHash(byte[] hash) {
+        Block block = getBlockByHash(hash);
+        return block == null ? null : block.getHeader();
+    }
+
+    @Override
+    public byte[] getEncodedHeaderByHash(byte[] hash) {
+        BlockHeader header = getHeaderByHash(hash);
+        return header == null ? null : header.getEncoded();
+    }
+
+    @Override
+    public byte[] getEncodedBodyByHash(byte[] hash) {
+        Block block = getBlockByHash(hash);
+        return block == null ? null : block.getEncodedBody();
+    }
+
+    @Override
+    public void close() {
+    }
 }
@@ -0,0 +1,284 @@
+package org.ethereum.db;
+
+import org.ethereum.core.Block;
+import org.ethereum.core.Transaction;
+import org.ethereum.core.TransactionInfo;
+import org.ethereum.core.TransactionReceipt;
+import org.ethereum.datasource.Flushable;
+import org.ethereum.datasource.KeyValueDataSource;
+import org.ethereum.vm.LogInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.ethereum.util.ByteUtil.byteArrayToLong;
+import static org.ethereum.util.ByteUtil.longToBytes;
+
+/**
+ * Index of the main chain transactions touching the address:
+ * (address) => [(block number, tx index)] ordered by the block number.
+ * The address is touched by the transaction if it is the sender, the recipient,
+ * the created contract or the emitter of any transaction log.
+ *
+ * The postings of the address are split into chunks of {@link #CHUNK_ENTRIES} entries,
+ * every entry is the varint encoded block number delta and the tx index. The head record
+ * keeps the entry count and the last block number, so the block is appended without
+ * decoding and any page is read from the single chunk or two.
+ *
+ * Blocks are indexed {@link #CONFIRMATIONS} behind the best block to not bother with
+ * the reorgs. The index is kept in the separate database which may be deleted at any
+ * time, the missing part is built on the next {@link #update(BlockStore, TransactionStore)}
+ */
+public class AddressIndex implements Flushable {
+
+    private static final Logger logger = LoggerFactory.getLogger("db");
+
+    static final int CHUNK_ENTRIES = 128;
+    static final int CONFIRMATIONS = 256;
+
+    private static final byte[] NEXT_BLOCK_KEY = "nextBlock".getBytes();
+
+    public static class Entry {
+        private final long blockNumber;
+        private final int txIndex;
+
+        public Entry(long blockNumber, int txIndex) {
+            this.blockNumber = blockNumber;
+            this.txIndex = txIndex;
+        }
+
+        public long getBlockNumber() {
+            return blockNumber;
+        }
+
+        public int getTxIndex() {
+            return txIndex;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Entry entry = (Entry) o;
+            return blockNumber == entry.blockNumber && txIndex == entry.txIndex;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (int) (blockNumber ^ (blockNumber >>> 32)) + txIndex;
+        }
+
+        @Override
+        public String toString() {
+            return "#" + blockNumber + ":" + txIndex;
+        }
+    }
+
+    private final KeyValueDataSource dataSource;
+    private long nextBlock = -1;
+
+    /**
+     * The data source is opened on the first use only
+     * thus the index is harmless when it is switched off
+     */
+    public AddressIndex(KeyValueDataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    private void open() {
+        if (nextBlock >= 0) return;
+        if (!dataSource.isAlive()) dataSource.init();
+        byte[] next = dataSource.get(NEXT_BLOCK_KEY);
+        nextBlock = next == null ? 0 : byteArrayToLong(next);
+    }
+
+    /**
+     * @return the number of the first block which is not indexed yet
+     */
+    public synchronized long getNextBlock() {
+        open();
+        return nextBlock;
+    }
+
+    /**
+     * Indexes the confirmed main chain blocks which are not indexed yet
+     */
+    public synchronized void update(BlockStore blockStore, TransactionStore txStore) {
+        open();
+        long best = blockStore.getMaxNumber();
+        while (nextBlock + CONFIRMATIONS <= best) {
+            Block block = blockStore.getChainBlockByNumber(nextBlock);
+            if (block == null) {
+                logger.warn("Address index: no main chain block #{}", nextBlock);
+                break;
+            }
+            indexBlock(block, getReceipts(block, txStore));
+            if (nextBlock % 10000 == 0) {
+                logger.info("Address index: {} blocks indexed", nextBlock);
+            }
+        }
+    }
+
+    private List<TransactionReceipt> getReceipts(Block block, TransactionStore txStore) {
+        List<TransactionReceipt> receipts = txStore.getBlockReceipts(block.getHash());
+        if (receipts != null) return receipts;
+
+        // the block executed by the older version
+        receipts = new ArrayList<>();
+        for (Transaction tx : block.getTransactionsList()) {
+            TransactionInfo info = txStore.get(tx.getHash());
+            receipts.add(info == null ? null : info.getReceipt());
+        }
+        return receipts;
+    }
+
+    private void indexBlock(Block block, List<TransactionReceipt> receipts) {
+        Map<ByteArrayWrapper, Set<Integer>> touched = new LinkedHashMap<>();
+        List<Transaction> txs = block.getTransactionsList();
+        for (int i = 0; i < txs.size(); i++) {
+            Transaction tx = txs.get(i);
+            touch(touched, tx.getSender(), i);
+            if (tx.isContractCreation()) {
+                touch(touched, tx.getContractAddress(), i);
+            } else {
+                touch(touched, tx.getReceiveAddress(), i);
+            }
+            TransactionReceipt receipt = i < receipts.size() ? receipts.get(i) : null;
+            if (receipt != null) {
+                for (LogInfo logInfo : receipt.getLogInfoList()) {
+                    touch(touched, logInfo.getAddress(), i);
+                }
+            }
+        }
+
+        Map<byte[], byte[]> rows = new HashMap<>();
+        for (Map.Entry<ByteArrayWrapper, Set<Integer>> entry : touched.entrySet()) {
+            append(rows, entry.getKey().getData(), block.getNumber(), entry.getValue());
+        }
+        nextBlock = block.getNumber() + 1;
+        rows.put(NEXT_BLOCK_KEY, longToBytes(nextBlock));
+        dataSource.updateBatch(rows);
+    }
+
+    private static void touch(Map<ByteArrayWrapper, Set<Integer>> touched, byte[] address, int txIndex) {
+        if (address == null || address.length == 0) return;
+        ByteArrayWrapper key = new ByteArrayWrapper(address);
+        Set<Integer> txs = touched.get(key);
+        if (txs == null) {
+            txs = new LinkedHashSet<>();
+            touched.put(key, txs);
+        }
+        txs.add(txIndex);
+    }
+
+    private void append(Map<byte[], byte[]> rows, byte[] address, long blockNumber, Set<Integer> txIndexes) {
+        byte[] headBytes = dataSource.get(address);
+        long count = headBytes == null ? 0 : ByteBuffer.wrap(headBytes).getLong(0);
+        long lastBlock = headBytes == null ? 0 : ByteBuffer.wrap(headBytes).getLong(8);
+
+        int chunk = (int) (count / CHUNK_ENTRIES);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (count % CHUNK_ENTRIES != 0) {
+            byte[] last = dataSource.get(chunkKey(address, chunk));
+            out.write(last, 0, last.length);
+        }
+        for (int txIndex : txIndexes) {
+            if (count % CHUNK_ENTRIES == 0 && out.size() > 0) {
+                rows.put(chunkKey(address, chunk), out.toByteArray());
+                out.reset();
+                chunk++;
+            }
+            // the first entry of the chunk is absolute so every chunk is decoded independently
+            writeVarLong(out, count % CHUNK_ENTRIES == 0 ? blockNumber : blockNumber - lastBlock);
+            writeVarLong(out, txIndex);
+            lastBlock = blockNumber;
+            count++;
+        }
+        rows.put(chunkKey(address, chunk), out.toByteArray());
+        rows.put(address, ByteBuffer.allocate(16).putLong(count).putLong(lastBlock).array());
+    }
+
+    /**
+     * @return the number of the indexed transactions touching the address
+     */
+    public synchronized long getCount(byte[] address) {
+        open();
+        byte[] headBytes = dataSource.get(address);
+        return headBytes == null ? 0 : ByteBuffer.wrap(headBytes).getLong(0);
+    }
+
+    /**
+     * Returns the page of the transactions touching the address in the chain order
+     *
+     * @param offset number of the entries to skip
+     * @param limit max number of the returned entries
+     */
+    public synchronized List<Entry> getActivity(byte[] address, long offset, int limit) {
+        long count = getCount(address);
+        List<Entry> ret = new ArrayList<>();
+        long pos = offset;
+        while (pos < count && ret.size() < limit) {
+            int chunk = (int) (pos / CHUNK_ENTRIES);
+            ByteBuffer buf = ByteBuffer.wrap(dataSource.get(chunkKey(address, chunk)));
+            long blockNumber = 0;
+            for (int i = 0; buf.hasRemaining() && ret.size() < limit; i++) {
+                blockNumber += readVarLong(buf);
+                int txIndex = (int) readVarLong(buf);
+                if ((long) chunk * CHUNK_ENTRIES + i >= pos) {
+                    ret.add(new Entry(blockNumber, txIndex));
+                }
+            }
+            pos = (long) (chunk + 1) * CHUNK_ENTRIES;
+        }
+        return ret;
+    }
+
+    /**
+     * Drops the whole index, it is built again by the following updates
+     */
+    public synchronized void reset() {
+        open();
+        for (byte[] key : dataSource.keys()) {
+            dataSource.delete(key);
+        }
+        nextBlock = 0;
+        flush();
+    }
+
+    @Override
+    public synchronized void flush() {
+        if (dataSource instanceof Flushable) {
+            ((Flushable) dataSource).flush();
+        }
+    }
+
+    private static byte[] chunkKey(byte[] address, int chunk) {
+        return ByteBuffer.allocate(address.length + 4).put(address).putInt(chunk).array();
+    }
+
+    private static void writeVarLong(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarLong(ByteBuffer buf) {
+        long ret = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = buf.get();
+            ret |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return ret;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package org.ethereum.db;
+
+import org.apache.commons.collections4.map.LRUMap;
+import org.ethereum.core.Block;
+import org.ethereum.core.BlockHeader;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.ethereum.util.ByteUtil.byteArrayToLong;
+import static org.ethereum.util.ByteUtil.longToBytes;
+import static org.ethereum.util.ByteUtil.wrap;
+
+/**
+ * {@link IndexedBlockStore} which appends the block RLPs to the {@link BlockArchive} segment files
+ * instead of the key-value storage. The blocks data source keeps only the hash to
+ * archive location mapping, so the written blocks don't cost any compaction I/O.
+ *
+ * The headers are read from the mapped segments without touching the rest of the block
+ */
+public class ArchiveBlockStore extends IndexedBlockStore {
+
+    private final BlockArchive archive;
+    private final Map<ByteArrayWrapper, BlockHeader> headerCache =
+            Collections.synchronizedMap(new LRUMap<ByteArrayWrapper, BlockHeader>(HEADER_CACHE_SIZE));
+
+    public ArchiveBlockStore(BlockArchive archive) {
+        this.archive = archive;
+    }
+
+    @Override
+    protected void saveBlockData(Block block) {
+        // the same block may be saved again (e.g. imported twice), the archive is append only
+        if (blocksDS.get(block.getHash()) != null) return;
+        long location = archive.append(block.getEncoded());
+        blocksDS.put(block.getHash(), longToBytes(location));
+        headerCache.put(wrap(block.getHash()), block.getHeader());
+    }
+
+    @Override
+    protected Block loadBlock(byte[] hash) {
+        byte[] location = blocksDS.get(hash);
+        return location == null ? null : new Block(archive.read(byteArrayToLong(location)));
+    }
+
+    @Override
+    protected BlockHeader loadHeader(byte[] hash) {
+        ByteArrayWrapper key = wrap(hash);
+        BlockHeader header = headerCache.get(key);
+        if (header != null) return header;
+
+        byte[] location = blocksDS.get(hash);
+        if (location == null) return null;
+        header = new BlockHeader(archive.readFirstListElement(byteArrayToLong(location)));
+        headerCache.put(key, header);
+        return header;
+    }
+
+    @Override
+    public byte[] getEncodedHeaderByHash(byte[] hash) {
+        byte[] location = blocksDS.get(hash);
+        return location == null ? null : archive.readFirstListElement(byteArrayToLong(location));
+    }
+
+    @Override
+    public byte[] getEncodedBodyByHash(byte[] hash) {
+        byte[] location = blocksDS.get(hash);
+        return location == null ? null : encodeBody(archive.read(byteArrayToLong(location)));
+    }
+
+    /**
+     * @return read only view of the block RLP in the mapped segment or null if there is no such block
+     */
+    public ByteBuffer getBlockBuffer(byte[] hash) {
+        byte[] location = blocksDS.get(hash);
+        return location == null ? null : archive.slice(byteArrayToLong(location));
+    }
+
+    @Override
+    public void flush() {
+        // the archived data must be on disk before the locations referring it
+        archive.flush();
+        super.flush();
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        archive.close();
+    }
+}
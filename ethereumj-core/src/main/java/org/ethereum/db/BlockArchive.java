@@ -0,0 +1,220 @@
+package org.ethereum.db;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Append only storage of the block RLPs in the rolling segment files
+ * {@code segment-NNNNNN.dat} of the fixed size, every segment is memory mapped.
+ *
+ * The record is {@code [length: 4] [data]}, the length is written after the data
+ * so the zero length marks the end of the last segment after restart.
+ * The record location is {@code (segment << 32) | offset}
+ *
+ * The segment size is kept in the {@code archive.hdr} file as {@code [magic: 4] [segment size: 4]},
+ * the existing archive is opened with the stored size whatever size is passed
+ */
+public class BlockArchive {
+
+    private static final Logger logger = LoggerFactory.getLogger("db");
+
+    private static final String HEADER_FILE = "archive.hdr";
+    private static final int MAGIC = 0x42415243; // "BARC"
+
+    private final File dir;
+    private int segmentSize;
+
+    private final List<MappedByteBuffer> segments = new CopyOnWriteArrayList<>();
+    private final List<RandomAccessFile> files = new CopyOnWriteArrayList<>();
+    private int writePos;
+    private int flushedSegment;
+
+    public BlockArchive(File dir, int segmentSize) {
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        open();
+    }
+
+    private void open() {
+        dir.mkdirs();
+        try {
+            readHeader();
+            for (int i = 0; new File(dir, segmentName(i)).exists(); i++) {
+                mapSegment(i);
+            }
+            if (segments.isEmpty()) {
+                mapSegment(0);
+            }
+
+            // find the end of the last segment
+            MappedByteBuffer last = segments.get(segments.size() - 1);
+            writePos = 0;
+            while (writePos + 4 <= segmentSize) {
+                int length = last.getInt(writePos);
+                if (length <= 0 || writePos + 4 + length > segmentSize) break;
+                writePos += 4 + length;
+            }
+            flushedSegment = segments.size() - 1;
+            logger.info("Block archive opened: {}, {} segments, last segment size: {}", dir, segments.size(), writePos);
+        } catch (IOException e) {
+            throw new RuntimeException("Can't open block archive " + dir, e);
+        }
+    }
+
+    private void readHeader() throws IOException {
+        File file = new File(dir, HEADER_FILE);
+        File firstSegment = new File(dir, segmentName(0));
+        int stored;
+        if (file.exists()) {
+            ByteBuffer header = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+            if (header.remaining() < 8 || header.getInt(0) != MAGIC) {
+                throw new IOException("Corrupted block archive header " + file);
+            }
+            stored = header.getInt(4);
+        } else if (firstSegment.exists()) {
+            // the archive created without the header, the segments are of the full size
+            stored = (int) firstSegment.length();
+        } else {
+            stored = segmentSize;
+        }
+
+        if (stored != segmentSize) {
+            logger.warn("Block archive {} has the segment size {}, the configured size {} is ignored",
+                    dir, stored, segmentSize);
+            segmentSize = stored;
+        }
+        if (!file.exists()) {
+            ByteBuffer header = ByteBuffer.allocate(8);
+            header.putInt(MAGIC).putInt(segmentSize);
+            Files.write(file.toPath(), header.array());
+        }
+    }
+
+    private static String segmentName(int idx) {
+        return String.format("segment-%06d.dat", idx);
+    }
+
+    private void mapSegment(int idx) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(new File(dir, segmentName(idx)), "rw");
+        files.add(file);
+        segments.add(file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize));
+    }
+
+    /**
+     * @return the location of the appended record
+     */
+    public synchronized long append(byte[] data) {
+        if (4 + data.length > segmentSize) {
+            throw new IllegalArgumentException("Record of " + data.length + " bytes exceeds the segment size " + segmentSize);
+        }
+        if (writePos + 4 + data.length > segmentSize) {
+            try {
+                mapSegment(segments.size());
+            } catch (IOException e) {
+                throw new RuntimeException("Can't create block archive segment " + segments.size(), e);
+            }
+            writePos = 0;
+        }
+
+        int segment = segments.size() - 1;
+        ByteBuffer buf = segments.get(segment).duplicate();
+        buf.position(writePos + 4);
+        buf.put(data);
+        buf.putInt(writePos, data.length);
+
+        long location = ((long) segment << 32) | writePos;
+        writePos += 4 + data.length;
+        return location;
+    }
+
+    /**
+     * @return read only view of the record data straight from the mapped segment
+     */
+    public ByteBuffer slice(long location) {
+        ByteBuffer buf = segments.get((int) (location >>> 32)).asReadOnlyBuffer();
+        int offset = (int) location;
+        int length = buf.getInt(offset);
+        buf.position(offset + 4);
+        buf.limit(offset + 4 + length);
+        return buf.slice();
+    }
+
+    public byte[] read(long location) {
+        ByteBuffer buf = slice(location);
+        byte[] ret = new byte[buf.remaining()];
+        buf.get(ret);
+        return ret;
+    }
+
+    /**
+     * Reads only the first element of the RLP list record, i.e. the header of the block
+     */
+    public byte[] readFirstListElement(long location) {
+        ByteBuffer buf = slice(location);
+        int first = prefixLength(buf, 0);
+        int length = prefixLength(buf, first) + payloadLength(buf, first);
+        byte[] ret = new byte[length];
+        buf.position(first);
+        buf.get(ret);
+        return ret;
+    }
+
+    private static int prefixLength(ByteBuffer buf, int pos) {
+        int b = buf.get(pos) & 0xFF;
+        return b > 0xF7 ? 1 + b - 0xF7 : 1;
+    }
+
+    private static int payloadLength(ByteBuffer buf, int pos) {
+        int b = buf.get(pos) & 0xFF;
+        if (b <= 0xF7) return b - 0xC0;
+        int length = 0;
+        for (int i = 0; i < b - 0xF7; i++) {
+            length = (length << 8) | (buf.get(pos + 1 + i) & 0xFF);
+        }
+        return length;
+    }
+
+    /**
+     * Writes the segments modified since the last flush to disk
+     */
+    public synchronized void flush() {
+        for (int i = flushedSegment; i < segments.size(); i++) {
+            segments.get(i).force();
+        }
+        flushedSegment = segments.size() - 1;
+    }
+
+    public synchronized void close() {
+        flush();
+        for (RandomAccessFile file : files) {
+            try {
+                file.close();
+            } catch (IOException e) {
+                logger.warn("Error closing block archive segment", e);
+            }
+        }
+    }
+
+    public int getSegmentSize() {
+        return segmentSize;
+    }
+
+    public int getSegmentCount() {
+        return segments.size();
+    }
+
+    @Override
+    public String toString() {
+        return "BlockArchive[" + dir + ", segments: " + segments.size() + "]";
+    }
+}
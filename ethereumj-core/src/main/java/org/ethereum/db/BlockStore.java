@@ -25,6 +25,23 @@ public interface BlockStore {
     Block getChainBlockByNumber(long blockNumber);
 
     Block getBlockByHash(byte[] hash);
+
+    /**
+     * Unlike {@link #getBlockByHash(byte[])} doesn't need to read and decode the block body
+     */
+    BlockHeader getHeaderByHash(byte[] hash);
+
+    /**
+     * @return the header RLP as it's stored, without decoding the block, null if there is no such block
+     */
+    byte[] getEncodedHeaderByHash(byte[] hash);
+
+    /**
+     * @return the body RLP list [transactions, uncles] as it's stored, without decoding the block,
+     *         null if there is no such block
+     */
+    byte[] getEncodedBodyByHash(byte[] hash);
+
     boolean isBlockExist(byte[] hash);
 
     List<byte[]> getListHashesEndWith(byte[] hash, long qty);
@@ -49,6 +66,11 @@ public interface BlockStore {
     void reBranch(Block forkBlock);
 
     void load();
+
+    /**
+     * Releases the resources held by the store (e.g. the mapped files), the store can't be used afterwards
+     */
+    void close();
     void setSessionFactory(SessionFactory sessionFactory);
 
 
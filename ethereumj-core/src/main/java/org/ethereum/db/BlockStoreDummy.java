@@ -37,6 +37,21 @@ public class BlockStoreDummy implements BlockStore {
         return null;
     }
 
+    @Override
+    public BlockHeader getHeaderByHash(byte[] hash) {
+        return null;
+    }
+
+    @Override
+    public byte[] getEncodedHeaderByHash(byte[] hash) {
+        return null;
+    }
+
+    @Override
+    public byte[] getEncodedBodyByHash(byte[] hash) {
+        return null;
+    }
+
     @Override
     public boolean isBlockExist(byte[] hash) {
         return false;
@@ -98,6 +113,10 @@ public class BlockStoreDummy implements BlockStore {
 
     }
 
+    @Override
+    public void close() {
+    }
+
     @Override
     public BigInteger getTotalDifficultyForHash(byte[] hash) {
         return null;
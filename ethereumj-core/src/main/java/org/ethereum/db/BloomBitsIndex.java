@@ -0,0 +1,239 @@
+package org.ethereum.db;
+
+import org.ethereum.core.BlockHeader;
+import org.ethereum.core.Bloom;
+import org.ethereum.datasource.Flushable;
+import org.ethereum.datasource.KeyValueDataSource;
+import org.ethereum.util.ByteUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.ethereum.util.ByteUtil.byteArrayToLong;
+import static org.ethereum.util.ByteUtil.longToBytes;
+
+/**
+ * Bit-sliced index of the main chain header log blooms.
+ *
+ * The chain is split into sections of {@link #SECTION_SIZE} blocks and every section
+ * is stored as {@link #BLOOM_BITS} slices: the slice N holds the bit N of the log bloom
+ * of every block in the section. To find the blocks which bloom may contain some value
+ * it is enough to AND the 3 slices for the value bloom bits, so the whole section is
+ * screened without loading a single header.
+ *
+ * Only sections which are {@link #CONFIRMATIONS} blocks behind the best block are indexed,
+ * the tail of the chain has to be checked against the header blooms. The hash of the section
+ * last block is stored with the section, if the deeper reorg replaces it the section
+ * and the following ones are rebuilt.
+ *
+ * The import triggers the update by {@link #updateAsync(BlockStore)}, so building the missing
+ * sections of the existing database doesn't stall it, the sections become visible one by one
+ */
+public class BloomBitsIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger("db");
+
+    public static final int SECTION_SIZE = 4096;
+    public static final int BLOOM_BITS = 2048;
+    static final int CONFIRMATIONS = 256;
+
+    private static final byte[] SECTIONS_KEY = "sections".getBytes();
+    private static final byte[] SECTION_HEAD_PREFIX = "head".getBytes();
+
+    private final KeyValueDataSource dataSource;
+    private volatile long sections = -1;
+
+    // the thread is started by the first update only
+    private final ExecutorService updateExec = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "BloomBitsIndexThread");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+    private final AtomicBoolean updateScheduled = new AtomicBoolean();
+
+    /**
+     * The data source is opened on the first use only
+     * thus the index is harmless when it is switched off
+     */
+    public BloomBitsIndex(KeyValueDataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    private synchronized void open() {
+        if (sections >= 0) return;
+        if (!dataSource.isAlive()) dataSource.init();
+        byte[] sectionsBytes = dataSource.get(SECTIONS_KEY);
+        sections = sectionsBytes == null ? 0 : byteArrayToLong(sectionsBytes);
+    }
+
+    /**
+     * @return the number of indexed sections, i.e. the blocks
+     * below {@code getSectionCount() * SECTION_SIZE} are covered by the index
+     */
+    public long getSectionCount() {
+        if (sections < 0) open();
+        return sections;
+    }
+
+    /**
+     * @return the bits of the section blocks which have the bloom bit set,
+     * the bit N corresponds to the block {@code section * SECTION_SIZE + N}
+     */
+    public BitSet getSlice(long section, int bloomBit) {
+        if (sections < 0) open();
+        byte[] bytes = dataSource.get(sliceKey(section, bloomBit));
+        return bytes == null ? new BitSet(SECTION_SIZE) : BitSet.valueOf(bytes);
+    }
+
+    /**
+     * Schedules {@link #update(BlockStore)} on the index thread unless it's scheduled already
+     */
+    public void updateAsync(final BlockStore blockStore) {
+        if (updateExec.isShutdown() || !updateScheduled.compareAndSet(false, true)) return;
+        updateExec.submit(new Runnable() {
+            @Override
+            public void run() {
+                // the flush arrived during the update schedules one more
+                updateScheduled.set(false);
+                try {
+                    update(blockStore);
+                } catch (Exception e) {
+                    logger.error("Bloom bits index: update failed", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Stops the index thread, the section being built is dropped and rebuilt after the restart
+     */
+    public void close() {
+        updateExec.shutdownNow();
+        try {
+            updateExec.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Indexes all the confirmed main chain sections which are not indexed yet.
+     * Missing sections of the existing database are built by the first call
+     */
+    public synchronized void update(BlockStore blockStore) {
+        open();
+        long bestNumber = blockStore.getMaxNumber();
+        long first = sections;
+
+        while (sections > 0 && !isSectionOnChain(blockStore, sections - 1)) sections--;
+        if (sections < first) {
+            logger.info("Bloom bits index: reorg below block #{}, rebuilding from the section {}",
+                    first * SECTION_SIZE, sections);
+            dataSource.put(SECTIONS_KEY, longToBytes(sections));
+        }
+
+        while ((sections + 1) * SECTION_SIZE - 1 + CONFIRMATIONS <= bestNumber &&
+                !Thread.currentThread().isInterrupted()) {
+            if (!indexSection(blockStore, sections, sections < first)) break;
+            sections++;
+            dataSource.put(SECTIONS_KEY, longToBytes(sections));
+            if (sections % 16 == 0) {
+                logger.info("Bloom bits index: {} blocks indexed", sections * SECTION_SIZE);
+            }
+        }
+        if (sections != first && dataSource instanceof Flushable) {
+            ((Flushable) dataSource).flush();
+        }
+    }
+
+    /**
+     * The section is valid while its last block is on the main chain,
+     * the sections indexed before the heads were stored are never rebuilt
+     */
+    private boolean isSectionOnChain(BlockStore blockStore, long section) {
+        byte[] head = dataSource.get(sectionHeadKey(section));
+        return head == null || Arrays.equals(head, blockStore.getBlockHashByNumber((section + 1) * SECTION_SIZE - 1));
+    }
+
+    /**
+     * @param reindex the section was indexed before, its slices which become empty are cleared
+     */
+    private boolean indexSection(BlockStore blockStore, long section, boolean reindex) {
+        BitSet[] slices = new BitSet[BLOOM_BITS];
+        long start = section * SECTION_SIZE;
+        byte[] hash = null;
+        for (int i = 0; i < SECTION_SIZE; i++) {
+            hash = blockStore.getBlockHashByNumber(start + i);
+            BlockHeader header = hash == null ? null : blockStore.getHeaderByHash(hash);
+            if (header == null) {
+                logger.warn("Bloom bits index: no main chain header #{}, section {} is not indexed", start + i, section);
+                return false;
+            }
+            for (int bit : bloomBits(header.getLogsBloom())) {
+                if (slices[bit] == null) slices[bit] = new BitSet(SECTION_SIZE);
+                slices[bit].set(i);
+            }
+        }
+
+        Map<byte[], byte[]> rows = new HashMap<>();
+        for (int bit = 0; bit < BLOOM_BITS; bit++) {
+            // empty slices are not stored
+            if (slices[bit] != null) {
+                rows.put(sliceKey(section, bit), slices[bit].toByteArray());
+            } else if (reindex) {
+                rows.put(sliceKey(section, bit), new byte[0]);
+            }
+        }
+        rows.put(sectionHeadKey(section), hash);
+        dataSource.updateBatch(rows);
+        return true;
+    }
+
+    /**
+     * @return indexes of the set bits in the bloom in the {@link ByteUtil#getBit(byte[], int)} order
+     */
+    public static int[] bloomBits(Bloom bloom) {
+        return bloomBits(bloom.getData());
+    }
+
+    static int[] bloomBits(byte[] bloom) {
+        int count = 0;
+        for (byte b : bloom) count += Integer.bitCount(b & 0xFF);
+        int[] ret = new int[count];
+        int idx = 0;
+        for (int bit = 0; bit < BLOOM_BITS && idx < count; bit++) {
+            if (ByteUtil.getBit(bloom, bit) != 0) ret[idx++] = bit;
+        }
+        return ret;
+    }
+
+    private static byte[] sliceKey(long section, int bloomBit) {
+        byte[] key = new byte[10];
+        System.arraycopy(longToBytes(section), 0, key, 0, 8);
+        key[8] = (byte) (bloomBit >> 8);
+        key[9] = (byte) bloomBit;
+        return key;
+    }
+
+    private static byte[] sectionHeadKey(long section) {
+        return ByteUtil.merge(SECTION_HEAD_PREFIX, longToBytes(section));
+    }
+
+    @Override
+    public String toString() {
+        return "BloomBitsIndex[sections: " + sections + "]";
+    }
+}
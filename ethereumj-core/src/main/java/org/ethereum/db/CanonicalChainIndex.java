@@ -0,0 +1,265 @@
+package org.ethereum.db;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static org.ethereum.util.ByteUtil.bigIntegerToBytes;
+
+/**
+ * Memory mapped index of the main chain: the block hash and the total difficulty
+ * for every block number stored at a fixed stride, so the number to hash lookup
+ * is a plain offset read.
+ *
+ * The file layout is {@code [header] ([hash: 32] [TD: 32])*}, the header holds the
+ * chain length and the 'dirty' flag which is set by the first modification and cleared
+ * by {@link #flush()}. The index left dirty has to be rebuilt from the persistent store
+ * (see {@link IndexedBlockStore#init(org.ethereum.datasource.KeyValueDataSource,
+ * org.ethereum.datasource.KeyValueDataSource, CanonicalChainIndex)})
+ */
+public class CanonicalChainIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger("general");
+
+    private static final int MAGIC = 0x43434958; // "CCIX"
+    private static final int HEADER_SIZE = 64;
+    private static final int SIZE_OFFSET = 4;
+    private static final int DIRTY_OFFSET = 12;
+
+    static final int HASH_SIZE = 32;
+    static final int TD_SIZE = 32;
+    static final int ENTRY_SIZE = HASH_SIZE + TD_SIZE;
+    // 64Mb mapped at once
+    private static final int CHUNK_ENTRIES = 1 << 20;
+
+    private final File file;
+    private RandomAccessFile raf;
+    private FileChannel channel;
+    private MappedByteBuffer header;
+    private final List<MappedByteBuffer> chunks = new ArrayList<>();
+
+    private long size;
+    private boolean dirty;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    public CanonicalChainIndex(File file) {
+        this.file = file;
+        open();
+    }
+
+    private void open() {
+        try {
+            if (file.getParentFile() != null) file.getParentFile().mkdirs();
+            boolean exists = file.exists() && file.length() >= HEADER_SIZE;
+            raf = new RandomAccessFile(file, "rw");
+            channel = raf.getChannel();
+            header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+            if (exists && header.getInt(0) == MAGIC) {
+                size = header.getLong(SIZE_OFFSET);
+                dirty = header.get(DIRTY_OFFSET) != 0;
+            } else {
+                header.putInt(0, MAGIC);
+                header.putLong(SIZE_OFFSET, 0);
+                header.put(DIRTY_OFFSET, (byte) 1);
+                size = 0;
+                dirty = true;
+            }
+            for (long i = 0; i < size; i += CHUNK_ENTRIES) {
+                mapChunk();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Can't open canonical chain index " + file, e);
+        }
+    }
+
+    private void mapChunk() throws IOException {
+        long offset = HEADER_SIZE + (long) chunks.size() * CHUNK_ENTRIES * ENTRY_SIZE;
+        chunks.add(channel.map(FileChannel.MapMode.READ_WRITE, offset, (long) CHUNK_ENTRIES * ENTRY_SIZE));
+    }
+
+    /**
+     * @return the main chain length, i.e. the best block number + 1
+     */
+    public long size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return true if the index wasn't flushed after the last modification
+     */
+    public boolean isDirty() {
+        lock.readLock().lock();
+        try {
+            return dirty;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public byte[] getHash(long number) {
+        byte[] ret = new byte[HASH_SIZE];
+        return getHash(number, ret) ? ret : null;
+    }
+
+    /**
+     * Copies the main chain block hash to the passed array
+     *
+     * @return false if there is no main chain block with this number
+     */
+    public boolean getHash(long number, byte[] dest) {
+        lock.readLock().lock();
+        try {
+            if (number < 0 || number >= size) return false;
+            MappedByteBuffer chunk = chunks.get((int) (number / CHUNK_ENTRIES));
+            int offset = (int) (number % CHUNK_ENTRIES) * ENTRY_SIZE;
+            for (int i = 0; i < HASH_SIZE; i++) {
+                dest[i] = chunk.get(offset + i);
+            }
+            return true;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public BigInteger getTotalDifficulty(long number) {
+        byte[] td = new byte[TD_SIZE];
+        lock.readLock().lock();
+        try {
+            if (number < 0 || number >= size) return null;
+            MappedByteBuffer chunk = chunks.get((int) (number / CHUNK_ENTRIES));
+            int offset = (int) (number % CHUNK_ENTRIES) * ENTRY_SIZE + HASH_SIZE;
+            for (int i = 0; i < TD_SIZE; i++) {
+                td[i] = chunk.get(offset + i);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return new BigInteger(1, td);
+    }
+
+    /**
+     * Sets the main chain block with the number, extends the chain if needed
+     */
+    public void put(long number, byte[] hash, BigInteger totalDifficulty) {
+        lock.writeLock().lock();
+        try {
+            markDirty();
+            write(number, hash, totalDifficulty);
+            setSize(Math.max(size, number + 1));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Replaces several main chain blocks and sets the new chain length at once,
+     * so the readers observe either the old or the new chain
+     */
+    public void update(Map<Long, IndexedBlockStore.BlockInfo> blocks, long newSize) {
+        lock.writeLock().lock();
+        try {
+            markDirty();
+            for (Map.Entry<Long, IndexedBlockStore.BlockInfo> entry : blocks.entrySet()) {
+                write(entry.getKey(), entry.getValue().getHash(), entry.getValue().getCummDifficulty());
+            }
+            setSize(newSize);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void reset() {
+        lock.writeLock().lock();
+        try {
+            markDirty();
+            setSize(0);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void write(long number, byte[] hash, BigInteger totalDifficulty) {
+        try {
+            while (number >= (long) chunks.size() * CHUNK_ENTRIES) mapChunk();
+        } catch (IOException e) {
+            throw new RuntimeException("Can't extend canonical chain index " + file, e);
+        }
+        MappedByteBuffer chunk = chunks.get((int) (number / CHUNK_ENTRIES));
+        int offset = (int) (number % CHUNK_ENTRIES) * ENTRY_SIZE;
+        byte[] td = bigIntegerToBytes(totalDifficulty, TD_SIZE);
+        for (int i = 0; i < HASH_SIZE; i++) {
+            chunk.put(offset + i, hash[i]);
+        }
+        for (int i = 0; i < TD_SIZE; i++) {
+            chunk.put(offset + HASH_SIZE + i, td[i]);
+        }
+    }
+
+    private void setSize(long newSize) {
+        size = newSize;
+        header.putLong(SIZE_OFFSET, newSize);
+    }
+
+    private void markDirty() {
+        if (!dirty) {
+            dirty = true;
+            header.put(DIRTY_OFFSET, (byte) 1);
+            header.force();
+        }
+    }
+
+    /**
+     * Writes the mapped data to disk and marks the index clean.
+     * Should be called only after the store the index is built from is written to disk
+     */
+    public void flush() {
+        lock.writeLock().lock();
+        try {
+            for (MappedByteBuffer chunk : chunks) {
+                chunk.force();
+            }
+            dirty = false;
+            header.put(DIRTY_OFFSET, (byte) 0);
+            header.force();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            if (channel == null) return;
+            channel.close();
+            raf.close();
+            channel = null;
+            chunks.clear();
+        } catch (IOException e) {
+            logger.warn("Error closing canonical chain index " + file, e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "CanonicalChainIndex[" + file + ", size: " + size() + (isDirty() ? ", dirty" : "") + "]";
+    }
+}
@@ -3,11 +3,13 @@ package org.ethereum.db;
 import org.ethereum.config.SystemProperties;
 import org.ethereum.datasource.DataSourcePool;
 import org.ethereum.datasource.KeyValueDataSource;
+import org.ethereum.trie.Node;
 import org.ethereum.trie.SecureTrie;
 import org.ethereum.util.RLP;
 import org.ethereum.util.RLPElement;
 import org.ethereum.util.RLPItem;
 import org.ethereum.util.RLPList;
+import org.ethereum.util.Value;
 import org.ethereum.vm.DataWord;
 import org.spongycastle.util.Arrays;
 
@@ -237,6 +239,53 @@ public class ContractDetailsImpl extends AbstractContractDetails {
         this.externalStorageDataSource = dataSource;
     }
 
+    /**
+     * Sets the storage trie which is fetched node by node rather than built by the updates,
+     * the storage keys aren't known in this case so {@link #getStorageKeys()} doesn't list them
+     *
+     * @param root storage root hash
+     * @param nodes encoded storage trie nodes by their hashes
+     */
+    public void setStorageNodes(byte[] root, Map<ByteArrayWrapper, byte[]> nodes) {
+        for (Map.Entry<ByteArrayWrapper, byte[]> node : nodes.entrySet()) {
+            storageTrie.getCache().getNodes().put(node.getKey(), new Node(Value.fromRlpEncoded(node.getValue()), true));
+        }
+        if (!Arrays.areEqual(root, EMPTY_TRIE_HASH)) {
+            storageTrie.setRoot(root);
+        }
+
+        this.setDirty(true);
+        this.rlpEncoded = null;
+    }
+
+    /**
+     * @return hashes of the contract code and of the storage trie nodes which are not synced yet
+     */
+    public List<byte[]> getNodeDataHashes() {
+        List<byte[]> ret = new ArrayList<>();
+        for (ByteArrayWrapper hash : getCodes().keySet()) {
+            ret.add(hash.getData());
+        }
+        for (Map.Entry<ByteArrayWrapper, Node> node : storageTrie.getCache().getNodes().entrySet()) {
+            if (node.getValue().isDirty()) ret.add(node.getKey().getData());
+        }
+        return ret;
+    }
+
+    /**
+     * @return the contract code or the storage trie node by its hash, null if the contract doesn't have it
+     */
+    public byte[] getNodeData(byte[] hash) {
+        byte[] code = getCodes().get(wrap(hash));
+        if (code != null) return code;
+
+        Node node = storageTrie.getCache().getNodes().get(wrap(hash));
+        if (node != null) return node.getValue().encode();
+
+        KeyValueDataSource db = storageTrie.getCache().getDb();
+        return externalStorage && db != null ? db.get(hash) : null;
+    }
+
     @Override
     public ContractDetails clone() {
 
@@ -0,0 +1,88 @@
+package org.ethereum.db;
+
+import org.ethereum.datasource.KeyValueDataSource;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.ethereum.util.ByteUtil.wrap;
+
+/**
+ * Finds the contract storage trie nodes and the contract codes by their hashes.
+ *
+ * They are kept inside the contract details which are keyed by the contract address,
+ * so the index data source maps each hash to the details key. The index is updated
+ * by the {@link DetailsDataStore} on every flush with the nodes and codes written since the
+ * previous one, thus only the data flushed after the index was enabled is found
+ */
+class ContractNodesIndex {
+
+    private static final int DETAILS_CACHE_SIZE = 16;
+
+    private final KeyValueDataSource detailsDS;
+    private final KeyValueDataSource indexDS;
+
+    // the storage nodes are requested trie by trie, so a few recently decoded details serve most of the lookups
+    private final Map<ByteArrayWrapper, ContractDetailsImpl> detailsCache =
+            new LinkedHashMap<ByteArrayWrapper, ContractDetailsImpl>(DETAILS_CACHE_SIZE, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<ByteArrayWrapper, ContractDetailsImpl> eldest) {
+                    return size() > DETAILS_CACHE_SIZE;
+                }
+            };
+
+    ContractNodesIndex(KeyValueDataSource detailsDS, KeyValueDataSource indexDS) {
+        this.detailsDS = detailsDS;
+        this.indexDS = indexDS;
+    }
+
+    /**
+     * @return the storage trie node or the code, null if not found
+     */
+    synchronized byte[] get(byte[] hash) {
+        byte[] owner = indexDS.get(hash);
+        if (owner == null) return null;
+
+        ContractDetailsImpl details = detailsCache.get(wrap(owner));
+        if (details == null) {
+            byte[] data = detailsDS.get(owner);
+            if (data == null) {
+                // the details were moved, see moved(byte[], byte[])
+                owner = indexDS.get(owner);
+                data = owner == null ? null : detailsDS.get(owner);
+            }
+            if (data == null) return null;
+            details = new ContractDetailsImpl(data);
+            detailsCache.put(wrap(owner), details);
+        }
+        return details.getNodeData(hash);
+    }
+
+    /**
+     * Indexes the codes and the storage nodes which are not written yet,
+     * must be called before the details storage is synced
+     *
+     * @param owner the details key
+     */
+    synchronized void add(byte[] owner, ContractDetails details) {
+        if (!(details instanceof ContractDetailsImpl) || !details.isDirty()) return;
+
+        Map<byte[], byte[]> batch = new HashMap<>();
+        for (byte[] hash : ((ContractDetailsImpl) details).getNodeDataHashes()) {
+            batch.put(hash, owner);
+        }
+        indexDS.updateBatch(batch);
+
+        detailsCache.remove(wrap(owner));
+    }
+
+    /**
+     * Records that the details were moved to the other key, the nodes indexed
+     * under the old key are looked up by the new one after that
+     */
+    synchronized void moved(byte[] oldOwner, byte[] newOwner) {
+        indexDS.put(oldOwner, newOwner);
+        detailsCache.remove(wrap(oldOwner));
+    }
+}
@@ -22,11 +22,16 @@ public class DetailsDataStore {
     private DatabaseImpl db = null;
     private Map<ByteArrayWrapper, ContractDetails> cache = new ConcurrentHashMap<>();
     private Set<ByteArrayWrapper> removes = new HashSet<>();
+    private ContractNodesIndex nodesIndex = null;
 
     public void setDB(DatabaseImpl db) {
         this.db = db;
     }
 
+    void setNodesIndex(ContractNodesIndex nodesIndex) {
+        this.nodesIndex = nodesIndex;
+    }
+
     public ContractDetails get(byte[] key) {
 
         ByteArrayWrapper wrappedKey = wrap(key);
@@ -84,9 +89,12 @@ public class DetailsDataStore {
         Map<byte[], byte[]> batch = new HashMap<>();
         for (Map.Entry<ByteArrayWrapper, ContractDetails> entry : cache.entrySet()) {
             ContractDetails details = entry.getValue();
+            byte[] key = entry.getKey().getData();
+
+            // the storage sync drops the nodes from the trie cache, so they're indexed before
+            if (nodesIndex != null) nodesIndex.add(key, details);
             details.syncStorage();
 
-            byte[] key = entry.getKey().getData();
             byte[] value = details.getEncoded();
 
             batch.put(key, value);
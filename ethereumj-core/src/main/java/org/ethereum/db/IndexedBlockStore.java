@@ -1,21 +1,27 @@
 package org.ethereum.db;
 
+import org.apache.commons.collections4.map.LRUMap;
 import org.ethereum.core.Block;
 import org.ethereum.core.BlockHeader;
 import org.ethereum.datasource.*;
 import org.ethereum.datasource.Flushable;
+import org.ethereum.util.RLP;
 import org.hibernate.SessionFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
 import java.math.BigInteger;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static java.math.BigInteger.ZERO;
 import static org.ethereum.crypto.HashUtil.shortHash;
+import static org.ethereum.util.ByteUtil.EMPTY_BYTE_ARRAY;
+import static org.ethereum.util.ByteUtil.bigIntegerToBytes;
+import static org.ethereum.util.ByteUtil.intToBytes;
+import static org.ethereum.util.ByteUtil.merge;
+import static org.ethereum.util.ByteUtil.wrap;
 import static org.spongycastle.util.Arrays.areEqual;
 
 public class IndexedBlockStore extends AbstractBlockstore{
@@ -24,8 +30,28 @@ public class IndexedBlockStore extends AbstractBlockstore{
 
     KeyValueDataSource indexDS;
     DataSourceArray<List<BlockInfo>> index;
+    /**
+     * Headers and bodies are kept in separate key spaces of the blocks data source,
+     * so the header walks never read the transactions. The older databases keep
+     * whole blocks under the plain hash key, these are still readable
+     */
     KeyValueDataSource blocksDS;
-    ObjectDataSource<Block> blocks;
+    ObjectDataSource<BlockHeader> headers;
+    /**
+     * Recently accessed decoded blocks, the blocks are shared between the callers
+     * so they must be treated as read only
+     */
+    Map<ByteArrayWrapper, Block> blocks = Collections.synchronizedMap(new LRUMap<ByteArrayWrapper, Block>(BLOCK_CACHE_SIZE));
+    private final AtomicLong blockCacheHits = new AtomicLong();
+    private final AtomicLong blockCacheMisses = new AtomicLong();
+
+    static final byte[] HEADER_PREFIX = {'h'};
+    static final byte[] BODY_PREFIX = {'b'};
+    static final int HEADER_CACHE_SIZE = 8192;
+    static final int BLOCK_CACHE_SIZE = 256;
+
+    // optional dense main chain index, mirrors the mainChain flags of the levels
+    CanonicalChainIndex canonicalIndex;
 
     public IndexedBlockStore(){
     }
@@ -34,26 +60,72 @@ public class IndexedBlockStore extends AbstractBlockstore{
 //        throw new RuntimeException("To remove");
 //    }
 
+    public IndexedBlockStore withBlockCacheSize(int cacheSize) {
+        blocks = Collections.synchronizedMap(new LRUMap<ByteArrayWrapper, Block>(cacheSize));
+        return this;
+    }
+
     public void init(KeyValueDataSource index, KeyValueDataSource blocks) {
+        init(index, blocks, null);
+    }
+
+    public void init(KeyValueDataSource index, KeyValueDataSource blocks, CanonicalChainIndex canonicalIndex) {
         indexDS = index;
         this.index = new DataSourceArray<>(
                 new ObjectDataSource<>(index, BLOCK_INFO_SERIALIZER).withCacheSize(256));
         this.blocksDS = blocks;
-        this.blocks = new ObjectDataSource<>(blocks, new Serializer<Block, byte[]>() {
+        this.headers = new ObjectDataSource<>(blocks, new Serializer<BlockHeader, byte[]>() {
             @Override
-            public byte[] serialize(Block block) {
-                return block.getEncoded();
+            public byte[] serialize(BlockHeader header) {
+                return header.getEncoded();
             }
 
             @Override
-            public Block deserialize(byte[] bytes) {
-                return new Block(bytes);
+            public BlockHeader deserialize(byte[] bytes) {
+                return new BlockHeader(bytes);
             }
-        }).withCacheSize(256);
+        }).withCacheSize(HEADER_CACHE_SIZE);
+
+        migrateIndex();
+
+        this.canonicalIndex = canonicalIndex;
+        if (canonicalIndex != null) checkCanonicalIndex();
+    }
+
+    /**
+     * Rebuilds the canonical index from the levels if it wasn't flushed
+     * together with the index data source last time
+     */
+    private void checkCanonicalIndex() {
+        long bestNumber = getMaxNumber();
+        while (bestNumber >= 0 && getMainChainInfo(bestNumber) == null) --bestNumber;
+
+        if (!canonicalIndex.isDirty() && canonicalIndex.size() == bestNumber + 1) return;
+
+        logger.info("Rebuilding canonical chain index ({}), best block #{}", canonicalIndex, bestNumber);
+        canonicalIndex.reset();
+        for (long i = 0; i <= bestNumber; i++) {
+            BlockInfo blockInfo = getMainChainInfo(i);
+            if (blockInfo != null) canonicalIndex.put(i, blockInfo.getHash(), blockInfo.getCummDifficulty());
+        }
+        canonicalIndex.flush();
+        logger.info("Canonical chain index rebuilt: {}", canonicalIndex);
+    }
+
+    private BlockInfo getMainChainInfo(long number) {
+        for (BlockInfo blockInfo : getBlockInfoForLevel(number)) {
+            if (blockInfo.isMainChain()) return blockInfo;
+        }
+        return null;
     }
 
     public Block getBestBlock(){
 
+        if (canonicalIndex != null) {
+            long size = canonicalIndex.size();
+            return size == 0 ? null : getChainBlockByNumber(size - 1);
+        }
+
         Long maxLevel = getMaxNumber();
         if (maxLevel < 0) return null;
 
@@ -73,13 +145,19 @@ public class IndexedBlockStore extends AbstractBlockstore{
     }
 
     public byte[] getBlockHashByNumber(long blockNumber){
-        return getChainBlockByNumber(blockNumber).getHash(); // FIXME: can be improved by accessing the hash directly in the index
+        if (canonicalIndex != null) return canonicalIndex.getHash(blockNumber);
+        if (blockNumber >= index.size()) return null;
+
+        for (BlockInfo blockInfo : index.get((int) blockNumber)) {
+            if (blockInfo.isMainChain()) return blockInfo.getHash();
+        }
+        return null;
     }
 
 
     @Override
     public void flush(){
-        blocks.flush();
+        headers.flush();
         index.flush();
         if (blocksDS instanceof Flushable) {
             ((Flushable)blocksDS).flush();
@@ -87,6 +165,23 @@ public class IndexedBlockStore extends AbstractBlockstore{
         if (indexDS instanceof Flushable) {
             ((Flushable)indexDS).flush();
         }
+        // marked clean only when the levels it's built from are on disk
+        if (canonicalIndex != null) {
+            AsyncWriteDataSource.waitWritten(indexDS);
+            canonicalIndex.flush();
+        }
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("Block cache: {} hits, {} misses", blockCacheHits.get(), blockCacheMisses.get());
+        }
+    }
+
+    public long getBlockCacheHits() {
+        return blockCacheHits.get();
+    }
+
+    public long getBlockCacheMisses() {
+        return blockCacheMisses.get();
     }
 
 
@@ -97,8 +192,9 @@ public class IndexedBlockStore extends AbstractBlockstore{
 
     private void addInternalBlock(Block block, BigInteger cummDifficulty, boolean mainChain){
 
+        // the cached level may be iterated by the readers, the copy replaces it
         List<BlockInfo> blockInfos = block.getNumber() >= index.size() ?  new ArrayList<BlockInfo>() :
-                index.get((int) block.getNumber());
+                new ArrayList<>(index.get((int) block.getNumber()));
 
         BlockInfo blockInfo = new BlockInfo();
         blockInfo.setCummDifficulty(cummDifficulty);
@@ -108,7 +204,19 @@ public class IndexedBlockStore extends AbstractBlockstore{
         blockInfos.add(blockInfo);
         index.set((int) block.getNumber(), blockInfos);
 
-        blocks.put(block.getHash(), block);
+        saveBlockData(block);
+        blocks.put(wrap(block.getHash()), block);
+
+        // published after the block data is written, the readers may fetch the block by the hash at once
+        if (mainChain && canonicalIndex != null) {
+            canonicalIndex.put(block.getNumber(), block.getHash(), cummDifficulty);
+        }
+    }
+
+    protected void saveBlockData(Block block) {
+        // the header is written last since it marks the block presence
+        blocksDS.put(merge(BODY_PREFIX, block.getHash()), block.getEncodedBody());
+        headers.put(merge(HEADER_PREFIX, block.getHash()), block.getHeader());
     }
 
 
@@ -125,7 +233,7 @@ public class IndexedBlockStore extends AbstractBlockstore{
         for (BlockInfo blockInfo : blockInfos){
 
             byte[] hash = blockInfo.getHash();
-            Block block = blocks.get(hash);
+            Block block = getBlockByHash(hash);
 
             result.add(block);
         }
@@ -134,6 +242,11 @@ public class IndexedBlockStore extends AbstractBlockstore{
 
     @Override
     public Block getChainBlockByNumber(long number){
+        if (canonicalIndex != null) {
+            byte[] hash = canonicalIndex.getHash(number);
+            return hash == null ? null : getBlockByHash(hash);
+        }
+
         if (number >= index.size()){
             return null;
         }
@@ -145,7 +258,7 @@ public class IndexedBlockStore extends AbstractBlockstore{
             if (blockInfo.isMainChain()){
 
                 byte[] hash = blockInfo.getHash();
-                return blocks.get(hash);
+                return getBlockByHash(hash);
             }
         }
 
@@ -154,21 +267,112 @@ public class IndexedBlockStore extends AbstractBlockstore{
 
     @Override
     public Block getBlockByHash(byte[] hash) {
-        return blocks.get(hash);
+        ByteArrayWrapper key = wrap(hash);
+        Block block = blocks.get(key);
+        if (block != null) {
+            blockCacheHits.incrementAndGet();
+            return block;
+        }
+
+        blockCacheMisses.incrementAndGet();
+        block = loadBlock(hash);
+        if (block != null) blocks.put(key, block);
+        return block;
+    }
+
+    protected Block loadBlock(byte[] hash) {
+        byte[] header = blocksDS.get(merge(HEADER_PREFIX, hash));
+        if (header != null) {
+            byte[] body = blocksDS.get(merge(BODY_PREFIX, hash));
+            return body == null ? null : new Block(encodeBlock(header, body));
+        } else {
+            return getLegacyBlock(hash);
+        }
+    }
+
+    @Override
+    public BlockHeader getHeaderByHash(byte[] hash) {
+        Block block = blocks.get(wrap(hash));
+        if (block != null) return block.getHeader();
+
+        return loadHeader(hash);
+    }
+
+    protected BlockHeader loadHeader(byte[] hash) {
+        BlockHeader header = headers.get(merge(HEADER_PREFIX, hash));
+        if (header != null) return header;
+
+        Block block = getLegacyBlock(hash);
+        return block == null ? null : block.getHeader();
+    }
+
+    @Override
+    public byte[] getEncodedHeaderByHash(byte[] hash) {
+        byte[] header = blocksDS.get(merge(HEADER_PREFIX, hash));
+        if (header != null) return header;
+
+        Block block = getLegacyBlock(hash);
+        return block == null ? null : block.getHeader().getEncoded();
+    }
+
+    @Override
+    public byte[] getEncodedBodyByHash(byte[] hash) {
+        byte[] body = blocksDS.get(merge(BODY_PREFIX, hash));
+        if (body != null) return body;
+
+        byte[] block = blocksDS.get(hash);
+        return block == null ? null : encodeBody(block);
+    }
+
+    private Block getLegacyBlock(byte[] hash) {
+        byte[] bytes = blocksDS.get(hash);
+        return bytes == null ? null : new Block(bytes);
+    }
+
+    /**
+     * Joins the header RLP and the body RLP list [transactions, uncles]
+     * into the block RLP list [header, transactions, uncles] without decoding them
+     */
+    static byte[] encodeBlock(byte[] header, byte[] body) {
+        int bodyStart = RLP.getFirstListElement(body, 0);
+        int bodyLength = body.length - bodyStart;
+        byte[] listHeader = RLP.encodeListHeader(header.length + bodyLength);
+
+        byte[] ret = new byte[listHeader.length + header.length + bodyLength];
+        System.arraycopy(listHeader, 0, ret, 0, listHeader.length);
+        System.arraycopy(header, 0, ret, listHeader.length, header.length);
+        System.arraycopy(body, bodyStart, ret, listHeader.length + header.length, bodyLength);
+        return ret;
+    }
+
+    /**
+     * Cuts the header off the block RLP list [header, transactions, uncles],
+     * the opposite of {@link #encodeBlock(byte[], byte[])}
+     */
+    static byte[] encodeBody(byte[] block) {
+        int headerStart = RLP.getFirstListElement(block, 0);
+        int bodyStart = RLP.getNextElementIndex(block, headerStart);
+        int bodyLength = block.length - bodyStart;
+        byte[] listHeader = RLP.encodeListHeader(bodyLength);
+
+        byte[] ret = new byte[listHeader.length + bodyLength];
+        System.arraycopy(listHeader, 0, ret, 0, listHeader.length);
+        System.arraycopy(block, bodyStart, ret, listHeader.length, bodyLength);
+        return ret;
     }
 
     @Override
     public boolean isBlockExist(byte[] hash) {
-        return blocks.get(hash) != null;
+        return getHeaderByHash(hash) != null;
     }
 
 
     @Override
     public BigInteger getTotalDifficultyForHash(byte[] hash){
-        Block block = this.getBlockByHash(hash);
-        if (block == null) return ZERO;
+        BlockHeader header = this.getHeaderByHash(hash);
+        if (header == null) return ZERO;
 
-        Long level  =  block.getNumber();
+        Long level  =  header.getNumber();
         List<BlockInfo> blockInfos =  index.get(level.intValue());
         for (BlockInfo blockInfo : blockInfos)
                  if (areEqual(blockInfo.getHash(), hash)) {
@@ -181,6 +385,11 @@ public class IndexedBlockStore extends AbstractBlockstore{
 
         @Override
     public BigInteger getTotalDifficulty(){
+        if (canonicalIndex != null) {
+            long size = canonicalIndex.size();
+            return size == 0 ? ZERO : canonicalIndex.getTotalDifficulty(size - 1);
+        }
+
         long maxNumber = getMaxNumber();
 
         List<BlockInfo> blockInfos = index.get((int) maxNumber);
@@ -217,11 +426,11 @@ public class IndexedBlockStore extends AbstractBlockstore{
     @Override
     public List<byte[]> getListHashesEndWith(byte[] hash, long number){
 
-        List<Block> blocks = getListBlocksEndWith(hash, number);
-        List<byte[]> hashes = new ArrayList<>(blocks.size());
+        List<BlockHeader> headers = getListHeadersEndWith(hash, number);
+        List<byte[]> hashes = new ArrayList<>(headers.size());
 
-        for (Block b : blocks) {
-            hashes.add(b.getHash());
+        for (BlockHeader h : headers) {
+            hashes.add(h.getHash());
         }
 
         return hashes;
@@ -230,11 +439,16 @@ public class IndexedBlockStore extends AbstractBlockstore{
     @Override
     public List<BlockHeader> getListHeadersEndWith(byte[] hash, long qty) {
 
-        List<Block> blocks = getListBlocksEndWith(hash, qty);
-        List<BlockHeader> headers = new ArrayList<>(blocks.size());
+        BlockHeader header = getHeaderByHash(hash);
+
+        if (header == null) return new ArrayList<>();
 
-        for (Block b : blocks) {
-            headers.add(b.getHeader());
+        List<BlockHeader> headers = new ArrayList<>((int) qty);
+
+        for (int i = 0; i < qty; ++i) {
+            headers.add(header);
+            header = getHeaderByHash(header.getParentHash());
+            if (header == null) break;
         }
 
         return headers;
@@ -247,7 +461,7 @@ public class IndexedBlockStore extends AbstractBlockstore{
 
     private List<Block> getListBlocksEndWithInner(byte[] hash, long qty) {
 
-        Block block = this.blocks.get(hash);
+        Block block = getBlockByHash(hash);
 
         if (block == null) return new ArrayList<>();
 
@@ -255,7 +469,7 @@ public class IndexedBlockStore extends AbstractBlockstore{
 
         for (int i = 0; i < qty; ++i) {
             blocks.add(block);
-            block = this.blocks.get(block.getParentHash());
+            block = getBlockByHash(block.getParentHash());
             if (block == null) break;
         }
 
@@ -265,68 +479,66 @@ public class IndexedBlockStore extends AbstractBlockstore{
     @Override
     public void reBranch(Block forkBlock){
 
-        Block bestBlock = getBestBlock();
+        BlockHeader bestBlock = getBestBlock().getHeader();
+
+        // new main chain blocks, applied to the canonical index at once
+        Map<Long, BlockInfo> canonicalUpdates = new HashMap<>();
 
         long maxLevel = Math.max(bestBlock.getNumber(), forkBlock.getNumber());
 
         // 1. First ensure that you are one the save level
         long currentLevel = maxLevel;
-        Block forkLine = forkBlock;
+        BlockHeader forkLine = forkBlock.getHeader();
         if (forkBlock.getNumber() > bestBlock.getNumber()){
 
             while(currentLevel > bestBlock.getNumber()){
-                List<BlockInfo> blocks =  getBlockInfoForLevel(currentLevel);
-                BlockInfo blockInfo = getBlockInfoForHash(blocks, forkLine.getHash());
+                BlockInfo blockInfo = setMainChain(currentLevel, forkLine.getHash(), true);
                 if (blockInfo != null)  {
-                    blockInfo.setMainChain(true);
-                    setBlockInfoForLevel(currentLevel, blocks);
+                    canonicalUpdates.put(currentLevel, blockInfo);
                 }
-                forkLine = getBlockByHash(forkLine.getParentHash());
+                forkLine = getHeaderByHash(forkLine.getParentHash());
                 --currentLevel;
             }
         }
 
-        Block bestLine = bestBlock;
+        BlockHeader bestLine = bestBlock;
         if (bestBlock.getNumber() > forkBlock.getNumber()){
 
             while(currentLevel > forkBlock.getNumber()){
 
-                List<BlockInfo> blocks =  getBlockInfoForLevel(currentLevel);
-                BlockInfo blockInfo = getBlockInfoForHash(blocks, bestLine.getHash());
-                if (blockInfo != null)  {
-                    blockInfo.setMainChain(false);
-                    setBlockInfoForLevel(currentLevel, blocks);
-                }
-                bestLine = getBlockByHash(bestLine.getParentHash());
+                setMainChain(currentLevel, bestLine.getHash(), false);
+                this.blocks.remove(wrap(bestLine.getHash()));
+                bestLine = getHeaderByHash(bestLine.getParentHash());
                 --currentLevel;
             }
         }
 
 
         // 2. Loop back on each level until common block
-        while( !bestLine.isEqual(forkLine) ) {
+        while( !areEqual(bestLine.getHash(), forkLine.getHash()) ) {
 
-            List<BlockInfo> levelBlocks = getBlockInfoForLevel(currentLevel);
-            BlockInfo bestInfo = getBlockInfoForHash(levelBlocks, bestLine.getHash());
-            if (bestInfo != null) {
-                bestInfo.setMainChain(false);
-                setBlockInfoForLevel(currentLevel, levelBlocks);
-            }
+            setMainChain(currentLevel, bestLine.getHash(), false);
+            // the abandoned branch blocks are unlikely to be requested again
+            blocks.remove(wrap(bestLine.getHash()));
 
-            BlockInfo forkInfo = getBlockInfoForHash(levelBlocks, forkLine.getHash());
+            BlockInfo forkInfo = setMainChain(currentLevel, forkLine.getHash(), true);
             if (forkInfo != null) {
-                forkInfo.setMainChain(true);
-                setBlockInfoForLevel(currentLevel, levelBlocks);
+                canonicalUpdates.put(currentLevel, forkInfo);
             }
 
 
-            bestLine = getBlockByHash(bestLine.getParentHash());
-            forkLine = getBlockByHash(forkLine.getParentHash());
+            bestLine = getHeaderByHash(bestLine.getParentHash());
+            forkLine = getHeaderByHash(forkLine.getParentHash());
 
             --currentLevel;
         }
 
-
+        if (canonicalIndex != null) {
+            // the fork block not saved yet is published by the saveBlock() later
+            long newSize = canonicalUpdates.containsKey(forkBlock.getNumber()) ?
+                    forkBlock.getNumber() + 1 : forkBlock.getNumber();
+            canonicalIndex.update(canonicalUpdates, newSize);
+        }
     }
 
 
@@ -334,6 +546,15 @@ public class IndexedBlockStore extends AbstractBlockstore{
 
         List<byte[]> result = new ArrayList<>();
 
+        if (canonicalIndex != null) {
+            for (long i = 0; i < maxBlocks; i++) {
+                byte[] hash = canonicalIndex.getHash(number + i);
+                if (hash == null) break;
+                result.add(hash);
+            }
+            return result;
+        }
+
         int i;
         for ( i = 0; i < maxBlocks; ++i){
             List<BlockInfo> blockInfos =  index.get((int) number);
@@ -383,34 +604,124 @@ public class IndexedBlockStore extends AbstractBlockstore{
     }
 
 
+    /**
+     * Compact fixed layout encoding of the block level:
+     * {@code [FORMAT_VERSION] ([flags] [hash length] [hash] [TD length] [TD unsigned big endian])*}
+     *
+     * The Java serialized levels of the older databases are still readable,
+     * they are rewritten in this format by {@link #init(KeyValueDataSource, KeyValueDataSource)}
+     */
     public static final Serializer<List<BlockInfo>, byte[]> BLOCK_INFO_SERIALIZER = new Serializer<List<BlockInfo>, byte[]>(){
 
         @Override
         public byte[] serialize(List<BlockInfo> value) {
-            try {
-                ByteArrayOutputStream bos = new ByteArrayOutputStream();
-                ObjectOutputStream oos = new ObjectOutputStream(bos);
-                oos.writeObject(value);
-
-                byte[] data = bos.toByteArray();
-                return data;
-            } catch (IOException e) {
-                throw new RuntimeException(e);
+            int size = 1;
+            byte[][] tds = new byte[value.size()][];
+            for (int i = 0; i < value.size(); i++) {
+                BlockInfo blockInfo = value.get(i);
+                tds[i] = blockInfo.getCummDifficulty() == null ? EMPTY_BYTE_ARRAY :
+                        bigIntegerToBytes(blockInfo.getCummDifficulty());
+                size += 3 + blockInfo.getHash().length + tds[i].length;
             }
+
+            byte[] ret = new byte[size];
+            int pos = 0;
+            ret[pos++] = FORMAT_VERSION;
+            for (int i = 0; i < value.size(); i++) {
+                BlockInfo blockInfo = value.get(i);
+                ret[pos++] = (byte) (blockInfo.isMainChain() ? FLAG_MAIN_CHAIN : 0);
+                ret[pos++] = (byte) blockInfo.getHash().length;
+                System.arraycopy(blockInfo.getHash(), 0, ret, pos, blockInfo.getHash().length);
+                pos += blockInfo.getHash().length;
+                ret[pos++] = (byte) tds[i].length;
+                System.arraycopy(tds[i], 0, ret, pos, tds[i].length);
+                pos += tds[i].length;
+            }
+            return ret;
         }
 
         @Override
         public List<BlockInfo> deserialize(byte[] bytes) {
-            try {
-                ByteArrayInputStream bis = new ByteArrayInputStream(bytes, 0, bytes.length);
-                ObjectInputStream ois = new ObjectInputStream(bis);
-                return (List<BlockInfo>)ois.readObject();
-            } catch (IOException|ClassNotFoundException e) {
-                throw new RuntimeException(e);
+            if (isLegacyFormat(bytes)) return deserializeLegacy(bytes);
+            if (bytes[0] != FORMAT_VERSION) {
+                throw new RuntimeException("Unknown block index format: " + bytes[0]);
+            }
+
+            List<BlockInfo> ret = new ArrayList<>(2);
+            int pos = 1;
+            while (pos < bytes.length) {
+                BlockInfo blockInfo = new BlockInfo();
+                blockInfo.mainChain = (bytes[pos++] & FLAG_MAIN_CHAIN) != 0;
+                blockInfo.hash = Arrays.copyOfRange(bytes, pos + 1, pos + 1 + (bytes[pos] & 0xFF));
+                pos += 1 + blockInfo.hash.length;
+                int tdLength = bytes[pos++] & 0xFF;
+                blockInfo.cummDifficulty = tdLength == 0 ? ZERO :
+                        new BigInteger(1, Arrays.copyOfRange(bytes, pos, pos + tdLength));
+                pos += tdLength;
+                ret.add(blockInfo);
             }
+            return ret;
         }
     };
 
+    private static final byte FORMAT_VERSION = 1;
+    private static final int FLAG_MAIN_CHAIN = 1;
+    private static final byte[] FORMAT_VERSION_KEY = "blockInfoFormat".getBytes();
+
+    /**
+     * The Java serialization stream starts with 0xACED magic
+     */
+    static boolean isLegacyFormat(byte[] bytes) {
+        return bytes.length > 1 && bytes[0] == (byte) 0xAC && bytes[1] == (byte) 0xED;
+    }
+
+    private static List<BlockInfo> deserializeLegacy(byte[] bytes) {
+        try {
+            ByteArrayInputStream bis = new ByteArrayInputStream(bytes, 0, bytes.length);
+            ObjectInputStream ois = new ObjectInputStream(bis);
+            return (List<BlockInfo>)ois.readObject();
+        } catch (IOException|ClassNotFoundException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Rewrites the Java serialized levels of the older databases with {@link #BLOCK_INFO_SERIALIZER}
+     */
+    private void migrateIndex() {
+        if (indexDS.get(FORMAT_VERSION_KEY) != null) return;
+
+        int size = index.size();
+        if (size > 0) {
+            logger.info("Migrating block index of {} levels to the compact format...", size);
+            int migrated = 0;
+            Map<byte[], byte[]> batch = new HashMap<>();
+            for (int i = 0; i < size; i++) {
+                byte[] key = intToBytes(i);
+                byte[] bytes = indexDS.get(key);
+                if (bytes == null || !isLegacyFormat(bytes)) continue;
+
+                batch.put(key, BLOCK_INFO_SERIALIZER.serialize(deserializeLegacy(bytes)));
+                if (batch.size() >= MIGRATION_BATCH_SIZE) {
+                    indexDS.updateBatch(batch);
+                    migrated += batch.size();
+                    batch.clear();
+                    logger.info("Block index migration: {} of {} levels", i + 1, size);
+                }
+            }
+            indexDS.updateBatch(batch);
+            migrated += batch.size();
+            logger.info("Block index migration complete: {} levels rewritten", migrated);
+        }
+
+        indexDS.put(FORMAT_VERSION_KEY, new byte[] {FORMAT_VERSION});
+        if (indexDS instanceof Flushable) {
+            ((Flushable) indexDS).flush();
+        }
+    }
+
+    private static final int MIGRATION_BATCH_SIZE = 10000;
+
 
     public void printChain(){
 
@@ -442,18 +753,41 @@ public class IndexedBlockStore extends AbstractBlockstore{
         index.set((int) level, infos);
     }
 
-    private static BlockInfo getBlockInfoForHash(List<BlockInfo> blocks, byte[] hash){
-
-        for (BlockInfo blockInfo : blocks)
-            if (areEqual(hash, blockInfo.getHash())) return blockInfo;
-
-        return null;
+    /**
+     * The cached levels are read without locking, so neither the level nor its infos
+     * are changed in place: the copy with the changed info replaces the level
+     *
+     * @return the changed info or null if there is no such block on the level
+     */
+    private BlockInfo setMainChain(long level, byte[] hash, boolean mainChain) {
+        List<BlockInfo> infos = getBlockInfoForLevel(level);
+        List<BlockInfo> copy = new ArrayList<>(infos.size());
+        BlockInfo changed = null;
+        for (BlockInfo blockInfo : infos) {
+            if (changed == null && areEqual(hash, blockInfo.getHash())) {
+                changed = new BlockInfo();
+                changed.setHash(blockInfo.getHash());
+                changed.setCummDifficulty(blockInfo.getCummDifficulty());
+                changed.setMainChain(mainChain);
+                blockInfo = changed;
+            }
+            copy.add(blockInfo);
+        }
+        if (changed != null) setBlockInfoForLevel(level, copy);
+        return changed;
     }
 
     @Override
     public void load() {
     }
 
+    @Override
+    public void close() {
+        if (canonicalIndex != null) {
+            canonicalIndex.close();
+        }
+    }
+
     public void setSessionFactory(SessionFactory sessionFactory){
         throw new UnsupportedOperationException();
     }
@@ -6,6 +6,7 @@ import org.ethereum.config.SystemProperties;
 import org.ethereum.core.AccountState;
 import org.ethereum.core.Block;
 import org.ethereum.core.Repository;
+import org.ethereum.datasource.Flushable;
 import org.ethereum.datasource.KeyValueDataSource;
 import org.ethereum.json.EtherObjectMapper;
 import org.ethereum.json.JSONHelper;
@@ -27,6 +28,7 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.math.BigInteger;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
@@ -36,6 +38,8 @@ import static org.ethereum.crypto.HashUtil.EMPTY_DATA_HASH;
 import static org.ethereum.crypto.HashUtil.EMPTY_TRIE_HASH;
 import static org.ethereum.crypto.SHA3Helper.sha3;
 import static org.ethereum.util.ByteUtil.EMPTY_BYTE_ARRAY;
+import static org.ethereum.util.ByteUtil.byteArrayToLong;
+import static org.ethereum.util.ByteUtil.longToBytes;
 import static org.ethereum.util.ByteUtil.wrap;
 
 /**
@@ -46,6 +50,11 @@ public class RepositoryImpl implements Repository , org.ethereum.facade.Reposito
 
     public final static String DETAILS_DB = "details";
     public final static String STATE_DB = "state";
+    public final static String CONTRACT_NODES_DB = "contractnodes";
+
+    // the number of the fast synced contract details which are still stored by the address hash,
+    // kept in the details database, its length doesn't match any address or address hash
+    private final static byte[] HASHED_DETAILS_KEY = "hashedDetails".getBytes();
 
     private static final Logger logger = LoggerFactory.getLogger("repository");
     private static final Logger gLogger = LoggerFactory.getLogger("general");
@@ -60,6 +69,13 @@ public class RepositoryImpl implements Repository , org.ethereum.facade.Reposito
     private KeyValueDataSource detailsDS = null;
     private KeyValueDataSource stateDS = null;
 
+    private KeyValueDataSource contractNodesDS = null;
+    private ContractNodesIndex contractNodes = null;
+
+    // shared with the snapshots which migrate the details as well
+    private AtomicLong hashedDetails = new AtomicLong();
+    private long hashedDetailsSaved = 0;
+
     ReadWriteLock rwLock = new ReentrantReadWriteLock();
 
     private boolean isSnapshot = false;
@@ -92,6 +108,23 @@ public class RepositoryImpl implements Repository , org.ethereum.facade.Reposito
 
         stateDB = new DatabaseImpl(stateDS);
         worldState = new SecureTrie(stateDB.getDb());
+        loadHashedDetails();
+    }
+
+    /**
+     * Creates the repository which serves the contract storage nodes and codes
+     * by their hashes, see {@link #getNodeData(byte[])}
+     */
+    public RepositoryImpl(KeyValueDataSource detailsDS, KeyValueDataSource stateDS,
+                          KeyValueDataSource contractNodesDS) {
+        this(detailsDS, stateDS);
+
+        contractNodesDS.setName(CONTRACT_NODES_DB);
+        contractNodesDS.init();
+        this.contractNodesDS = contractNodesDS;
+
+        contractNodes = new ContractNodesIndex(detailsDS, contractNodesDS);
+        dds.setNodesIndex(contractNodes);
     }
 
     public RepositoryImpl(String detailsDbName, String stateDbName) {
@@ -115,6 +148,13 @@ public class RepositoryImpl implements Repository , org.ethereum.facade.Reposito
             stateDS.init();
             stateDB = new DatabaseImpl(stateDS);
             worldState = new SecureTrie(stateDB.getDb());
+            loadHashedDetails();
+
+            if (contractNodesDS != null) {
+                contractNodesDS.init();
+                contractNodes = new ContractNodesIndex(detailsDS, contractNodesDS);
+                dds.setNodesIndex(contractNodes);
+            }
         } finally {
             rwLock.writeLock().unlock();
         }
@@ -134,6 +174,10 @@ public class RepositoryImpl implements Repository , org.ethereum.facade.Reposito
                 stateDB.close();
                 stateDB = null;
             }
+
+            if (contractNodesDS != null) {
+                contractNodesDS.close();
+            }
         } finally {
             rwLock.writeLock().unlock();
         }
@@ -207,6 +251,31 @@ public class RepositoryImpl implements Repository , org.ethereum.facade.Reposito
         }
     }
 
+    private void flushDataSources() {
+        if (detailsDS instanceof Flushable) ((Flushable) detailsDS).flush();
+        if (stateDS instanceof Flushable) ((Flushable) stateDS).flush();
+        if (contractNodesDS instanceof Flushable) ((Flushable) contractNodesDS).flush();
+    }
+
+    private void loadHashedDetails() {
+        byte[] data = detailsDS.get(HASHED_DETAILS_KEY);
+        hashedDetailsSaved = data == null ? 0 : byteArrayToLong(data);
+        hashedDetails.set(hashedDetailsSaved);
+    }
+
+    // written after the details flush so the counter never claims fewer hashed details than stored
+    private void saveHashedDetails() {
+        long count = hashedDetails.get();
+        if (count == hashedDetailsSaved) return;
+
+        if (count > 0) {
+            detailsDS.put(HASHED_DETAILS_KEY, longToBytes(count));
+        } else {
+            detailsDS.delete(HASHED_DETAILS_KEY);
+        }
+        hashedDetailsSaved = count;
+    }
+
     @Override
     public void flushNoReconnect() {
         rwLock.writeLock().lock();
@@ -215,7 +284,9 @@ public class RepositoryImpl implements Repository , org.ethereum.facade.Reposito
                 long s = System.currentTimeMillis();
 
                 dds.flush();
+                saveHashedDetails();
                 worldState.sync();
+                flushDataSources();
                 gLogger.info("RepositoryImpl.flushNoReconnect took " + (System.currentTimeMillis() - s) + " ms");
         } finally {
             rwLock.writeLock().unlock();
@@ -231,7 +302,9 @@ public class RepositoryImpl implements Repository , org.ethereum.facade.Reposito
                 long s = System.currentTimeMillis();
 
                 dds.flush();
+                saveHashedDetails();
                 worldState.sync();
+                flushDataSources();
 
                 gLogger.info("RepositoryImpl.flush took " + (System.currentTimeMillis() - s) + " ms");
         } finally {
@@ -523,16 +596,18 @@ public class RepositoryImpl implements Repository , org.ethereum.facade.Reposito
 
     @Override
     public synchronized ContractDetails getContractDetails(final byte[] addr) {
+        AccountState accountState = getAccountState(addr);
+        if (isHashedDetails(accountState)) migrateContractDetails(addr);
+
         rwLock.readLock().lock();
         try {
                 // That part is important cause if we have
                 // to sync details storage according the trie root
                 // saved in the account
-                AccountState accountState = getAccountState(addr);
                 byte[] storageRoot = EMPTY_TRIE_HASH;
                 if (accountState != null)
-                    storageRoot = getAccountState(addr).getStateRoot();
-                ContractDetails details =  dds.get(addr);
+                    storageRoot = accountState.getStateRoot();
+                ContractDetails details = dds.get(addr);
 
                 if (details != null)
                     details = details.getSnapshotTo(storageRoot);
@@ -545,7 +620,85 @@ public class RepositoryImpl implements Repository , org.ethereum.facade.Reposito
 
     @Override
     public boolean hasContractDetails(byte[] addr) {
-        return dds.get(addr) != null;
+        return dds.get(addr) != null ||
+                (isHashedDetails(getAccountState(addr)) && dds.get(sha3(addr)) != null);
+    }
+
+    /**
+     * Only the fast synced database has the details stored by the address hash
+     * and only the contracts have the details there
+     */
+    private boolean isHashedDetails(AccountState accountState) {
+        return hashedDetails.get() > 0 && accountState != null &&
+                !Arrays.equals(accountState.getCodeHash(), EMPTY_DATA_HASH);
+    }
+
+    /**
+     * The details fetched by the fast sync are stored by the address hash since the address itself
+     * isn't known until the contract is accessed, moves them under the address on the first access
+     */
+    private synchronized void migrateContractDetails(byte[] addr) {
+        rwLock.writeLock().lock();
+        // the snapshots have their own locks, the shared counter guards the shared details store
+        try {
+            synchronized (hashedDetails) {
+                if (dds.get(addr) != null) return;
+
+                byte[] addrHash = sha3(addr);
+                ContractDetails details = dds.get(addrHash);
+                if (details != null) {
+                    dds.remove(addrHash);
+                    dds.update(addr, details);
+                    if (contractNodes != null) contractNodes.moved(addrHash, addr);
+                    hashedDetails.decrementAndGet();
+                }
+            }
+        } finally {
+            rwLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Stores the contract storage trie and code fetched by the fast sync,
+     * see {@link #migrateContractDetails(byte[])}
+     *
+     * @param addrHash sha3 of the contract address which is the state trie key
+     */
+    public synchronized void putFastSyncDetails(byte[] addrHash, ContractDetails details) {
+        rwLock.readLock().lock();
+        try {
+            // the fast sync may store the same details again after restart
+            synchronized (hashedDetails) {
+                if (dds.get(addrHash) == null) hashedDetails.incrementAndGet();
+                dds.update(addrHash, details);
+            }
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Stores the state trie nodes fetched by the fast sync, they are written directly to the data source
+     * since the nodes aren't reachable from the current root until the sync is done
+     */
+    public void putStateNodes(Map<byte[], byte[]> nodes) {
+        stateDS.updateBatch(nodes);
+    }
+
+    public byte[] getStateNode(byte[] hash) {
+        return stateDS.get(hash);
+    }
+
+    /**
+     * Looks up the state trie node, the contract storage trie node or the contract code
+     * by its hash for the GetNodeData requests, only the flushed data is found
+     */
+    public byte[] getNodeData(byte[] hash) {
+        byte[] data = getStateNode(hash);
+        if (data == null && contractNodes != null) {
+            data = contractNodes.get(hash);
+        }
+        return data;
     }
 
     @Override
@@ -623,6 +776,8 @@ public class RepositoryImpl implements Repository , org.ethereum.facade.Reposito
         repo.detailsDS = this.detailsDS;
 
         repo.dds = this.dds;
+        repo.contractNodes = this.contractNodes;
+        repo.hashedDetails = this.hashedDetails;
 
         repo.isSnapshot = true;
 
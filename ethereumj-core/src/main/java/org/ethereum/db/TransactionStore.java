@@ -1,39 +1,114 @@
 package org.ethereum.db;
 
 import org.ethereum.datasource.*;
+import org.ethereum.core.Transaction;
 import org.ethereum.core.TransactionInfo;
+import org.ethereum.core.TransactionReceipt;
+import org.ethereum.util.RLP;
+import org.ethereum.util.RLPElement;
+import org.ethereum.util.RLPList;
 import org.springframework.stereotype.Component;
 
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+
 /**
- * Storage (tx hash) => (block idx, tx idx, TransactionReceipt)
+ * Storage of the block receipts: (block hash) => [TransactionReceipt]
+ * with the lookup index (tx hash) => (block hash, tx idx)
+ *
+ * The receipts of the block are written once as a single record so the block
+ * receipts are read at once, the lookup record doesn't duplicate the receipt.
+ * Records of the older format (tx hash) => (block hash, tx idx, TransactionReceipt)
+ * are still readable
  *
  * Created by Anton Nashatyrev on 07.04.2016.
  */
 @Component
-public class TransactionStore extends ObjectDataSource<TransactionInfo> {
-    private final static Serializer<TransactionInfo, byte[]> serializer =
-            new Serializer<TransactionInfo, byte[]>() {
+public class TransactionStore implements Flushable {
+
+    private static final byte[] RECEIPTS_PREFIX = {'r'};
+
+    private final static Serializer<List<TransactionReceipt>, byte[]> receiptsSerializer =
+            new Serializer<List<TransactionReceipt>, byte[]>() {
         @Override
-        public byte[] serialize(TransactionInfo object) {
-            return object.getEncoded();
+        public byte[] serialize(List<TransactionReceipt> object) {
+            byte[][] encoded = new byte[object.size()][];
+            for (int i = 0; i < encoded.length; i++) {
+                encoded[i] = object.get(i).getEncoded();
+            }
+            return RLP.encodeList(encoded);
         }
 
         @Override
-        public TransactionInfo deserialize(byte[] stream) {
-            return new TransactionInfo(stream);
+        public List<TransactionReceipt> deserialize(byte[] stream) {
+            RLPList list = (RLPList) RLP.decode2(stream).get(0);
+            List<TransactionReceipt> ret = new ArrayList<>(list.size());
+            for (RLPElement element : list) {
+                ret.add(new TransactionReceipt(element.getRLPData()));
+            }
+            return ret;
         }
     };
 
+    private final KeyValueDataSource src;
+    private final ObjectDataSource<List<TransactionReceipt>> receipts;
+
     public TransactionStore(KeyValueDataSource src) {
-        super(src, serializer);
-        withCacheSize(256);
-        withCacheOnWrite(true);
+        this.src = src;
+        this.receipts = new ObjectDataSource<>(src, receiptsSerializer)
+                .withCacheSize(64)
+                .withCacheOnWrite(true);
+    }
+
+    /**
+     * Stores the receipts of the executed block and points its transactions to it
+     */
+    public void putBlockReceipts(byte[] blockHash, List<Transaction> txs, List<TransactionReceipt> blockReceipts) {
+        receipts.put(receiptsKey(blockHash), blockReceipts);
+        for (int i = 0; i < txs.size(); i++) {
+            src.put(txs.get(i).getHash(), RLP.encodeList(RLP.encodeElement(blockHash), RLP.encodeInt(i)));
+        }
+    }
+
+    /**
+     * @return receipts of the block in the transactions order
+     * or null if the block was not executed
+     */
+    public List<TransactionReceipt> getBlockReceipts(byte[] blockHash) {
+        return receipts.get(receiptsKey(blockHash));
+    }
+
+    public TransactionInfo get(byte[] txHash) {
+        byte[] bytes = src.get(txHash);
+        if (bytes == null) return null;
+
+        RLPList lookup = (RLPList) RLP.decode2(bytes).get(0);
+        if (lookup.size() != 2) {
+            // [receipt, blockHash, index] record of the older format
+            return new TransactionInfo(bytes);
+        }
+
+        byte[] blockHash = lookup.get(0).getRLPData();
+        byte[] indexBytes = lookup.get(1).getRLPData();
+        int index = indexBytes == null ? 0 : new BigInteger(1, indexBytes).intValue();
+        List<TransactionReceipt> blockReceipts = getBlockReceipts(blockHash);
+        if (blockReceipts == null || index >= blockReceipts.size()) return null;
+
+        return new TransactionInfo(blockReceipts.get(index), blockHash, index);
+    }
+
+    private static byte[] receiptsKey(byte[] blockHash) {
+        byte[] key = new byte[RECEIPTS_PREFIX.length + blockHash.length];
+        System.arraycopy(RECEIPTS_PREFIX, 0, key, 0, RECEIPTS_PREFIX.length);
+        System.arraycopy(blockHash, 0, key, RECEIPTS_PREFIX.length, blockHash.length);
+        return key;
     }
 
     @Override
     public void flush() {
-        if (getSrc() instanceof Flushable) {
-            ((Flushable) getSrc()).flush();
+        if (src instanceof Flushable) {
+            ((Flushable) src).flush();
         }
     }
 }
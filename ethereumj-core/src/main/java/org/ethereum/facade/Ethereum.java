@@ -6,6 +6,7 @@ import org.ethereum.core.Transaction;
 import org.ethereum.core.TransactionReceipt;
 import org.ethereum.listener.EthereumListener;
 import org.ethereum.manager.AdminInfo;
+import org.ethereum.manager.BlockExporter;
 import org.ethereum.manager.BlockLoader;
 import org.ethereum.mine.BlockMiner;
 import org.ethereum.net.client.PeerClient;
@@ -175,6 +176,8 @@ public interface Ethereum {
 
     BlockLoader getBlockLoader();
 
+    BlockExporter getBlockExporter();
+
     /**
      * @return Whisper implementation if the protocol is available
      */
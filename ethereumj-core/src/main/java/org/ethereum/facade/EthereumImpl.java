@@ -8,6 +8,7 @@ import org.ethereum.listener.CompositeEthereumListener;
 import org.ethereum.listener.EthereumListener;
 import org.ethereum.listener.GasPriceTracker;
 import org.ethereum.manager.AdminInfo;
+import org.ethereum.manager.BlockExporter;
 import org.ethereum.manager.BlockLoader;
 import org.ethereum.manager.WorldManager;
 import org.ethereum.mine.BlockMiner;
@@ -68,6 +69,9 @@ public class EthereumImpl implements Ethereum {
     @Autowired
     BlockLoader blockLoader;
 
+    @Autowired
+    BlockExporter blockExporter;
+
     @Autowired
     ProgramInvokeFactory programInvokeFactory;
 
@@ -354,6 +358,11 @@ public class EthereumImpl implements Ethereum {
         return  blockLoader;
     }
 
+    @Override
+    public BlockExporter getBlockExporter() {
+        return blockExporter;
+    }
+
     @Override
     public Whisper getWhisper() {
         return whisper;
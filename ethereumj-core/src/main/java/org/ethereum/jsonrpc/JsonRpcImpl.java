@@ -5,6 +5,8 @@ import org.ethereum.core.*;
 import org.ethereum.crypto.ECKey;
 import org.ethereum.crypto.HashUtil;
 import org.ethereum.crypto.SHA3Helper;
+import org.ethereum.db.BlockStore;
+import org.ethereum.db.BloomBitsIndex;
 import org.ethereum.db.ByteArrayWrapper;
 import org.ethereum.core.TransactionInfo;
 import org.ethereum.db.TransactionStore;
@@ -129,6 +131,9 @@ public class JsonRpcImpl implements JsonRpc {
     @Autowired
     PendingStateImpl pendingState;
 
+    @Autowired(required = false)
+    BloomBitsIndex bloomBitsIndex;
+
     long initialBlockNumber;
 
     Map<ByteArrayWrapper, Account> accounts = new HashMap<>();
@@ -925,14 +930,53 @@ public class JsonRpcImpl implements JsonRpc {
 
         void onBlock(Block b) {
             if (logFilter.matchBloom(new Bloom(b.getLogBloom()))) {
+                List<TransactionReceipt> receipts = transactionStore.getBlockReceipts(b.getHash());
                 int txIdx = 0;
                 for (Transaction tx : b.getTransactionsList()) {
-                    onTransaction(tx, b, txIdx);
+                    if (receipts == null) {
+                        onTransaction(tx, b, txIdx);
+                    } else if (logFilter.matchesContractAddress(tx.getReceiveAddress())) {
+                        TransactionReceipt receipt = receipts.get(txIdx);
+                        receipt.setTransaction(tx);
+                        onTransactionReceipt(receipt, b, txIdx);
+                    }
                     txIdx++;
                 }
             }
         }
 
+        /**
+         * Matches the historical main chain blocks. The indexed sections are screened
+         * with the bloom bits index, the rest of the blocks are screened with the header
+         * blooms, so only the candidate blocks are loaded
+         */
+        void onBlockRange(long from, long to) {
+            BlockStore blockStore = blockchain.getBlockStore();
+            long sections = bloomBitsIndex == null || !config.databaseBloomBitsEnabled() ? 0 :
+                    bloomBitsIndex.getSectionCount();
+            long blockNum = from;
+            while (blockNum <= to) {
+                long section = blockNum / BloomBitsIndex.SECTION_SIZE;
+                if (section < sections) {
+                    long sectionStart = section * BloomBitsIndex.SECTION_SIZE;
+                    long sectionEnd = Math.min(to, sectionStart + BloomBitsIndex.SECTION_SIZE - 1);
+                    BitSet candidates = logFilter.matchBloomBits(bloomBitsIndex, section);
+                    for (int i = candidates.nextSetBit((int) (blockNum - sectionStart));
+                         i >= 0 && sectionStart + i <= sectionEnd; i = candidates.nextSetBit(i + 1)) {
+                        onBlock(blockchain.getBlockByNumber(sectionStart + i));
+                    }
+                    blockNum = sectionEnd + 1;
+                } else {
+                    byte[] hash = blockStore.getBlockHashByNumber(blockNum);
+                    BlockHeader header = hash == null ? null : blockStore.getHeaderByHash(hash);
+                    if (header != null && logFilter.matchBloom(new Bloom(header.getLogsBloom()))) {
+                        onBlock(blockchain.getBlockByNumber(blockNum));
+                    }
+                    blockNum++;
+                }
+            }
+        }
+
         @Override
         public void newBlockReceived(Block b) {
             if (onNewBlock) onBlock(b);
@@ -990,9 +1034,7 @@ public class JsonRpcImpl implements JsonRpc {
             if (blockFrom != null) {
                 // need to add historical data
                 blockTo = blockTo == null ? blockchain.getBestBlock() : blockTo;
-                for (long blockNum = blockFrom.getNumber(); blockNum <= blockTo.getNumber(); blockNum++) {
-                    filter.onBlock(blockchain.getBlockByNumber(blockNum));
-                }
+                filter.onBlockRange(blockFrom.getNumber(), blockTo.getNumber());
             }
 
             // the following is not precisely documented
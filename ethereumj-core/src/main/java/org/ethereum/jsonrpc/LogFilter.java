@@ -2,11 +2,13 @@ package org.ethereum.jsonrpc;
 
 import org.ethereum.core.Bloom;
 import org.ethereum.crypto.SHA3Helper;
+import org.ethereum.db.BloomBitsIndex;
 import org.ethereum.vm.DataWord;
 import org.ethereum.vm.LogInfo;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
 
 /**
@@ -63,6 +65,41 @@ public class LogFilter {
         return true;
     }
 
+    /**
+     * Screens the whole indexed section against the filter blooms
+     * @return the bits of the section blocks which blooms match the filter,
+     * the bit N corresponds to the block {@code section * SECTION_SIZE + N}
+     */
+    public BitSet matchBloomBits(BloomBitsIndex index, long section) {
+        initBlooms();
+        BitSet ret = null;
+        for (Bloom[] andBloom : filterBlooms) {
+            BitSet orBits = new BitSet(BloomBitsIndex.SECTION_SIZE);
+            for (Bloom orBloom : andBloom) {
+                BitSet bits = null;
+                for (int bit : BloomBitsIndex.bloomBits(orBloom)) {
+                    if (bits == null) {
+                        bits = index.getSlice(section, bit);
+                    } else {
+                        bits.and(index.getSlice(section, bit));
+                    }
+                }
+                if (bits == null) {
+                    // empty bloom matches any block
+                    orBits.set(0, BloomBitsIndex.SECTION_SIZE);
+                    break;
+                }
+                orBits.or(bits);
+            }
+            if (ret == null) {
+                ret = orBits;
+            } else {
+                ret.and(orBits);
+            }
+        }
+        return ret;
+    }
+
     boolean matchesContractAddress(byte[] toAddr) {
         initBlooms();
         for (byte[] address : contractAddresses) {
@@ -0,0 +1,187 @@
+package org.ethereum.manager;
+
+import org.ethereum.config.SystemProperties;
+import org.ethereum.core.Block;
+import org.ethereum.db.BlockStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Exports the main chain blocks range to the files which can be imported by {@link BlockLoader}.
+ *
+ * Every file is the sequence of {@code [length: 4] [block RLP]} records, a new file
+ * {@code blocks-<first block number>.rlp[.gz]} is started every {@code blocksPerFile} blocks.
+ * The {@code blocks.idx} file lists the written files as {@code <file name> <first block> <last block>}
+ * lines, so the ranges may be picked and imported independently.
+ *
+ * The blocks are read on the calling thread and written by the background thread,
+ * the queue between them is bounded so the memory use doesn't depend on the range size
+ */
+@Component
+public class BlockExporter {
+    private static final Logger logger = LoggerFactory.getLogger("general");
+
+    private static final int QUEUE_SIZE = 1024;
+    private static final long REPORT_INTERVAL = 10_000;
+    private static final byte[] END = new byte[0];
+
+    public static final String INDEX_FILE = "blocks.idx";
+
+    @Autowired
+    SystemProperties config;
+
+    @Autowired
+    private BlockStore blockStore;
+
+    public BlockExporter() {
+    }
+
+    public BlockExporter(BlockStore blockStore) {
+        this.blockStore = blockStore;
+    }
+
+    /**
+     * Exports the range configured by the {@code blocks.export} options
+     */
+    public void exportBlocks() {
+        long to = config.blocksExportTo() < 0 ? blockStore.getMaxNumber() : config.blocksExportTo();
+        exportBlocks(new File(config.blocksExportDir()), config.blocksExportFrom(), to,
+                config.blocksExportBlocksPerFile(), config.blocksExportCompress());
+    }
+
+    /**
+     * Writes the main chain blocks from {@code from} to {@code to} inclusive
+     *
+     * @return the number of exported blocks
+     */
+    public long exportBlocks(final File dir, long from, long to, final int blocksPerFile, final boolean compress) {
+        dir.mkdirs();
+        logger.info("Exporting blocks #{} - #{} to {}", from, to, dir);
+
+        final BlockingQueue<byte[]> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+        final long firstBlock = from;
+        final Exception[] writeError = new Exception[1];
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    write(queue, dir, firstBlock, blocksPerFile, compress);
+                } catch (IOException | RuntimeException e) {
+                    writeError[0] = e;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, "BlockExporterWriter");
+        writer.start();
+
+        long count = 0;
+        long reportTime = System.currentTimeMillis();
+        try {
+            for (long number = from; number <= to; number++) {
+                byte[] hash = blockStore.getBlockHashByNumber(number);
+                Block block = hash == null ? null : blockStore.getBlockByHash(hash);
+                if (block == null) {
+                    logger.warn("No main chain block #{}, export stopped", number);
+                    break;
+                }
+                if (!put(queue, block.getEncoded(), writer)) break;
+                count++;
+                if (System.currentTimeMillis() - reportTime > REPORT_INTERVAL) {
+                    reportTime = System.currentTimeMillis();
+                    logger.info("Exported #{} ({} blocks)", number, count);
+                }
+            }
+            put(queue, END, writer);
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            // the writer never gets the END if the reading has failed
+            if (writer.isAlive()) {
+                writer.interrupt();
+                try {
+                    writer.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        if (writeError[0] != null) {
+            throw new RuntimeException("Error writing blocks to " + dir, writeError[0]);
+        }
+        logger.info("Exported {} blocks to {}", count, dir);
+        return count;
+    }
+
+    /**
+     * @return false if the writer has failed
+     */
+    private static boolean put(BlockingQueue<byte[]> queue, byte[] rlp, Thread writer) throws InterruptedException {
+        while (!queue.offer(rlp, 100, TimeUnit.MILLISECONDS)) {
+            if (!writer.isAlive()) return false;
+        }
+        return true;
+    }
+
+    private void write(BlockingQueue<byte[]> queue, File dir, long firstBlock, int blocksPerFile, boolean compress)
+            throws IOException, InterruptedException {
+
+        try (Writer index = Files.newBufferedWriter(new File(dir, INDEX_FILE).toPath(), StandardCharsets.UTF_8)) {
+            long number = firstBlock;
+            DataOutputStream out = null;
+            String fileName = null;
+            long fileFirst = number;
+            try {
+                while (true) {
+                    byte[] rlp = queue.take();
+                    if (rlp == END) break;
+
+                    if (out == null) {
+                        fileName = String.format("blocks-%09d.rlp", number) + (compress ? ".gz" : "");
+                        fileFirst = number;
+                        OutputStream file = new FileOutputStream(new File(dir, fileName));
+                        out = new DataOutputStream(new BufferedOutputStream(
+                                compress ? new GZIPOutputStream(file, 1 << 16) : file, 1 << 16));
+                    }
+                    out.writeInt(rlp.length);
+                    out.write(rlp);
+
+                    if (number - fileFirst + 1 >= blocksPerFile) {
+                        out.close();
+                        out = null;
+                        writeIndex(index, fileName, fileFirst, number);
+                    }
+                    number++;
+                }
+            } finally {
+                if (out != null) {
+                    out.close();
+                    writeIndex(index, fileName, fileFirst, number - 1);
+                }
+            }
+        }
+    }
+
+    private static void writeIndex(Writer index, String fileName, long first, long last) throws IOException {
+        index.write(fileName + " " + first + " " + last + "\n");
+        index.flush();
+    }
+}
@@ -9,22 +9,54 @@ import org.ethereum.validator.BlockHeaderValidator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.spongycastle.util.encoders.Hex;
+import org.springframework.beans.factory.ObjectFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
-import java.util.*;
-import java.util.concurrent.*;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.GZIPInputStream;
 
+/**
+ * Imports the blocks from the file instead of the network.
+ *
+ * The file formats supported:
+ * - binary: the sequence of {@code [length: 4] [block RLP]} records (see {@link BlockExporter})
+ * - gzip compressed binary
+ * - hex: the block RLP hex string per line
+ * The format is detected by the first byte: the binary record length starts with zero byte
+ *
+ * The blocks are passed through the pipeline: parsing, header validation (PoW), sender
+ * recovery and tx/uncle roots checks are done in parallel preserving the blocks order,
+ * then the blocks are executed one by one.
+ *
+ * For the uncompressed binary file the position of the imported blocks is saved in the {@code <file>.checkpoint}
+ * file, so the import is resumed from there after restart. The blocks which are already in the
+ * blockchain are skipped anyway
+ */
 @Component
 public class BlockLoader {
     private static final Logger logger = LoggerFactory.getLogger("blockqueue");
 
+    private static final int CHECKPOINT_INTERVAL = 1000;
+    private static final long REPORT_INTERVAL = 10_000;
+    private static final int READ_BUFFER_SIZE = 1 << 20;
+    private static final int GZIP_MAGIC = 0x1f;
+
     @Autowired
-    private BlockHeaderValidator headerValidator;
+    private ObjectFactory<BlockHeaderValidator> headerValidatorFactory;
 
     @Autowired
     SystemProperties config;
@@ -32,82 +64,291 @@ public class BlockLoader {
     @Autowired
     private Blockchain blockchain;
 
-    Scanner scanner = null;
+    private final ThreadLocal<BlockHeaderValidator> headerValidator = new ThreadLocal<BlockHeaderValidator>() {
+        @Override
+        protected BlockHeaderValidator initialValue() {
+            return headerValidatorFactory.getObject();
+        }
+    };
 
-    DateFormat df = new SimpleDateFormat("HH:mm:ss.SSSS");
+    private static class BlockRecord {
+        final long offset;
+        final Block block;
 
-    private void blockWork(Block block) {
-        if (block.getNumber() >= blockchain.getBestBlock().getNumber()) {
+        BlockRecord(long offset, Block block) {
+            this.offset = offset;
+            this.block = block;
+        }
+    }
 
-            if (block.getNumber() > 0 && !isValid(block.getHeader())) {
-                throw new RuntimeException();
-            }
+    ExecutorPipeline<BlockRecord, BlockRecord> exec1;
+    ExecutorPipeline<BlockRecord, ?> exec2;
+
+    private File checkpointFile;
+    private volatile boolean failed;
+    private long pushed;
+    private long processed;
+
+    private long importedBlocks;
+    private long importedTxs;
+    private long importedGas;
+    private long reportBlocks;
+    private long reportGas;
+    private long reportTime;
+
+    private BlockRecord prepare(BlockRecord record) {
+        Block block = record.block;
+        if (block.getNumber() < blockchain.getBestBlock().getNumber()) return record;
+
+        if (block.getNumber() > 0 && !isValid(block.getHeader())) {
+            throw new RuntimeException("Invalid block header " + block.getShortDescr());
+        }
+        for (Transaction tx : block.getTransactionsList()) {
+            tx.getSender();
+        }
+        if (!BlockchainImpl.isValidBody(block)) {
+            throw new RuntimeException("Block's given Uncle Hash doesn't match: " + block.getShortDescr());
+        }
+        block.setBodyVerified(true);
+        return record;
+    }
+
+    private void blockWork(BlockRecord record) {
+        Block block = record.block;
+        if (block.getNumber() >= blockchain.getBestBlock().getNumber()) {
 
             ImportResult result = blockchain.tryToConnect(block);
-            System.out.println(df.format(new Date()) + " Imported block " + block.getShortDescr() + ": " + result + " (prework: "
-                    + exec1.getQueue().size() + ", work: " + exec2.getQueue().size() + ", blocks: " + exec1.getOrderMap().size() + ")");
+            if (!result.isSuccessful() && result != ImportResult.EXIST) {
+                throw new RuntimeException("Block import failed " + block.getShortDescr() + ": " + result);
+            }
+            if (logger.isDebugEnabled()) {
+                logger.debug("Imported block " + block.getShortDescr() + ": " + result + " (prework: "
+                        + exec1.getQueue().size() + ", work: " + exec2.getQueue().size() + ", blocks: " + exec1.getOrderMap().size() + ")");
+            }
+            importedBlocks++;
+            importedTxs += block.getTransactionsList().size();
+            importedGas += block.getGasUsed();
+            report(block, false);
 
         } else {
 
             if (block.getNumber() % 10000 == 0)
-                System.out.println("Skipping block #" + block.getNumber());
+                logger.info("Skipping block #" + block.getNumber());
+        }
+
+        if (checkpointFile != null && block.getNumber() % CHECKPOINT_INTERVAL == 0) {
+            saveCheckpoint(record.offset, block.getNumber());
         }
     }
 
-    ExecutorPipeline<Block, Block> exec1;
-    ExecutorPipeline<Block, ?> exec2;
+    private void report(Block block, boolean force) {
+        long now = System.currentTimeMillis();
+        long elapsed = now - reportTime;
+        if (!force && elapsed < REPORT_INTERVAL) return;
+        if (elapsed > 0) {
+            logger.info(String.format("Imported #%d, %d blocks, %d txs: %.1f blocks/s, %.1f Mgas/s (prework: %d, work: %d)",
+                    block == null ? blockchain.getBestBlock().getNumber() : block.getNumber(),
+                    importedBlocks, importedTxs,
+                    (importedBlocks - reportBlocks) * 1000d / elapsed,
+                    (importedGas - reportGas) / 1000d / elapsed,
+                    exec1.getQueue().size(), exec2.getQueue().size()));
+        }
+        reportTime = now;
+        reportBlocks = importedBlocks;
+        reportGas = importedGas;
+    }
 
     public void loadBlocks() {
-        exec1 = new ExecutorPipeline(8, 1000, true, new Functional.Function<Block, Block>() {
+        exec1 = new ExecutorPipeline(Runtime.getRuntime().availableProcessors(), 1000, true,
+                new Functional.Function<BlockRecord, BlockRecord>() {
             @Override
-            public Block apply(Block b) {
-                for (Transaction tx : b.getTransactionsList()) {
-                    tx.getSender();
-                }
-                return b;
+            public BlockRecord apply(BlockRecord record) {
+                return prepare(record);
             }
         }, new Functional.Consumer<Throwable>() {
             @Override
             public void accept(Throwable throwable) {
                 logger.error("Unhandled exception: ", throwable);
+                fail();
             }
         });
 
-        exec2 = exec1.add(1, 1000, new Functional.Consumer<Block>() {
+        exec2 = exec1.add(1, 1000, new Functional.Consumer<BlockRecord>() {
             @Override
-            public void accept(Block block) {
-                blockWork(block);
+            public void accept(BlockRecord record) {
+                try {
+                    blockWork(record);
+                } finally {
+                    processed();
+                }
             }
         });
 
         String fileSrc = config.blocksLoader();
+        reportTime = System.currentTimeMillis();
         try {
-            FileInputStream inputStream = null;
-            inputStream = new FileInputStream(fileSrc);
-            scanner = new Scanner(inputStream, "UTF-8");
+            logger.info("Loading blocks: " + fileSrc);
+            File file = new File(fileSrc);
+            int firstByte = readFirstByte(file);
+            if (firstByte == 0) {
+                checkpointFile = new File(fileSrc + ".checkpoint");
+                loadBinary(file);
+            } else if (firstByte == GZIP_MAGIC) {
+                loadCompressed(file);
+            } else {
+                loadHex(file);
+            }
+            waitProcessed();
+            if (checkpointFile != null && !failed) {
+                saveCheckpoint(-1, blockchain.getBestBlock().getNumber());
+            }
+        } catch (IOException e) {
+            logger.error("Error reading blocks file " + fileSrc, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            exec1.shutdown();
+        }
+
+        report(null, true);
+        logger.info(failed ? " * Failed * " : " * Done * ");
+    }
+
+    private static int readFirstByte(File file) throws IOException {
+        try (FileInputStream in = new FileInputStream(file)) {
+            return in.read();
+        }
+    }
 
-            System.out.println("Loading blocks: " + fileSrc);
+    private void loadHex(File file) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null && !failed) {
+                if (line.isEmpty()) continue;
+                push(new BlockRecord(-1, new Block(Hex.decode(line))));
+            }
+        }
+    }
 
-            while (scanner.hasNextLine()) {
+    private void loadBinary(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long start = loadCheckpoint();
+            if (start > 0) {
+                logger.info("Resuming import from the checkpoint at " + start);
+                channel.position(start);
+            }
+            loadRecords(channel, channel.position());
+        }
+    }
 
-                byte[] blockRLPBytes = Hex.decode(scanner.nextLine());
-                Block block = new Block(blockRLPBytes);
+    private void loadCompressed(File file) throws IOException {
+        try (ReadableByteChannel channel = Channels.newChannel(
+                new GZIPInputStream(new FileInputStream(file), READ_BUFFER_SIZE))) {
+            loadRecords(channel, -1);
+        }
+    }
 
-                exec1.push(block);
+    /**
+     * @param offset position of the first record in the file or -1 if the position is not tracked
+     */
+    private void loadRecords(ReadableByteChannel channel, long offset) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+        buf.flip();
+        while (!failed) {
+            if (!fill(channel, buf, 4)) break;
+            int length = buf.getInt();
+            if (length > buf.capacity()) {
+                ByteBuffer larger = ByteBuffer.allocateDirect(Integer.highestOneBit(length) << 1);
+                larger.put(buf);
+                larger.flip();
+                buf = larger;
+            }
+            if (!fill(channel, buf, length)) {
+                throw new EOFException("Truncated block record at " + offset);
+            }
+            byte[] rlp = new byte[length];
+            buf.get(rlp);
+            push(new BlockRecord(offset, new Block(rlp)));
+            if (offset >= 0) offset += 4 + length;
+        }
+    }
+
+    /**
+     * Makes sure the buffer has at least {@code size} bytes remaining
+     *
+     * @return false if the end of file is reached
+     */
+    private static boolean fill(ReadableByteChannel channel, ByteBuffer buf, int size) throws IOException {
+        if (buf.remaining() >= size) return true;
+        buf.compact();
+        while (buf.position() < size) {
+            if (channel.read(buf) < 0) {
+                buf.flip();
+                return false;
             }
-        } catch (IOException e) {
-            e.printStackTrace();
         }
+        buf.flip();
+        return true;
+    }
 
-        System.out.println(" * Done * ");
+    private void push(BlockRecord record) {
+        synchronized (this) {
+            pushed++;
+        }
+        exec1.push(record);
+    }
+
+    private synchronized void processed() {
+        processed++;
+        notifyAll();
+    }
+
+    private synchronized void fail() {
+        failed = true;
+        notifyAll();
+    }
+
+    private synchronized void waitProcessed() throws InterruptedException {
+        while (processed < pushed && !failed) {
+            wait();
+        }
+    }
+
+    /**
+     * @return the file position to resume from if the checkpointed block is in the blockchain
+     */
+    private long loadCheckpoint() throws IOException {
+        if (!checkpointFile.exists()) return 0;
+        String[] checkpoint = new String(Files.readAllBytes(checkpointFile.toPath()), StandardCharsets.UTF_8).trim().split(" ");
+        long offset = Long.parseLong(checkpoint[0]);
+        long number = Long.parseLong(checkpoint[1]);
+        if (offset < 0) {
+            logger.info("The blocks file was imported completely up to #" + number);
+        }
+        if (offset < 0 || number > blockchain.getBestBlock().getNumber()) {
+            // the import was completed or the checkpointed block wasn't flushed
+            return 0;
+        }
+        return offset;
+    }
+
+    private void saveCheckpoint(long offset, long number) {
+        try {
+            File tmp = new File(checkpointFile.getPath() + ".tmp");
+            Files.write(tmp.toPath(), (offset + " " + number).getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp.toPath(), checkpointFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            logger.warn("Can't save import checkpoint " + checkpointFile, e);
+        }
     }
 
     private boolean isValid(BlockHeader header) {
 
-        if (!headerValidator.validate(header)) {
+        BlockHeaderValidator validator = headerValidator.get();
+        if (!validator.validate(header)) {
 
             if (logger.isErrorEnabled())
-                headerValidator.logErrors(logger);
+                validator.logErrors(logger);
 
             return false;
         }
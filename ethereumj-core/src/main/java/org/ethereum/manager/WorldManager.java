@@ -3,6 +3,7 @@ package org.ethereum.manager;
 import org.ethereum.config.SystemProperties;
 import org.ethereum.core.*;
 import org.ethereum.crypto.HashUtil;
+import org.ethereum.datasource.GroupCommitWriter;
 import org.ethereum.db.BlockStore;
 import org.ethereum.db.ByteArrayWrapper;
 import org.ethereum.listener.CompositeEthereumListener;
@@ -72,6 +73,9 @@ public class WorldManager {
     @Autowired
     private PendingState pendingState;
 
+    @Autowired(required = false)
+    private GroupCommitWriter groupCommitWriter;
+
     @Autowired
     SystemProperties config;
 
@@ -177,6 +181,10 @@ public class WorldManager {
                     blockchain.getBestBlock().getNumber(),
                     blockchain.getTotalDifficulty().toString(),
                     Hex.toHexString(blockchain.getBestBlock().getStateRoot()));
+
+            if (groupCommitWriter != null && config.databaseGroupCommitEnabled()) {
+                checkCommitMarker(bestBlock);
+            }
         }
 
         if (config.rootHashStart() != null) {
@@ -206,11 +214,33 @@ public class WorldManager {
     }
 
 
+    /**
+     * The group commit marker which doesn't match the best block means the node was stopped
+     * in the middle of the flush and some databases may miss its data, the state can't be
+     * trusted then and the node refuses to start
+     */
+    private void checkCommitMarker(Block bestBlock) {
+        long committed = groupCommitWriter.getLastCommittedBlock();
+        if (committed < 0) {
+            // the group commit was just switched on, the marker is written by the next flush
+            logger.info("No group commit marker found, best block [{}]", bestBlock.getNumber());
+        } else if (committed != bestBlock.getNumber()) {
+            throw new IllegalStateException("Last completely committed block is [" + committed +
+                    "] while the best stored block is [" + bestBlock.getNumber() + "], the databases contain " +
+                    "a partially written flush. Restore the database or resync from scratch (database.reset = true)");
+        }
+    }
+
     @PreDestroy
     public void close() {
         stopPeerDiscovery();
+        // the pending writes must reach the data sources before they are closed
+        if (groupCommitWriter != null) {
+            groupCommitWriter.close();
+        }
         repository.close();
         blockchain.close();
+        blockStore.close();
     }
 
 }
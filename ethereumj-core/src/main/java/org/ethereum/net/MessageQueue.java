@@ -17,8 +17,8 @@ import org.springframework.context.annotation.Scope;
 import org.springframework.stereotype.Component;
 
 import java.util.Queue;
-import java.util.concurrent.*;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.ethereum.net.message.StaticMessages.DISCONNECT_MESSAGE;
 
@@ -35,6 +35,10 @@ import static org.ethereum.net.message.StaticMessages.DISCONNECT_MESSAGE;
  * The following messages will not be answered:
  *      PONG, PEERS, HELLO, STATUS, TRANSACTIONS, BLOCKS
  *
+ * The queue isn't polled: a drain task is submitted to the channel event loop when a message is queued,
+ * a request is answered or the channel becomes writable again. The drain writes all the pending
+ * responses and the head request while the channel is writable and flushes them at once
+ *
  * @author Roman Mandeleil
  */
 @Component
@@ -43,14 +47,6 @@ public class MessageQueue {
 
     private static final Logger logger = LoggerFactory.getLogger("net");
 
-    private static final ScheduledExecutorService timer = Executors.newScheduledThreadPool(4, new ThreadFactory() {
-        private AtomicInteger cnt = new AtomicInteger(0);
-
-        public Thread newThread(Runnable r) {
-            return new Thread(r, "MessageQueueTimer-" + cnt.getAndIncrement());
-        }
-    });
-
     private Queue<MessageRoundtrip> requestQueue = new ConcurrentLinkedQueue<>();
     private Queue<MessageRoundtrip> respondQueue = new ConcurrentLinkedQueue<>();
     private ChannelHandlerContext ctx = null;
@@ -58,23 +54,29 @@ public class MessageQueue {
     @Autowired
     EthereumListener ethereumListener;
     boolean hasPing = false;
-    private ScheduledFuture<?> timerTask;
     private Channel channel;
 
+    private final AtomicBoolean drainScheduled = new AtomicBoolean(false);
+    private volatile boolean closed = false;
+    private final Runnable drainTask = new Runnable() {
+        public void run() {
+            // reset first, so the messages queued during the drain schedule the next one
+            drainScheduled.set(false);
+            try {
+                drain();
+            } catch (Throwable t) {
+                logger.error("Unhandled exception", t);
+            }
+        }
+    };
+
     public MessageQueue() {
     }
 
     public void activate(ChannelHandlerContext ctx) {
         this.ctx = ctx;
-        timerTask = timer.scheduleAtFixedRate(new Runnable() {
-            public void run() {
-                try {
-                    nudgeQueue();
-                } catch (Throwable t) {
-                    logger.error("Unhandled exception", t);
-                }
-            }
-        }, 10, 10, TimeUnit.MILLISECONDS);
+        // the messages queued before the activation
+        scheduleDrain();
     }
 
     public void setChannel(Channel channel) {
@@ -91,6 +93,18 @@ public class MessageQueue {
             requestQueue.add(new MessageRoundtrip(msg));
         else
             respondQueue.add(new MessageRoundtrip(msg));
+
+        scheduleDrain();
+    }
+
+    /**
+     * Called by the handler when the channel writability changes,
+     * the drain stopped on the full outbound buffer continues
+     */
+    public void onWritabilityChanged() {
+        if (ctx != null && ctx.channel().isWritable()) {
+            scheduleDrain();
+        }
     }
 
     public void disconnect() {
@@ -123,6 +137,8 @@ public class MessageQueue {
                     channel.getPeerStats().pong(messageRoundtrip.lastTimestamp);
                 logger.trace("Message round trip covered: [{}] ",
                         messageRoundtrip.getMsg().getClass());
+                // the next request can be sent
+                scheduleDrain();
             }
         }
     }
@@ -132,15 +148,33 @@ public class MessageQueue {
             requestQueue.remove();
     }
 
-    private void nudgeQueue() {
+    private void scheduleDrain() {
+        if (ctx != null && !closed && drainScheduled.compareAndSet(false, true)) {
+            ctx.executor().execute(drainTask);
+        }
+    }
+
+    private void drain() {
+        if (closed) return;
+
         // remove last answered message on the queue
         removeAnsweredMessage(requestQueue.peek());
-        // Now send the next message
-        sendToWire(respondQueue.poll());
-        sendToWire(requestQueue.peek());
+
+        // the responses go first, the requests are sent one by one as they are answered
+        boolean written = false;
+        while (ctx.channel().isWritable()) {
+            MessageRoundtrip messageRoundtrip = respondQueue.poll();
+            if (messageRoundtrip == null) break;
+            written |= sendToWire(messageRoundtrip);
+        }
+        if (ctx.channel().isWritable()) {
+            written |= sendToWire(requestQueue.peek());
+        }
+
+        if (written) ctx.flush();
     }
 
-    private void sendToWire(MessageRoundtrip messageRoundtrip) {
+    private boolean sendToWire(MessageRoundtrip messageRoundtrip) {
 
         if (messageRoundtrip != null && messageRoundtrip.getRetryTimes() == 0) {
             // TODO: retry logic || messageRoundtrip.hasToRetry()){
@@ -149,18 +183,18 @@ public class MessageQueue {
 
             ethereumListener.onSendMessage(channel, msg);
 
-            ctx.writeAndFlush(msg).addListener(ChannelFutureListener.FIRE_EXCEPTION_ON_FAILURE);
+            ctx.write(msg).addListener(ChannelFutureListener.FIRE_EXCEPTION_ON_FAILURE);
 
             if (msg.getAnswerMessage() != null) {
                 messageRoundtrip.incRetryTimes();
                 messageRoundtrip.saveTime();
             }
+            return true;
         }
+        return false;
     }
 
     public void close() {
-        if (timerTask != null) {
-            timerTask.cancel(false);
-        }
+        closed = true;
     }
 }
@@ -13,6 +13,7 @@ import java.util.List;
 import java.util.SortedSet;
 import java.util.TreeSet;
 
+import static org.ethereum.net.eth.EthVersion.V63;
 import static org.ethereum.net.eth.EthVersion.fromCode;
 import static org.ethereum.net.client.Capability.*;
 
@@ -32,8 +33,10 @@ public class ConfigCapabilities {
             EthVersion eth = fromCode(config.syncVersion());
             if (eth != null) AllCaps.add(new Capability(ETH, eth.getCode()));
         } else {
-            for (EthVersion v : EthVersion.supported())
+            for (EthVersion v : EthVersion.supported()) {
+                if (v == V63 && !config.isEth63Enabled()) continue;
                 AllCaps.add(new Capability(ETH, v.getCode()));
+            }
         }
 
         AllCaps.add(new Capability(SHH, ShhHandler.VERSION));
@@ -6,6 +6,7 @@ import org.ethereum.core.BlockWrapper;
 import org.ethereum.core.Transaction;
 import org.ethereum.net.eth.EthVersion;
 import org.ethereum.net.eth.message.EthMessageCodes;
+import org.ethereum.net.eth.message.NewBlockMessage;
 import org.ethereum.sync.SyncState;
 import org.ethereum.sync.SyncStatistics;
 
@@ -84,6 +85,12 @@ public interface Eth {
      */
     void sendNewBlock(Block newBlock);
 
+    /**
+     * Sends the prepared new block message to the wire,
+     * a broadcast message is shared by all the peers and is encoded once
+     */
+    void sendNewBlock(NewBlockMessage msg);
+
     /**
      * Sends new block hashes message to the wire
      */
@@ -10,6 +10,8 @@ import org.ethereum.sync.SyncManager;
 import org.ethereum.sync.SyncState;
 import org.ethereum.sync.SyncStatistics;
 import org.ethereum.util.ByteUtil;
+import org.ethereum.util.Functional;
+import org.ethereum.util.RLP;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -45,6 +47,9 @@ public class Eth62 extends EthHandler {
 
     protected static final int MAX_HASHES_TO_SEND = 65536;
 
+    // the response is cut when it gets bigger, the same soft limit as geth has
+    protected static final int MAX_RESPONSE_BYTES = 2 * 1024 * 1024;
+
     private final static Logger logger = LoggerFactory.getLogger("sync");
     private final static Logger loggerNet = LoggerFactory.getLogger("net");
 
@@ -57,6 +62,11 @@ public class Eth62 extends EthHandler {
     @Autowired
     protected PendingState pendingState;
 
+    @Autowired
+    protected PeerRequestExecutor requestExecutor;
+
+    private PeerRequestExecutor.PeerQueue servedRequests;
+
     protected EthState ethState = EthState.INIT;
 
     protected SyncState syncState = IDLE;
@@ -93,6 +103,10 @@ public class Eth62 extends EthHandler {
         super(V62);
     }
 
+    protected Eth62(EthVersion version) {
+        super(version);
+    }
+
     @PostConstruct
     private void init() {
         maxHashesAsk = config.maxHashesAsk();
@@ -182,6 +196,18 @@ public class Eth62 extends EthHandler {
         sendNextHeaderRequest();
     }
 
+    /**
+     * Requests the single header, the response is passed to the {@code handler} instead of the sync queue,
+     * the handler gets an empty list if the peer doesn't have the block
+     */
+    public synchronized void sendGetBlockHeader(long blockNumber, Functional.Consumer<List<BlockHeader>> handler) {
+
+        GetBlockHeadersMessage headersRequest = new GetBlockHeadersMessage(blockNumber, null, 1, 0, false);
+        headerRequests.add(new GetBlockHeadersMessageWrapper(headersRequest, handler));
+
+        sendNextHeaderRequest();
+    }
+
     protected synchronized void sendGetBlockHeaders(byte[] blockHash, int maxBlocksAsk, int skip, boolean reverse) {
         sendGetBlockHeaders(blockHash, maxBlocksAsk, skip, reverse, false);
     }
@@ -223,6 +249,7 @@ public class Eth62 extends EthHandler {
 
         GetBlockBodiesMessage msg = new GetBlockBodiesMessage(hashes);
 
+        syncStats.onBlocksRequested();
         sendMessage(msg);
     }
 
@@ -230,7 +257,11 @@ public class Eth62 extends EthHandler {
     public synchronized void sendNewBlock(Block block) {
         BigInteger parentTD = blockstore.getTotalDifficultyForHash(block.getParentHash());
         byte[] td = ByteUtil.bigIntegerToBytes(parentTD.add(new BigInteger(1, block.getDifficulty())));
-        NewBlockMessage msg = new NewBlockMessage(block, td);
+        sendNewBlock(new NewBlockMessage(block, td));
+    }
+
+    @Override
+    public void sendNewBlock(NewBlockMessage msg) {
         sendMessage(msg);
     }
 
@@ -291,6 +322,10 @@ public class Eth62 extends EthHandler {
 
         if (identifiers.isEmpty()) return;
 
+        for (BlockIdentifier identifier : identifiers) {
+            channel.addKnownBlock(identifier.getHash());
+        }
+
         updateBestBlock(identifiers);
 
         // queueing new blocks doesn't make sense
@@ -311,19 +346,27 @@ public class Eth62 extends EthHandler {
         }
 
         List<Transaction> txSet = msg.getTransactions();
+        channel.addKnownTransactions(txSet);
         pendingState.addWireTransactions(txSet);
     }
 
-    protected synchronized void processGetBlockHeaders(GetBlockHeadersMessage msg) {
-        List<BlockHeader> headers = blockchain.getListOfHeadersStartFrom(
-                msg.getBlockIdentifier(),
-                msg.getSkipBlocks(),
-                min(msg.getMaxHeaders(), MAX_HASHES_TO_SEND),
-                msg.isReverse()
-        );
-
-        BlockHeadersMessage response = new BlockHeadersMessage(headers);
-        sendMessage(response);
+    protected void processGetBlockHeaders(final GetBlockHeadersMessage msg) {
+        serve(new PeerRequestExecutor.Request() {
+            @Override
+            public int serve() {
+                List<byte[]> headers = limitResponseSize(blockchain.getListOfEncodedHeadersStartFrom(
+                        msg.getBlockIdentifier(),
+                        msg.getSkipBlocks(),
+                        min(msg.getMaxHeaders(), MAX_HASHES_TO_SEND),
+                        msg.isReverse()
+                ));
+
+                // the stored headers go as they are, without decoding
+                byte[] encoded = RLP.encodeList(headers.toArray(new byte[headers.size()][]));
+                sendMessage(new BlockHeadersMessage(encoded));
+                return encoded.length;
+            }
+        });
     }
 
     protected synchronized void processBlockHeaders(BlockHeadersMessage msg) {
@@ -336,6 +379,12 @@ public class Eth62 extends EthHandler {
 
         GetBlockHeadersMessageWrapper request = headerRequests.poll();
 
+        if (request == null) {
+            // late response to the request given up by timeout
+            logger.debug("Peer {}: unexpected BlockHeaders, skip", channel.getPeerIdShort());
+            return;
+        }
+
         if (!isValid(msg, request)) {
 
             dropConnection();
@@ -346,26 +395,56 @@ public class Eth62 extends EthHandler {
 
         if (ethState == EthState.STATUS_SENT)
             processInitHeaders(received);
+        else if (request.getHandler() != null)
+            request.getHandler().accept(received);
         else {
             syncStats.addHeaders(received.size());
 
             logger.debug("Adding " + received.size() + " headers to the queue.");
 
+            // validated off the network thread, the peer is dropped there if the headers are invalid
             if (!syncManager.validateAndAddHeaders(received, channel.getNodeId())) {
-
-                dropConnection();
-                return;
+                logger.debug("Peer {}: headers validation is overloaded, {} headers skipped",
+                        channel.getPeerIdShort(), received.size());
             }
         }
 
         syncState = IDLE;
     }
 
-    protected synchronized void processGetBlockBodies(GetBlockBodiesMessage msg) {
-        List<byte[]> bodies = blockchain.getListOfBodiesByHashes(msg.getBlockHashes());
+    protected void processGetBlockBodies(final GetBlockBodiesMessage msg) {
+        serve(new PeerRequestExecutor.Request() {
+            @Override
+            public int serve() {
+                List<byte[]> bodies = limitResponseSize(blockchain.getListOfBodiesByHashes(msg.getBlockHashes()));
 
-        BlockBodiesMessage response = new BlockBodiesMessage(bodies);
-        sendMessage(response);
+                BlockBodiesMessage response = new BlockBodiesMessage(bodies);
+                sendMessage(response);
+                return response.getEncoded().length;
+            }
+        });
+    }
+
+    /**
+     * Serves the request by {@link PeerRequestExecutor}, the requests of the peer are served in order
+     */
+    protected synchronized void serve(PeerRequestExecutor.Request request) {
+        if (servedRequests == null) {
+            servedRequests = requestExecutor.createQueue(channel.getPeerIdShort());
+        }
+        servedRequests.submit(request);
+    }
+
+    /**
+     * @return the items which fit into {@link #MAX_RESPONSE_BYTES}, at least one
+     */
+    protected static List<byte[]> limitResponseSize(List<byte[]> items) {
+        int size = 0;
+        for (int i = 0; i < items.size(); i++) {
+            size += items.get(i).length;
+            if (size > MAX_RESPONSE_BYTES) return items.subList(0, max(1, i));
+        }
+        return items;
     }
 
     protected synchronized void processBlockBodies(BlockBodiesMessage msg) {
@@ -404,6 +483,8 @@ public class Eth62 extends EthHandler {
 
         logger.debug("New block received: block.index [{}]", newBlock.getNumber());
 
+        channel.addKnownBlock(newBlock.getHash());
+
         // skip new block if TD is lower than ours
         if (isLessThan(newBlockMessage.getDifficultyAsBigInt(), blockchain.getTotalDifficulty())) {
             logger.trace(
@@ -429,6 +510,7 @@ public class Eth62 extends EthHandler {
 
     @Override
     public synchronized void onShutdown() {
+        if (servedRequests != null) servedRequests.close();
     }
 
     @Override
@@ -438,6 +520,27 @@ public class Eth62 extends EthHandler {
         sendGetBlockBodies(headers);
     }
 
+    /**
+     * Gives up the pending sync request so the peer becomes available for the new one,
+     * the wanted headers or blocks are requested from the other peers meanwhile
+     */
+    public synchronized void dropTimedOutRequest() {
+
+        logger.debug("Peer {}: {} request timed out after {} ms", channel.getPeerIdShort(),
+                syncState, syncStats.getRequestTimeout());
+
+        syncStats.onRequestTimeout();
+
+        if (syncState == BLOCK_RETRIEVING) {
+            sentHeaders.clear();
+            syncState = IDLE;
+        } else if (syncState == HASH_RETRIEVING) {
+            headerRequests.poll();
+            syncState = IDLE;
+            sendNextHeaderRequest();
+        }
+    }
+
     protected synchronized void sendNextHeaderRequest() {
 
         // do not send header requests if status hasn't been passed yet
@@ -449,6 +552,11 @@ public class Eth62 extends EthHandler {
 
         syncState = HASH_RETRIEVING;
 
+        // only sync requests are measured, others are too small to tell the peer throughput
+        if (ethState == EthState.STATUS_SUCCEEDED && !wrapper.isNewHashesHandling()) {
+            syncStats.onHeadersRequested();
+        }
+
         wrapper.send();
         sendMessage(wrapper.getMessage());
     }
@@ -508,6 +616,13 @@ public class Eth62 extends EthHandler {
         return syncState == IDLE;
     }
 
+    /**
+     * @return number and hash of the best remote block, null until the status exchange is done
+     */
+    public BlockIdentifier getBestKnownBlock() {
+        return bestKnownBlock;
+    }
+
     @Override
     public void enableTransactions() {
         processTransactions = true;
@@ -0,0 +1,142 @@
+package org.ethereum.net.eth.handler;
+
+import io.netty.channel.ChannelHandlerContext;
+import org.ethereum.core.Repository;
+import org.ethereum.core.TransactionReceipt;
+import org.ethereum.db.RepositoryImpl;
+import org.ethereum.db.TransactionStore;
+import org.ethereum.net.eth.message.*;
+import org.ethereum.sync.FastSyncManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Scope;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.ethereum.net.eth.EthVersion.V63;
+
+/**
+ * Eth 63: Eth 62 with the state nodes and the receipts requests used by the fast sync
+ */
+@Component
+@Scope("prototype")
+public class Eth63 extends Eth62 {
+
+    private final static Logger logger = LoggerFactory.getLogger("sync");
+
+    // the same limits as geth has
+    private static final int MAX_NODES_TO_SEND = 384;
+    private static final int MAX_RECEIPTS_TO_SEND = 256;
+
+    @Autowired
+    private Repository repository;
+
+    @Autowired
+    private TransactionStore transactionStore;
+
+    @Autowired
+    private FastSyncManager fastSyncManager;
+
+    public Eth63() {
+        super(V63);
+    }
+
+    @Override
+    public void channelRead0(final ChannelHandlerContext ctx, EthMessage msg) throws InterruptedException {
+
+        super.channelRead0(ctx, msg);
+
+        switch (msg.getCommand()) {
+            case GET_NODE_DATA:
+                processGetNodeData((GetNodeDataMessage) msg);
+                break;
+            case NODE_DATA:
+                processNodeData((NodeDataMessage) msg);
+                break;
+            case GET_RECEIPTS:
+                processGetReceipts((GetReceiptsMessage) msg);
+                break;
+            case RECEIPTS:
+                processReceipts((ReceiptsMessage) msg);
+                break;
+            default:
+                break;
+        }
+    }
+
+    public synchronized void sendGetNodeData(List<byte[]> nodeKeys) {
+        if (logger.isTraceEnabled()) logger.trace(
+                "Peer {}: send GetNodeData, keys.count [{}]",
+                channel.getPeerIdShort(),
+                nodeKeys.size()
+        );
+
+        sendMessage(new GetNodeDataMessage(nodeKeys));
+    }
+
+    protected void processGetNodeData(final GetNodeDataMessage msg) {
+        serve(new PeerRequestExecutor.Request() {
+            @Override
+            public int serve() {
+                List<byte[]> nodes = new ArrayList<>();
+                int size = 0;
+                for (byte[] key : msg.getNodeKeys()) {
+                    if (nodes.size() >= MAX_NODES_TO_SEND || size > MAX_RESPONSE_BYTES) break;
+
+                    // the missing nodes are just skipped, the requester matches the nodes by hash
+                    byte[] node = ((RepositoryImpl) repository).getNodeData(key);
+                    if (node != null) {
+                        nodes.add(node);
+                        size += node.length;
+                    }
+                }
+
+                NodeDataMessage response = new NodeDataMessage(nodes);
+                sendMessage(response);
+                return response.getEncoded().length;
+            }
+        });
+    }
+
+    protected void processNodeData(NodeDataMessage msg) {
+        if (logger.isTraceEnabled()) logger.trace(
+                "Peer {}: process NodeData, size [{}]",
+                channel.getPeerIdShort(),
+                msg.getDataList().size()
+        );
+
+        fastSyncManager.onNodeData(channel.getNodeId(), msg.getDataList());
+    }
+
+    protected void processGetReceipts(final GetReceiptsMessage msg) {
+        serve(new PeerRequestExecutor.Request() {
+            @Override
+            public int serve() {
+                List<List<TransactionReceipt>> receipts = new ArrayList<>();
+                for (byte[] hash : msg.getBlockHashes()) {
+                    if (receipts.size() >= MAX_RECEIPTS_TO_SEND) break;
+
+                    List<TransactionReceipt> blockReceipts = transactionStore.getBlockReceipts(hash);
+                    receipts.add(blockReceipts == null ? Collections.<TransactionReceipt>emptyList() : blockReceipts);
+                }
+
+                ReceiptsMessage response = new ReceiptsMessage(receipts);
+                sendMessage(response);
+                return response.getEncoded().length;
+            }
+        });
+    }
+
+    protected void processReceipts(ReceiptsMessage msg) {
+        // the receipts aren't requested by the fast sync, the pre-pivot blocks are stored without them
+        if (logger.isTraceEnabled()) logger.trace(
+                "Peer {}: unexpected Receipts, size [{}]",
+                channel.getPeerIdShort(),
+                msg.getReceipts().size()
+        );
+    }
+}
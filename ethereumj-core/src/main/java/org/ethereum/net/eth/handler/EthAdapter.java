@@ -5,6 +5,7 @@ import org.ethereum.core.BlockHeaderWrapper;
 import org.ethereum.core.BlockWrapper;
 import org.ethereum.core.Transaction;
 import org.ethereum.net.eth.EthVersion;
+import org.ethereum.net.eth.message.NewBlockMessage;
 import org.ethereum.sync.SyncState;
 import org.ethereum.sync.SyncStatistics;
 
@@ -81,6 +82,10 @@ public class EthAdapter implements Eth {
     public void sendNewBlock(Block newBlock) {
     }
 
+    @Override
+    public void sendNewBlock(NewBlockMessage msg) {
+    }
+
     @Override
     public void sendNewBlockHashes(Block block) {
 
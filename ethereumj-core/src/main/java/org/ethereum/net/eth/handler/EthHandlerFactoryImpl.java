@@ -20,7 +20,9 @@ public class EthHandlerFactoryImpl implements EthHandlerFactory {
     @Override
     public EthHandler create(EthVersion version) {
         switch (version) {
-            case V62:   return ctx.getBean(Eth62.class);
+            // by name since Eth63 is an Eth62 too
+            case V62:   return ctx.getBean("eth62", Eth62.class);
+            case V63:   return ctx.getBean(Eth63.class);
             default:    throw new IllegalArgumentException("Eth " + version + " is not supported");
         }
     }
@@ -1,6 +1,10 @@
 package org.ethereum.net.eth.handler;
 
+import org.ethereum.core.BlockHeader;
 import org.ethereum.net.eth.message.GetBlockHeadersMessage;
+import org.ethereum.util.Functional;
+
+import java.util.List;
 
 /**
  * Wraps {@link GetBlockHeadersMessage},
@@ -14,6 +18,7 @@ public class GetBlockHeadersMessageWrapper {
     private GetBlockHeadersMessage message;
     private boolean newHashesHandling = false;
     private boolean sent = false;
+    private Functional.Consumer<List<BlockHeader>> handler;
 
     public GetBlockHeadersMessageWrapper(GetBlockHeadersMessage message) {
         this.message = message;
@@ -24,6 +29,14 @@ public class GetBlockHeadersMessageWrapper {
         this.newHashesHandling = newHashesHandling;
     }
 
+    /**
+     * @param handler receives the headers instead of the sync queue
+     */
+    public GetBlockHeadersMessageWrapper(GetBlockHeadersMessage message, Functional.Consumer<List<BlockHeader>> handler) {
+        this.message = message;
+        this.handler = handler;
+    }
+
     public GetBlockHeadersMessage getMessage() {
         return message;
     }
@@ -32,6 +45,10 @@ public class GetBlockHeadersMessageWrapper {
         return newHashesHandling;
     }
 
+    public Functional.Consumer<List<BlockHeader>> getHandler() {
+        return handler;
+    }
+
     public boolean isSent() {
         return sent;
     }
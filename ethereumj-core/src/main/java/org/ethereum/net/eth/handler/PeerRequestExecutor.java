@@ -0,0 +1,148 @@
+package org.ethereum.net.eth.handler;
+
+import org.ethereum.config.SystemProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Serves the data requests of the peers (headers, bodies, state nodes, receipts) off the network threads,
+ * so an expensive request doesn't stall the other channels of the event loop and the import.
+ *
+ * Every peer has its own {@link PeerQueue}: its requests are served one at a time in the arrival order,
+ * since the eth responses carry no request ids and are matched by order. The queue is bounded,
+ * the requests above the bound are dropped and the peer is expected to time them out.
+ * The responses are paced to {@code peer.serve.maxBytesPerSecond} per peer, the pause is taken by
+ * the scheduler, not by a serving thread, so the pool is shared by all the peers fairly
+ */
+@Component
+public class PeerRequestExecutor {
+
+    private final static Logger logger = LoggerFactory.getLogger("net");
+
+    public interface Request {
+
+        /**
+         * Builds and sends the response
+         *
+         * @return the response size in bytes
+         */
+        int serve();
+    }
+
+    @Autowired
+    SystemProperties config;
+
+    private ScheduledThreadPoolExecutor executor;
+    private int maxBytesPerSecond;
+    private int maxPendingRequests;
+
+    @PostConstruct
+    void init() {
+        maxBytesPerSecond = config.peerServeMaxBytesPerSecond();
+        maxPendingRequests = config.peerServeMaxPendingRequests();
+        executor = new ScheduledThreadPoolExecutor(config.peerServeThreads(), new ThreadFactory() {
+            private AtomicInteger cnt = new AtomicInteger(0);
+
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "PeerRequestExecutor-" + cnt.getAndIncrement());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    @PreDestroy
+    void close() {
+        executor.shutdownNow();
+    }
+
+    public PeerQueue createQueue(String peerId) {
+        return new PeerQueue(peerId);
+    }
+
+    public class PeerQueue implements Runnable {
+
+        private final String peerId;
+        private final Queue<Request> pending = new ArrayDeque<>();
+        // the serving task is either scheduled or running
+        private boolean scheduled;
+        private boolean closed;
+        // the next response isn't served before this time
+        private long nextServeAt;
+
+        private PeerQueue(String peerId) {
+            this.peerId = peerId;
+        }
+
+        /**
+         * @return false if the request is dropped because the peer has too many pending requests
+         */
+        public synchronized boolean submit(Request request) {
+            if (closed) return false;
+
+            if (pending.size() >= maxPendingRequests) {
+                logger.debug("Peer {}: {} requests pending, request dropped", peerId, pending.size());
+                return false;
+            }
+
+            pending.add(request);
+            if (!scheduled) {
+                scheduled = true;
+                schedule();
+            }
+            return true;
+        }
+
+        private void schedule() {
+            long delay = Math.max(0, nextServeAt - System.currentTimeMillis());
+            executor.schedule(this, delay, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public void run() {
+            Request request;
+            synchronized (this) {
+                request = pending.poll();
+                if (request == null || closed) {
+                    scheduled = false;
+                    return;
+                }
+            }
+
+            int size = 0;
+            try {
+                size = request.serve();
+            } catch (Exception e) {
+                logger.error("Peer {}: failed to serve the request", peerId, e);
+            }
+
+            synchronized (this) {
+                nextServeAt = System.currentTimeMillis() + size * 1000L / maxBytesPerSecond;
+                if (pending.isEmpty() || closed) {
+                    scheduled = false;
+                } else {
+                    schedule();
+                }
+            }
+        }
+
+        /**
+         * Drops the pending requests, the peer is disconnected
+         */
+        public synchronized void close() {
+            closed = true;
+            pending.clear();
+        }
+    }
+}
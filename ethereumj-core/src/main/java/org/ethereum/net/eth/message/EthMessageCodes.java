@@ -112,7 +112,43 @@ public enum EthMessageCodes {
      * in the list (following the message ID) is a block in the format described
      * in the main Ethereum specification.
      */
-    NEW_BLOCK(0x07);
+    NEW_BLOCK(0x07),
+
+    /**
+     * PV 63 and upper <br>
+     * {@code [+0x0d, hash_0: B_32, hash_1: B_32, ...] } <br>
+     *
+     * Require peer to return a NodeData message. Hint that useful values in it
+     * are those which correspond to given hashes.
+     */
+    GET_NODE_DATA(0x0d),
+
+    /**
+     * PV 63 and upper <br>
+     * {@code [+0x0e, value_0: B, value_1: B, ...] } <br>
+     *
+     * Provide a set of values which correspond to previously asked node data
+     * hashes from GetNodeData. Does not need to contain all; best effort is fine.
+     * If it contains none, then has no information for previous GetNodeData hashes.
+     */
+    NODE_DATA(0x0e),
+
+    /**
+     * PV 63 and upper <br>
+     * {@code [+0x0f, hash_0: B_32, hash_1: B_32, ...] } <br>
+     *
+     * Require peer to return a Receipts message. Hint that useful values in it
+     * are those which correspond to blocks of the given hashes.
+     */
+    GET_RECEIPTS(0x0f),
+
+    /**
+     * PV 63 and upper <br>
+     * {@code [+0x10, [receipt_0, receipt_1], ...] } <br>
+     *
+     * Provide a set of receipts which correspond to previously asked in GetReceipts.
+     */
+    RECEIPTS(0x10);
 
     private int cmd;
 
@@ -132,6 +168,21 @@ public enum EthMessageCodes {
                 NEW_BLOCK
         });
 
+        versionToValuesMap.put(V63, new EthMessageCodes[]{
+                STATUS,
+                NEW_BLOCK_HASHES,
+                TRANSACTIONS,
+                GET_BLOCK_HEADERS,
+                BLOCK_HEADERS,
+                GET_BLOCK_BODIES,
+                BLOCK_BODIES,
+                NEW_BLOCK,
+                GET_NODE_DATA,
+                NODE_DATA,
+                GET_RECEIPTS,
+                RECEIPTS
+        });
+
         for (EthVersion v : EthVersion.values()) {
             Map<Integer, EthMessageCodes> map = new HashMap<>();
             intToTypeMap.put(v, map);
@@ -149,6 +200,15 @@ public enum EthMessageCodes {
         return versionToValuesMap.get(v);
     }
 
+    /**
+     * @return the highest message code of the version, the codes may have gaps
+     *         so the message ids reserved by the version aren't the same as the number of the messages
+     */
+    public static int maxCode(EthVersion v) {
+        EthMessageCodes[] codes = values(v);
+        return codes[codes.length - 1].asByte();
+    }
+
     public static EthMessageCodes fromByte(byte i, EthVersion v) {
         Map<Integer, EthMessageCodes> map = intToTypeMap.get(v);
         return map.get((int) i);
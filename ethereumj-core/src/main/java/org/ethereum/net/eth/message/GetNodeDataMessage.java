@@ -0,0 +1,91 @@
+package org.ethereum.net.eth.message;
+
+import org.ethereum.util.RLP;
+import org.ethereum.util.RLPList;
+import org.ethereum.util.Utils;
+import org.spongycastle.util.encoders.Hex;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Wrapper around an Ethereum GetNodeData message on the network
+ *
+ * @see EthMessageCodes#GET_NODE_DATA
+ */
+public class GetNodeDataMessage extends EthMessage {
+
+    /**
+     * List of the state trie node, storage trie node or code hashes to retrieve
+     */
+    private List<byte[]> nodeKeys;
+
+    public GetNodeDataMessage(byte[] encoded) {
+        super(encoded);
+    }
+
+    public GetNodeDataMessage(List<byte[]> nodeKeys) {
+        this.nodeKeys = nodeKeys;
+        parsed = true;
+    }
+
+    private void parse() {
+        RLPList paramsList = (RLPList) RLP.decode2(encoded).get(0);
+
+        nodeKeys = new ArrayList<>();
+        for (int i = 0; i < paramsList.size(); ++i) {
+            nodeKeys.add(paramsList.get(i).getRLPData());
+        }
+        parsed = true;
+    }
+
+    private void encode() {
+        byte[][] encodedElementArray = new byte[nodeKeys.size()][];
+        for (int i = 0; i < nodeKeys.size(); i++) {
+            encodedElementArray[i] = RLP.encodeElement(nodeKeys.get(i));
+        }
+        this.encoded = RLP.encodeList(encodedElementArray);
+    }
+
+    @Override
+    public byte[] getEncoded() {
+        if (encoded == null) encode();
+        return encoded;
+    }
+
+    @Override
+    public Class<NodeDataMessage> getAnswerMessage() {
+        return NodeDataMessage.class;
+    }
+
+    public List<byte[]> getNodeKeys() {
+        if (!parsed) parse();
+        return nodeKeys;
+    }
+
+    @Override
+    public EthMessageCodes getCommand() {
+        return EthMessageCodes.GET_NODE_DATA;
+    }
+
+    public String toString() {
+        if (!parsed) parse();
+
+        StringBuilder payload = new StringBuilder();
+
+        payload.append("count( ").append(nodeKeys.size()).append(" ) ");
+
+        if (logger.isDebugEnabled()) {
+            for (byte[] hash : nodeKeys) {
+                payload.append(Hex.toHexString(hash).substring(0, 6)).append(" | ");
+            }
+            if (!nodeKeys.isEmpty()) {
+                payload.delete(payload.length() - 3, payload.length());
+            }
+        } else {
+            payload.append(Utils.getHashListShort(nodeKeys));
+        }
+
+        return "[" + getCommand().name() + " " + payload + "]";
+    }
+}
@@ -0,0 +1,91 @@
+package org.ethereum.net.eth.message;
+
+import org.ethereum.util.RLP;
+import org.ethereum.util.RLPList;
+import org.ethereum.util.Utils;
+import org.spongycastle.util.encoders.Hex;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Wrapper around an Ethereum GetReceipts message on the network
+ *
+ * @see EthMessageCodes#GET_RECEIPTS
+ */
+public class GetReceiptsMessage extends EthMessage {
+
+    /**
+     * List of block hashes for which to retrieve the receipts
+     */
+    private List<byte[]> blockHashes;
+
+    public GetReceiptsMessage(byte[] encoded) {
+        super(encoded);
+    }
+
+    public GetReceiptsMessage(List<byte[]> blockHashes) {
+        this.blockHashes = blockHashes;
+        parsed = true;
+    }
+
+    private void parse() {
+        RLPList paramsList = (RLPList) RLP.decode2(encoded).get(0);
+
+        blockHashes = new ArrayList<>();
+        for (int i = 0; i < paramsList.size(); ++i) {
+            blockHashes.add(paramsList.get(i).getRLPData());
+        }
+        parsed = true;
+    }
+
+    private void encode() {
+        byte[][] encodedElementArray = new byte[blockHashes.size()][];
+        for (int i = 0; i < blockHashes.size(); i++) {
+            encodedElementArray[i] = RLP.encodeElement(blockHashes.get(i));
+        }
+        this.encoded = RLP.encodeList(encodedElementArray);
+    }
+
+    @Override
+    public byte[] getEncoded() {
+        if (encoded == null) encode();
+        return encoded;
+    }
+
+    @Override
+    public Class<ReceiptsMessage> getAnswerMessage() {
+        return ReceiptsMessage.class;
+    }
+
+    public List<byte[]> getBlockHashes() {
+        if (!parsed) parse();
+        return blockHashes;
+    }
+
+    @Override
+    public EthMessageCodes getCommand() {
+        return EthMessageCodes.GET_RECEIPTS;
+    }
+
+    public String toString() {
+        if (!parsed) parse();
+
+        StringBuilder payload = new StringBuilder();
+
+        payload.append("count( ").append(blockHashes.size()).append(" ) ");
+
+        if (logger.isDebugEnabled()) {
+            for (byte[] hash : blockHashes) {
+                payload.append(Hex.toHexString(hash).substring(0, 6)).append(" | ");
+            }
+            if (!blockHashes.isEmpty()) {
+                payload.delete(payload.length() - 3, payload.length());
+            }
+        } else {
+            payload.append(Utils.getHashListShort(blockHashes));
+        }
+
+        return "[" + getCommand().name() + " " + payload + "]";
+    }
+}
@@ -0,0 +1,91 @@
+package org.ethereum.net.eth.message;
+
+import org.ethereum.core.TransactionReceipt;
+import org.ethereum.util.RLP;
+import org.ethereum.util.RLPList;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Wrapper around an Ethereum Receipts message on the network
+ *
+ * Every item is the list of the block receipts in the consensus encoding
+ * (see {@link TransactionReceipt#getReceiptTrieEncoded()})
+ *
+ * @see EthMessageCodes#RECEIPTS
+ */
+public class ReceiptsMessage extends EthMessage {
+
+    private List<List<byte[]>> receipts;
+
+    public ReceiptsMessage(byte[] encoded) {
+        super(encoded);
+    }
+
+    public ReceiptsMessage(List<List<TransactionReceipt>> blockReceipts) {
+        receipts = new ArrayList<>(blockReceipts.size());
+        for (List<TransactionReceipt> list : blockReceipts) {
+            List<byte[]> encodedList = new ArrayList<>(list.size());
+            for (TransactionReceipt receipt : list) {
+                encodedList.add(receipt.getReceiptTrieEncoded());
+            }
+            receipts.add(encodedList);
+        }
+        parsed = true;
+    }
+
+    private void parse() {
+        RLPList paramsList = (RLPList) RLP.decode2(encoded).get(0);
+
+        receipts = new ArrayList<>();
+        for (int i = 0; i < paramsList.size(); ++i) {
+            RLPList blockReceipts = (RLPList) paramsList.get(i);
+            List<byte[]> encodedList = new ArrayList<>(blockReceipts.size());
+            for (int j = 0; j < blockReceipts.size(); ++j) {
+                encodedList.add(blockReceipts.get(j).getRLPData());
+            }
+            receipts.add(encodedList);
+        }
+        parsed = true;
+    }
+
+    private void encode() {
+        byte[][] encodedElementArray = new byte[receipts.size()][];
+        for (int i = 0; i < receipts.size(); i++) {
+            List<byte[]> encodedList = receipts.get(i);
+            encodedElementArray[i] = RLP.encodeList(encodedList.toArray(new byte[encodedList.size()][]));
+        }
+        this.encoded = RLP.encodeList(encodedElementArray);
+    }
+
+    @Override
+    public byte[] getEncoded() {
+        if (encoded == null) encode();
+        return encoded;
+    }
+
+    /**
+     * @return the encoded receipts of every block
+     */
+    public List<List<byte[]>> getReceipts() {
+        if (!parsed) parse();
+        return receipts;
+    }
+
+    @Override
+    public EthMessageCodes getCommand() {
+        return EthMessageCodes.RECEIPTS;
+    }
+
+    @Override
+    public Class<?> getAnswerMessage() {
+        return null;
+    }
+
+    public String toString() {
+        if (!parsed) parse();
+
+        return "[" + getCommand().name() + " count( " + receipts.size() + " )]";
+    }
+}
@@ -2,7 +2,8 @@ package org.ethereum.net.rlpx;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufInputStream;
-import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.DefaultByteBufHolder;
+import io.netty.buffer.Unpooled;
 import org.ethereum.net.swarm.Util;
 import org.ethereum.util.RLP;
 import org.ethereum.util.RLPList;
@@ -16,7 +17,6 @@ import org.spongycastle.util.encoders.Hex;
 
 import java.io.*;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
@@ -26,11 +26,16 @@ import static org.ethereum.util.RLP.decode2OneItem;
  * Created by devrandom on 2015-04-11.
  */
 public class FrameCodec {
+    private static final int HEADER_SIZE = 32;
+    private static final int MAC_SIZE = 16;
+
     private final StreamCipher enc;
     private final StreamCipher dec;
     private final SHA3Digest egressMac;
     private final SHA3Digest ingressMac;
     private final byte[] mac;
+    // the cipher runs over the direct buffers chunk by chunk through this array
+    private final byte[] scratch = new byte[4096];
     boolean isHeadRead;
     private int totalBodySize;
     private int contextId = -1;
@@ -55,25 +60,32 @@ public class FrameCodec {
         return macc;
     }
 
-    public static class Frame {
+    /**
+     * The frame payload is held in a {@link ByteBuf}: the outbound frames wrap the encoded message
+     * without copying, the inbound ones are slices of the decrypted frame body. The frame is reference
+     * counted, the Netty codecs release it once it is encoded or decoded
+     */
+    public static class Frame extends DefaultByteBufHolder {
         long type;
         int size;
-        InputStream payload;
 
         int totalFrameSize = -1;
         int contextId = -1;
 
-
-        public Frame(long type, int size, InputStream payload) {
+        public Frame(long type, ByteBuf payload) {
+            super(payload);
             this.type = type;
+            this.size = payload.readableBytes();
+        }
+
+        public Frame(long type, int size, InputStream payload) throws IOException {
+            this(type, Unpooled.buffer(size));
+            content().writeBytes(payload, size);
             this.size = size;
-            this.payload = payload;
         }
 
         public Frame(int type, byte[] payload) {
-            this.type = type;
-            this.size = payload.length;
-            this.payload = new ByteArrayInputStream(payload);
+            this(type, Unpooled.wrappedBuffer(payload));
         }
 
         public int getSize() {
@@ -83,20 +95,28 @@ public class FrameCodec {
         public long getType() {return  type;}
 
         public InputStream getStream() {
-            return payload;
+            return new ByteBufInputStream(content());
         }
+
         public boolean isChunked() {
             return contextId >= 0;
         }
 
     }
 
-    public void writeFrame(Frame frame, ByteBuf buf) throws IOException {
-        writeFrame(frame, new ByteBufOutputStream(buf));
+    public void writeFrame(Frame frame, OutputStream out) throws IOException {
+        ByteBuf buf = Unpooled.buffer();
+        writeFrame(frame, buf);
+        buf.readBytes(out, buf.readableBytes());
     }
 
-    public void writeFrame(Frame frame, OutputStream out) throws IOException {
-        byte[] headBuffer = new byte[32];
+    /**
+     * Encrypts the frame straight into the output buffer: for the heap buffers the cipher reads the payload
+     * array and writes to the output array, the MAC is updated over the same output region.
+     * The direct output buffers are processed through a small scratch array
+     */
+    public void writeFrame(Frame frame, ByteBuf out) throws IOException {
+        byte[] headBuffer = new byte[HEADER_SIZE];
         byte[] ptype = RLP.encodeInt((int) frame.type); // FIXME encodeLong
         int totalSize = frame.size + ptype.length;
         headBuffer[0] = (byte)(totalSize >> 16);
@@ -116,47 +136,65 @@ public class FrameCodec {
         // Header MAC
         updateMac(egressMac, headBuffer, 0, headBuffer, 16, true);
 
-        byte[] buff = new byte[256];
-        out.write(headBuffer);
-        enc.processBytes(ptype, 0, ptype.length, buff, 0);
-        out.write(buff, 0, ptype.length);
-        egressMac.update(buff, 0, ptype.length);
-        while (true) {
-            int n = frame.payload.read(buff);
-            if (n <= 0) break;
-            enc.processBytes(buff, 0, n, buff, 0);
-            egressMac.update(buff, 0, n);
-            out.write(buff, 0, n);
-        }
-        int padding = 16 - (totalSize % 16);
-        byte[] pad = new byte[16];
-        if (padding < 16) {
-            enc.processBytes(pad, 0, padding, buff, 0);
-            egressMac.update(buff, 0, padding);
-            out.write(buff, 0, padding);
+        int padding = padding(totalSize);
+        out.ensureWritable(HEADER_SIZE + totalSize + padding + MAC_SIZE);
+        out.writeBytes(headBuffer);
+
+        out.writeBytes(ptype);
+        encryptInPlace(out, out.writerIndex() - ptype.length, ptype.length);
+
+        ByteBuf payload = frame.content();
+        int payloadIndex = out.writerIndex();
+        if (payload.hasArray() && out.hasArray()) {
+            // the cipher reads the payload array and writes the output one, no intermediate copy
+            int outOffset = out.arrayOffset() + payloadIndex;
+            enc.processBytes(payload.array(), payload.arrayOffset() + payload.readerIndex(), frame.size,
+                    out.array(), outOffset);
+            egressMac.update(out.array(), outOffset, frame.size);
+            out.writerIndex(payloadIndex + frame.size);
+        } else {
+            out.writeBytes(payload, payload.readerIndex(), frame.size);
+            encryptInPlace(out, payloadIndex, frame.size);
         }
 
+        out.writeZero(padding);
+        encryptInPlace(out, out.writerIndex() - padding, padding);
+
         // Frame MAC
         byte[] macBuffer = new byte[egressMac.getDigestSize()];
         doSum(egressMac, macBuffer); // fmacseed
         updateMac(egressMac, macBuffer, 0, macBuffer, 0, true);
-        out.write(macBuffer, 0, 16);
-    }
-
-    public List<Frame> readFrames(ByteBuf buf) throws IOException {
-        try (ByteBufInputStream bufInputStream = new ByteBufInputStream(buf)) {
-            return readFrames(bufInputStream);
-        }
+        out.writeBytes(macBuffer, 0, MAC_SIZE);
     }
 
     public List<Frame> readFrames(DataInput inp) throws IOException {
-        if (!isHeadRead) {
-            byte[] headBuffer = new byte[32];
+        List<Frame> frames = null;
+        while (frames == null) {
+            // the header is read first, then the body, which size is known from the header
+            byte[] bytes = new byte[isHeadRead ? frameBodySize() + MAC_SIZE : HEADER_SIZE];
             try {
-                inp.readFully(headBuffer);
+                inp.readFully(bytes);
             } catch (EOFException e) {
                 return null;
             }
+            frames = readFrames(Unpooled.wrappedBuffer(bytes));
+        }
+        return frames;
+    }
+
+    /**
+     * Reads the next frame if the buffer has it complete, otherwise nothing beyond the already checked
+     * header is consumed and null is returned, the call is repeated when more bytes come in.
+     *
+     * The body of a heap buffer is decrypted in place and the frame payload is a retained slice of it,
+     * the direct buffers are copied to the heap once since the cipher works on arrays
+     */
+    public List<Frame> readFrames(ByteBuf in) throws IOException {
+        if (!isHeadRead) {
+            if (in.readableBytes() < HEADER_SIZE) return null;
+
+            byte[] headBuffer = new byte[HEADER_SIZE];
+            in.readBytes(headBuffer);
 
             // Header MAC
             updateMac(ingressMac, headBuffer, 0, headBuffer, 16, false);
@@ -181,34 +219,68 @@ public class FrameCodec {
             isHeadRead = true;
         }
 
-        int padding = 16 - (totalBodySize % 16);
-        if (padding == 16) padding = 0;
-        int macSize = 16;
-        byte[] buffer = new byte[totalBodySize + padding + macSize];
+        int frameSize = frameBodySize();
+        if (in.readableBytes() < frameSize + MAC_SIZE) return null;
+
+        ByteBuf body;
+        if (in.hasArray()) {
+            body = in.readSlice(frameSize).retain();
+        } else {
+            body = in.alloc().heapBuffer(frameSize);
+            in.readBytes(body, frameSize);
+        }
+
         try {
-            inp.readFully(buffer);
-        } catch (EOFException e) {
-            return null;
+            byte[] buffer = body.array();
+            int offset = body.arrayOffset() + body.readerIndex();
+            ingressMac.update(buffer, offset, frameSize);
+            dec.processBytes(buffer, offset, frameSize, buffer, offset);
+
+            // Frame MAC
+            byte[] macBuffer = new byte[ingressMac.getDigestSize()];
+            byte[] frameMac = new byte[MAC_SIZE];
+            in.readBytes(frameMac);
+            doSum(ingressMac, macBuffer); // fmacseed
+            updateMac(ingressMac, macBuffer, 0, frameMac, 0, false);
+
+            long type = RLP.decodeInt(buffer, offset); // FIXME long
+            int typeSize = RLP.getNextElementIndex(buffer, offset) - offset;
+
+            isHeadRead = false;
+            Frame frame = new Frame(type, body.slice(body.readerIndex() + typeSize, totalBodySize - typeSize));
+            frame.contextId = contextId;
+            frame.totalFrameSize = totalFrameSize;
+            return Collections.singletonList(frame);
+        } catch (IOException | RuntimeException e) {
+            body.release();
+            throw e;
         }
-        int frameSize = buffer.length - macSize;
-        ingressMac.update(buffer, 0, frameSize);
-        dec.processBytes(buffer, 0, frameSize, buffer, 0);
-        int pos = 0;
-        long type = RLP.decodeInt(buffer, pos); // FIXME long
-        pos = RLP.getNextElementIndex(buffer, pos);
-        InputStream payload = new ByteArrayInputStream(buffer, pos, totalBodySize - pos);
-        int size = totalBodySize - pos;
-        byte[] macBuffer = new byte[ingressMac.getDigestSize()];
+    }
 
-        // Frame MAC
-        doSum(ingressMac, macBuffer); // fmacseed
-        updateMac(ingressMac, macBuffer, 0, buffer, frameSize, false);
-
-        isHeadRead = false;
-        Frame frame = new Frame(type, size, payload);
-        frame.contextId = contextId;
-        frame.totalFrameSize = totalFrameSize;
-        return Collections.singletonList(frame);
+    private int frameBodySize() {
+        return totalBodySize + padding(totalBodySize);
+    }
+
+    private static int padding(int size) {
+        return (16 - size % 16) % 16;
+    }
+
+    private void encrypt(byte[] buffer, int offset, int length) {
+        enc.processBytes(buffer, offset, length, buffer, offset);
+        egressMac.update(buffer, offset, length);
+    }
+
+    private void encryptInPlace(ByteBuf buf, int index, int length) {
+        if (buf.hasArray()) {
+            encrypt(buf.array(), buf.arrayOffset() + index, length);
+            return;
+        }
+        for (int pos = 0; pos < length; pos += scratch.length) {
+            int n = Math.min(scratch.length, length - pos);
+            buf.getBytes(index + pos, scratch, 0, n);
+            encrypt(scratch, 0, n);
+            buf.setBytes(index + pos, scratch, 0, n);
+        }
     }
 
     private byte[] updateMac(SHA3Digest mac, byte[] seed, int offset, byte[] out, int outOffset, boolean egress) throws IOException {
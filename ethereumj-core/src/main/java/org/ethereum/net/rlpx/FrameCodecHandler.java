@@ -23,6 +23,9 @@ public class FrameCodecHandler extends NettiByteToMessageCodec<FrameCodec.Frame>
     public Channel channel;
 
     public FrameCodecHandler(FrameCodec frameCodec, Channel channel) {
+        // the frames are encrypted straight from the message array into a heap buffer,
+        // a direct one would be filled through the codec scratch array
+        super(false);
         this.frameCodec = frameCodec;
         this.channel = channel;
     }
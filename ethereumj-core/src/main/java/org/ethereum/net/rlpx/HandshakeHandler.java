@@ -163,6 +163,7 @@ public class HandshakeHandler extends ByteToMessageDecoder {
                     return;
                 Frame frame = frames.get(0);
                 byte[] payload = ByteStreams.toByteArray(frame.getStream());
+                frame.release();
                 if (frame.getType() == P2pMessageCodes.HELLO.asByte()) {
                     HelloMessage helloMessage = new HelloMessage(payload);
                     if (loggerNet.isDebugEnabled())
@@ -246,6 +247,7 @@ public class HandshakeHandler extends ByteToMessageDecoder {
 
                 Message message = new P2pMessageFactory().create((byte) frame.getType(),
                         ByteStreams.toByteArray(frame.getStream()));
+                frame.release();
                 loggerNet.debug("From: \t{} \tRecv: \t{}", ctx.channel().remoteAddress(), message);
 
                 if (frame.getType() == P2pMessageCodes.DISCONNECT.asByte()) {
@@ -1,6 +1,7 @@
 package org.ethereum.net.rlpx;
 
-import com.google.common.io.ByteStreams;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.MessageToMessageCodec;
 import org.apache.commons.lang3.tuple.Pair;
@@ -94,11 +95,13 @@ public class MessageCodec extends MessageToMessageCodec<Frame, Message> {
             } else {
                 if (frame.totalFrameSize >= 0) {
                     loggerNet.warn("Non-initial chunked frame shouldn't contain totalFrameSize field (context-id: " + frame.contextId + ", totalFrameSize: " + frame.totalFrameSize + "). Discarding this frame and all previous.");
-                    incompleteFrames.remove(frame.contextId);
+                    releaseFrames(incompleteFrames.remove(frame.contextId).getLeft());
                     return;
                 }
             }
 
+            // the decoder releases the frame on return, the parts are kept until the message is complete
+            frame.retain();
             frameParts.getLeft().add(frame);
             int curSize = frameParts.getRight().addAndGet(frame.size);
 
@@ -107,13 +110,17 @@ public class MessageCodec extends MessageToMessageCodec<Frame, Message> {
 
             if (curSize > frameParts.getLeft().get(0).totalFrameSize) {
                 loggerNet.warn("The total frame chunks size (" + curSize + ") is greater than expected (" + frameParts.getLeft().get(0).totalFrameSize + "). Discarding the frame.");
-                incompleteFrames.remove(frame.contextId);
+                releaseFrames(incompleteFrames.remove(frame.contextId).getLeft());
                 return;
             }
             if (curSize == frameParts.getLeft().get(0).totalFrameSize) {
-                Message message = decodeMessage(ctx, frameParts.getLeft());
                 incompleteFrames.remove(frame.contextId);
-                out.add(message);
+                try {
+                    Message message = decodeMessage(ctx, frameParts.getLeft());
+                    out.add(message);
+                } finally {
+                    releaseFrames(frameParts.getLeft());
+                }
             }
         } else {
             Message message = decodeMessage(ctx, Collections.singletonList(frame));
@@ -124,11 +131,19 @@ public class MessageCodec extends MessageToMessageCodec<Frame, Message> {
     private Message decodeMessage(ChannelHandlerContext ctx, List<Frame> frames) throws IOException {
         long frameType = frames.get(0).getType();
 
-        byte[] payload = new byte[frames.size() == 1 ? frames.get(0).getSize() : frames.get(0).totalFrameSize];
-        int pos = 0;
-        for (Frame frame : frames) {
-            pos += ByteStreams.read(frame.getStream(), payload, pos, frame.getSize());
+        // the parts of a chunked message are composed without copying, the message is copied out once
+        ByteBuf composite;
+        if (frames.size() == 1) {
+            composite = frames.get(0).content();
+        } else {
+            ByteBuf[] parts = new ByteBuf[frames.size()];
+            for (int i = 0; i < parts.length; i++) {
+                parts[i] = frames.get(i).content();
+            }
+            composite = Unpooled.wrappedBuffer(parts.length, parts);
         }
+        byte[] payload = new byte[composite.readableBytes()];
+        composite.getBytes(composite.readerIndex(), payload);
 
         if (loggerWire.isDebugEnabled())
             loggerWire.debug("Recv: Encoded: {} [{}]", frameType, Hex.toHexString(payload));
@@ -144,6 +159,21 @@ public class MessageCodec extends MessageToMessageCodec<Frame, Message> {
         return msg;
     }
 
+    private void releaseFrames(List<Frame> frames) {
+        for (Frame frame : frames) {
+            frame.release();
+        }
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+        for (Pair<? extends List<Frame>, AtomicInteger> frameParts : incompleteFrames.values()) {
+            releaseFrames(frameParts.getLeft());
+        }
+        incompleteFrames.clear();
+        super.handlerRemoved(ctx);
+    }
+
     @Override
     protected void encode(ChannelHandlerContext ctx, Message msg, List<Object> out) throws Exception {
         String output = String.format("To: \t%s \tSend: \t%s", ctx.channel().remoteAddress(), msg);
@@ -171,9 +201,8 @@ public class MessageCodec extends MessageToMessageCodec<Frame, Message> {
         int curPos = 0;
         while(curPos < bytes.length) {
             int newPos = min(curPos + maxFramePayloadSize, bytes.length);
-            byte[] frameBytes = curPos == 0 && newPos == bytes.length ? bytes :
-                    Arrays.copyOfRange(bytes, curPos, newPos);
-            ret.add(new Frame(code, frameBytes));
+            // the frames wrap the parts of the encoded message, no copies
+            ret.add(new Frame(code, Unpooled.wrappedBuffer(bytes, curPos, newPos - curPos)));
             curPos = newPos;
         }
 
@@ -37,7 +37,7 @@ public class MessageCodesResolver {
             if (capability.getName().equals(Capability.ETH)) {
                 setEthOffset(offset);
                 EthVersion v = fromCode(capability.getVersion());
-                offset += EthMessageCodes.values(v).length;
+                offset += EthMessageCodes.maxCode(v) + 1;
             }
 
             if (capability.getName().equals(Capability.SHH)) {
@@ -30,6 +30,13 @@ public abstract class NettiByteToMessageCodec<I> extends ByteToMessageCodec<I> {
         }
     };
 
+    protected NettiByteToMessageCodec() {
+    }
+
+    protected NettiByteToMessageCodec(boolean preferDirect) {
+        super(preferDirect);
+    }
+
     @Override
     public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
         decoder.channelRead(ctx, msg);
@@ -39,16 +39,17 @@ public class RlpxConnection {
                 throw new IOException("expected handshake or disconnect");
             // TODO handle disconnect
             byte[] wire = new byte[frame.size];
-            frame.payload.read(wire);
+            frame.getStream().read(wire);
             System.out.println("packet " + Hex.toHexString(wire));
             handshakeMessage = HandshakeMessage.parse(wire);
             logger.info(" ===> " + handshakeMessage);
         } else {
             System.out.println("packet type " + frame.type);
             byte[] wire = new byte[frame.size];
-            frame.payload.read(wire);
+            frame.getStream().read(wire);
             System.out.println("packet " + Hex.toHexString(wire));
         }
+        frame.release();
     }
 
     public HandshakeMessage getHandshakeMessage() {
@@ -4,6 +4,7 @@ import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelPipeline;
 import io.netty.handler.timeout.ReadTimeoutHandler;
+import org.apache.commons.collections4.map.LRUMap;
 import org.ethereum.config.SystemProperties;
 import org.ethereum.core.Block;
 import org.ethereum.core.BlockHeaderWrapper;
@@ -18,6 +19,8 @@ import org.ethereum.net.eth.handler.EthHandler;
 import org.ethereum.net.eth.handler.EthHandlerFactory;
 import org.ethereum.net.eth.EthVersion;
 import org.ethereum.net.eth.message.Eth62MessageFactory;
+import org.ethereum.net.eth.message.Eth63MessageFactory;
+import org.ethereum.net.eth.message.NewBlockMessage;
 import org.ethereum.net.message.ReasonCode;
 import org.ethereum.net.rlpx.*;
 import org.ethereum.sync.SyncState;
@@ -42,7 +45,12 @@ import org.springframework.stereotype.Component;
 import java.io.IOException;
 import java.math.BigInteger;
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -55,6 +63,9 @@ public class Channel {
 
     private final static Logger logger = LoggerFactory.getLogger("net");
 
+    private static final int MAX_KNOWN_TXS = 8192;
+    private static final int MAX_KNOWN_BLOCKS = 1024;
+
     @Autowired
     SystemProperties config;
 
@@ -93,6 +104,13 @@ public class Channel {
     private NodeStatistics nodeStatistics;
 
     private boolean discoveryMode;
+
+    // the hashes of the recent transactions and blocks the peer has sent us or we have sent it
+    private final Set<ByteArrayWrapper> knownTxs = Collections.newSetFromMap(
+            Collections.synchronizedMap(new LRUMap<ByteArrayWrapper, Boolean>(MAX_KNOWN_TXS)));
+    private final Set<ByteArrayWrapper> knownBlocks = Collections.newSetFromMap(
+            Collections.synchronizedMap(new LRUMap<ByteArrayWrapper, Boolean>(MAX_KNOWN_BLOCKS)));
+    private final Map<ByteArrayWrapper, Transaction> pendingTxs = new LinkedHashMap<>();
     private boolean isActive;
 
     private PeerStatistics peerStats = new PeerStatistics();
@@ -197,6 +215,7 @@ public class Channel {
     private MessageFactory createEthMessageFactory(EthVersion version) {
         switch (version) {
             case V62:   return new Eth62MessageFactory();
+            case V63:   return new Eth63MessageFactory();
             default:    throw new IllegalArgumentException("Eth " + version + " is not supported");
         }
     }
@@ -343,10 +362,58 @@ public class Channel {
         eth.sendTransaction(tx);
     }
 
+    /**
+     * Adds the transactions the peer doesn't know yet to the pending batch
+     *
+     * @return true if the batch was empty before, the caller schedules its sending
+     */
+    public boolean queueTransactions(List<Transaction> txs) {
+        synchronized (pendingTxs) {
+            boolean wasEmpty = pendingTxs.isEmpty();
+            for (Transaction tx : txs) {
+                ByteArrayWrapper hash = new ByteArrayWrapper(tx.getHash());
+                if (!knownTxs.contains(hash) && !pendingTxs.containsKey(hash)) {
+                    pendingTxs.put(hash, tx);
+                }
+            }
+            return wasEmpty && !pendingTxs.isEmpty();
+        }
+    }
+
+    /**
+     * Sends the pending batch, the transactions become known to the peer once they are written
+     */
+    public void sendPendingTransactions() {
+        synchronized (pendingTxs) {
+            if (pendingTxs.isEmpty()) return;
+            List<Transaction> batch = new ArrayList<>(pendingTxs.values());
+            eth.sendTransaction(batch);
+            knownTxs.addAll(pendingTxs.keySet());
+            pendingTxs.clear();
+        }
+    }
+
+    public void addKnownTransactions(List<Transaction> txs) {
+        for (Transaction tx : txs) {
+            knownTxs.add(new ByteArrayWrapper(tx.getHash()));
+        }
+    }
+
+    public void addKnownBlock(byte[] hash) {
+        knownBlocks.add(new ByteArrayWrapper(hash));
+    }
+
     public void sendNewBlock(Block block) {
         eth.sendNewBlock(block);
     }
 
+    public void sendNewBlock(NewBlockMessage msg) {
+        // the peer which has sent or announced the block doesn't need it back
+        if (knownBlocks.add(new ByteArrayWrapper(msg.getBlock().getHash()))) {
+            eth.sendNewBlock(msg);
+        }
+    }
+
     public EthVersion getEthVersion() {
         return eth.getVersion();
     }
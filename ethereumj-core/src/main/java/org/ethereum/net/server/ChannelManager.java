@@ -5,17 +5,21 @@ import org.ethereum.config.NodeFilter;
 import org.ethereum.config.SystemProperties;
 import org.ethereum.core.Block;
 import org.ethereum.core.Transaction;
+import org.ethereum.db.BlockStore;
 import org.ethereum.db.ByteArrayWrapper;
 
+import org.ethereum.net.eth.message.NewBlockMessage;
 import org.ethereum.net.message.ReasonCode;
 import org.ethereum.sync.SyncManager;
 import org.ethereum.sync.SyncPool;
+import org.ethereum.util.ByteUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import java.math.BigInteger;
 import java.net.InetAddress;
 import java.util.*;
 import java.util.concurrent.*;
@@ -40,10 +44,12 @@ public class ChannelManager {
     private static final int inboundConnectionBanTimeout = 10 * 1000;
 
     private List<Channel> newPeers = new CopyOnWriteArrayList<>();
-    private final Map<ByteArrayWrapper, Channel> activePeers = Collections.synchronizedMap(new HashMap<ByteArrayWrapper, Channel>());
+    // the broadcasts iterate over the peers without locking
+    private final Map<ByteArrayWrapper, Channel> activePeers = new ConcurrentHashMap<>();
 
     private ScheduledExecutorService mainWorker = Executors.newSingleThreadScheduledExecutor();
     private int maxActivePeers;
+    private int txBatchWindow;
     private Map<InetAddress, Date> recentlyDisconnected = Collections.synchronizedMap(new LRUMap<InetAddress, Date>(500));
     private NodeFilter trustedPeers;
 
@@ -56,9 +62,13 @@ public class ChannelManager {
     @Autowired
     SyncPool syncPool;
 
+    @Autowired
+    BlockStore blockStore;
+
     @PostConstruct
     public void init() {
         maxActivePeers = config.maxActivePeers();
+        txBatchWindow = config.peerTransactionsBatchWindow();
         trustedPeers = config.peerTrusted();
         mainWorker.scheduleWithFixedDelay(new Runnable() {
             @Override
@@ -138,18 +148,29 @@ public class ChannelManager {
     }
 
     /**
-     * Propagates the transactions message across active peers with exclusion of
-     * 'receivedFrom' peer.
+     * Propagates the transactions across active peers with exclusion of
+     * 'receivedFrom' peer and the peers which already know them.
      * @param tx  transactions to be sent
      * @param receivedFrom the peer which sent original message or null if
      *                     the transactions were originated by this peer
      */
     public void sendTransaction(List<Transaction> tx, Channel receivedFrom) {
-        synchronized (activePeers) {
-            for (Channel channel : activePeers.values()) {
-                if (channel != receivedFrom) {
-                    channel.sendTransaction(tx);
-                }
+        if (receivedFrom != null) {
+            receivedFrom.addKnownTransactions(tx);
+        }
+        // every peer gets only the transactions it doesn't know, batched over a short window
+        for (final Channel channel : activePeers.values()) {
+            if (channel != receivedFrom && channel.queueTransactions(tx)) {
+                mainWorker.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            channel.sendPendingTransactions();
+                        } catch (Throwable t) {
+                            logger.error("Error", t);
+                        }
+                    }
+                }, txBatchWindow, TimeUnit.MILLISECONDS);
             }
         }
     }
@@ -162,11 +183,12 @@ public class ChannelManager {
      *                     the block has been mined by us
      */
     public void sendNewBlock(Block block, Channel receivedFrom) {
-        synchronized (activePeers) {
-            for (Channel channel : activePeers.values()) {
-                if (channel != receivedFrom) {
-                    channel.sendNewBlock(block);
-                }
+        BigInteger parentTD = blockStore.getTotalDifficultyForHash(block.getParentHash());
+        byte[] td = ByteUtil.bigIntegerToBytes(parentTD.add(new BigInteger(1, block.getDifficulty())));
+        NewBlockMessage msg = new NewBlockMessage(block, td);
+        for (Channel channel : activePeers.values()) {
+            if (channel != receivedFrom) {
+                channel.sendNewBlock(msg);
             }
         }
     }
@@ -185,10 +207,8 @@ public class ChannelManager {
 
     public void onSyncDone(boolean done) {
 
-        synchronized (activePeers) {
-            for (Channel channel : activePeers.values())
-                channel.onSyncDone(done);
-        }
+        for (Channel channel : activePeers.values())
+            channel.onSyncDone(done);
     }
 
     public Collection<Channel> getActivePeers() {
@@ -0,0 +1,614 @@
+package org.ethereum.sync;
+
+import org.ethereum.config.SystemProperties;
+import org.ethereum.core.*;
+import org.ethereum.datasource.GroupCommitWriter;
+import org.ethereum.datasource.IterableDataSource;
+import org.ethereum.datasource.KeyValueDataSource;
+import org.ethereum.db.BlockStore;
+import org.ethereum.db.ByteArrayWrapper;
+import org.ethereum.db.ContractDetailsImpl;
+import org.ethereum.db.RepositoryImpl;
+import org.ethereum.net.eth.handler.Eth63;
+import org.ethereum.net.server.Channel;
+import org.ethereum.trie.TrieNodeParser;
+import org.ethereum.util.Functional;
+import org.ethereum.validator.BlockHeaderValidator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.spongycastle.util.encoders.Hex;
+import org.springframework.beans.factory.ObjectFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.ethereum.core.ImportResult.*;
+import static org.ethereum.crypto.HashUtil.EMPTY_DATA_HASH;
+import static org.ethereum.crypto.HashUtil.EMPTY_TRIE_HASH;
+import static org.ethereum.crypto.HashUtil.sha3;
+import static org.ethereum.util.ByteUtil.merge;
+import static org.ethereum.util.ByteUtil.wrap;
+
+/**
+ * Fast sync: the state of the recent (pivot) block is fetched from the peers node by node
+ * with the eth/63 GetNodeData requests instead of executing all the blocks from the genesis.
+ *
+ * - the pivot is {@code sync.fast.pivotBlockDistance} blocks behind the best block of the eth/63 peers,
+ *   its header is requested from the peer which knows that best block
+ * - the state trie is walked from the pivot state root, the nodes are requested by hash in parallel from
+ *   the eth/63 peers, every hash is asked from one peer at a time; the hashes which aren't returned,
+ *   are timed out or requested from the disconnected peer are asked from the other peers again
+ * - the state trie nodes go directly to the state data source, the storage trie nodes, the codes and
+ *   the contract accounts are kept in the 'fastsync' data source until the whole state is fetched,
+ *   then the contract details are built from them (see {@link RepositoryImpl#putFastSyncDetails(byte[], org.ethereum.db.ContractDetails)})
+ * - meanwhile the headers and the bodies are downloaded by {@link SyncManager} as usual, the blocks up to the
+ *   pivot are stored without the execution, the pivot block waits for the state and becomes the best block,
+ *   the blocks after it are imported the regular way
+ *
+ * The fetched nodes are on disk, so after restart the trie is walked from the root again:
+ * the local nodes aren't requested but their children are still checked
+ */
+public class FastSyncManager {
+
+    private final static Logger logger = LoggerFactory.getLogger("sync");
+
+    // the max number of the nodes which geth returns per request
+    private static final int NODES_REQUEST = 384;
+    private static final long REQUEST_TIMEOUT = 20_000;
+    private static final long PIVOT_PEERS_WAIT = 5_000;
+    private static final long PIVOT_TIMEOUT = 5 * 60_000;
+    private static final long LOOP_INTERVAL = 100;
+    private static final long REPORT_INTERVAL = 10_000;
+    private static final int BLOCKS_FLUSH_INTERVAL = 1000;
+    private static final int CONTRACTS_FLUSH_INTERVAL = 1000;
+    private static final long USELESS_PEER_TIMEOUT = 60_000;
+
+    private static final byte[] PIVOT_KEY = "pivot".getBytes();
+    // the contract accounts are stored by this prefix and the address hash
+    private static final byte[] CONTRACT_PREFIX = "contract".getBytes();
+
+    private enum NodeType {
+        STATE,
+        STORAGE,
+        CODE
+    }
+
+    private static class NodeRequest {
+        final byte[] hash;
+        final NodeType type;
+        // the same state node may be found on the different paths, every one may lead to the different accounts
+        final List<byte[]> paths = new ArrayList<>(1);
+
+        NodeRequest(byte[] hash, NodeType type) {
+            this.hash = hash;
+            this.type = type;
+        }
+    }
+
+    private static class PeerRequest {
+        final Map<ByteArrayWrapper, NodeRequest> nodes = new HashMap<>();
+        final long sentAt = System.currentTimeMillis();
+    }
+
+    private static class NodeResponse {
+        final ByteArrayWrapper nodeId;
+        final List<byte[]> data;
+
+        NodeResponse(byte[] nodeId, List<byte[]> data) {
+            this.nodeId = wrap(nodeId);
+            this.data = data;
+        }
+    }
+
+    @Autowired
+    SystemProperties config;
+
+    @Autowired
+    SyncPool pool;
+
+    @Autowired
+    private Blockchain blockchain;
+
+    @Autowired
+    private BlockStore blockStore;
+
+    @Autowired
+    private Repository repository;
+
+    @Autowired
+    private ObjectFactory<BlockHeaderValidator> headerValidatorFactory;
+
+    @Autowired(required = false)
+    private GroupCommitWriter groupCommitWriter;
+
+    private final KeyValueDataSource ds;
+
+    private volatile boolean started;
+    private volatile BlockHeader pivot;
+    private volatile boolean done;
+    private volatile boolean failed;
+    private final CountDownLatch pivotLatch = new CountDownLatch(1);
+    private final CountDownLatch stateLatch = new CountDownLatch(1);
+
+    private final BlockingQueue<NodeResponse> responses = new LinkedBlockingQueue<>();
+    private final BlockingQueue<List<BlockHeader>> pivotHeaders = new LinkedBlockingQueue<>();
+
+    // the state below is touched by the sync thread only
+
+    // the nodes to be requested, taken from the top to walk the trie depth first and keep the queue short
+    private final Deque<NodeRequest> pending = new ArrayDeque<>();
+    // pending and requested nodes by hash, the same node is never requested twice at a time
+    private final Map<ByteArrayWrapper, NodeRequest> queued = new HashMap<>();
+    private final Map<ByteArrayWrapper, PeerRequest> requested = new HashMap<>();
+    // the peers which didn't return any of the requested nodes, they are asked again after a while
+    private final Map<ByteArrayWrapper, Long> uselessPeers = new HashMap<>();
+
+    private long contracts;
+    private long fetchedNodes;
+    private long localNodes;
+    private long fetchedBytes;
+
+    public FastSyncManager(KeyValueDataSource ds) {
+        this.ds = ds;
+    }
+
+    /**
+     * Starts the fast sync when the database is empty or the previous fast sync wasn't completed
+     */
+    public void start() {
+        started = true;
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    sync();
+                } catch (Exception e) {
+                    logger.error("Fast sync failed: ", e);
+                    failed = true;
+                } finally {
+                    // the import goes on with the regular sync if the pivot wasn't selected
+                    pivotLatch.countDown();
+                    // and fails at the pivot if the state wasn't fetched
+                    stateLatch.countDown();
+                }
+            }
+        }, "FastSyncThread").start();
+    }
+
+    private void sync() throws InterruptedException {
+        ds.init();
+
+        byte[] pivotRlp = ds.get(PIVOT_KEY);
+        if (pivotRlp != null) {
+            pivot = new BlockHeader(pivotRlp);
+            logger.info("Fast sync: resuming with the pivot block {}", pivot.getShortDescr());
+        } else if (blockchain.getBestBlock().getNumber() == 0) {
+            pivot = selectPivot();
+            if (pivot != null) ds.put(PIVOT_KEY, pivot.getEncoded());
+        } else {
+            logger.info("Fast sync: the database is not empty, using the regular sync");
+        }
+        pivotLatch.countDown();
+
+        if (pivot == null) {
+            done = true;
+            return;
+        }
+
+        downloadState();
+        buildContracts();
+    }
+
+    private BlockHeader selectPivot() throws InterruptedException {
+        long startedAt = System.currentTimeMillis();
+        long firstPeerAt = 0;
+        BlockHeaderValidator validator = headerValidatorFactory.getObject();
+
+        while (System.currentTimeMillis() - startedAt < PIVOT_TIMEOUT) {
+            Channel best = null;
+            for (Channel peer : pool) {
+                if (!isFastSyncPeer(peer)) continue;
+                BlockIdentifier bestKnown = ((Eth63) peer.getEthHandler()).getBestKnownBlock();
+                if (bestKnown != null && (best == null ||
+                        bestKnown.getNumber() > ((Eth63) best.getEthHandler()).getBestKnownBlock().getNumber())) {
+                    best = peer;
+                }
+            }
+
+            if (best != null && firstPeerAt == 0) firstPeerAt = System.currentTimeMillis();
+
+            // more peers are waited for a while to get the higher best block
+            if (best == null || System.currentTimeMillis() - firstPeerAt < PIVOT_PEERS_WAIT) {
+                Thread.sleep(LOOP_INTERVAL * 10);
+                continue;
+            }
+
+            long number = ((Eth63) best.getEthHandler()).getBestKnownBlock().getNumber() - config.fastSyncPivotBlockDistance();
+            if (number <= 0) {
+                logger.info("Fast sync: the chain is too short, using the regular sync");
+                return null;
+            }
+
+            pivotHeaders.clear();
+            ((Eth63) best.getEthHandler()).sendGetBlockHeader(number, new Functional.Consumer<List<BlockHeader>>() {
+                @Override
+                public void accept(List<BlockHeader> headers) {
+                    pivotHeaders.add(headers);
+                }
+            });
+
+            List<BlockHeader> headers = pivotHeaders.poll(REQUEST_TIMEOUT, TimeUnit.MILLISECONDS);
+            if (headers != null && !headers.isEmpty()) {
+                BlockHeader header = headers.get(0);
+                if (header.getNumber() == number && validator.validate(header)) {
+                    logger.info("Fast sync: the pivot block is {}, state root {}",
+                            header.getShortDescr(), Hex.toHexString(header.getStateRoot()));
+                    return header;
+                }
+                logger.info("Fast sync: invalid pivot header {} from peer {}", header.getShortDescr(), best.getPeerIdShort());
+                best.getEthHandler().dropConnection();
+            }
+        }
+
+        logger.warn("Fast sync: no eth/63 peers to fetch the pivot block, using the regular sync");
+        return null;
+    }
+
+    private void downloadState() throws InterruptedException {
+        logger.info("Fast sync: fetching the state");
+        schedule(pivot.getStateRoot(), NodeType.STATE, new byte[0]);
+
+        long reportAt = System.currentTimeMillis();
+        while (!queued.isEmpty()) {
+            NodeResponse response = responses.poll(LOOP_INTERVAL, TimeUnit.MILLISECONDS);
+            while (response != null) {
+                processResponse(response);
+                response = responses.poll();
+            }
+
+            dropTimedOutRequests();
+            sendRequests();
+
+            if (System.currentTimeMillis() - reportAt > REPORT_INTERVAL) {
+                reportAt = System.currentTimeMillis();
+                logger.info("Fast sync: {} nodes fetched ({} MB), {} local, {} queued, {} peers requested, {} contracts",
+                        fetchedNodes, fetchedBytes / 1048576, localNodes, queued.size(), requested.size(), contracts);
+            }
+        }
+        logger.info("Fast sync: the state is fetched, {} nodes ({} MB), {} were local", fetchedNodes,
+                fetchedBytes / 1048576, localNodes);
+    }
+
+    private void schedule(byte[] hash, NodeType type, byte[] path) {
+        ByteArrayWrapper key = wrap(hash);
+        NodeRequest request = queued.get(key);
+        if (request == null) {
+            request = new NodeRequest(hash, type);
+            queued.put(key, request);
+            pending.push(request);
+        }
+        if (path != null) request.paths.add(path);
+    }
+
+    private void sendRequests() {
+        for (Channel peer : pool) {
+            if (pending.isEmpty()) return;
+
+            ByteArrayWrapper nodeId = wrap(peer.getNodeId());
+            if (!isFastSyncPeer(peer) || requested.containsKey(nodeId) || isUseless(nodeId)) continue;
+
+            PeerRequest request = new PeerRequest();
+            while (request.nodes.size() < NODES_REQUEST && !pending.isEmpty()) {
+                NodeRequest node = pending.pop();
+                byte[] local = getLocal(node);
+                if (local != null) {
+                    // the node is fetched before the restart, its children may be not
+                    localNodes++;
+                    process(node, local);
+                } else {
+                    request.nodes.put(wrap(node.hash), node);
+                }
+            }
+            if (request.nodes.isEmpty()) continue;
+
+            List<byte[]> hashes = new ArrayList<>(request.nodes.size());
+            for (NodeRequest node : request.nodes.values()) {
+                hashes.add(node.hash);
+            }
+            requested.put(nodeId, request);
+            ((Eth63) peer.getEthHandler()).sendGetNodeData(hashes);
+        }
+    }
+
+    private boolean isUseless(ByteArrayWrapper nodeId) {
+        Long since = uselessPeers.get(nodeId);
+        if (since == null) return false;
+
+        // the peer may have caught up with the pivot or just have been busy
+        if (System.currentTimeMillis() - since > USELESS_PEER_TIMEOUT) {
+            uselessPeers.remove(nodeId);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @param nodeId the peer which the nodes are received from
+     * @param data the nodes in any order, some of the requested may be missing
+     */
+    public void onNodeData(byte[] nodeId, List<byte[]> data) {
+        responses.add(new NodeResponse(nodeId, data));
+    }
+
+    private void processResponse(NodeResponse response) {
+        PeerRequest request = requested.remove(response.nodeId);
+        if (request == null) return; // the request has timed out
+
+        Map<byte[], byte[]> stateNodes = new HashMap<>();
+        Map<byte[], byte[]> contractNodes = new HashMap<>();
+        List<NodeRequest> received = new ArrayList<>();
+        List<byte[]> receivedData = new ArrayList<>();
+        for (byte[] data : response.data) {
+            byte[] hash = sha3(data);
+            NodeRequest node = request.nodes.remove(wrap(hash));
+            if (node == null) continue;
+
+            (node.type == NodeType.STATE ? stateNodes : contractNodes).put(hash, data);
+            received.add(node);
+            receivedData.add(data);
+            fetchedBytes += data.length;
+        }
+
+        if (received.isEmpty() && !request.nodes.isEmpty()) {
+            logger.debug("Fast sync: peer {} didn't return any node", Hex.toHexString(response.nodeId.getData()).substring(0, 8));
+            uselessPeers.put(response.nodeId, System.currentTimeMillis());
+        }
+
+        // the nodes are stored before the children are requested
+        if (!stateNodes.isEmpty()) ((RepositoryImpl) repository).putStateNodes(stateNodes);
+        if (!contractNodes.isEmpty()) ds.updateBatch(contractNodes);
+
+        for (int i = 0; i < received.size(); i++) {
+            fetchedNodes++;
+            process(received.get(i), receivedData.get(i));
+        }
+
+        // the missing nodes are requested again, possibly from the other peer
+        for (NodeRequest node : request.nodes.values()) {
+            pending.push(node);
+        }
+    }
+
+    private void dropTimedOutRequests() {
+        Iterator<Map.Entry<ByteArrayWrapper, PeerRequest>> it = requested.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<ByteArrayWrapper, PeerRequest> entry = it.next();
+            Channel peer = pool.getByNodeId(entry.getKey().getData());
+            if (peer == null || System.currentTimeMillis() - entry.getValue().sentAt > REQUEST_TIMEOUT) {
+                if (peer != null) {
+                    logger.debug("Fast sync: peer {} node data request timed out", peer.getPeerIdShort());
+                    peer.getSyncStats().onRequestTimeout();
+                }
+                for (NodeRequest node : entry.getValue().nodes.values()) {
+                    pending.push(node);
+                }
+                it.remove();
+            }
+        }
+    }
+
+    private byte[] getLocal(NodeRequest node) {
+        return node.type == NodeType.STATE ?
+                ((RepositoryImpl) repository).getStateNode(node.hash) : ds.get(node.hash);
+    }
+
+    /**
+     * Schedules the node children and the storage and the code of the accounts found in the node
+     */
+    private void process(NodeRequest node, byte[] data) {
+        queued.remove(wrap(node.hash));
+
+        if (node.type == NodeType.CODE) return;
+
+        if (node.type == NodeType.STORAGE) {
+            TrieNodeParser.parse(data, new byte[0], new TrieNodeParser.Handler() {
+                @Override
+                public void onChild(byte[] hash, byte[] path) {
+                    schedule(hash, NodeType.STORAGE, null);
+                }
+
+                @Override
+                public void onLeaf(byte[] path, byte[] value) {
+                }
+            });
+            return;
+        }
+
+        for (byte[] nodePath : node.paths) {
+            TrieNodeParser.parse(data, nodePath, new TrieNodeParser.Handler() {
+                @Override
+                public void onChild(byte[] hash, byte[] path) {
+                    schedule(hash, NodeType.STATE, path);
+                }
+
+                @Override
+                public void onLeaf(byte[] path, byte[] value) {
+                    AccountState account = new AccountState(value);
+                    boolean hasStorage = !Arrays.equals(account.getStateRoot(), EMPTY_TRIE_HASH);
+                    boolean hasCode = !Arrays.equals(account.getCodeHash(), EMPTY_DATA_HASH);
+                    if (hasStorage) schedule(account.getStateRoot(), NodeType.STORAGE, null);
+                    if (hasCode) schedule(account.getCodeHash(), NodeType.CODE, null);
+                    if (hasStorage || hasCode) {
+                        ds.put(merge(CONTRACT_PREFIX, TrieNodeParser.toKey(path)), account.getEncoded());
+                        contracts++;
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Makes the contract details of the fetched storage tries and codes
+     */
+    private void buildContracts() {
+        logger.info("Fast sync: storing the contracts");
+
+        final long[] stored = new long[1];
+        forEachKey(new Functional.Consumer<byte[]>() {
+            @Override
+            public void accept(byte[] key) {
+                if (key.length <= CONTRACT_PREFIX.length ||
+                        !Arrays.equals(CONTRACT_PREFIX, Arrays.copyOf(key, CONTRACT_PREFIX.length))) return;
+
+                AccountState account = new AccountState(ds.get(key));
+                ContractDetailsImpl details = new ContractDetailsImpl();
+
+                if (!Arrays.equals(account.getCodeHash(), EMPTY_DATA_HASH)) {
+                    details.setCode(ds.get(account.getCodeHash()));
+                }
+                if (!Arrays.equals(account.getStateRoot(), EMPTY_TRIE_HASH)) {
+                    details.setStorageNodes(account.getStateRoot(), collectStorageNodes(account.getStateRoot()));
+                }
+
+                byte[] addrHash = Arrays.copyOfRange(key, CONTRACT_PREFIX.length, key.length);
+                ((RepositoryImpl) repository).putFastSyncDetails(addrHash, details);
+
+                // the details are kept in memory until flushed
+                if (++stored[0] % CONTRACTS_FLUSH_INTERVAL == 0) repository.flush();
+            }
+        });
+        repository.flush();
+
+        logger.info("Fast sync: {} contracts stored, the state of the pivot block #{} is complete",
+                stored[0], pivot.getNumber());
+    }
+
+    private Map<ByteArrayWrapper, byte[]> collectStorageNodes(byte[] root) {
+        final Map<ByteArrayWrapper, byte[]> nodes = new HashMap<>();
+        final Deque<byte[]> hashes = new ArrayDeque<>();
+        hashes.push(root);
+        while (!hashes.isEmpty()) {
+            byte[] hash = hashes.pop();
+            byte[] data = ds.get(hash);
+            if (data == null) {
+                throw new IllegalStateException("Storage trie node is missing: " + Hex.toHexString(hash));
+            }
+            nodes.put(wrap(hash), data);
+            TrieNodeParser.parse(data, new byte[0], new TrieNodeParser.Handler() {
+                @Override
+                public void onChild(byte[] hash, byte[] path) {
+                    if (!nodes.containsKey(wrap(hash))) hashes.push(hash);
+                }
+
+                @Override
+                public void onLeaf(byte[] path, byte[] value) {
+                }
+            });
+        }
+        return nodes;
+    }
+
+    private void forEachKey(Functional.Consumer<byte[]> consumer) {
+        if (ds instanceof IterableDataSource) {
+            ((IterableDataSource) ds).forEachKey(consumer);
+        } else {
+            for (byte[] key : ds.keys()) consumer.accept(key);
+        }
+    }
+
+    private static boolean isFastSyncPeer(Channel peer) {
+        return peer.getEthHandler() instanceof Eth63 && peer.hasEthStatusSucceeded();
+    }
+
+    /**
+     * Blocks until the pivot is selected, the blocks before it aren't executed
+     */
+    public void waitForPivot() throws InterruptedException {
+        if (started) pivotLatch.await();
+    }
+
+    /**
+     * @return true if the block is stored by {@link #importBlock(Block)} instead of the blockchain
+     */
+    public boolean skipsExecution(long blockNumber) {
+        BlockHeader pivot = this.pivot;
+        return started && !done && pivot != null && blockNumber <= pivot.getNumber();
+    }
+
+    /**
+     * Stores the block before the pivot without the execution, the state isn't available for them.
+     * The pivot block waits for the state download and becomes the best block with that state
+     */
+    public ImportResult importBlock(Block block) throws InterruptedException {
+        if (!blockchain.getBestBlock().isParentOf(block)) {
+            return blockStore.isBlockExist(block.getHash()) ? EXIST : NO_PARENT;
+        }
+
+        boolean isPivot = block.getNumber() == pivot.getNumber();
+        if (isPivot) {
+            if (!Arrays.equals(block.getHash(), pivot.getHash())) {
+                logger.error("Fast sync: the chain block #{} {} is not the pivot block {}, the database should be reset",
+                        block.getNumber(), block.getShortHash(), pivot.getShortDescr());
+                return INVALID_BLOCK;
+            }
+            logger.info("Fast sync: the pivot block is reached, waiting for the state");
+            stateLatch.await();
+            if (failed) {
+                logger.error("Fast sync: the state of the pivot block is not complete, restart to resume the sync");
+                return INVALID_BLOCK;
+            }
+            repository.syncToRoot(block.getStateRoot());
+        }
+
+        blockchain.updateTotalDifficulty(block);
+        blockchain.storeBlock(block, Collections.<TransactionReceipt>emptyList());
+
+        if (isPivot) {
+            complete(block);
+        } else if (block.getNumber() % BLOCKS_FLUSH_INTERVAL == 0) {
+            blockStore.flush();
+            commitMarker(block);
+        }
+        return IMPORTED_BEST;
+    }
+
+    /**
+     * The best block moves without the blockchain flush here,
+     * so the group commit marker has to follow it, otherwise the startup check fails
+     */
+    private void commitMarker(Block block) {
+        if (groupCommitWriter != null && config.databaseGroupCommitEnabled()) {
+            groupCommitWriter.commitBlock(block.getNumber(), block.getHash());
+        }
+    }
+
+    private void complete(Block pivotBlock) {
+        blockStore.flush();
+        repository.flush();
+        commitMarker(pivotBlock);
+
+        // the pivot goes first, the rest is the garbage left from the sync
+        ds.delete(PIVOT_KEY);
+        forEachKey(new Functional.Consumer<byte[]>() {
+            @Override
+            public void accept(byte[] key) {
+                ds.delete(key);
+            }
+        });
+        done = true;
+
+        logger.info("Fast sync: done, the regular sync is continued from the block #{}", pivot.getNumber());
+    }
+
+    public boolean isDone() {
+        return done;
+    }
+
+    public BlockHeader getPivot() {
+        return pivot;
+    }
+}
@@ -2,6 +2,7 @@ package org.ethereum.sync;
 
 import org.ethereum.config.SystemProperties;
 import org.ethereum.core.*;
+import org.ethereum.db.ByteArrayWrapper;
 import org.ethereum.listener.CompositeEthereumListener;
 import org.ethereum.listener.EthereumListener;
 import org.ethereum.manager.WorldManager;
@@ -14,14 +15,19 @@ import org.ethereum.validator.BlockHeaderValidator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.spongycastle.util.encoders.Hex;
+import org.springframework.beans.factory.ObjectFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.PostConstruct;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static java.util.Collections.singletonList;
 import static org.ethereum.core.ImportResult.*;
@@ -38,34 +44,92 @@ public class SyncManager {
 
     private static final int BLOCK_QUEUE_LIMIT = 20000;
     private static final int HEADER_QUEUE_LIMIT = 20000;
-
-    // Transaction.getSender() is quite heavy operation so we are prefetching this value on several threads
-    // to unload the main block importing cycle
-    private ExecutorPipeline<BlockWrapper,BlockWrapper> exec1 = new ExecutorPipeline<>
-            (4, 1000, true, new Functional.Function<BlockWrapper,BlockWrapper>() {
+    private static final int HEADER_VALIDATION_CHUNK = 32;
+    private static final int HEADER_BATCHES_QUEUE = 16;
+
+    // blocks wanted ahead of the import, the requests are sized by the peers throughput
+    private static final int BLOCKS_WINDOW = 1000;
+    private static final int INITIAL_BLOCKS_REQUEST = 100;
+    private static final int MIN_BLOCKS_REQUEST = 16;
+    private static final int MAX_BLOCKS_REQUEST = 128;
+    private static final int MIN_HEADERS_REQUEST = 32;
+    private static final long REQUEST_CHECK_INTERVAL = 500;
+
+    // Blocks are imported by the overlapping stages:
+    //   body check: tx and uncle roots are matched against the header on several threads, the blockchain
+    //               doesn't repeat the check for the verified blocks
+    //   senders: Transaction.getSender() is quite heavy operation so the value is prefetched on several threads
+    //   queue: blocks with bad bodies are thrown away, the rest goes to the import queue in the chain order
+    //   import: blocks are executed one by one by produceQueue(), the state and blocks writes are
+    //           made in background by the group commit writer when it is enabled
+    ExecutorPipeline<BlockWrapper,BlockWrapper> exec1 = new ExecutorPipeline<>
+            (2, 1000, true, new Functional.Function<BlockWrapper,BlockWrapper>() {
                 public BlockWrapper apply(BlockWrapper blockWrapper) {
-                    for (Transaction tx : blockWrapper.getBlock().getTransactionsList()) {
-                        tx.getSender();
-                    }
+                    // the invalid block is still passed since the ordered stage mustn't skip items
+                    Block block = blockWrapper.getBlock();
+                    block.setBodyVerified(BlockchainImpl.isValidBody(block));
                     return blockWrapper;
                 }
             }, new Functional.Consumer<Throwable>() {
                 public void accept(Throwable throwable) {
                     logger.error("Unexpected exception: ", throwable);
                 }
-            });
+            }).setThreadPoolName("sync-body");
 
-    private ExecutorPipeline<BlockWrapper, Void> exec2 = exec1.add(1, 1, new Functional.Consumer<BlockWrapper>() {
+    private ExecutorPipeline<BlockWrapper,BlockWrapper> exec2 = exec1.add(4, 1000, true,
+            new Functional.Function<BlockWrapper,BlockWrapper>() {
+                public BlockWrapper apply(BlockWrapper blockWrapper) {
+                    if (blockWrapper.getBlock().isBodyVerified()) {
+                        for (Transaction tx : blockWrapper.getBlock().getTransactionsList()) {
+                            tx.getSender();
+                        }
+                    }
+                    return blockWrapper;
+                }
+            }).setThreadPoolName("sync-senders");
+
+    private ExecutorPipeline<BlockWrapper, Void> exec3 = exec2.add(1, 1, new Functional.Consumer<BlockWrapper>() {
         @Override
         public void accept(BlockWrapper blockWrapper) {
-            blockQueue.add(blockWrapper);
+            if (!blockWrapper.getBlock().isBodyVerified()) {
+                dropPeer(blockWrapper.getNodeId());
+            } else {
+                blockQueue.add(blockWrapper);
+            }
         }
-    });
+    }).setThreadPoolName("sync-queue");
+
+    // Header PoW check is heavy as well, received header batches are validated in chunks on the several threads
+    // out of the network thread, then the single thread adds them to the queue keeping the batches order.
+    // The network thread must never block, so the number of the batches in progress is limited instead:
+    // no headers are requested while the limit is reached and the batch arrived over the limit is rejected
+    private final ExecutorService headerValidationExec = new ThreadPoolExecutor(
+            Runtime.getRuntime().availableProcessors(), Runtime.getRuntime().availableProcessors(),
+            0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                private AtomicInteger cnt = new AtomicInteger(0);
+
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "HeaderValidationThread-" + cnt.getAndIncrement());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
+    private final ExecutorService headerAddExec = new ThreadPoolExecutor(1, 1,
+            0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "SyncHeadersThread");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
+    private final AtomicInteger headerBatchesInProgress = new AtomicInteger();
 
     /**
      * Queue with validated blocks to be added to the blockchain
      */
-    private BlockingQueue<BlockWrapper> blockQueue = new LinkedBlockingQueue<>();
+    BlockingQueue<BlockWrapper> blockQueue = new LinkedBlockingQueue<>();
 
     private long lastKnownBlockNumber = 0;
     private boolean syncDone = false;
@@ -74,7 +138,15 @@ public class SyncManager {
     private Blockchain blockchain;
 
     @Autowired
-    private BlockHeaderValidator headerValidator;
+    ObjectFactory<BlockHeaderValidator> headerValidatorFactory;
+
+    // validation rules collect the errors so every thread needs its own validator
+    private final ThreadLocal<BlockHeaderValidator> headerValidator = new ThreadLocal<BlockHeaderValidator>() {
+        @Override
+        protected BlockHeaderValidator initialValue() {
+            return headerValidatorFactory.getObject();
+        }
+    };
 
     @Autowired
     private CompositeEthereumListener compositeEthereumListener;
@@ -94,9 +166,16 @@ public class SyncManager {
     @Autowired
     ChannelManager channelManager;
 
-    private SyncQueueIfc syncQueue;
+    @Autowired
+    FastSyncManager fastSyncManager;
+
+    SyncQueueIfc syncQueue;
+
+    // blocks requested from the peers which haven't answered yet: block hash => peer nodeId,
+    // the blocks are requested from the other peers once the peer answers, times out or disconnects
+    private final Map<ByteArrayWrapper, ByteArrayWrapper> requestedBlocks = new HashMap<>();
 
-    private CountDownLatch receivedHeadersLatch = new CountDownLatch(0);
+    CountDownLatch receivedHeadersLatch = new CountDownLatch(0);
     private CountDownLatch receivedBlocksLatch = new CountDownLatch(0);
 
     @PostConstruct
@@ -117,6 +196,10 @@ public class SyncManager {
                 worldManager.waitForInit();
                 logger.info("Initializing SyncManager.");
 
+                if (config.isFastSyncEnabled()) {
+                    fastSyncManager.start();
+                }
+
                 Runnable queueProducer = new Runnable(){
 
                     @Override
@@ -156,18 +239,27 @@ public class SyncManager {
         while(true) {
             try {
 
-                if (syncQueue.getHeadersCount() < HEADER_QUEUE_LIMIT) {
+                dropTimedOutRequests();
+
+                long wait = REQUEST_CHECK_INTERVAL;
+                if (syncQueue.getHeadersCount() < HEADER_QUEUE_LIMIT &&
+                        headerBatchesInProgress.get() < HEADER_BATCHES_QUEUE) {
                     Channel any = pool.getAnyIdle();
 
                     if (any != null) {
                         Eth62 eth = (Eth62) any.getEthHandler();
 
                         SyncQueueIfc.HeadersRequest hReq = syncQueue.requestHeaders();
-                        eth.sendGetBlockHeaders(hReq.getStart(), hReq.getCount(), hReq.isReverse());
+                        int count = any.getSyncStats().getHeadersRequestSize(hReq.getCount(),
+                                Math.min(MIN_HEADERS_REQUEST, hReq.getCount()), hReq.getCount());
+                        eth.sendGetBlockHeaders(hReq.getStart(), count, hReq.isReverse());
+                        wait = any.getSyncStats().getRequestTimeout();
                     }
                 }
+                if (isSyncDone()) wait = Math.max(wait, 10000);
+
                 receivedHeadersLatch = new CountDownLatch(1);
-                receivedHeadersLatch.await(isSyncDone() ? 10000 : 2000, TimeUnit.MILLISECONDS);
+                receivedHeadersLatch.await(wait, TimeUnit.MILLISECONDS);
 
             } catch (Exception e) {
                 logger.error("Unexpected: ", e);
@@ -179,33 +271,91 @@ public class SyncManager {
         while(true) {
             try {
 
+                dropTimedOutRequests();
+
                 if (blockQueue.size() < BLOCK_QUEUE_LIMIT) {
-                    SyncQueueIfc.BlocksRequest bReq = syncQueue.requestBlocks(1000);
-                    int reqBlocksCounter = 0;
-                    for (SyncQueueIfc.BlocksRequest blocksRequest : bReq.split(100)) {
-                        Channel any = pool.getAnyIdle();
-                        if (any == null) break;
-                        Eth62 eth = (Eth62) any.getEthHandler();
-                        eth.sendGetBlockBodies(blocksRequest.getBlockHeaders());
-                        reqBlocksCounter ++;
-                    }
-                    receivedBlocksLatch = new CountDownLatch(reqBlocksCounter);
-                } else {
-                    receivedBlocksLatch = new CountDownLatch(1);
+                    releaseRequestedBlocks();
+                    requestBlocks(pool.getAllIdle());
                 }
 
-                receivedBlocksLatch.await(2000, TimeUnit.MILLISECONDS);
+                // any response or the timed out request makes room for the new requests
+                receivedBlocksLatch = new CountDownLatch(1);
+                receivedBlocksLatch.await(REQUEST_CHECK_INTERVAL, TimeUnit.MILLISECONDS);
             } catch (Exception e) {
                 logger.error("Unexpected: ", e);
             }
         }
     }
 
+    /**
+     * Spreads the wanted blocks over the idle peers, the faster the peer the larger its request
+     */
+    private void requestBlocks(List<Channel> idlePeers) {
+        if (idlePeers.isEmpty()) return;
+
+        SyncQueueIfc.BlocksRequest bReq = syncQueue.requestBlocks(BLOCKS_WINDOW + requestedBlocks.size());
+        List<BlockHeaderWrapper> wanted = new ArrayList<>();
+        for (BlockHeaderWrapper header : bReq.getBlockHeaders()) {
+            if (!requestedBlocks.containsKey(new ByteArrayWrapper(header.getHash()))) {
+                wanted.add(header);
+            }
+        }
+
+        int pos = 0;
+        for (Channel peer : idlePeers) {
+            if (pos >= wanted.size()) break;
+
+            int size = peer.getSyncStats().getBlocksRequestSize(INITIAL_BLOCKS_REQUEST, MIN_BLOCKS_REQUEST, MAX_BLOCKS_REQUEST);
+            List<BlockHeaderWrapper> headers = new ArrayList<>(wanted.subList(pos, Math.min(wanted.size(), pos + size)));
+            pos += headers.size();
+
+            ByteArrayWrapper nodeId = new ByteArrayWrapper(peer.getNodeId());
+            for (BlockHeaderWrapper header : headers) {
+                requestedBlocks.put(new ByteArrayWrapper(header.getHash()), nodeId);
+            }
+            ((Eth62) peer.getEthHandler()).sendGetBlockBodies(headers);
+        }
+    }
+
+    /**
+     * Makes the blocks requested from the peers which aren't waiting for
+     * the response anymore available for the new requests
+     */
+    private void releaseRequestedBlocks() {
+        Map<ByteArrayWrapper, Boolean> waiting = new HashMap<>();
+        Iterator<ByteArrayWrapper> it = requestedBlocks.values().iterator();
+        while (it.hasNext()) {
+            ByteArrayWrapper nodeId = it.next();
+            Boolean peerWaiting = waiting.get(nodeId);
+            if (peerWaiting == null) {
+                Channel peer = pool.getByNodeId(nodeId.getData());
+                peerWaiting = peer != null && !peer.isIdle();
+                waiting.put(nodeId, peerWaiting);
+            }
+            if (!peerWaiting) it.remove();
+        }
+    }
+
+    private void dropTimedOutRequests() {
+        for (Channel peer : pool) {
+            if (!peer.isIdle() && peer.getSyncStats().isRequestTimedOut() && peer.getEthHandler() instanceof Eth62) {
+                ((Eth62) peer.getEthHandler()).dropTimedOutRequest();
+            }
+        }
+    }
+
     /**
      * Processing the queue adding blocks to the chain.
      */
     private void produceQueue() {
 
+        try {
+            // the blocks before the pivot aren't executed
+            fastSyncManager.waitForPivot();
+        } catch (InterruptedException e) {
+            return;
+        }
+
         while (true) {
 
             BlockWrapper wrapper = null;
@@ -213,8 +363,11 @@ public class SyncManager {
 
                 wrapper = blockQueue.take();
 
-                logger.debug("BlockQueue size: {}, headers queue size: {}", blockQueue.size(), syncQueue.getHeadersCount());
-                ImportResult importResult = blockchain.tryToConnect(wrapper.getBlock());
+                if (logger.isDebugEnabled()) logger.debug("Import stages: {}, headers queue size: {}",
+                        getImportStats(), syncQueue.getHeadersCount());
+                ImportResult importResult = fastSyncManager.skipsExecution(wrapper.getNumber()) ?
+                        fastSyncManager.importBlock(wrapper.getBlock()) :
+                        blockchain.tryToConnect(wrapper.getBlock());
 
                 if (importResult == IMPORTED_BEST) {
                     logger.info("Success importing BEST: block.number: {}, block.hash: {}, tx.size: {} ",
@@ -341,20 +494,78 @@ public class SyncManager {
     /**
      * Adds list of headers received from remote host <br>
      * Runs header validation before addition <br>
-     * It also won't add headers of those blocks which are already presented in the queue
+     * It also won't add headers of those blocks which are already presented in the queue <br>
+     *
+     * Headers are validated asynchronously, the whole batch is rejected
+     * and the peer is dropped if any of the headers is invalid.
+     * Never blocks: when too many batches are in progress the batch is skipped,
+     * its headers are requested again later
      *
      * @param headers list of headers got from remote host
      * @param nodeId remote host nodeId
-     *
-     * @return true if blocks passed validation and were added to the queue,
-     *          otherwise it returns false
+     * @return false if the batch is rejected due to the overload
      */
-    public boolean validateAndAddHeaders(List<BlockHeader> headers, byte[] nodeId) {
+    public boolean validateAndAddHeaders(final List<BlockHeader> headers, final byte[] nodeId) {
 
         if (headers.isEmpty()) return true;
 
+        if (headerBatchesInProgress.incrementAndGet() > HEADER_BATCHES_QUEUE) {
+            headerBatchesInProgress.decrementAndGet();
+            return false;
+        }
+
+        final List<Future<Boolean>> chunks = new ArrayList<>();
+        for (int i = 0; i < headers.size(); i += HEADER_VALIDATION_CHUNK) {
+            final List<BlockHeader> chunk = headers.subList(i, Math.min(headers.size(), i + HEADER_VALIDATION_CHUNK));
+            chunks.add(headerValidationExec.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    return isValid(chunk);
+                }
+            }));
+        }
+
+        headerAddExec.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    addHeaders(headers, chunks, nodeId);
+                } catch (Exception e) {
+                    logger.error("Unexpected: ", e);
+                } finally {
+                    // the header loop requests more either way, the peer of the invalid batch is dropped
+                    headerBatchesInProgress.decrementAndGet();
+                    receivedHeadersLatch.countDown();
+                }
+            }
+        });
+        return true;
+    }
+
+    private void addHeaders(List<BlockHeader> headers, List<Future<Boolean>> chunks, byte[] nodeId)
+            throws InterruptedException, ExecutionException {
+
+        boolean valid = true;
+        for (Future<Boolean> chunk : chunks) {
+            valid &= chunk.get();
+        }
+
+        if (!valid) {
+            dropPeer(nodeId);
+            return;
+        }
+
         List<BlockHeaderWrapper> wrappers = new ArrayList<>(headers.size());
+        for (BlockHeader header : headers) {
+            wrappers.add(new BlockHeaderWrapper(header, nodeId));
+        }
+
+        syncQueue.addHeaders(wrappers);
 
+        logger.debug("{} headers added", headers.size());
+    }
+
+    private boolean isValid(List<BlockHeader> headers) {
         for (BlockHeader header : headers) {
 
             if (!isValid(header)) {
@@ -365,19 +576,17 @@ public class SyncManager {
 
                 return false;
             }
-
-            wrappers.add(new BlockHeaderWrapper(header, nodeId));
         }
-
-        syncQueue.addHeaders(wrappers);
-
-        receivedHeadersLatch.countDown();
-
-        logger.debug("{} headers added", headers.size());
-
         return true;
     }
 
+    private void dropPeer(byte[] nodeId) {
+        Channel peer = pool.getByNodeId(nodeId);
+        if (peer != null) {
+            peer.getEthHandler().dropConnection();
+        }
+    }
+
     /**
      * Runs checks against block's header. <br>
      * All these checks make sense before block is added to queue
@@ -388,9 +597,10 @@ public class SyncManager {
      */
     private boolean isValid(BlockHeader header) {
 
-        if (!headerValidator.validate(header)) {
+        BlockHeaderValidator validator = headerValidator.get();
+        if (!validator.validate(header)) {
 
-            headerValidator.logErrors(logger);
+            validator.logErrors(logger);
             return false;
         }
 
@@ -405,12 +615,22 @@ public class SyncManager {
         return lastKnownBlockNumber;
     }
 
+    /**
+     * @return number of the blocks waiting for every import stage
+     */
+    public String getImportStats() {
+        return String.format("body check: %d, senders: %d (reordering: %d), queueing: %d, import: %d",
+                exec1.getQueue().size(), exec2.getQueue().size(), exec1.getOrderMap().size() + exec2.getOrderMap().size(),
+                exec3.getQueue().size(), blockQueue.size());
+    }
+
     private void startLogWorker() {
         Executors.newSingleThreadScheduledExecutor().scheduleWithFixedDelay(new Runnable() {
             @Override
             public void run() {
                 try {
                     pool.logActivePeers();
+                    logger.info("Import stages: {}", getImportStats());
                     logger.info("\n");
                 } catch (Throwable t) {
                     t.printStackTrace();
@@ -152,6 +152,24 @@ public class SyncPool implements Iterable<Channel> {
         return null;
     }
 
+    /**
+     * @return idle peers ordered by the measured blocks throughput, the fastest first
+     */
+    public synchronized List<Channel> getAllIdle() {
+        List<Channel> ret = new ArrayList<>();
+        for (Channel peer : activePeers) {
+            if (peer.isIdle())
+                ret.add(peer);
+        }
+        Collections.sort(ret, new Comparator<Channel>() {
+            @Override
+            public int compare(Channel c1, Channel c2) {
+                return Double.compare(c2.getSyncStats().getBlocksPerSecond(), c1.getSyncStats().getBlocksPerSecond());
+            }
+        });
+        return ret;
+    }
+
     @Nullable
     public synchronized Channel getBestIdle() {
         for (Channel peer : activePeers) {
@@ -1,11 +1,9 @@
 package org.ethereum.sync;
 
 import org.ethereum.core.Block;
-import org.ethereum.core.BlockHeader;
 import org.ethereum.core.BlockHeaderWrapper;
 import org.ethereum.core.Blockchain;
 import org.ethereum.db.ByteArrayWrapper;
-import org.ethereum.util.Functional;
 
 import java.util.*;
 
@@ -80,41 +78,56 @@ public class SyncQueueImpl implements SyncQueueIfc {
         }
     }
 
+    /**
+     * The header in the window, the block is attached when the body is received
+     */
     class HeaderElement {
-        BlockHeaderWrapper header;
-        Block block;
-        boolean exported;
+        final BlockHeaderWrapper header;
+        final ByteArrayWrapper hash;
+        final ByteArrayWrapper parentHash;
+
+        // guarded by the headers lock
+        HeaderElement parent;
+        boolean connected;
+        boolean removed;
+
+        // written under the blocks lock only
+        volatile Block block;
+        volatile boolean exported;
 
         public HeaderElement(BlockHeaderWrapper header) {
             this.header = header;
+            this.hash = new ByteArrayWrapper(header.getHash());
+            this.parentHash = new ByteArrayWrapper(header.getHeader().getParentHash());
         }
 
-        public HeaderElement getParent() {
-            Map<ByteArrayWrapper, HeaderElement> genHeaders = headers.get(header.getNumber() - 1);
-            if (genHeaders == null) return null;
-            return genHeaders.get(new ByteArrayWrapper(header.getHeader().getParentHash()));
-        }
-
-        public List<HeaderElement> getChildren() {
-            List<HeaderElement> ret = new ArrayList<>();
-            Map<ByteArrayWrapper, HeaderElement> childGenHeaders = headers.get(header.getNumber() + 1);
-            if (childGenHeaders != null) {
-                for (HeaderElement child : childGenHeaders.values()) {
-                    if (Arrays.equals(child.header.getHeader().getParentHash(), header.getHash())) {
-                        ret.add(child);
-                    }
-                }
-            }
-            return ret;
+        long getNumber() {
+            return header.getNumber();
         }
     }
 
-    Map<Long, Map<ByteArrayWrapper, HeaderElement>> headers = new HashMap<>();
+    private static final int INITIAL_WINDOW_SIZE = 1024;
+
+    // guards the window: the headers, the links between them and the window bounds
+    private final Object headersLock = new Object();
+    // serializes the bodies matching and the blocks export, so the received bodies
+    // hold the headers lock only for the short lookups
+    private final Object blocksLock = new Object();
+
+    // the headers indexed by the block number, the slot keeps the first header received
+    // for the number and the competing headers of the same number go to the forks table
+    private HeaderElement[] window = new HeaderElement[INITIAL_WINDOW_SIZE];
+    private final Map<Long, List<HeaderElement>> forks = new HashMap<>();
 
     long minNum = Integer.MAX_VALUE;
     long maxNum = 0;
     long darkZoneNum = 0;
 
+    // the last header of the longest chain starting from the dark zone
+    private HeaderElement chainTip;
+    // all the headers below this number have the blocks
+    private long missingBodiesFrom;
+
     Random rnd = new Random(); // ;)
 
     public SyncQueueImpl(List<Block> initBlocks) {
@@ -136,72 +149,171 @@ public class SyncQueueImpl implements SyncQueueIfc {
         if (initBlocks.size() < MAX_CHAIN_LEN && initBlocks.get(0).getNumber() != 0) {
             throw new RuntimeException("Queue should be initialized with a chain of at least " + MAX_CHAIN_LEN + " size or with the first genesis block");
         }
-        for (Block block : initBlocks) {
-            addHeaderPriv(new BlockHeaderWrapper(block.getHeader(), null));
-            addBlock(block).exported = true;
+        synchronized (headersLock) {
+            for (Block block : initBlocks) {
+                HeaderElement element = addHeaderPriv(new BlockHeaderWrapper(block.getHeader(), null));
+                element.block = block;
+                element.exported = true;
+                if (!element.connected) connect(element);
+            }
+            darkZoneNum = initBlocks.get(0).getNumber();
+            missingBodiesFrom = maxNum + 1;
         }
-        darkZoneNum = initBlocks.get(0).getNumber();
     }
 
-    private void putGenHeaders(long num, Map<ByteArrayWrapper, HeaderElement> genHeaders) {
-        minNum = Math.min(minNum, num);
-        maxNum = Math.max(maxNum, num);
-        headers.put(num, genHeaders);
+    private int slot(long num) {
+        return (int) (num & (window.length - 1));
     }
 
-    private List<HeaderElement> getLongestChain() {
-        Map<ByteArrayWrapper, HeaderElement> lastValidatedGen = headers.get(darkZoneNum);
-        assert lastValidatedGen.size() == 1;
-        return getLongestChain(lastValidatedGen.values().iterator().next());
+    /**
+     * Grows the window to fit the numbers range
+     */
+    private void ensureWindow(long from, long to) {
+        if (to - from + 1 <= window.length) return;
+        HeaderElement[] newWindow = new HeaderElement[Integer.highestOneBit((int) (to - from + 1)) << 1];
+        for (long i = minNum; i <= maxNum; i++) {
+            newWindow[(int) (i & (newWindow.length - 1))] = window[slot(i)];
+        }
+        window = newWindow;
     }
 
-    private List<HeaderElement> getLongestChain(HeaderElement parent) {
-        Map<ByteArrayWrapper, HeaderElement> gen = headers.get(parent.header.getNumber() + 1);
-        List<HeaderElement> longest = new ArrayList<>();
-        if (gen != null) {
-            for (HeaderElement header : gen.values()) {
-                if (header.getParent() == parent) {
-                    List<HeaderElement> childLongest = getLongestChain(header);
-                    if (childLongest.size() > longest.size()) {
-                        longest = childLongest;
-                    }
-                }
+    private HeaderElement getElement(long num, ByteArrayWrapper hash) {
+        if (num < minNum || num > maxNum) return null;
+        HeaderElement element = window[slot(num)];
+        if (element != null && element.hash.equals(hash)) return element;
+        List<HeaderElement> numForks = forks.get(num);
+        if (numForks != null) {
+            for (HeaderElement fork : numForks) {
+                if (fork.hash.equals(hash)) return fork;
             }
         }
-        List<HeaderElement> ret = new ArrayList<>();
-        ret.add(parent);
-        ret.addAll(longest);
+        return null;
+    }
+
+    private List<HeaderElement> getGeneration(long num) {
+        if (num < minNum || num > maxNum) return Collections.emptyList();
+        HeaderElement element = window[slot(num)];
+        List<HeaderElement> numForks = forks.get(num);
+        if (numForks == null) {
+            return element == null ? Collections.<HeaderElement>emptyList() : Collections.singletonList(element);
+        }
+        List<HeaderElement> ret = new ArrayList<>(numForks.size() + 1);
+        if (element != null) ret.add(element);
+        ret.addAll(numForks);
+        return ret;
+    }
+
+    private List<HeaderElement> getChildren(HeaderElement parent) {
+        List<HeaderElement> ret = new ArrayList<>(1);
+        for (HeaderElement element : getGeneration(parent.getNumber() + 1)) {
+            if (element.parent == parent) ret.add(element);
+        }
         return ret;
     }
 
-    private boolean hasGaps() {
-        List<HeaderElement> longestChain = getLongestChain();
-        return longestChain.get(longestChain.size() - 1).header.getNumber() < maxNum;
+    private void putElement(HeaderElement element) {
+        long num = element.getNumber();
+        if (minNum > maxNum) {
+            minNum = maxNum = num;
+        }
+        long from = Math.min(minNum, num);
+        long to = Math.max(maxNum, num);
+        ensureWindow(from, to);
+        minNum = from;
+        maxNum = to;
+
+        int slot = slot(num);
+        if (window[slot] == null) {
+            window[slot] = element;
+        } else {
+            List<HeaderElement> numForks = forks.get(num);
+            if (numForks == null) {
+                numForks = new ArrayList<>(1);
+                forks.put(num, numForks);
+            }
+            numForks.add(element);
+        }
+    }
+
+    private void removeElement(HeaderElement element) {
+        long num = element.getNumber();
+        List<HeaderElement> numForks = forks.get(num);
+        if (window[slot(num)] == element) {
+            window[slot(num)] = numForks == null ? null : numForks.remove(0);
+        } else if (numForks != null) {
+            numForks.remove(element);
+        }
+        if (numForks != null && numForks.isEmpty()) forks.remove(num);
+        element.removed = true;
+    }
+
+    /**
+     * Marks the header and all its descendants as connected to the dark zone
+     */
+    private void connect(HeaderElement element) {
+        Deque<HeaderElement> stack = new ArrayDeque<>();
+        stack.push(element);
+        while (!stack.isEmpty()) {
+            HeaderElement cur = stack.pop();
+            cur.connected = true;
+            if (chainTip == null || cur.getNumber() > chainTip.getNumber()) {
+                chainTip = cur;
+            }
+            for (HeaderElement child : getChildren(cur)) {
+                if (!child.connected) stack.push(child);
+            }
+        }
+    }
+
+    /**
+     * Keeps only the header of the longest chain in its generation,
+     * the competing headers are removed along with their descendants
+     */
+    private void pruneGeneration(HeaderElement keep) {
+        long num = keep.getNumber();
+        List<HeaderElement> dropped = getGeneration(num);
+        if (dropped.size() < 2) return;
+
+        Deque<HeaderElement> stack = new ArrayDeque<>();
+        for (HeaderElement element : dropped) {
+            if (element != keep) {
+                removeElement(element);
+                stack.push(element);
+            }
+        }
+        while (!stack.isEmpty()) {
+            for (HeaderElement child : getChildren(stack.pop())) {
+                removeElement(child);
+                stack.push(child);
+            }
+        }
     }
 
     private void trimChain() {
-        List<HeaderElement> longestChain = getLongestChain();
-        if (longestChain.size() > MAX_CHAIN_LEN) {
-            long newTrimNum = getLongestChain().get(longestChain.size() - MAX_CHAIN_LEN).header.getNumber();
-            for (int i = 0; darkZoneNum < newTrimNum; darkZoneNum++, i++) {
-                ByteArrayWrapper wHash = new ByteArrayWrapper(longestChain.get(i).header.getHash());
-                putGenHeaders(darkZoneNum, Collections.singletonMap(wHash, longestChain.get(i)));
+        if (chainTip.getNumber() - darkZoneNum + 1 > MAX_CHAIN_LEN) {
+            long newTrimNum = chainTip.getNumber() - MAX_CHAIN_LEN + 1;
+            HeaderElement element = chainTip;
+            while (element.getNumber() >= newTrimNum) {
+                element = element.parent;
+            }
+            for (; element != null && element.getNumber() > darkZoneNum; element = element.parent) {
+                pruneGeneration(element);
             }
-            darkZoneNum--;
+            darkZoneNum = newTrimNum - 1;
         }
     }
 
     private void trimExported() {
         for (; minNum < darkZoneNum; minNum++) {
-            Map<ByteArrayWrapper, HeaderElement> genHeaders = headers.get(minNum);
-            assert genHeaders.size() == 1;
-            HeaderElement headerElement = genHeaders.values().iterator().next();
-            if (headerElement.exported) {
-                headers.remove(minNum);
-            } else {
-                break;
+            HeaderElement element = window[slot(minNum)];
+            if (element == null || !element.exported) break;
+            window[slot(minNum)] = null;
+            // the headers at the window start are exported regardless of the parent
+            for (HeaderElement child : getGeneration(minNum + 1)) {
+                child.parent = null;
             }
         }
+        missingBodiesFrom = Math.max(missingBodiesFrom, minNum);
     }
 
     private boolean addHeader(BlockHeaderWrapper header) {
@@ -210,62 +322,71 @@ public class SyncQueueImpl implements SyncQueueIfc {
             // dropping too distant headers
             return false;
         }
-        return addHeaderPriv(header);
+        return addHeaderPriv(header) != null;
     }
 
-    private boolean addHeaderPriv(BlockHeaderWrapper header) {
+    private HeaderElement addHeaderPriv(BlockHeaderWrapper header) {
         long num = header.getNumber();
-        Map<ByteArrayWrapper, HeaderElement> genHeaders = headers.get(num);
-        if (genHeaders == null) {
-            genHeaders = new HashMap<>();
-            putGenHeaders(num, genHeaders);
+        HeaderElement element = new HeaderElement(header);
+        if (getElement(num, element.hash) != null) return null;
+
+        putElement(element);
+        element.parent = getElement(num - 1, element.parentHash);
+        for (HeaderElement child : getGeneration(num + 1)) {
+            if (child.parent == null && child.parentHash.equals(element.hash)) {
+                child.parent = element;
+            }
         }
-        ByteArrayWrapper wHash = new ByteArrayWrapper(header.getHash());
-        HeaderElement headerElement = genHeaders.get(wHash);
-        if (headerElement != null) return false;
-
-        headerElement = new HeaderElement(header);
-        genHeaders.put(wHash, headerElement);
+        if (element.parent != null && element.parent.connected) {
+            connect(element);
+        }
+        missingBodiesFrom = Math.min(missingBodiesFrom, num);
 
-        return true;
+        return element;
     }
 
     @Override
-    public synchronized HeadersRequest requestHeaders() {
-        if (!hasGaps()) {
-            return new HeadersRequestImpl(maxNum + 1, MAX_CHAIN_LEN, false);
-        } else {
-            List<HeaderElement> longestChain = getLongestChain();
-            if (rnd.nextBoolean()) {
-                return new HeadersRequestImpl(longestChain.get(longestChain.size() - 1).header.getNumber(), MAX_CHAIN_LEN, false);
+    public HeadersRequest requestHeaders() {
+        synchronized (headersLock) {
+            if (chainTip.getNumber() >= maxNum) {
+                return new HeadersRequestImpl(maxNum + 1, MAX_CHAIN_LEN, false);
+            } else if (rnd.nextBoolean()) {
+                return new HeadersRequestImpl(chainTip.getNumber(), MAX_CHAIN_LEN, false);
             } else {
-                return new HeadersRequestImpl(longestChain.get(longestChain.size() - 1).header.getNumber(), MAX_CHAIN_LEN, true);
+                return new HeadersRequestImpl(chainTip.getNumber(), MAX_CHAIN_LEN, true);
             }
         }
     }
 
     @Override
-    public synchronized void addHeaders(Collection<BlockHeaderWrapper> headers) {
-        for (BlockHeaderWrapper header : headers) {
-            addHeader(header);
+    public void addHeaders(Collection<BlockHeaderWrapper> headers) {
+        synchronized (headersLock) {
+            for (BlockHeaderWrapper header : headers) {
+                addHeader(header);
+            }
+            trimChain();
         }
-        trimChain();
     }
 
     @Override
-    public synchronized int getHeadersCount() {
-        return (int) (maxNum - minNum);
+    public int getHeadersCount() {
+        synchronized (headersLock) {
+            return (int) (maxNum - minNum);
+        }
     }
 
     @Override
-    public synchronized BlocksRequest requestBlocks(int maxSize) {
+    public BlocksRequest requestBlocks(int maxSize) {
         BlocksRequest ret = new BlocksRequestImpl();
 
-        outer:
-        for (long i = minNum; i <= maxNum; i++) {
-            Map<ByteArrayWrapper, HeaderElement> gen = headers.get(i);
-            if (gen != null) {
-                for (HeaderElement element : gen.values()) {
+        synchronized (headersLock) {
+            for (; missingBodiesFrom <= maxNum; missingBodiesFrom++) {
+                if (hasMissingBody(missingBodiesFrom)) break;
+            }
+
+            outer:
+            for (long i = missingBodiesFrom; i <= maxNum; i++) {
+                for (HeaderElement element : getGeneration(i)) {
                     if (element.block == null) {
                         ret.getBlockHeaders().add(element.header);
                         if (ret.getBlockHeaders().size() >= maxSize) break outer;
@@ -276,80 +397,63 @@ public class SyncQueueImpl implements SyncQueueIfc {
         return ret;
     }
 
-    HeaderElement findHeaderElement(BlockHeader bh) {
-        Map<ByteArrayWrapper, HeaderElement> genHeaders = headers.get(bh.getNumber());
-        if (genHeaders == null) return null;
-        return genHeaders.get(new ByteArrayWrapper(bh.getHash()));
-    }
-
-    private HeaderElement addBlock(Block block) {
-        HeaderElement headerElement = findHeaderElement(block.getHeader());
-        if (headerElement != null) {
-            headerElement.block = block;
+    private boolean hasMissingBody(long num) {
+        for (HeaderElement element : getGeneration(num)) {
+            if (element.block == null) return true;
         }
-        return headerElement;
+        return false;
     }
 
     @Override
-    public synchronized List<Block> addBlocks(Collection<Block> blocks) {
-        for (Block block : blocks) {
-            addBlock(block);
+    public List<Block> addBlocks(Collection<Block> blocks) {
+        synchronized (blocksLock) {
+            List<Block> ret = new ArrayList<>();
+            for (Block block : blocks) {
+                HeaderElement element;
+                synchronized (headersLock) {
+                    element = getElement(block.getNumber(), new ByteArrayWrapper(block.getHash()));
+                }
+                if (element != null && element.block == null) {
+                    element.block = block;
+                    exportBlocks(element, ret);
+                }
+            }
+            synchronized (headersLock) {
+                trimExported();
+            }
+            return ret;
         }
-        return exportBlocks();
     }
 
-    private List<Block> exportBlocks() {
-        List<Block> ret = new ArrayList<>();
-        for (long i = minNum; i <= maxNum; i++) {
-            Map<ByteArrayWrapper, HeaderElement> gen = headers.get(i);
-            if (gen == null) break;
-
-            boolean hasAny = false;
-            for (HeaderElement element : gen.values()) {
-                HeaderElement parent = element.getParent();
-                if (element.block != null && (i == minNum || parent != null && parent.exported)) {
-                    if (!element.exported) {
-                        exportNewBlock(element.block);
-                        ret.add(element.block);
-                        element.exported = true;
-                    }
-                    hasAny = true;
-                }
+    /**
+     * Exports the block and the following blocks which were waiting for it,
+     * every block is exported after its parent
+     */
+    private void exportBlocks(HeaderElement element, List<Block> ret) {
+        Deque<HeaderElement> stack = new ArrayDeque<>();
+        stack.push(element);
+        while (!stack.isEmpty()) {
+            HeaderElement cur = stack.pop();
+            List<HeaderElement> children;
+            synchronized (headersLock) {
+                boolean parentExported = cur.parent == null ? cur.getNumber() == minNum : cur.parent.exported;
+                if (cur.exported || cur.block == null || cur.removed || !parentExported) continue;
+                children = getChildren(cur);
+            }
+            cur.exported = true;
+            exportNewBlock(cur.block);
+            ret.add(cur.block);
+            for (HeaderElement child : children) {
+                stack.push(child);
             }
-            if (!hasAny) break;
         }
-        trimExported();
-        return ret;
     }
 
     protected void exportNewBlock(Block block) {
 
     }
 
-    public synchronized List<Block> pollBlocks() {
+    public List<Block> pollBlocks() {
         return null;
     }
-
-
-    interface Visitor<T> {
-        T visit(HeaderElement el, List<T> childrenRes);
-    }
-
-    class ChildVisitor<T> {
-        private Visitor<T> handler;
-        boolean downUp = true;
-
-        public ChildVisitor(Functional.Function<HeaderElement, List<T>> handler) {
-//            this.handler = handler;
-        }
-
-        public T traverse(HeaderElement el) {
-            List<T> childrenRet = new ArrayList<>();
-            for (HeaderElement child : el.getChildren()) {
-                T res = traverse(child);
-                childrenRet.add(res);
-            }
-            return handler.visit(el, childrenRet);
-        }
-    }
 }
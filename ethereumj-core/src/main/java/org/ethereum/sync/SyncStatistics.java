@@ -3,15 +3,37 @@ package org.ethereum.sync;
 /**
  * Manages sync measurements
  *
+ * Besides the counters it keeps the moving averages of the peer response time and
+ * throughput, measured from the request to the response, which are used to size the
+ * next requests to the peer and to detect the requests which are unlikely to be answered
+ *
  * @author Mikhail Kalinin
  * @since 20.08.2015
  */
 public class SyncStatistics {
+
+    // weight of the latest measurement in the moving averages
+    private static final double ALPHA = 0.3;
+
+    // the request is sized to be answered in about this time
+    private static final long TARGET_RESPONSE_MILLIS = 2000;
+
+    private static final long MIN_TIMEOUT_MILLIS = 3000;
+    private static final long MAX_TIMEOUT_MILLIS = 30000;
+    private static final int TIMEOUT_FACTOR = 4;
+
     private long updatedAt;
     private long blocksCount;
     private long headersCount;
     private int headerBunchesCount;
 
+    private long blocksRequestedAt;
+    private long headersRequestedAt;
+    private double blocksPerSecond;
+    private double headersPerSecond;
+    private double avgResponseMillis;
+    private int timeouts;
+
     public SyncStatistics() {
         reset();
     }
@@ -23,21 +45,113 @@ public class SyncStatistics {
         headerBunchesCount = 0;
     }
 
-    public void addBlocks(long cnt) {
+    public synchronized void onBlocksRequested() {
+        blocksRequestedAt = System.currentTimeMillis();
+    }
+
+    public synchronized void onHeadersRequested() {
+        headersRequestedAt = System.currentTimeMillis();
+    }
+
+    public synchronized void addBlocks(long cnt) {
         blocksCount += cnt;
+        if (blocksRequestedAt > 0) {
+            blocksPerSecond = average(blocksPerSecond, rate(cnt, blocksRequestedAt));
+            blocksRequestedAt = 0;
+        }
         fixCommon(cnt);
     }
 
-    public void addHeaders(long cnt) {
+    public synchronized void addHeaders(long cnt) {
         headerBunchesCount++;
         headersCount += cnt;
+        if (headersRequestedAt > 0) {
+            headersPerSecond = average(headersPerSecond, rate(cnt, headersRequestedAt));
+            headersRequestedAt = 0;
+        }
         fixCommon(cnt);
     }
 
+    /**
+     * The pending request is given up, the peer is considered twice slower from now on
+     */
+    public synchronized void onRequestTimeout() {
+        timeouts++;
+        blocksPerSecond /= 2;
+        headersPerSecond /= 2;
+        avgResponseMillis = average(avgResponseMillis, getRequestTimeout());
+        blocksRequestedAt = 0;
+        headersRequestedAt = 0;
+    }
+
+    private double rate(long cnt, long requestedAt) {
+        long elapsed = Math.max(1, System.currentTimeMillis() - requestedAt);
+        avgResponseMillis = average(avgResponseMillis, elapsed);
+        return cnt * 1000d / elapsed;
+    }
+
+    private static double average(double avg, double value) {
+        return avg == 0 ? value : avg * (1 - ALPHA) + value * ALPHA;
+    }
+
     private void fixCommon(long cnt) {
         updatedAt = System.currentTimeMillis();
     }
 
+    /**
+     * @return number of blocks the peer is expected to return in the target response time,
+     *         {@code initial} if it wasn't measured yet
+     */
+    public synchronized int getBlocksRequestSize(int initial, int min, int max) {
+        return requestSize(blocksPerSecond, initial, min, max);
+    }
+
+    /**
+     * @return number of headers the peer is expected to return in the target response time,
+     *         {@code initial} if it wasn't measured yet
+     */
+    public synchronized int getHeadersRequestSize(int initial, int min, int max) {
+        return requestSize(headersPerSecond, initial, min, max);
+    }
+
+    private static int requestSize(double perSecond, int initial, int min, int max) {
+        if (perSecond == 0) return initial;
+        long size = Math.round(perSecond * TARGET_RESPONSE_MILLIS / 1000);
+        return (int) Math.max(min, Math.min(max, size));
+    }
+
+    /**
+     * @return time to wait for the response before the request is considered lost
+     */
+    public synchronized long getRequestTimeout() {
+        if (avgResponseMillis == 0) return MAX_TIMEOUT_MILLIS;
+        return Math.max(MIN_TIMEOUT_MILLIS, Math.min(MAX_TIMEOUT_MILLIS, (long) avgResponseMillis * TIMEOUT_FACTOR));
+    }
+
+    /**
+     * @return true if the blocks or headers request is waiting for the response longer than the timeout
+     */
+    public synchronized boolean isRequestTimedOut() {
+        long requestedAt = Math.max(blocksRequestedAt, headersRequestedAt);
+        return requestedAt > 0 && System.currentTimeMillis() - requestedAt > getRequestTimeout();
+    }
+
+    public synchronized double getBlocksPerSecond() {
+        return blocksPerSecond;
+    }
+
+    public synchronized double getHeadersPerSecond() {
+        return headersPerSecond;
+    }
+
+    public synchronized double getAvgResponseMillis() {
+        return avgResponseMillis;
+    }
+
+    public synchronized int getTimeouts() {
+        return timeouts;
+    }
+
     public long getBlocksCount() {
         return blocksCount;
     }
@@ -1,5 +1,6 @@
 package org.ethereum.trie;
 
+import org.ethereum.datasource.InstrumentedDataSource;
 import org.ethereum.datasource.KeyValueDataSource;
 import org.ethereum.db.ByteArrayWrapper;
 import org.ethereum.util.Value;
@@ -60,6 +61,8 @@ public class Cache {
             node = new Node(fromRlpEncoded(data), false);
 
             this.nodes.put(wrappedKey, node);
+        } else {
+            InstrumentedDataSource.onCacheHit(dataSource);
         }
 
         return node.getValue();
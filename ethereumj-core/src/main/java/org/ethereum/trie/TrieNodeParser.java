@@ -0,0 +1,98 @@
+package org.ethereum.trie;
+
+import org.ethereum.util.RLP;
+import org.ethereum.util.RLPElement;
+import org.ethereum.util.RLPList;
+
+import java.util.Arrays;
+
+import static org.ethereum.util.CompactEncoder.unpackToNibbles;
+
+/**
+ * Walks the single encoded trie node without resolving its children,
+ * used to traverse the trie which is fetched from the network node by node.
+ *
+ * The node paths are the nibble sequences from the trie root, the nodes which
+ * are shorter than 32 bytes are embedded into the parent and walked along with it
+ */
+public class TrieNodeParser {
+
+    private static final int BRANCH_SIZE = 17;
+    private static final byte TERMINATOR = 16;
+
+    public interface Handler {
+
+        /**
+         * The node referenced by hash, the node itself is to be fetched separately
+         */
+        void onChild(byte[] hash, byte[] path);
+
+        /**
+         * The value stored in the trie, the path is the full key
+         */
+        void onLeaf(byte[] path, byte[] value);
+    }
+
+    /**
+     * @param rlp encoded node
+     * @param path nibbles of the node path
+     */
+    public static void parse(byte[] rlp, byte[] path, Handler handler) {
+        parse(RLP.decode2(rlp).get(0), path, handler);
+    }
+
+    private static void parse(RLPElement element, byte[] path, Handler handler) {
+        if (!(element instanceof RLPList)) {
+            throw new IllegalArgumentException("Invalid trie node: " + element);
+        }
+        RLPList node = (RLPList) element;
+
+        if (node.size() == BRANCH_SIZE) {
+            for (int i = 0; i < BRANCH_SIZE - 1; i++) {
+                ref(node.get(i), append(path, new byte[] {(byte) i}), handler);
+            }
+            byte[] value = node.get(BRANCH_SIZE - 1).getRLPData();
+            if (value != null) {
+                handler.onLeaf(path, value);
+            }
+        } else if (node.size() == 2) {
+            byte[] key = unpackToNibbles(node.get(0).getRLPData());
+            if (key[key.length - 1] == TERMINATOR) {
+                byte[] value = node.get(1).getRLPData();
+                handler.onLeaf(append(path, Arrays.copyOf(key, key.length - 1)), value == null ? new byte[0] : value);
+            } else {
+                ref(node.get(1), append(path, key), handler);
+            }
+        } else {
+            throw new IllegalArgumentException("Invalid trie node size: " + node.size());
+        }
+    }
+
+    private static void ref(RLPElement element, byte[] path, Handler handler) {
+        if (element instanceof RLPList) {
+            parse(element, path, handler);
+        } else {
+            byte[] hash = element.getRLPData();
+            if (hash != null) {
+                handler.onChild(hash, path);
+            }
+        }
+    }
+
+    private static byte[] append(byte[] path, byte[] nibbles) {
+        byte[] ret = Arrays.copyOf(path, path.length + nibbles.length);
+        System.arraycopy(nibbles, 0, ret, path.length, nibbles.length);
+        return ret;
+    }
+
+    /**
+     * @return the key bytes of the full (even length) nibbles path
+     */
+    public static byte[] toKey(byte[] path) {
+        byte[] key = new byte[path.length / 2];
+        for (int i = 0; i < key.length; i++) {
+            key[i] = (byte) (path[2 * i] << 4 | path[2 * i + 1]);
+        }
+        return key;
+    }
+}
@@ -111,6 +111,14 @@ public class ExecutorPipeline <In, Out>{
         }
     }
 
+    /**
+     * Stops the threads of this and the following executors once the queued tasks are done
+     */
+    public void shutdown() {
+        exec.shutdown();
+        if (next != null) next.shutdown();
+    }
+
     public ExecutorPipeline<In, Out> setThreadPoolName(String threadPoolName) {
         this.threadPoolName = threadPoolName;
         return this;
@@ -123,22 +131,4 @@ public class ExecutorPipeline <In, Out>{
     public Map<Long, Out> getOrderMap() {
         return orderMap;
     }
-
-    private static class LimitedQueue<E> extends LinkedBlockingQueue<E> {
-        public LimitedQueue(int maxSize) {
-            super(maxSize);
-        }
-
-        @Override
-        public boolean offer(E e) {
-            // turn offer() and add() into a blocking calls (unless interrupted)
-            try {
-                put(e);
-                return true;
-            } catch(InterruptedException ie) {
-                Thread.currentThread().interrupt();
-            }
-            return false;
-        }
-    }
 }
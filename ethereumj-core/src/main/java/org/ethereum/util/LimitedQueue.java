@@ -0,0 +1,26 @@
+package org.ethereum.util;
+
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * The bounded queue which blocks the producer when it's full,
+ * makes the {@link java.util.concurrent.ThreadPoolExecutor} block the submitting thread
+ * instead of rejecting the task
+ */
+public class LimitedQueue<E> extends LinkedBlockingQueue<E> {
+    public LimitedQueue(int maxSize) {
+        super(maxSize);
+    }
+
+    @Override
+    public boolean offer(E e) {
+        // turn offer() and add() into a blocking calls (unless interrupted)
+        try {
+            put(e);
+            return true;
+        } catch(InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+}
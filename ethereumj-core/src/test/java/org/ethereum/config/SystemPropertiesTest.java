@@ -1,5 +1,7 @@
 package org.ethereum.config;
 
+import org.ethereum.datasource.LevelDbProfile;
+import org.iq80.leveldb.CompressionType;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -39,4 +41,31 @@ public class SystemPropertiesTest {
         BlockchainNetConfig blockchainConfig2= systemProperties2.getBlockchainConfig();
         Assert.assertNotEquals(blockchainConfig1.getClass(), blockchainConfig2.getClass());
     }
+
+    @Test
+    public void levelDbProfileTest() {
+        SystemProperties props = new SystemProperties();
+        props.overrideParams(
+                "database.leveldb.default.maxOpenFiles", "64",
+                "database.leveldb.state.blockSize", "4KB",
+                "database.leveldb.state.bloomFilterBits", "10",
+                "database.leveldb.details-storage.compression", "snappy");
+
+        LevelDbProfile state = props.levelDbProfile("state");
+        Assert.assertEquals(4096, state.getBlockSize());
+        Assert.assertEquals(64, state.getMaxOpenFiles());
+        Assert.assertEquals(0.01, state.getBloomFalsePositiveRate(), 0.001);
+
+        LevelDbProfile storage = props.levelDbProfile("details-storage/0123456789abcdef");
+        Assert.assertEquals(CompressionType.SNAPPY, storage.getCompression());
+        Assert.assertEquals(64, storage.getMaxOpenFiles());
+
+        LevelDbProfile unknown = props.levelDbProfile("unknown");
+        Assert.assertEquals(props.levelDbDefaultProfile().getBlockSize(), unknown.getBlockSize());
+        Assert.assertEquals(0, unknown.getBloomFilterBits());
+
+        props.overrideParams("database.leveldb.sharedCache.size", "100MB");
+        Assert.assertEquals((long) (100 * 1024 * 1024 * state.getCacheShare()),
+                state.getEffectiveCacheSize(props.levelDbSharedCacheSize()));
+    }
 }
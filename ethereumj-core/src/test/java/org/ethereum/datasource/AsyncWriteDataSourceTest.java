@@ -0,0 +1,162 @@
+package org.ethereum.datasource;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.ethereum.TestUtils.randomBytes;
+import static org.junit.Assert.*;
+
+public class AsyncWriteDataSourceTest {
+
+    static class SlowDB extends HashMapDB {
+        CountDownLatch gate = new CountDownLatch(1);
+        AtomicInteger batches = new AtomicInteger();
+
+        @Override
+        public void updateBatch(Map<byte[], byte[]> rows) {
+            try {
+                gate.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            batches.incrementAndGet();
+            super.updateBatch(rows);
+        }
+    }
+
+    @Test
+    public void testReadYourWrites() throws Exception {
+        SlowDB db = new SlowDB();
+        GroupCommitWriter writer = new GroupCommitWriter(new HashMapDB(), 1 << 20);
+        AsyncWriteDataSource ds = new AsyncWriteDataSource(db, writer);
+
+        byte[] key = randomBytes(32);
+        byte[] value = randomBytes(32);
+        ListenableFuture<Void> f = ds.updateBatchAsync(singleRow(key, value));
+
+        assertArrayEquals(value, ds.get(key));
+        assertNull(db.get(key));
+        assertFalse(f.isDone());
+
+        ds.delete(key);
+        assertNull(ds.get(key));
+
+        db.gate.countDown();
+        ds.waitWritten();
+        assertTrue(f.isDone());
+        assertNull(db.get(key));
+        assertNull(ds.get(key));
+        assertEquals(0, ds.getPendingCount());
+    }
+
+    @Test
+    public void testGroupingAndMarker() throws Exception {
+        SlowDB db1 = new SlowDB();
+        SlowDB db2 = new SlowDB();
+        HashMapDB markerDb = new HashMapDB();
+        GroupCommitWriter writer = new GroupCommitWriter(markerDb, 1 << 20);
+        AsyncWriteDataSource ds1 = new AsyncWriteDataSource(db1, writer);
+        AsyncWriteDataSource ds2 = new AsyncWriteDataSource(db2, writer);
+
+        // the first batch blocks the writer while the others are queued
+        byte[] key = randomBytes(32);
+        ds1.put(randomBytes(32), randomBytes(32));
+        Thread.sleep(100);
+        for (int i = 0; i < 10; i++) {
+            ds1.put(key, new byte[] {(byte) i});
+        }
+        ds2.put(randomBytes(32), randomBytes(32));
+        ListenableFuture<Void> marker = writer.commitBlock(5, randomBytes(32));
+
+        assertEquals(-1, writer.getLastCommittedBlock());
+        db1.gate.countDown();
+        db2.gate.countDown();
+        marker.get(10, TimeUnit.SECONDS);
+
+        assertEquals(5, writer.getLastCommittedBlock());
+        assertArrayEquals(new byte[] {9}, db1.get(key));
+        assertEquals(2, db1.batches.get());
+        assertEquals(1, db2.batches.get());
+        assertEquals(0, writer.getPendingBytes());
+    }
+
+    @Test
+    public void testMarkerWrittenOncePerGroup() throws Exception {
+        SlowDB db = new SlowDB();
+        SlowDB markerDb = new SlowDB();
+        markerDb.gate.countDown();
+        GroupCommitWriter writer = new GroupCommitWriter(markerDb, 1 << 20);
+        AsyncWriteDataSource ds = new AsyncWriteDataSource(db, writer);
+
+        ds.put(randomBytes(32), randomBytes(32));
+        Thread.sleep(100);
+        writer.commitBlock(1, randomBytes(32));
+        ds.put(randomBytes(32), randomBytes(32));
+        ListenableFuture<Void> marker = writer.commitBlock(2, randomBytes(32));
+
+        db.gate.countDown();
+        marker.get(10, TimeUnit.SECONDS);
+
+        assertEquals(2, writer.getLastCommittedBlock());
+        assertEquals(1, markerDb.batches.get());
+    }
+
+    @Test
+    public void testWaitWrittenThroughCache() throws Exception {
+        SlowDB db = new SlowDB();
+        GroupCommitWriter writer = new GroupCommitWriter(new HashMapDB(), 1 << 20);
+        CachingDataSource cache = new CachingDataSource(new AsyncWriteDataSource(db, writer));
+
+        byte[] key = randomBytes(32);
+        cache.put(key, randomBytes(32));
+        cache.flush();
+        assertNull(db.get(key));
+
+        db.gate.countDown();
+        AsyncWriteDataSource.waitWritten(cache);
+        assertNotNull(db.get(key));
+    }
+
+    @Test
+    public void testCacheServedDuringFlush() throws Exception {
+        SlowDB db = new SlowDB();
+        final CachingDataSource cache = new CachingDataSource(db);
+
+        byte[] key = randomBytes(32);
+        byte[] value = randomBytes(32);
+        cache.put(key, value);
+        Thread flush = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                cache.flush();
+            }
+        });
+        flush.start();
+
+        // the slow downstream write doesn't block the reads and writes
+        Thread.sleep(100);
+        assertTrue(flush.isAlive());
+        assertArrayEquals(value, cache.get(key));
+        byte[] key2 = randomBytes(32);
+        cache.put(key2, value);
+        assertArrayEquals(value, cache.get(key2));
+
+        db.gate.countDown();
+        flush.join();
+        assertArrayEquals(value, db.get(key));
+        assertArrayEquals(value, cache.get(key));
+        assertNull(db.get(key2));
+    }
+
+    private static Map<byte[], byte[]> singleRow(byte[] key, byte[] value) {
+        Map<byte[], byte[]> ret = new HashMap<>();
+        ret.put(key, value);
+        return ret;
+    }
+}
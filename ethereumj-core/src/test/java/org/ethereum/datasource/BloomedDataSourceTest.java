@@ -0,0 +1,163 @@
+package org.ethereum.datasource;
+
+import org.ethereum.util.FileUtil;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.ethereum.TestUtils.randomBytes;
+import static org.junit.Assert.*;
+
+public class BloomedDataSourceTest {
+
+    private File snapshotDir;
+
+    @After
+    public void cleanup() {
+        if (snapshotDir != null) FileUtil.recursiveDelete(snapshotDir.getAbsolutePath());
+    }
+
+    @Test
+    public void testNoFalseNegatives() {
+        HashMapDB db = new HashMapDB();
+        BloomedDataSource ds = new BloomedDataSource(db, null);
+        ds.init();
+
+        List<byte[]> keys = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            byte[] key = randomBytes(32);
+            keys.add(key);
+            ds.put(key, key);
+        }
+        Map<byte[], byte[]> batch = new HashMap<>();
+        for (int i = 0; i < 10000; i++) {
+            byte[] key = randomBytes(32);
+            keys.add(key);
+            batch.put(key, key);
+        }
+        ds.updateBatch(batch);
+
+        for (byte[] key : keys) {
+            assertArrayEquals(key, ds.get(key));
+        }
+
+        for (int i = 0; i < 10000; i++) {
+            assertNull(ds.get(randomBytes(32)));
+        }
+        // 1% false positive rate by default
+        assertTrue(ds.getNegativeCount() > 9500);
+    }
+
+    @Test
+    public void testRebuildFromSource() {
+        HashMapDB db = new HashMapDB();
+        byte[] key = randomBytes(32);
+        db.put(key, key);
+
+        BloomedDataSource ds = new BloomedDataSource(db, null);
+        ds.init();
+        assertArrayEquals(key, ds.get(key));
+    }
+
+    @Test
+    public void testRebuildWithoutKeySet() {
+        HashMapDB db = new HashMapDB() {
+            @Override
+            public synchronized Set<byte[]> keys() {
+                throw new AssertionError("the key set shouldn't be loaded");
+            }
+        };
+        List<byte[]> keys = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            byte[] key = randomBytes(32);
+            keys.add(key);
+            db.put(key, key);
+        }
+
+        BloomedDataSource ds = new BloomedDataSource(db, null);
+        ds.init();
+        for (byte[] key : keys) {
+            assertArrayEquals(key, ds.get(key));
+        }
+        assertEquals(1000, ds.getFilter().getInserted());
+    }
+
+    @Test
+    public void testOverfilledFilterChained() throws IOException {
+        snapshotDir = Files.createTempDirectory("bloom").toFile();
+        HashMapDB db = new HashMapDB().setClearOnClose(false);
+        BloomedDataSource ds = new BloomedDataSource(db, snapshotDir);
+        ds.setName("chain-test");
+        ds.init();
+        long capacity = ds.getFilter().getCapacity();
+
+        List<byte[]> keys = new ArrayList<>();
+        Map<byte[], byte[]> batch = new HashMap<>();
+        for (int i = 0; i < capacity + 1000; i++) {
+            byte[] key = randomBytes(32);
+            keys.add(key);
+            batch.put(key, key);
+        }
+        ds.updateBatch(batch);
+        byte[] key = randomBytes(32);
+        keys.add(key);
+        ds.put(key, key);
+
+        assertEquals(2, ds.getFilterCount());
+        assertEquals(2 * capacity, ds.getFilter().getCapacity());
+        for (byte[] k : keys) {
+            assertArrayEquals(k, ds.get(k));
+        }
+
+        // the chain survives the snapshot
+        ds.close();
+        ds = new BloomedDataSource(db, snapshotDir);
+        ds.init();
+        assertEquals(2, ds.getFilterCount());
+        assertEquals(1000, ds.getFilter().getInserted());
+        for (byte[] k : keys) {
+            assertArrayEquals(k, ds.get(k));
+        }
+    }
+
+    @Test
+    public void testSnapshot() throws IOException {
+        snapshotDir = Files.createTempDirectory("bloom").toFile();
+        HashMapDB db = new HashMapDB().setClearOnClose(false);
+
+        BloomedDataSource ds = new BloomedDataSource(db, snapshotDir);
+        ds.setName("snapshot-test");
+        ds.init();
+        byte[] key1 = randomBytes(32);
+        ds.put(key1, key1);
+        ds.close();
+        assertTrue(new File(snapshotDir, db.getName() + ".bloom").exists());
+        assertEquals(2, db.keys().size()); // key + snapshot marker
+        assertEquals(1, ds.keys().size());
+
+        // snapshot is consistent with the source
+        ds = new BloomedDataSource(db, snapshotDir);
+        ds.init();
+        assertEquals(1, ds.getFilter().getInserted());
+        assertArrayEquals(key1, ds.get(key1));
+
+        // write after snapshot and 'crash' without saving
+        byte[] key2 = randomBytes(32);
+        ds.put(key2, key2);
+        assertNull(db.get(BloomedDataSource.SNAPSHOT_MARKER_KEY));
+
+        // outdated snapshot must be ignored
+        ds = new BloomedDataSource(db, snapshotDir);
+        ds.init();
+        assertArrayEquals(key1, ds.get(key1));
+        assertArrayEquals(key2, ds.get(key2));
+    }
+}
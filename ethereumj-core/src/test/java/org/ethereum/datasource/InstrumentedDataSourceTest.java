@@ -0,0 +1,88 @@
+package org.ethereum.datasource;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.ethereum.TestUtils.randomBytes;
+import static org.junit.Assert.*;
+
+public class InstrumentedDataSourceTest {
+
+    @Test
+    public void testCounters() {
+        InstrumentedDataSource ds = new InstrumentedDataSource(new HashMapDB());
+        ds.setName("instrumented-test");
+        DataSourceMetrics metrics = ds.getMetrics();
+        metrics.reset();
+
+        byte[] key = randomBytes(32);
+        ds.put(key, randomBytes(100));
+        assertNotNull(ds.get(key));
+        assertNull(ds.get(randomBytes(32)));
+        ds.delete(key);
+
+        Map<byte[], byte[]> batch = new HashMap<>();
+        for (int i = 0; i < 10; i++) {
+            batch.put(randomBytes(32), randomBytes(10));
+        }
+        ds.updateBatch(batch);
+
+        assertEquals(1, metrics.getPutCount());
+        assertEquals(132, metrics.getPutBytes());
+        assertEquals(2, metrics.getGetCount());
+        assertEquals(1, metrics.getGetMissCount());
+        assertEquals(100, metrics.getGetBytes());
+        assertEquals(1, metrics.getDeleteCount());
+        assertEquals(1, metrics.getBatchCount());
+        assertEquals(10, metrics.getBatchRows());
+        assertEquals(420, metrics.getBatchBytes());
+        assertTrue(metrics.getGetLatency99Micros() > 0);
+    }
+
+    @Test
+    public void testCacheHitRatio() {
+        InstrumentedDataSource ds = new InstrumentedDataSource(new HashMapDB());
+        ds.setName("instrumented-cache-test");
+        DataSourceMetrics metrics = ds.getMetrics();
+        metrics.reset();
+
+        CachingDataSource cache = new CachingDataSource(ds);
+        byte[] key = randomBytes(32);
+        cache.put(key, randomBytes(32));
+        cache.get(key);
+        cache.get(key);
+        cache.get(key);
+        cache.get(randomBytes(32));
+
+        assertEquals(3, metrics.getCacheHitCount());
+        assertEquals(0.75, metrics.getCacheHitRatio(), 1e-9);
+    }
+
+    @Test
+    public void testCacheHitThroughDecorators() {
+        InstrumentedDataSource ds = new InstrumentedDataSource(new HashMapDB());
+        ds.setName("instrumented-decorated-test");
+        DataSourceMetrics metrics = ds.getMetrics();
+        metrics.reset();
+
+        CachingDataSource cache = new CachingDataSource(new XorDataSource(ds, randomBytes(32)));
+        byte[] key = randomBytes(32);
+        cache.put(key, randomBytes(32));
+        cache.get(key);
+        cache.get(key);
+
+        assertEquals(2, metrics.getCacheHitCount());
+    }
+
+    @Test
+    public void testSameNameSharesMetrics() {
+        InstrumentedDataSource ds1 = new InstrumentedDataSource(new HashMapDB());
+        ds1.setName("instrumented-shared");
+        InstrumentedDataSource ds2 = new InstrumentedDataSource(new HashMapDB());
+        ds2.setName("instrumented-shared");
+        assertSame(ds1.getMetrics(), ds2.getMetrics());
+        assertSame(ds1.getMetrics(), DataSourceMetrics.forName("instrumented-shared"));
+    }
+}
@@ -5,6 +5,13 @@ import org.junit.Assert;
 import org.junit.Test;
 import org.spongycastle.util.encoders.Hex;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.ethereum.TestUtils.randomBytes;
+
 /**
  * @author Roman Mandeleil
  */
@@ -56,6 +63,87 @@ public class RedisDataSourceTest extends AbstractRedisTest {
         }
     }
 
+    @Test
+    public void testBatch() {
+        if (!isConnected()) return;
+
+        RedisDataSource dataSource = (RedisDataSource) createDataSource("test-batch");
+        try {
+            // more than 'redis.batchSize' to check splitting
+            Map<byte[], byte[]> rows = new HashMap<>();
+            List<byte[]> keys = new ArrayList<>();
+            for (int i = 0; i < 2500; i++) {
+                byte[] key = randomBytes(32);
+                keys.add(key);
+                rows.put(key, randomBytes(32));
+            }
+            dataSource.updateBatch(rows);
+
+            byte[] absent = randomBytes(32);
+            keys.add(absent);
+            Map<byte[], byte[]> read = dataSource.getAll(keys);
+            Assert.assertEquals(rows.size(), read.size());
+            for (Map.Entry<byte[], byte[]> entry : read.entrySet()) {
+                Assert.assertArrayEquals(rows.get(entry.getKey()), entry.getValue());
+            }
+
+            dataSource.removeAll(keys);
+            Assert.assertTrue(dataSource.keys().isEmpty());
+        } finally {
+            clear(dataSource);
+        }
+    }
+
+    /**
+     * Compares single commands with the pipelined batches,
+     * point REDISCLOUD_URL to a local redis-server to run it
+     */
+    @Test
+    public void benchmark() {
+        if (!isConnected()) return;
+
+        int count = 20000;
+        RedisDataSource dataSource = (RedisDataSource) createDataSource("test-benchmark");
+        try {
+            List<byte[]> keys = new ArrayList<>();
+            Map<byte[], byte[]> rows = new HashMap<>();
+            for (int i = 0; i < count; i++) {
+                byte[] key = randomBytes(32);
+                keys.add(key);
+                rows.put(key, randomBytes(100));
+            }
+
+            long s = System.nanoTime();
+            for (Map.Entry<byte[], byte[]> entry : rows.entrySet()) {
+                dataSource.put(entry.getKey(), entry.getValue());
+            }
+            printRate("put", count, s);
+
+            s = System.nanoTime();
+            for (byte[] key : keys) {
+                dataSource.get(key);
+            }
+            printRate("get", count, s);
+
+            clear(dataSource);
+
+            s = System.nanoTime();
+            dataSource.updateBatch(rows);
+            printRate("updateBatch", count, s);
+
+            s = System.nanoTime();
+            Assert.assertEquals(count, dataSource.getAll(keys).size());
+            printRate("getAll", count, s);
+        } finally {
+            clear(dataSource);
+        }
+    }
+
+    private static void printRate(String op, int count, long startNanos) {
+        long nanos = System.nanoTime() - startNanos;
+        System.out.printf("%-12s %8d ops/s%n", op, count * 1_000_000_000L / Math.max(nanos, 1));
+    }
+
     private KeyValueDataSource createDataSource(String name) {
         KeyValueDataSource result = getRedisConnection().createDataSource(name);
         result.setName(name);
@@ -0,0 +1,78 @@
+package org.ethereum.db;
+
+import org.ethereum.core.Block;
+import org.ethereum.datasource.HashMapDB;
+import org.ethereum.util.blockchain.StandaloneBlockchain;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.ethereum.db.AddressIndex.CHUNK_ENTRIES;
+import static org.ethereum.db.AddressIndex.CONFIRMATIONS;
+import static org.junit.Assert.*;
+
+public class AddressIndexTest {
+
+    @Test
+    public void testPostingsAndPaging() {
+        byte[] alice = new byte[20];
+        alice[19] = 1;
+        byte[] bob = new byte[20];
+        bob[19] = 2;
+
+        StandaloneBlockchain bc = new StandaloneBlockchain();
+        byte[] sender = bc.getSender().getAddress();
+        bc.sendEther(alice, BigInteger.ONE);
+        Block b1 = bc.createBlock();
+        for (int i = 0; i < CHUNK_ENTRIES + 10; i++) {
+            bc.sendEther(bob, BigInteger.ONE);
+        }
+        bc.sendEther(alice, BigInteger.ONE);
+        Block b2 = bc.createBlock();
+        for (int i = 0; i < CONFIRMATIONS - 1; i++) {
+            bc.createBlock();
+        }
+
+        HashMapDB db = new HashMapDB();
+        AddressIndex index = new AddressIndex(db);
+        BlockStore blockStore = bc.getBlockchain().getBlockStore();
+        TransactionStore txStore = bc.getBlockchain().getTransactionStore();
+        index.update(blockStore, txStore);
+        assertEquals(b2.getNumber(), index.getNextBlock());
+
+        assertEquals(2, index.getCount(alice));
+        assertEquals(Arrays.asList(new AddressIndex.Entry(b1.getNumber(), 0),
+                new AddressIndex.Entry(b2.getNumber(), CHUNK_ENTRIES + 10)), index.getActivity(alice, 0, 10));
+        assertEquals(0, index.getCount(bob));
+
+        bc.createBlock();
+        index.update(blockStore, txStore);
+        assertEquals(b2.getNumber() + 1, index.getNextBlock());
+
+        assertEquals(CHUNK_ENTRIES + 10, index.getCount(bob));
+        List<AddressIndex.Entry> page = index.getActivity(bob, CHUNK_ENTRIES - 5, 10);
+        assertEquals(10, page.size());
+        for (int i = 0; i < page.size(); i++) {
+            assertEquals(new AddressIndex.Entry(b2.getNumber(), CHUNK_ENTRIES - 5 + i), page.get(i));
+        }
+        assertEquals(3, index.getActivity(bob, CHUNK_ENTRIES + 7, 10).size());
+        assertTrue(index.getActivity(bob, CHUNK_ENTRIES + 10, 10).isEmpty());
+
+        // sender touches every transaction
+        assertEquals(CHUNK_ENTRIES + 12, index.getCount(sender));
+        List<AddressIndex.Entry> senderTxs = index.getActivity(sender, 0, 1000);
+        assertEquals(new AddressIndex.Entry(b1.getNumber(), 0), senderTxs.get(0));
+        assertEquals(new AddressIndex.Entry(b2.getNumber(), CHUNK_ENTRIES + 10), senderTxs.get(senderTxs.size() - 1));
+
+        // the index continues from the persisted state
+        index = new AddressIndex(db);
+        assertEquals(b2.getNumber() + 1, index.getNextBlock());
+        index.reset();
+        assertEquals(0, index.getCount(alice));
+        index.update(blockStore, txStore);
+        assertEquals(2, index.getCount(alice));
+        assertEquals(CHUNK_ENTRIES + 10, index.getCount(bob));
+    }
+}
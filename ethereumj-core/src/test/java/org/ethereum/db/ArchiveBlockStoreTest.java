@@ -0,0 +1,99 @@
+package org.ethereum.db;
+
+import org.ethereum.core.Block;
+import org.ethereum.core.BlockHeader;
+import org.ethereum.datasource.HashMapDB;
+import org.ethereum.util.FileUtil;
+import org.ethereum.util.blockchain.StandaloneBlockchain;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.math.BigInteger.ZERO;
+import static org.junit.Assert.*;
+
+public class ArchiveBlockStoreTest {
+
+    private File dir;
+
+    @Before
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("archive").toFile();
+    }
+
+    @After
+    public void cleanup() {
+        FileUtil.recursiveDelete(dir.getAbsolutePath());
+    }
+
+    @Test
+    public void testSaveAndReopen() {
+        StandaloneBlockchain bc = new StandaloneBlockchain().withGasPrice(1);
+        List<Block> chain = new ArrayList<>();
+        chain.add(bc.getBlockchain().getBestBlock());
+        for (int i = 0; i < 10; i++) {
+            chain.add(bc.createBlock());
+        }
+
+        HashMapDB indexDB = new HashMapDB();
+        HashMapDB locationsDB = new HashMapDB();
+        // small segments to check rolling
+        BlockArchive archive = new BlockArchive(dir, 2048);
+        ArchiveBlockStore store = new ArchiveBlockStore(archive);
+        store.init(indexDB, locationsDB);
+        BigInteger td = ZERO;
+        for (Block block : chain) {
+            td = td.add(block.getCumulativeDifficulty());
+            store.saveBlock(block, td, true);
+        }
+        store.flush();
+        store.close();
+        assertTrue(archive.getSegmentCount() > 1);
+
+        // the size stored in the archive wins over the passed one
+        archive = new BlockArchive(dir, 4096);
+        assertEquals(2048, archive.getSegmentSize());
+        store = new ArchiveBlockStore(archive);
+        store.init(indexDB, locationsDB);
+
+        Block best = chain.get(chain.size() - 1);
+        assertArrayEquals(best.getEncoded(), store.getBestBlock().getEncoded());
+        BlockHeader header = store.getHeaderByHash(chain.get(5).getHash());
+        assertArrayEquals(chain.get(5).getHeader().getEncoded(), header.getEncoded());
+
+        // the stored RLPs are served without decoding the block
+        assertArrayEquals(chain.get(5).getHeader().getEncoded(), store.getEncodedHeaderByHash(chain.get(5).getHash()));
+        assertArrayEquals(chain.get(5).getEncodedBody(), store.getEncodedBodyByHash(chain.get(5).getHash()));
+        assertNull(store.getEncodedBodyByHash(new byte[32]));
+
+        List<Block> blocks = store.getListBlocksEndWith(best.getHash(), 100);
+        assertEquals(chain.size(), blocks.size());
+        for (int i = 0; i < blocks.size(); i++) {
+            assertArrayEquals(chain.get(chain.size() - 1 - i).getEncoded(), blocks.get(i).getEncoded());
+        }
+
+        ByteBuffer buffer = store.getBlockBuffer(chain.get(3).getHash());
+        assertEquals(chain.get(3).getEncoded().length, buffer.remaining());
+        assertNull(store.getBlockBuffer(new byte[32]));
+
+        // appending continues after the last record
+        Block next = bc.createBlock();
+        store.saveBlock(next, td.add(next.getCumulativeDifficulty()), true);
+        assertArrayEquals(next.getEncoded(), store.getChainBlockByNumber(next.getNumber()).getEncoded());
+        assertArrayEquals(chain.get(10).getEncoded(), store.getBlockByHash(chain.get(10).getHash()).getEncoded());
+
+        // the block saved again isn't appended twice
+        byte[] location = locationsDB.get(next.getHash());
+        store.saveBlock(next, td.add(next.getCumulativeDifficulty()), true);
+        assertArrayEquals(location, locationsDB.get(next.getHash()));
+        store.close();
+    }
+}
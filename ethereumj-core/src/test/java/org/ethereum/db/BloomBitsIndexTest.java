@@ -0,0 +1,129 @@
+package org.ethereum.db;
+
+import org.ethereum.core.Block;
+import org.ethereum.core.BlockHeader;
+import org.ethereum.core.Bloom;
+import org.ethereum.core.Transaction;
+import org.ethereum.crypto.HashUtil;
+import org.ethereum.datasource.HashMapDB;
+import org.ethereum.jsonrpc.LogFilter;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.BitSet;
+import java.util.Collections;
+
+import static org.ethereum.db.BloomBitsIndex.CONFIRMATIONS;
+import static org.ethereum.db.BloomBitsIndex.SECTION_SIZE;
+import static org.junit.Assert.*;
+
+public class BloomBitsIndexTest {
+
+    private static final byte[] ADDRESS = HashUtil.sha3("contract".getBytes());
+    private static final byte[] TOPIC = HashUtil.sha3("topic".getBytes());
+
+    @Test
+    public void testSectionScreening() throws InterruptedException {
+        IndexedBlockStore blockStore = new IndexedBlockStore();
+        blockStore.init(new HashMapDB(), new HashMapDB());
+
+        byte[] parentHash = new byte[32];
+        BigInteger td = BigInteger.ZERO;
+        for (int i = 0; i < 2 * SECTION_SIZE + CONFIRMATIONS - 1; i++) {
+            Bloom bloom = new Bloom();
+            if (i % 1000 == 7) {
+                bloom.or(Bloom.create(HashUtil.sha3(ADDRESS)));
+            }
+            if (i % 2000 == 7) {
+                bloom.or(Bloom.create(HashUtil.sha3(TOPIC)));
+            }
+            BlockHeader header = new BlockHeader(parentHash, HashUtil.EMPTY_LIST_HASH, new byte[20],
+                    bloom.getData(), new byte[] {1}, i, new byte[] {1}, 0, i, new byte[0], new byte[32], new byte[8]);
+            Block block = new Block(header, Collections.<Transaction>emptyList(), Collections.<BlockHeader>emptyList());
+            td = td.add(BigInteger.ONE);
+            blockStore.saveBlock(block, td, true);
+            parentHash = block.getHash();
+        }
+
+        BloomBitsIndex index = new BloomBitsIndex(new HashMapDB());
+        index.update(blockStore);
+        // the second section is not confirmed yet
+        assertEquals(1, index.getSectionCount());
+
+        BitSet matched = new LogFilter().withContractAddress(ADDRESS).matchBloomBits(index, 0);
+        assertEquals(bits(7, 1007, 2007, 3007), matched);
+
+        matched = new LogFilter().withTopic(TOPIC).withContractAddress(ADDRESS).matchBloomBits(index, 0);
+        assertEquals(bits(7, 2007), matched);
+
+        matched = new LogFilter().withTopic(HashUtil.sha3("other".getBytes())).matchBloomBits(index, 0);
+        assertTrue(matched.isEmpty());
+
+        matched = new LogFilter().matchBloomBits(index, 0);
+        assertEquals(SECTION_SIZE, matched.cardinality());
+
+        Block next = new Block(new BlockHeader(parentHash, HashUtil.EMPTY_LIST_HASH, new byte[20],
+                new byte[256], new byte[] {1}, 2 * SECTION_SIZE + CONFIRMATIONS - 1, new byte[] {1}, 0, 0,
+                new byte[0], new byte[32], new byte[8]),
+                Collections.<Transaction>emptyList(), Collections.<BlockHeader>emptyList());
+        blockStore.saveBlock(next, td.add(BigInteger.ONE), true);
+        // the import flush builds the section on the index thread
+        index.updateAsync(blockStore);
+        long deadline = System.currentTimeMillis() + 10000;
+        while (index.getSectionCount() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        index.close();
+        assertEquals(2, index.getSectionCount());
+        matched = new LogFilter().withContractAddress(ADDRESS).matchBloomBits(index, 1);
+        assertEquals(bits(5007 - SECTION_SIZE, 6007 - SECTION_SIZE, 7007 - SECTION_SIZE, 8007 - SECTION_SIZE), matched);
+    }
+
+    @Test
+    public void testDeepReorgRebuildsSection() {
+        IndexedBlockStore blockStore = new IndexedBlockStore();
+        blockStore.init(new HashMapDB(), new HashMapDB());
+
+        Block forkParent = null;
+        Block best = null;
+        for (int i = 0; i < SECTION_SIZE + CONFIRMATIONS; i++) {
+            best = createBlock(best, i == 1007 ? ADDRESS : null);
+            blockStore.saveBlock(best, BigInteger.valueOf(i + 1), true);
+            if (i == 999) forkParent = best;
+        }
+
+        BloomBitsIndex index = new BloomBitsIndex(new HashMapDB());
+        index.update(blockStore);
+        assertEquals(1, index.getSectionCount());
+        assertEquals(bits(1007), new LogFilter().withContractAddress(ADDRESS).matchBloomBits(index, 0));
+
+        // the longer fork from the block #1000 is far behind the confirmations window
+        Block fork = forkParent;
+        for (int i = 1000; i < SECTION_SIZE + CONFIRMATIONS + 1; i++) {
+            fork = createBlock(fork, i == 2007 ? ADDRESS : null);
+            blockStore.saveBlock(fork, BigInteger.valueOf(i + 2), false);
+        }
+        blockStore.reBranch(fork);
+
+        index.update(blockStore);
+        assertEquals(1, index.getSectionCount());
+        assertEquals(bits(2007), new LogFilter().withContractAddress(ADDRESS).matchBloomBits(index, 0));
+    }
+
+    private static Block createBlock(Block parent, byte[] address) {
+        Bloom bloom = new Bloom();
+        if (address != null) bloom.or(Bloom.create(HashUtil.sha3(address)));
+        long number = parent == null ? 0 : parent.getNumber() + 1;
+        // the extra data makes the fork blocks differ from the main chain ones
+        BlockHeader header = new BlockHeader(parent == null ? new byte[32] : parent.getHash(), HashUtil.EMPTY_LIST_HASH,
+                new byte[20], bloom.getData(), new byte[] {1}, number, new byte[] {1}, 0, number,
+                HashUtil.randomHash(), new byte[32], new byte[8]);
+        return new Block(header, Collections.<Transaction>emptyList(), Collections.<BlockHeader>emptyList());
+    }
+
+    private static BitSet bits(int ... idx) {
+        BitSet ret = new BitSet();
+        for (int i : idx) ret.set(i);
+        return ret;
+    }
+}
@@ -0,0 +1,129 @@
+package org.ethereum.db;
+
+import org.ethereum.core.Block;
+import org.ethereum.datasource.HashMapDB;
+import org.ethereum.util.FileUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.ethereum.TestUtils.getRandomChain;
+import static org.ethereum.TestUtils.randomBytes;
+import static org.junit.Assert.*;
+
+public class CanonicalChainIndexTest {
+
+    private File dir;
+
+    @Before
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("canonical").toFile();
+    }
+
+    @After
+    public void cleanup() {
+        FileUtil.recursiveDelete(dir.getAbsolutePath());
+    }
+
+    @Test
+    public void testPutGetReopen() {
+        CanonicalChainIndex index = new CanonicalChainIndex(new File(dir, "canonical.idx"));
+        assertEquals(0, index.size());
+        assertNull(index.getHash(0));
+
+        byte[][] hashes = new byte[100][];
+        for (int i = 0; i < hashes.length; i++) {
+            hashes[i] = randomBytes(32);
+            index.put(i, hashes[i], BigInteger.valueOf(i).shiftLeft(100));
+        }
+        assertEquals(100, index.size());
+        assertArrayEquals(hashes[42], index.getHash(42));
+        assertEquals(BigInteger.valueOf(42).shiftLeft(100), index.getTotalDifficulty(42));
+        assertNull(index.getHash(100));
+        assertTrue(index.isDirty());
+
+        index.flush();
+        index.close();
+
+        index = new CanonicalChainIndex(new File(dir, "canonical.idx"));
+        assertFalse(index.isDirty());
+        assertEquals(100, index.size());
+        byte[] dest = new byte[32];
+        assertTrue(index.getHash(99, dest));
+        assertArrayEquals(hashes[99], dest);
+
+        // rebranch to the shorter chain
+        IndexedBlockStore.BlockInfo fork = new IndexedBlockStore.BlockInfo();
+        fork.setHash(randomBytes(32));
+        fork.setCummDifficulty(BigInteger.TEN.pow(40));
+        index.update(Collections.singletonMap(50L, fork), 51);
+        assertTrue(index.isDirty());
+        assertEquals(51, index.size());
+        assertArrayEquals(fork.getHash(), index.getHash(50));
+        assertEquals(fork.getCummDifficulty(), index.getTotalDifficulty(50));
+        assertNull(index.getHash(51));
+        index.close();
+    }
+
+    @Test
+    public void testRebuildDirty() {
+        HashMapDB indexDB = new HashMapDB();
+        HashMapDB blocksDB = new HashMapDB();
+        File file = new File(dir, "canonical.idx");
+
+        // index which was never flushed is rebuilt from the levels
+        IndexedBlockStore.BlockInfo info = new IndexedBlockStore.BlockInfo();
+        info.setHash(randomBytes(32));
+        info.setCummDifficulty(BigInteger.valueOf(1000));
+        info.setMainChain(true);
+        IndexedBlockStore store = new IndexedBlockStore();
+        store.init(indexDB, blocksDB);
+        store.index.set(0, new ArrayList<>(Collections.singletonList(info)));
+
+        CanonicalChainIndex index = new CanonicalChainIndex(file);
+        index.put(0, randomBytes(32), BigInteger.ONE);
+        index.put(1, randomBytes(32), BigInteger.ONE);
+
+        store = new IndexedBlockStore();
+        store.init(indexDB, blocksDB, index);
+        assertFalse(index.isDirty());
+        assertEquals(1, index.size());
+        assertArrayEquals(info.getHash(), store.getBlockHashByNumber(0));
+        assertEquals(BigInteger.valueOf(1000), store.getTotalDifficulty());
+        store.close();
+    }
+
+    @Test
+    public void testRebranchToUnsavedBlock() {
+        CanonicalChainIndex index = new CanonicalChainIndex(new File(dir, "canonical.idx"));
+        IndexedBlockStore store = new IndexedBlockStore();
+        store.init(new HashMapDB(), new HashMapDB(), index);
+
+        List<Block> chain = getRandomChain(new byte[32], 0, 10);
+        for (Block block : chain) {
+            store.saveBlock(block, BigInteger.valueOf(block.getNumber()), true);
+        }
+        List<Block> fork = getRandomChain(chain.get(4).getHash(), 5, 3);
+        store.saveBlock(fork.get(0), BigInteger.valueOf(100), false);
+        store.saveBlock(fork.get(1), BigInteger.valueOf(200), false);
+
+        // the fork block itself is saved after the rebranch
+        store.reBranch(fork.get(2));
+        assertEquals(7, index.size());
+        assertArrayEquals(fork.get(1).getHash(), index.getHash(6));
+        assertArrayEquals(fork.get(1).getHash(), store.getBestBlock().getHash());
+
+        store.saveBlock(fork.get(2), BigInteger.valueOf(300), true);
+        assertEquals(8, index.size());
+        assertArrayEquals(fork.get(2).getHash(), store.getBestBlock().getHash());
+        store.close();
+    }
+}
@@ -4,10 +4,12 @@ import org.ethereum.config.SystemProperties;
 import org.ethereum.config.blockchain.FrontierConfig;
 import org.ethereum.config.net.MainNetConfig;
 import org.ethereum.core.Block;
+import org.ethereum.core.BlockHeader;
 import org.ethereum.core.Genesis;
 import org.ethereum.datasource.HashMapDB;
 import org.ethereum.datasource.KeyValueDataSource;
 import org.ethereum.datasource.LevelDbDataSource;
+import org.ethereum.util.ByteUtil;
 import org.ethereum.util.FileUtil;
 import org.ethereum.util.blockchain.StandaloneBlockchain;
 import org.junit.*;
@@ -16,8 +18,13 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.spongycastle.util.encoders.Hex;
 
+import com.sun.management.ThreadMXBean;
+
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.lang.management.ManagementFactory;
 import java.math.BigInteger;
 import java.net.URISyntaxException;
 import java.net.URL;
@@ -28,8 +35,7 @@ import java.util.*;
 import static java.math.BigInteger.ZERO;
 import static org.ethereum.TestUtils.*;
 import static org.ethereum.util.ByteUtil.wrap;
-import static org.junit.Assert.assertEquals;
-import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.*;
 
 
 public class IndexedBlockStoreTest {
@@ -1048,9 +1054,173 @@ public class IndexedBlockStoreTest {
         Assert.assertTrue(sb4.isEqual(b4_));
     }
 
+    @Test
+    public void testHeadersWithoutBodies() {
+        final int[] bodyReads = new int[1];
+        HashMapDB blocksDB = new HashMapDB() {
+            @Override
+            public byte[] get(byte[] arg0) {
+                if (arg0[0] == IndexedBlockStore.BODY_PREFIX[0] && arg0.length == 33) bodyReads[0]++;
+                return super.get(arg0);
+            }
+        };
+        HashMapDB indexDB = new HashMapDB();
 
-// todo: test this
+        IndexedBlockStore indexedBlockStore = new IndexedBlockStore();
+        indexedBlockStore.init(indexDB, blocksDB);
+        BigInteger td = ZERO;
+        for (int i = 0; i < 100; i++) {
+            td = td.add(blocks.get(i).getCumulativeDifficulty());
+            indexedBlockStore.saveBlock(blocks.get(i), td, true);
+        }
 
-//    public byte[] getBlockHashByNumber(long blockNumber)
+        // fresh caches
+        indexedBlockStore = new IndexedBlockStore();
+        indexedBlockStore.init(indexDB, blocksDB);
+
+        Block best = blocks.get(99);
+        List<BlockHeader> headers = indexedBlockStore.getListHeadersEndWith(best.getHash(), 100);
+        assertEquals(100, headers.size());
+        assertArrayEquals(blocks.get(0).getHash(), headers.get(99).getHash());
+        assertEquals(td, indexedBlockStore.getTotalDifficultyForHash(best.getHash()));
+        assertTrue(indexedBlockStore.isBlockExist(best.getHash()));
+        assertEquals(0, bodyReads[0]);
+
+        Block block = indexedBlockStore.getBlockByHash(best.getHash());
+        assertArrayEquals(best.getEncoded(), block.getEncoded());
+        assertEquals(1, bodyReads[0]);
+
+        // whole block stored under the hash by the older versions
+        Block legacy = blocks.get(100);
+        blocksDB.put(legacy.getHash(), legacy.getEncoded());
+        assertArrayEquals(legacy.getHash(), indexedBlockStore.getHeaderByHash(legacy.getHash()).getHash());
+        assertArrayEquals(legacy.getEncoded(), indexedBlockStore.getBlockByHash(legacy.getHash()).getEncoded());
+    }
+
+    @Test
+    public void testBlockCache() throws InterruptedException {
+        HashMapDB indexDB = new HashMapDB();
+        HashMapDB blocksDB = new HashMapDB();
+        IndexedBlockStore indexedBlockStore = new IndexedBlockStore();
+        indexedBlockStore.init(indexDB, blocksDB);
+        BigInteger td = ZERO;
+        for (int i = 0; i < 20; i++) {
+            td = td.add(blocks.get(i).getCumulativeDifficulty());
+            indexedBlockStore.saveBlock(blocks.get(i), td, true);
+        }
+
+        indexedBlockStore = new IndexedBlockStore().withBlockCacheSize(4);
+        indexedBlockStore.init(indexDB, blocksDB);
+        final Block block = indexedBlockStore.getBlockByHash(blocks.get(10).getHash());
+        assertSame(block, indexedBlockStore.getBlockByHash(blocks.get(10).getHash()));
+        assertEquals(1, indexedBlockStore.getBlockCacheHits());
+        assertEquals(1, indexedBlockStore.getBlockCacheMisses());
+
+        for (int i = 0; i < 4; i++) {
+            indexedBlockStore.getBlockByHash(blocks.get(i).getHash());
+        }
+        // evicted by the size limit
+        assertNotSame(block, indexedBlockStore.getBlockByHash(blocks.get(10).getHash()));
+        assertEquals(6, indexedBlockStore.getBlockCacheMisses());
+
+        // the shared block is parsed once by the concurrent readers
+        final Block shared = new Block(blocks.get(10).getEncoded());
+        Thread[] threads = new Thread[4];
+        final int[] txCounts = new int[threads.length];
+        for (int i = 0; i < threads.length; i++) {
+            final int idx = i;
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    txCounts[idx] = shared.getTransactionsList().size();
+                }
+            });
+            threads[i].start();
+        }
+        for (int i = 0; i < threads.length; i++) {
+            threads[i].join();
+            assertEquals(blocks.get(10).getTransactionsList().size(), txCounts[i]);
+        }
+    }
+
+    @Test
+    public void testLegacyIndexMigration() throws IOException {
+        HashMapDB indexDB = new HashMapDB();
+        HashMapDB blocksDB = new HashMapDB();
+
+        // the index written with Java serialization
+        for (int i = 0; i < 10; i++) {
+            IndexedBlockStore.BlockInfo main = new IndexedBlockStore.BlockInfo();
+            main.setHash(randomBytes(32));
+            main.setCummDifficulty(BigInteger.valueOf(i * 1000));
+            main.setMainChain(true);
+            IndexedBlockStore.BlockInfo uncle = new IndexedBlockStore.BlockInfo();
+            uncle.setHash(randomBytes(32));
+            uncle.setCummDifficulty(BigInteger.valueOf(i * 1000 + 1));
+            indexDB.put(ByteUtil.intToBytes(i), serializeLegacy(new ArrayList<>(Arrays.asList(main, uncle))));
+        }
+        indexDB.put(Hex.decode("FFFFFFFFFFFFFFFF"), ByteUtil.intToBytes(10));
+        List<byte[]> mainHashes = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            mainHashes.add(IndexedBlockStore.BLOCK_INFO_SERIALIZER.deserialize(indexDB.get(ByteUtil.intToBytes(i))).get(0).getHash());
+        }
+
+        IndexedBlockStore indexedBlockStore = new IndexedBlockStore();
+        indexedBlockStore.init(indexDB, blocksDB);
+
+        for (int i = 0; i < 10; i++) {
+            byte[] bytes = indexDB.get(ByteUtil.intToBytes(i));
+            assertFalse(IndexedBlockStore.isLegacyFormat(bytes));
+            List<IndexedBlockStore.BlockInfo> infos = IndexedBlockStore.BLOCK_INFO_SERIALIZER.deserialize(bytes);
+            assertEquals(2, infos.size());
+            assertTrue(infos.get(0).isMainChain());
+            assertFalse(infos.get(1).isMainChain());
+            assertEquals(BigInteger.valueOf(i * 1000 + 1), infos.get(1).getCummDifficulty());
+            assertArrayEquals(mainHashes.get(i), indexedBlockStore.getBlockHashByNumber(i));
+        }
+    }
+
+    @Test
+    public void benchmarkLevelDecoding() throws IOException {
+        List<IndexedBlockStore.BlockInfo> level = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            IndexedBlockStore.BlockInfo info = new IndexedBlockStore.BlockInfo();
+            info.setHash(randomBytes(32));
+            info.setCummDifficulty(new BigInteger("17179869184000000000000"));
+            info.setMainChain(i == 0);
+            level.add(info);
+        }
+        byte[] legacy = serializeLegacy(level);
+        byte[] compact = IndexedBlockStore.BLOCK_INFO_SERIALIZER.serialize(level);
+        logger.info("Level size: legacy {} bytes, compact {} bytes", legacy.length, compact.length);
+        assertTrue(compact.length < legacy.length);
+
+        long[] legacyStats = measureDecoding(legacy);
+        long[] compactStats = measureDecoding(compact);
+        logger.info("Level decoding, legacy: {} ns, {} bytes allocated per lookup", legacyStats[0], legacyStats[1]);
+        logger.info("Level decoding, compact: {} ns, {} bytes allocated per lookup", compactStats[0], compactStats[1]);
+    }
+
+    private static long[] measureDecoding(byte[] bytes) {
+        int count = 100_000;
+        ThreadMXBean threadMXBean = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        for (int i = 0; i < count; i++) IndexedBlockStore.BLOCK_INFO_SERIALIZER.deserialize(bytes);
+
+        long allocated = threadMXBean.getThreadAllocatedBytes(threadId);
+        long s = System.nanoTime();
+        for (int i = 0; i < count; i++) IndexedBlockStore.BLOCK_INFO_SERIALIZER.deserialize(bytes);
+        long nanos = System.nanoTime() - s;
+        allocated = threadMXBean.getThreadAllocatedBytes(threadId) - allocated;
+        return new long[] {nanos / count, allocated / count};
+    }
+
+    private static byte[] serializeLegacy(List<IndexedBlockStore.BlockInfo> level) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(bos);
+        oos.writeObject(level);
+        oos.flush();
+        return bos.toByteArray();
+    }
 
 }
@@ -17,6 +17,7 @@ import org.junit.runners.MethodSorters;
 import org.spongycastle.util.encoders.Hex;
 
 import java.math.BigInteger;
+import java.util.Arrays;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
@@ -988,4 +989,39 @@ public class RepositoryTest {
             throw new RuntimeException("Test failed.");
         }
     }
+
+    @Test
+    public void testContractNodesIndex() {
+        RepositoryImpl repository = new RepositoryImpl(new HashMapDB(), new HashMapDB(), new HashMapDB());
+
+        byte[] cow = Hex.decode("CD2A3D9F938E13CD947EC05ABC7FE734DF8DD826");
+        byte[] code = Hex.decode("60016000556001600055");
+        DataWord value = new DataWord(HashUtil.sha3(cow));
+
+        Repository track = repository.startTracking();
+        track.saveCode(cow, code);
+        track.addStorageRow(cow, new DataWord(1), value);
+        track.commit();
+        repository.flush();
+
+        assertArrayEquals(code, repository.getNodeData(HashUtil.sha3(code)));
+
+        byte[] storageRoot = repository.getAccountState(cow).getStateRoot();
+        byte[] rootNode = repository.getNodeData(storageRoot);
+        assertNotNull(rootNode);
+        assertArrayEquals(storageRoot, HashUtil.sha3(rootNode));
+
+        // the nodes written later are indexed too
+        track = repository.startTracking();
+        track.addStorageRow(cow, new DataWord(2), value);
+        track.commit();
+        repository.flush();
+
+        byte[] newRoot = repository.getAccountState(cow).getStateRoot();
+        assertFalse(Arrays.equals(storageRoot, newRoot));
+        assertArrayEquals(newRoot, HashUtil.sha3(repository.getNodeData(newRoot)));
+        assertArrayEquals(rootNode, repository.getNodeData(storageRoot));
+
+        repository.close();
+    }
 }
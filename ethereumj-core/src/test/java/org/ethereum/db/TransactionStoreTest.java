@@ -6,6 +6,7 @@ import org.ethereum.config.net.MainNetConfig;
 import org.ethereum.core.Block;
 import org.ethereum.core.Transaction;
 import org.ethereum.core.TransactionInfo;
+import org.ethereum.core.TransactionReceipt;
 import org.ethereum.datasource.CachingDataSource;
 import org.ethereum.datasource.HashMapDB;
 import org.ethereum.util.blockchain.SolidityContract;
@@ -17,6 +18,8 @@ import org.junit.BeforeClass;
 import org.junit.Test;
 
 import java.math.BigInteger;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * Created by Anton Nashatyrev on 08.04.2016.
@@ -72,5 +75,34 @@ public class TransactionStoreTest {
         TransactionInfo highIndexCopy = new TransactionInfo(highIndex.getEncoded());
         Assert.assertArrayEquals(highIndex.getBlockHash(), highIndexCopy.getBlockHash());
         Assert.assertEquals(highIndex.getIndex(), highIndexCopy.getIndex());
+
+        List<TransactionReceipt> b3Receipts = txStore.getBlockReceipts(b3.getHash());
+        Assert.assertEquals(1, b3Receipts.size());
+        Assert.assertArrayEquals(new DataWord(666).getData(), b3Receipts.get(0).getExecutionResult());
+        Assert.assertNull(txStore.getBlockReceipts(new byte[32]));
+    }
+
+    @Test
+    public void testLegacyRecord() {
+        StandaloneBlockchain bc = new StandaloneBlockchain();
+        bc.sendEther(new byte[20], BigInteger.ONE);
+        Block b1 = bc.createBlock();
+        Transaction tx = b1.getTransactionsList().get(0);
+        TransactionReceipt receipt = bc.getBlockchain().getTransactionInfo(tx.getHash()).getReceipt();
+
+        // the full TransactionInfo record per tx hash written by the older versions
+        HashMapDB txDb = new HashMapDB();
+        txDb.put(tx.getHash(), new TransactionInfo(receipt, b1.getHash(), 0).getEncoded());
+        TransactionStore txStore = new TransactionStore(txDb);
+        TransactionInfo info = txStore.get(tx.getHash());
+        Assert.assertArrayEquals(b1.getHash(), info.getBlockHash());
+        Assert.assertArrayEquals(receipt.getEncoded(), info.getReceipt().getEncoded());
+        Assert.assertNull(txStore.getBlockReceipts(b1.getHash()));
+
+        txStore.putBlockReceipts(b1.getHash(), b1.getTransactionsList(), Collections.singletonList(receipt));
+        info = txStore.get(tx.getHash());
+        Assert.assertEquals(0, info.getIndex());
+        Assert.assertArrayEquals(receipt.getEncoded(), info.getReceipt().getEncoded());
+        Assert.assertNull(txStore.get(new byte[32]));
     }
 }
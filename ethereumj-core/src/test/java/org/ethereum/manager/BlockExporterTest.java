@@ -0,0 +1,126 @@
+package org.ethereum.manager;
+
+import org.ethereum.core.Block;
+import org.ethereum.db.BlockStore;
+import org.ethereum.db.BlockStoreDummy;
+import org.ethereum.util.FileUtil;
+import org.ethereum.util.blockchain.StandaloneBlockchain;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.*;
+
+public class BlockExporterTest {
+
+    private File dir;
+
+    @Before
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("export").toFile();
+    }
+
+    @After
+    public void cleanup() {
+        FileUtil.recursiveDelete(dir.getAbsolutePath());
+    }
+
+    @Test
+    public void testExportRange() throws IOException {
+        StandaloneBlockchain bc = new StandaloneBlockchain();
+        List<Block> chain = new ArrayList<>();
+        chain.add(bc.getBlockchain().getBestBlock());
+        for (int i = 0; i < 10; i++) {
+            chain.add(bc.createBlock());
+        }
+        BlockExporter exporter = new BlockExporter(bc.getBlockchain().getBlockStore());
+
+        for (boolean compress : new boolean[] {false, true}) {
+            File out = new File(dir, "out" + compress);
+            assertEquals(9, exporter.exportBlocks(out, 1, 9, 4, compress));
+
+            List<String> index = Files.readAllLines(new File(out, BlockExporter.INDEX_FILE).toPath(), StandardCharsets.UTF_8);
+            assertEquals(3, index.size());
+            String ext = compress ? ".rlp.gz" : ".rlp";
+            assertEquals("blocks-000000001" + ext + " 1 4", index.get(0));
+            assertEquals("blocks-000000005" + ext + " 5 8", index.get(1));
+            assertEquals("blocks-000000009" + ext + " 9 9", index.get(2));
+
+            int number = 1;
+            for (String line : index) {
+                for (byte[] rlp : readRecords(new File(out, line.split(" ")[0]), compress)) {
+                    assertArrayEquals(chain.get(number++).getEncoded(), rlp);
+                }
+            }
+            assertEquals(10, number);
+        }
+
+        // the range exceeding the chain stops at the best block
+        assertEquals(3, exporter.exportBlocks(new File(dir, "tail"), 8, 100, 100, false));
+    }
+
+    @Test
+    public void testReadFailure() {
+        StandaloneBlockchain bc = new StandaloneBlockchain();
+        for (int i = 0; i < 5; i++) {
+            bc.createBlock();
+        }
+        final BlockStore blockStore = bc.getBlockchain().getBlockStore();
+        BlockExporter exporter = new BlockExporter(new BlockStoreDummy() {
+            @Override
+            public byte[] getBlockHashByNumber(long blockNumber) {
+                if (blockNumber == 3) throw new RuntimeException("Read failed");
+                return blockStore.getBlockHashByNumber(blockNumber);
+            }
+
+            @Override
+            public Block getBlockByHash(byte[] hash) {
+                return blockStore.getBlockByHash(hash);
+            }
+        });
+
+        try {
+            exporter.exportBlocks(dir, 1, 5, 100, false);
+            fail();
+        } catch (RuntimeException e) {
+            assertEquals("Read failed", e.getMessage());
+        }
+
+        // the writer doesn't wait for the blocks anymore
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            assertNotEquals("BlockExporterWriter", thread.getName());
+        }
+    }
+
+    private static List<byte[]> readRecords(File file, boolean compressed) throws IOException {
+        List<byte[]> ret = new ArrayList<>();
+        InputStream in = new FileInputStream(file);
+        if (compressed) in = new GZIPInputStream(in);
+        try (DataInputStream data = new DataInputStream(in)) {
+            while (true) {
+                int length;
+                try {
+                    length = data.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                byte[] rlp = new byte[length];
+                data.readFully(rlp);
+                ret.add(rlp);
+            }
+        }
+        return ret;
+    }
+}
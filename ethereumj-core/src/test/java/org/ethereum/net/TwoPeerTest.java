@@ -112,7 +112,8 @@ public class TwoPeerTest {
                 "peer.privateKey", "3ec771c31cac8c0dba77a69e503765701d3c2bb62435888d4ffa38fed60c445c",
                 // nodeId: 3973cb86d7bef9c96e5d589601d788370f9e24670dcba0480c0b3b1b0647d13d0f0fffed115dd2d4b5ca1929287839dcd4e77bdc724302b44ae48622a8766ee6
                 "genesis", "genesis-light.json",
-                "database.dir", "testDB-1");
+                "database.dir", "testDB-1",
+                "sync.version", "62");
 
         SysPropConfig2.props.overrideParams(ConfigFactory.parseString(
                 "peer.listen.port = 30335 \n" +
@@ -0,0 +1,131 @@
+package org.ethereum.net.eth.handler;
+
+import com.typesafe.config.ConfigFactory;
+import org.ethereum.config.SystemProperties;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class PeerRequestExecutorTest {
+
+    private static final int MAX_PENDING = 3;
+    private static final int MAX_BYTES_PER_SECOND = 100_000;
+
+    private PeerRequestExecutor executor;
+
+    @Before
+    public void setup() {
+        executor = new PeerRequestExecutor();
+        executor.config = new SystemProperties(ConfigFactory.parseString(
+                "peer.serve.threads = 2\n" +
+                "peer.serve.maxPendingRequests = " + MAX_PENDING + "\n" +
+                "peer.serve.maxBytesPerSecond = " + MAX_BYTES_PER_SECOND));
+        executor.init();
+    }
+
+    @After
+    public void cleanup() {
+        executor.close();
+    }
+
+    @Test
+    public void testPendingRequestsBound() throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<Integer> served = Collections.synchronizedList(new ArrayList<Integer>());
+
+        PeerRequestExecutor.PeerQueue queue = executor.createQueue("peer");
+        assertTrue(queue.submit(new PeerRequestExecutor.Request() {
+            @Override
+            public int serve() {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                served.add(0);
+                return 0;
+            }
+        }));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        // the running request doesn't count
+        CountDownLatch lastServed = new CountDownLatch(1);
+        for (int i = 1; i <= MAX_PENDING; i++) {
+            assertTrue(queue.submit(servedRequest(served, i, 0, i == MAX_PENDING ? lastServed : null)));
+        }
+        assertFalse(queue.submit(servedRequest(served, MAX_PENDING + 1, 0, null)));
+
+        // the other peer isn't affected
+        CountDownLatch otherServed = new CountDownLatch(1);
+        assertTrue(executor.createQueue("other").submit(servedRequest(new ArrayList<Integer>(), 0, 0, otherServed)));
+        assertTrue(otherServed.await(5, TimeUnit.SECONDS));
+
+        // the accepted requests are served in order
+        release.countDown();
+        assertTrue(lastServed.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(0, 1, 2, 3), served);
+    }
+
+    @Test
+    public void testPacing() throws InterruptedException {
+        final List<Long> servedAt = Collections.synchronizedList(new ArrayList<Long>());
+        final CountDownLatch done = new CountDownLatch(3);
+
+        PeerRequestExecutor.PeerQueue queue = executor.createQueue("peer");
+        for (int i = 0; i < 3; i++) {
+            queue.submit(new PeerRequestExecutor.Request() {
+                @Override
+                public int serve() {
+                    servedAt.add(System.currentTimeMillis());
+                    done.countDown();
+                    // half a second at the configured rate
+                    return MAX_BYTES_PER_SECOND / 2;
+                }
+            });
+        }
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertTrue(servedAt.get(1) - servedAt.get(0) >= 450);
+        assertTrue(servedAt.get(2) - servedAt.get(1) >= 450);
+    }
+
+    @Test
+    public void testClosedQueue() {
+        PeerRequestExecutor.PeerQueue queue = executor.createQueue("peer");
+        queue.close();
+        assertFalse(queue.submit(servedRequest(new ArrayList<Integer>(), 0, 0, null)));
+    }
+
+    @Test
+    public void testResponseSizeCap() {
+        byte[] mb = new byte[1024 * 1024];
+
+        assertEquals(2, Eth62.limitResponseSize(Arrays.asList(mb, mb, mb)).size());
+        assertEquals(3, Eth62.limitResponseSize(Arrays.asList(mb, new byte[1024], new byte[1024])).size());
+        // a single oversized item still goes
+        assertEquals(1, Eth62.limitResponseSize(Collections.singletonList(new byte[3 * 1024 * 1024])).size());
+    }
+
+    private static PeerRequestExecutor.Request servedRequest(final List<Integer> served, final int id,
+                                                             final int size, final CountDownLatch latch) {
+        return new PeerRequestExecutor.Request() {
+            @Override
+            public int serve() {
+                served.add(id);
+                if (latch != null) latch.countDown();
+                return size;
+            }
+        };
+    }
+}
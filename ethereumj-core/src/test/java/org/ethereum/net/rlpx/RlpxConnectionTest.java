@@ -1,13 +1,20 @@
 package org.ethereum.net.rlpx;
 
 import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
 import org.ethereum.crypto.ECKey;
 import org.ethereum.net.client.Capability;
 import org.junit.Before;
+import org.junit.Ignore;
 import org.junit.Test;
 
 import java.io.*;
 import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
 
 import static org.junit.Assert.*;
 
@@ -63,11 +70,60 @@ public class RlpxConnectionTest {
         FrameCodec.Frame frame1 = rCodec.readFrames(new DataInputStream(to)).get(0);
         byte[] payload1 = new byte[frame1.size];
         assertEquals(frame.size, frame1.size);
-        frame1.payload.read(payload1);
+        frame1.getStream().read(payload1);
         assertArrayEquals(payload, payload1);
         assertEquals(frame.type, frame1.type);
     }
 
+    @Test
+    public void testPartialFrames() throws Exception {
+        byte[] payload = new byte[1000];
+        new SecureRandom().nextBytes(payload);
+        ByteBuf wire = Unpooled.buffer();
+        iCodec.writeFrame(new FrameCodec.Frame(1, payload), wire);
+        iCodec.writeFrame(new FrameCodec.Frame(2, payload), wire);
+
+        // the frames come in by small pieces, over a direct buffer
+        ByteBuf in = Unpooled.directBuffer();
+        List<FrameCodec.Frame> frames = new ArrayList<>();
+        while (wire.isReadable()) {
+            in.writeBytes(wire, Math.min(7, wire.readableBytes()));
+            List<FrameCodec.Frame> read = rCodec.readFrames(in);
+            if (read != null) frames.addAll(read);
+        }
+
+        assertEquals(2, frames.size());
+        for (int i = 0; i < frames.size(); i++) {
+            assertEquals(i + 1, frames.get(i).getType());
+            assertArrayEquals(payload, ByteStreams.toByteArray(frames.get(i).getStream()));
+            frames.get(i).release();
+        }
+        assertFalse(in.isReadable());
+        in.release();
+    }
+
+    @Ignore // benchmark, run manually
+    @Test
+    public void testLoopbackThroughput() throws Exception {
+        byte[] payload = new byte[32 * 1024];
+        new SecureRandom().nextBytes(payload);
+        int count = 2048;
+
+        ByteBuf wire = PooledByteBufAllocator.DEFAULT.heapBuffer();
+        long s = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            iCodec.writeFrame(new FrameCodec.Frame(i, payload), wire);
+            FrameCodec.Frame frame = rCodec.readFrames(wire).get(0);
+            assertEquals(payload.length, frame.getSize());
+            frame.release();
+            wire.discardReadBytes();
+        }
+        long time = System.nanoTime() - s;
+        wire.release();
+
+        System.out.printf("Loopback: %.1f MB/s%n", (double) count * payload.length * 1000 / time);
+    }
+
     @Test
     public void testMessageEncoding() throws IOException {
         byte[] wire = iMessage.encode();
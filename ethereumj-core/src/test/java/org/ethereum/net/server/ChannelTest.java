@@ -0,0 +1,46 @@
+package org.ethereum.net.server;
+
+import org.ethereum.core.Transaction;
+import org.ethereum.crypto.ECKey;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.ethereum.crypto.HashUtil.sha3;
+import static org.junit.Assert.*;
+
+public class ChannelTest {
+
+    private static Transaction createTx(int nonce) {
+        byte[] privKey = sha3("cat".getBytes());
+        Transaction tx = new Transaction(BigInteger.valueOf(nonce).toByteArray(), new byte[] {1},
+                new byte[] {0x52, 0x08}, ECKey.fromPrivate(privKey).getAddress(), new byte[] {1}, null);
+        tx.sign(privKey);
+        return tx;
+    }
+
+    @Test
+    public void testKnownTransactionsNotQueued() {
+        Channel channel = new Channel();
+        Transaction tx1 = createTx(1);
+        Transaction tx2 = createTx(2);
+        Transaction tx3 = createTx(3);
+
+        // the peer has sent us tx1
+        channel.addKnownTransactions(Collections.singletonList(tx1));
+        assertFalse(channel.queueTransactions(Collections.singletonList(tx1)));
+
+        // the first unknown transaction starts a batch, the next ones join it
+        List<Transaction> txs = Arrays.asList(tx1, tx2);
+        assertTrue(channel.queueTransactions(txs));
+        assertFalse(channel.queueTransactions(Collections.singletonList(tx3)));
+
+        // the sent transactions stay known
+        channel.sendPendingTransactions();
+        assertFalse(channel.queueTransactions(Arrays.asList(tx1, tx2, tx3)));
+        assertTrue(channel.queueTransactions(Collections.singletonList(createTx(4))));
+    }
+}
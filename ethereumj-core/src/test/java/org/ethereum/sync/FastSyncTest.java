@@ -0,0 +1,168 @@
+package org.ethereum.sync;
+
+import org.ethereum.config.NoAutoscan;
+import org.ethereum.config.SystemProperties;
+import org.ethereum.config.blockchain.FrontierConfig;
+import org.ethereum.config.net.MainNetConfig;
+import org.ethereum.core.Block;
+import org.ethereum.core.Blockchain;
+import org.ethereum.core.TransactionReceipt;
+import org.ethereum.db.RepositoryImpl;
+import org.ethereum.facade.Ethereum;
+import org.ethereum.facade.EthereumFactory;
+import org.ethereum.listener.EthereumListenerAdapter;
+import org.ethereum.net.rlpx.Node;
+import org.junit.*;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.ethereum.util.FileUtil.recursiveDelete;
+import static org.junit.Assert.*;
+import static org.spongycastle.util.encoders.Hex.decode;
+
+/**
+ * Peer B fast syncs the chain from peer A over the loopback,
+ * the pivot is the 5th block of 10
+ */
+@Ignore("Long network tests")
+public class FastSyncTest {
+
+    private static Node nodeA;
+    private static List<Block> mainB1B10;
+    private static Block b10;
+
+    private Ethereum ethereumA;
+    private Ethereum ethereumB;
+    private String testDbA;
+    private String testDbB;
+
+    @BeforeClass
+    public static void setup() throws IOException, URISyntaxException {
+
+        SystemProperties.CONFIG.setBlockchainConfig(new FrontierConfig(new FrontierConfig.FrontierConstants() {
+            @Override
+            public BigInteger getMINIMUM_DIFFICULTY() {
+                return BigInteger.ONE;
+            }
+        }));
+
+        nodeA = new Node("enode://3973cb86d7bef9c96e5d589601d788370f9e24670dcba0480c0b3b1b0647d13d0f0fffed115dd2d4b5ca1929287839dcd4e77bdc724302b44ae48622a8766ee6@localhost:30334");
+
+        SysPropConfigA.props.overrideParams(
+                "peer.listen.port", "30334",
+                "peer.privateKey", "3ec771c31cac8c0dba77a69e503765701d3c2bb62435888d4ffa38fed60c445c",
+                // nodeId: 3973cb86d7bef9c96e5d589601d788370f9e24670dcba0480c0b3b1b0647d13d0f0fffed115dd2d4b5ca1929287839dcd4e77bdc724302b44ae48622a8766ee6
+                "genesis", "genesis-light.json"
+        );
+
+        SysPropConfigB.props.overrideParams(
+                "peer.listen.port", "30335",
+                "peer.privateKey", "6ef8da380c27cea8fdf7448340ea99e8e2268fc2950d79ed47cbf6f85dc977ec",
+                "genesis", "genesis-light.json",
+                "sync.enabled", "true",
+                "sync.fast.enabled", "true",
+                "sync.fast.pivotBlockDistance", "5"
+        );
+
+        URL url = ClassLoader.getSystemResource("sync/main-b1-b10.dmp");
+        List<String> strData = Files.readAllLines(new File(url.toURI()).toPath(), StandardCharsets.UTF_8);
+        mainB1B10 = new ArrayList<>(strData.size());
+        for (String rlp : strData) {
+            mainB1B10.add(new Block(decode(rlp)));
+        }
+        b10 = mainB1B10.get(mainB1B10.size() - 1);
+    }
+
+    @AfterClass
+    public static void cleanup() {
+        SystemProperties.CONFIG.setBlockchainConfig(MainNetConfig.INSTANCE);
+    }
+
+    @Before
+    public void setupTest() {
+        testDbA = "test_db_" + new BigInteger(32, new Random());
+        testDbB = "test_db_" + new BigInteger(32, new Random());
+
+        SysPropConfigA.props.setDataBaseDir(testDbA);
+        SysPropConfigB.props.setDataBaseDir(testDbB);
+    }
+
+    @After
+    public void cleanupTest() {
+        if (ethereumA != null) ethereumA.close();
+        if (ethereumB != null) ethereumB.close();
+        recursiveDelete(testDbA);
+        recursiveDelete(testDbB);
+    }
+
+    @Test
+    public void testFastSync() throws InterruptedException {
+
+        ethereumA = EthereumFactory.createEthereum(SysPropConfigA.props, SysPropConfigA.class);
+
+        Blockchain blockchainA = (Blockchain) ethereumA.getBlockchain();
+        for (Block b : mainB1B10) {
+            blockchainA.tryToConnect(b);
+        }
+        ((RepositoryImpl) ethereumA.getRepository()).flush();
+
+        // A == b10, B is empty
+
+        ethereumB = EthereumFactory.createEthereum(SysPropConfigB.props, SysPropConfigB.class);
+
+        final CountDownLatch semaphore = new CountDownLatch(1);
+        ethereumB.addListener(new EthereumListenerAdapter() {
+            @Override
+            public void onBlock(Block block, List<TransactionReceipt> receipts) {
+                if (block.isEqual(b10)) {
+                    semaphore.countDown();
+                }
+            }
+        });
+
+        ethereumB.connect(nodeA);
+
+        semaphore.await(60, SECONDS);
+        if (semaphore.getCount() > 0) {
+            fail("PeerB bestBlock is incorrect");
+        }
+
+        // the blocks after the pivot are executed on top of the fetched state
+        assertArrayEquals(b10.getStateRoot(), ((RepositoryImpl) ethereumB.getRepository()).getRoot());
+    }
+
+    @Configuration
+    @NoAutoscan
+    public static class SysPropConfigA {
+        static SystemProperties props = new SystemProperties();
+
+        @Bean
+        public SystemProperties systemProperties() {
+            return props;
+        }
+    }
+
+    @Configuration
+    @NoAutoscan
+    public static class SysPropConfigB {
+        static SystemProperties props = new SystemProperties();
+
+        @Bean
+        public SystemProperties systemProperties() {
+            return props;
+        }
+    }
+}
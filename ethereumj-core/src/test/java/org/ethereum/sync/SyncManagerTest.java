@@ -0,0 +1,189 @@
+package org.ethereum.sync;
+
+import org.ethereum.TestUtils;
+import org.ethereum.core.Block;
+import org.ethereum.core.BlockHeader;
+import org.ethereum.core.BlockHeaderWrapper;
+import org.ethereum.core.BlockWrapper;
+import org.ethereum.core.BlockchainImpl;
+import org.ethereum.util.blockchain.StandaloneBlockchain;
+import org.ethereum.validator.BlockHeaderRule;
+import org.ethereum.validator.BlockHeaderValidator;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.beans.factory.ObjectFactory;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.*;
+
+public class SyncManagerTest {
+
+    private final byte[] peer = new byte[64];
+    private final List<Block> chain = TestUtils.getRandomChain(new byte[32], 1, 200);
+    private final List<Long> added = Collections.synchronizedList(new ArrayList<Long>());
+    private volatile long invalidNumber = -1;
+    private volatile CountDownLatch validationGate = new CountDownLatch(0);
+
+    private SyncManager syncManager;
+
+    @Before
+    public void setup() {
+        syncManager = new SyncManager();
+        syncManager.pool = new SyncPool();
+        syncManager.syncQueue = new SyncQueueIfc() {
+            @Override
+            public void addHeaders(Collection<BlockHeaderWrapper> headers) {
+                for (BlockHeaderWrapper header : headers) {
+                    added.add(header.getNumber());
+                }
+            }
+
+            @Override
+            public HeadersRequest requestHeaders() {
+                return null;
+            }
+
+            @Override
+            public BlocksRequest requestBlocks(int maxSize) {
+                return null;
+            }
+
+            @Override
+            public List<Block> addBlocks(Collection<Block> blocks) {
+                return null;
+            }
+
+            @Override
+            public int getHeadersCount() {
+                return added.size();
+            }
+        };
+        syncManager.headerValidatorFactory = new ObjectFactory<BlockHeaderValidator>() {
+            @Override
+            public BlockHeaderValidator getObject() {
+                return new BlockHeaderValidator(Collections.<BlockHeaderRule>emptyList()) {
+                    @Override
+                    public boolean validate(BlockHeader header) {
+                        try {
+                            validationGate.await();
+                        } catch (InterruptedException e) {
+                            throw new RuntimeException(e);
+                        }
+                        return header.getNumber() != invalidNumber;
+                    }
+                };
+            }
+        };
+    }
+
+    @Test
+    public void testInvalidBatchReleasesHeaderLoop() throws InterruptedException {
+        invalidNumber = 50;
+        CountDownLatch latch = new CountDownLatch(1);
+        syncManager.receivedHeadersLatch = latch;
+
+        syncManager.validateAndAddHeaders(headers(0, 100), peer);
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertTrue(added.isEmpty());
+    }
+
+    @Test
+    public void testBatchesAddedInOrder() throws InterruptedException {
+        // the batches are validated in parallel, the larger first one mustn't be overtaken
+        syncManager.validateAndAddHeaders(headers(0, 192), peer);
+        syncManager.validateAndAddHeaders(headers(192, 200), peer);
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (added.size() < 200 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(200, added.size());
+        for (int i = 0; i < added.size(); i++) {
+            assertEquals(chain.get(i).getNumber(), (long) added.get(i));
+        }
+    }
+
+    @Test
+    public void testOverloadRejectsBatchWithoutBlocking() throws InterruptedException {
+        validationGate = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(16);
+        syncManager.receivedHeadersLatch = done;
+        for (int i = 0; i < 16; i++) {
+            assertTrue(syncManager.validateAndAddHeaders(headers(i, i + 1), peer));
+        }
+        assertFalse(syncManager.validateAndAddHeaders(headers(16, 17), peer));
+
+        validationGate.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(16, added.size());
+        assertTrue(syncManager.validateAndAddHeaders(headers(16, 17), peer));
+    }
+
+    @Test
+    public void testPipelineImportMatchesSerial() throws InterruptedException {
+        StandaloneBlockchain source = new StandaloneBlockchain();
+        List<Block> blocks = new ArrayList<>();
+        Block forkParent = null;
+        for (int i = 0; i < 4; i++) {
+            source.sendEther(new byte[20], BigInteger.valueOf(100 + i));
+            blocks.add(source.createBlock());
+            if (i == 1) forkParent = source.getBlockchain().getBestBlock();
+        }
+        // the longer fork makes the chain rebranch
+        Block parent = forkParent;
+        for (int i = 0; i < 4; i++) {
+            source.sendEther(new byte[20], BigInteger.valueOf(200 + i));
+            parent = source.createForkBlock(parent);
+            blocks.add(parent);
+        }
+        // the uncles don't match the header, the block is rejected either way
+        Block best = blocks.get(blocks.size() - 1);
+        blocks.add(blocks.size() - 1, new Block(best.getHeader(), best.getTransactionsList(),
+                singletonList(blocks.get(0).getHeader())));
+
+        StandaloneBlockchain serial = new StandaloneBlockchain();
+        for (Block block : blocks) {
+            serial.getBlockchain().tryToConnect(new Block(block.getEncoded()));
+        }
+
+        StandaloneBlockchain pipelined = new StandaloneBlockchain();
+        List<BlockWrapper> wrappers = new ArrayList<>();
+        for (Block block : blocks) {
+            wrappers.add(new BlockWrapper(new Block(block.getEncoded()), peer));
+        }
+        syncManager.exec1.pushAll(wrappers);
+        for (int i = 0; i < blocks.size() - 1; i++) {
+            BlockWrapper wrapper = syncManager.blockQueue.poll(10, TimeUnit.SECONDS);
+            assertNotNull(wrapper);
+            assertTrue(wrapper.getBlock().isBodyVerified());
+            pipelined.getBlockchain().tryToConnect(wrapper.getBlock());
+        }
+        // the ordered stages have passed the bad block before the last one
+        assertTrue(syncManager.blockQueue.isEmpty());
+
+        BlockchainImpl expected = serial.getBlockchain();
+        BlockchainImpl actual = pipelined.getBlockchain();
+        assertArrayEquals(best.getHash(), expected.getBestBlock().getHash());
+        assertArrayEquals(expected.getBestBlock().getHash(), actual.getBestBlock().getHash());
+        assertEquals(expected.getTotalDifficulty(), actual.getTotalDifficulty());
+        assertArrayEquals(expected.getRepository().getRoot(), actual.getRepository().getRoot());
+    }
+
+    private List<BlockHeader> headers(int from, int to) {
+        List<BlockHeader> ret = new ArrayList<>();
+        for (Block block : chain.subList(from, to)) {
+            ret.add(block.getHeader());
+        }
+        return ret;
+    }
+}
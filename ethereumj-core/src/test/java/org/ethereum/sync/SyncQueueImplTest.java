@@ -9,6 +9,8 @@ import org.junit.Test;
 
 import java.util.*;
 
+import static org.junit.Assert.*;
+
 /**
  * Created by Anton Nashatyrev on 30.05.2016.
  */
@@ -41,6 +43,58 @@ public class SyncQueueImplTest {
 
     }
 
+    @Test
+    public void testExportOrder() {
+        List<Block> chain = TestUtils.getRandomChain(new byte[32], 0, 1024);
+        // the competing branch is shorter so it is dropped once it falls into the dark zone
+        List<Block> fork = TestUtils.getRandomChain(chain.get(99).getHash(), 100, 50);
+
+        final List<Block> exported = new ArrayList<>();
+        SyncQueueImpl syncQueue = new SyncQueueImpl(chain.subList(0, 32)) {
+            @Override
+            protected void exportNewBlock(Block block) {
+                exported.add(block);
+            }
+        };
+        Peer peer = new Peer(chain);
+        Peer forkPeer = new Peer(fork);
+
+        Random rnd = new Random(1);
+        Set<ByteArrayWrapper> exportedHashes = new HashSet<>();
+        for (Block block : chain.subList(0, 32)) {
+            exportedHashes.add(new ByteArrayWrapper(block.getHash()));
+        }
+        for (int i = 0; i < 1000 && exportedHashes.size() < chain.size(); i++) {
+            SyncQueueIfc.HeadersRequest headersRequest = syncQueue.requestHeaders();
+            syncQueue.addHeaders(createHeadersFromHeaders(peer.getHeaders(headersRequest.getStart(),
+                    headersRequest.getCount(), headersRequest.isReverse()), peer0));
+            if (i == 0) {
+                syncQueue.addHeaders(createHeadersFromBlocks(fork, peer0));
+            }
+
+            List<Block> blocks = peer.getBlocks(syncQueue.requestBlocks(1 + rnd.nextInt(128)).getBlockHeaders());
+            blocks.addAll(forkPeer.getBlocks(syncQueue.requestBlocks(1000).getBlockHeaders()));
+            Collections.shuffle(blocks, rnd);
+            for (Block block : syncQueue.addBlocks(blocks)) {
+                assertTrue("Parent is not exported for " + block, exportedHashes.contains(new ByteArrayWrapper(block.getParentHash())));
+                exportedHashes.add(new ByteArrayWrapper(block.getHash()));
+            }
+        }
+
+        for (Block block : chain) {
+            assertTrue(exportedHashes.contains(new ByteArrayWrapper(block.getHash())));
+        }
+        // the main chain blocks are exported in order
+        long lastNumber = 31;
+        for (Block block : exported) {
+            if (peer.blocks.containsKey(new ByteArrayWrapper(block.getHash()))) {
+                assertEquals(++lastNumber, block.getNumber());
+            }
+        }
+        assertEquals(1023, lastNumber);
+        assertTrue(syncQueue.getHeadersCount() <= 2 * SyncQueueImpl.MAX_CHAIN_LEN);
+    }
+
     public void test2Impl(List<Block> mainChain, List<Block> initChain, Peer[] peers) {
         List<Block> randomChain = TestUtils.getRandomChain(new byte[32], 0, 1024);
         final Block[] maxExportedBlock = new Block[] {randomChain.get(31)};
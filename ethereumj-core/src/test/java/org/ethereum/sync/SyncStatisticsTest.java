@@ -0,0 +1,39 @@
+package org.ethereum.sync;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SyncStatisticsTest {
+
+    @Test
+    public void testRequestSizing() {
+        SyncStatistics stats = new SyncStatistics();
+
+        // nothing measured yet
+        assertEquals(100, stats.getBlocksRequestSize(100, 16, 128));
+        assertEquals(192, stats.getHeadersRequestSize(192, 32, 192));
+        assertFalse(stats.isRequestTimedOut());
+
+        // the response which isn't preceded by the request doesn't count
+        stats.addBlocks(10);
+        assertEquals(0, stats.getBlocksPerSecond(), 0);
+
+        stats.onBlocksRequested();
+        assertFalse(stats.isRequestTimedOut());
+        stats.addBlocks(100);
+        assertTrue(stats.getBlocksPerSecond() > 0);
+        assertEquals(128, stats.getBlocksRequestSize(100, 16, 128));
+        // headers aren't measured yet
+        assertEquals(192, stats.getHeadersRequestSize(192, 32, 192));
+
+        // the fast peer gets the shortest timeout
+        assertEquals(3000, stats.getRequestTimeout());
+
+        double rate = stats.getBlocksPerSecond();
+        stats.onRequestTimeout();
+        assertEquals(rate / 2, stats.getBlocksPerSecond(), 1e-9);
+        assertEquals(1, stats.getTimeouts());
+        assertTrue(stats.getRequestTimeout() > 3000);
+    }
+}
@@ -0,0 +1,96 @@
+package org.ethereum.trie;
+
+import org.ethereum.datasource.HashMapDB;
+import org.ethereum.db.ByteArrayWrapper;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.ethereum.crypto.HashUtil.sha3;
+import static org.ethereum.util.ByteUtil.wrap;
+import static org.junit.Assert.*;
+
+public class TrieNodeParserTest {
+
+    @Test
+    public void testWalkSecureTrie() {
+        HashMapDB db = new HashMapDB();
+        SecureTrie trie = new SecureTrie(db);
+
+        Map<ByteArrayWrapper, byte[]> expected = new HashMap<>();
+        Random rnd = new Random(42);
+        for (int i = 0; i < 1000; i++) {
+            byte[] key = new byte[20];
+            rnd.nextBytes(key);
+            // the short values make the short nodes which are embedded into the parents
+            byte[] value = new byte[1 + rnd.nextInt(i % 2 == 0 ? 4 : 64)];
+            rnd.nextBytes(value);
+            trie.update(key, value);
+            expected.put(wrap(sha3(key)), value);
+        }
+        trie.sync();
+
+        final Map<ByteArrayWrapper, byte[]> leaves = new HashMap<>();
+        final Deque<byte[][]> nodes = new ArrayDeque<>();
+        nodes.push(new byte[][] {trie.getRootHash(), new byte[0]});
+        while (!nodes.isEmpty()) {
+            byte[][] node = nodes.pop();
+            byte[] rlp = db.get(node[0]);
+            assertNotNull(rlp);
+            assertArrayEquals(node[0], sha3(rlp));
+
+            TrieNodeParser.parse(rlp, node[1], new TrieNodeParser.Handler() {
+                @Override
+                public void onChild(byte[] hash, byte[] path) {
+                    nodes.push(new byte[][] {hash, path});
+                }
+
+                @Override
+                public void onLeaf(byte[] path, byte[] value) {
+                    assertEquals(64, path.length);
+                    leaves.put(wrap(TrieNodeParser.toKey(path)), value);
+                }
+            });
+        }
+
+        assertEquals(expected.size(), leaves.size());
+        for (Map.Entry<ByteArrayWrapper, byte[]> entry : expected.entrySet()) {
+            assertArrayEquals(entry.getValue(), leaves.get(entry.getKey()));
+        }
+    }
+
+    @Test
+    public void testBranchValue() {
+        HashMapDB db = new HashMapDB();
+        TrieImpl trie = new TrieImpl(db);
+        trie.update("do", "verb");
+        trie.update("dog", "puppy");
+        trie.update("doge", "coin");
+        trie.update("horse", "stallion");
+        trie.sync();
+
+        final Map<String, String> leaves = new HashMap<>();
+        final Deque<byte[][]> nodes = new ArrayDeque<>();
+        nodes.push(new byte[][] {trie.getRootHash(), new byte[0]});
+        while (!nodes.isEmpty()) {
+            byte[][] node = nodes.pop();
+            TrieNodeParser.parse(db.get(node[0]), node[1], new TrieNodeParser.Handler() {
+                @Override
+                public void onChild(byte[] hash, byte[] path) {
+                    nodes.push(new byte[][] {hash, path});
+                }
+
+                @Override
+                public void onLeaf(byte[] path, byte[] value) {
+                    leaves.put(new String(TrieNodeParser.toKey(path)), new String(value));
+                }
+            });
+        }
+
+        assertEquals(4, leaves.size());
+        assertEquals("verb", leaves.get("do"));
+        assertEquals("puppy", leaves.get("dog"));
+        assertEquals("coin", leaves.get("doge"));
+        assertEquals("stallion", leaves.get("horse"));
+    }
+}